@@ -16,6 +16,7 @@ import com.facebook.common.executors.UiThreadImmediateExecutorService;
 import com.facebook.common.internal.DoNotStrip;
 import com.facebook.common.internal.Supplier;
 import com.facebook.common.internal.Suppliers;
+import com.facebook.common.memory.MemoryTrimmableRegistry;
 import com.facebook.common.time.RealtimeSinceBootClock;
 import com.facebook.fresco.animation.drawable.AnimatedDrawable2;
 import com.facebook.imagepipeline.animated.base.AnimatedDrawableBackend;
@@ -59,6 +60,8 @@ public class AnimatedFactoryV2Impl implements AnimatedFactory {
   private int mAnimationFpsLimit;
   private final boolean mUseBufferLoaderStrategy;
   private int mBufferLengthMilliseconds;
+  private final int mSharedFrameCacheMaxSizeBytes;
+  private final MemoryTrimmableRegistry mMemoryTrimmableRegistry;
 
   @DoNotStrip
   public AnimatedFactoryV2Impl(
@@ -69,6 +72,8 @@ public class AnimatedFactoryV2Impl implements AnimatedFactory {
       boolean useBufferLoaderStrategy,
       int animationFpsLimit,
       int bufferLengthMilliseconds,
+      int sharedFrameCacheMaxSizeBytes,
+      MemoryTrimmableRegistry memoryTrimmableRegistry,
       @Nullable SerialExecutorService serialExecutorServiceForFramePreparing) {
     mPlatformBitmapFactory = platformBitmapFactory;
     mExecutorSupplier = executorSupplier;
@@ -78,6 +83,8 @@ public class AnimatedFactoryV2Impl implements AnimatedFactory {
     mDownscaleFrameToDrawableDimensions = downscaleFrameToDrawableDimensions;
     mSerialExecutorService = serialExecutorServiceForFramePreparing;
     mBufferLengthMilliseconds = bufferLengthMilliseconds;
+    mSharedFrameCacheMaxSizeBytes = sharedFrameCacheMaxSizeBytes;
+    mMemoryTrimmableRegistry = memoryTrimmableRegistry;
   }
 
   @Nullable
@@ -136,7 +143,9 @@ public class AnimatedFactoryV2Impl implements AnimatedFactory {
         Suppliers.of(mUseBufferLoaderStrategy),
         Suppliers.of(mDownscaleFrameToDrawableDimensions),
         Suppliers.of(mAnimationFpsLimit),
-        Suppliers.of(mBufferLengthMilliseconds));
+        Suppliers.of(mBufferLengthMilliseconds),
+        Suppliers.of(mSharedFrameCacheMaxSizeBytes),
+        mMemoryTrimmableRegistry);
   }
 
   private AnimatedDrawableUtil getAnimatedDrawableUtil() {
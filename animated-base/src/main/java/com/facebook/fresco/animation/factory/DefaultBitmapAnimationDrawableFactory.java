@@ -15,6 +15,7 @@ import com.facebook.cache.common.CacheKey;
 import com.facebook.common.internal.Preconditions;
 import com.facebook.common.internal.Supplier;
 import com.facebook.common.internal.Suppliers;
+import com.facebook.common.memory.MemoryTrimmableRegistry;
 import com.facebook.common.time.MonotonicClock;
 import com.facebook.fresco.animation.backend.AnimationBackend;
 import com.facebook.fresco.animation.backend.AnimationBackendDelegateWithInactivityCheck;
@@ -32,6 +33,7 @@ import com.facebook.fresco.animation.bitmap.preparation.DefaultBitmapFramePrepar
 import com.facebook.fresco.animation.bitmap.preparation.FixedNumberBitmapFramePreparationStrategy;
 import com.facebook.fresco.animation.bitmap.preparation.FrameLoaderStrategy;
 import com.facebook.fresco.animation.bitmap.preparation.ondemandanimation.FrameLoaderFactory;
+import com.facebook.fresco.animation.bitmap.preparation.ondemandanimation.SharedAnimationFrameCache;
 import com.facebook.fresco.animation.bitmap.wrapper.AnimatedDrawableBackendAnimationInformation;
 import com.facebook.fresco.animation.bitmap.wrapper.AnimatedDrawableBackendFrameRenderer;
 import com.facebook.fresco.animation.drawable.AnimatedDrawable2;
@@ -79,6 +81,9 @@ public class DefaultBitmapAnimationDrawableFactory
   private final Supplier<Boolean> mDownscaleFrameToDrawableDimensions;
   private final Supplier<Integer> mAnimationFpsLimit;
   private final Supplier<Integer> mBufferLengthMilliseconds;
+  private final Supplier<Integer> mSharedFrameCacheMaxSizeBytes;
+  private final MemoryTrimmableRegistry mMemoryTrimmableRegistry;
+  private @Nullable SharedAnimationFrameCache mSharedFrameCache;
 
   // Change the value to true to use KAnimatedDrawable2.kt
   private final Supplier<Boolean> useRendererAnimatedDrawable = Suppliers.BOOLEAN_FALSE;
@@ -96,7 +101,9 @@ public class DefaultBitmapAnimationDrawableFactory
       Supplier<Boolean> useNewBitmapRender,
       Supplier<Boolean> downscaleFrameToDrawableDimensions,
       Supplier<Integer> animationFpsLimit,
-      Supplier<Integer> bufferLengthMilliseconds) {
+      Supplier<Integer> bufferLengthMilliseconds,
+      Supplier<Integer> sharedFrameCacheMaxSizeBytes,
+      MemoryTrimmableRegistry memoryTrimmableRegistry) {
     mAnimatedDrawableBackendProvider = animatedDrawableBackendProvider;
     mScheduledExecutorServiceForUiThread = scheduledExecutorServiceForUiThread;
     mExecutorServiceForFramePreparing = executorServiceForFramePreparing;
@@ -110,6 +117,8 @@ public class DefaultBitmapAnimationDrawableFactory
     mAnimationFpsLimit = animationFpsLimit;
     mDownscaleFrameToDrawableDimensions = downscaleFrameToDrawableDimensions;
     mBufferLengthMilliseconds = bufferLengthMilliseconds;
+    mSharedFrameCacheMaxSizeBytes = sharedFrameCacheMaxSizeBytes;
+    mMemoryTrimmableRegistry = memoryTrimmableRegistry;
   }
 
   @Override
@@ -189,6 +198,7 @@ public class DefaultBitmapAnimationDrawableFactory
     }
 
     if (mUseNewBitmapRender.get()) {
+      SharedAnimationFrameCache sharedFrameCache = getSharedFrameCache();
       bitmapFramePreparationStrategy =
           new FrameLoaderStrategy(
               animatedImageResult.getSource(),
@@ -197,8 +207,14 @@ public class DefaultBitmapAnimationDrawableFactory
               new FrameLoaderFactory(
                   mPlatformBitmapFactory,
                   mAnimationFpsLimit.get(),
-                  mBufferLengthMilliseconds.get()),
-              mDownscaleFrameToDrawableDimensions.get());
+                  mBufferLengthMilliseconds.get(),
+                  sharedFrameCache),
+              mDownscaleFrameToDrawableDimensions.get(),
+              // the drawables of a cached image share its result, the same uri decoded with other
+              // options does not
+              sharedFrameCache != null
+                  ? new AnimationFrameCacheKey(animatedImageResult.hashCode(), true)
+                  : null);
     }
 
     BitmapAnimationBackend bitmapAnimationBackend =
@@ -216,6 +232,23 @@ public class DefaultBitmapAnimationDrawableFactory
         bitmapAnimationBackend, mMonotonicClock, mScheduledExecutorServiceForUiThread);
   }
 
+  /**
+   * Returns the cache of the frames shared by the animations created by this factory, or null if
+   * each animation keeps its own frames.
+   */
+  @Nullable
+  private synchronized SharedAnimationFrameCache getSharedFrameCache() {
+    int maxSizeBytes = mSharedFrameCacheMaxSizeBytes.get();
+    if (maxSizeBytes <= 0) {
+      return null;
+    }
+    if (mSharedFrameCache == null) {
+      mSharedFrameCache = new SharedAnimationFrameCache(maxSizeBytes);
+      mMemoryTrimmableRegistry.registerMemoryTrimmable(mSharedFrameCache);
+    }
+    return mSharedFrameCache;
+  }
+
   private BitmapFramePreparer createBitmapFramePreparer(
       BitmapFrameRenderer bitmapFrameRenderer, @Nullable Bitmap.Config animatedBitmapConig) {
     return new DefaultBitmapFramePreparer(
@@ -9,6 +9,7 @@ package com.facebook.fresco.animation.bitmap.preparation
 
 import android.graphics.Bitmap
 import androidx.annotation.UiThread
+import com.facebook.cache.common.CacheKey
 import com.facebook.common.references.CloseableReference
 import com.facebook.fresco.animation.backend.AnimationInformation
 import com.facebook.fresco.animation.bitmap.BitmapFrameRenderer
@@ -16,15 +17,22 @@ import com.facebook.fresco.animation.bitmap.preparation.ondemandanimation.Animat
 import com.facebook.fresco.animation.bitmap.preparation.ondemandanimation.DynamicRenderingFps
 import com.facebook.fresco.animation.bitmap.preparation.ondemandanimation.FrameLoader
 import com.facebook.fresco.animation.bitmap.preparation.ondemandanimation.FrameLoaderFactory
+import com.facebook.fresco.animation.bitmap.preparation.ondemandanimation.SharedAnimationFrameCache
 import java.util.concurrent.TimeUnit
 
-/** Use a [FrameLoader] strategy to render the animaion */
+/**
+ * Use a [FrameLoader] strategy to render the animaion
+ *
+ * @param sharedFramesKey the cache key of the animated image, the frames are shared with the other
+ *   animations of the same key if [frameLoaderFactory] has a [SharedAnimationFrameCache]
+ */
 class FrameLoaderStrategy(
     source: String?,
     private val animationInformation: AnimationInformation,
     private val bitmapFrameRenderer: BitmapFrameRenderer,
     private val frameLoaderFactory: FrameLoaderFactory,
     private val downscaleFrameToDrawableDimensions: Boolean,
+    private val sharedFramesKey: CacheKey? = null,
 ) : BitmapFramePreparationStrategy {
 
   private val cacheKey = source ?: this.hashCode().toString()
@@ -35,7 +43,7 @@ class FrameLoaderStrategy(
       if (field == null) {
         field =
             frameLoaderFactory.createBufferLoader(
-                cacheKey, bitmapFrameRenderer, animationInformation)
+                cacheKey, bitmapFrameRenderer, animationInformation, sharedFramesKey)
       }
       return field
     }
@@ -7,10 +7,11 @@
 
 package com.facebook.fresco.animation.bitmap.preparation.loadframe
 
+import java.util.concurrent.Executor
 import java.util.concurrent.Executors
 import java.util.concurrent.ThreadFactory
 
-object AnimationLoaderExecutor {
+object AnimationLoaderExecutor : Executor {
 
   private val frameThreadFactory = ThreadFactory { runnable: Runnable? ->
     val thread = Thread(runnable)
@@ -20,7 +21,7 @@ object AnimationLoaderExecutor {
 
   private val executor = Executors.newCachedThreadPool(frameThreadFactory)
 
-  fun execute(task: Runnable) {
+  override fun execute(task: Runnable) {
     executor.execute(task)
   }
 }
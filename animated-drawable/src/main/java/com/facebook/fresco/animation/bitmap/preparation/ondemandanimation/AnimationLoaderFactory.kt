@@ -7,6 +7,7 @@
 
 package com.facebook.fresco.animation.bitmap.preparation.ondemandanimation
 
+import com.facebook.cache.common.CacheKey
 import com.facebook.fresco.animation.backend.AnimationInformation
 import com.facebook.fresco.animation.bitmap.BitmapFrameRenderer
 import com.facebook.fresco.animation.bitmap.preparation.loadframe.FpsCompressorInfo
@@ -18,12 +19,18 @@ class FrameLoaderFactory(
     private val platformBitmapFactory: PlatformBitmapFactory,
     private val maxFpsRender: Int,
     private val bufferLengthMilliseconds: Int,
+    private val sharedFrameCache: SharedAnimationFrameCache? = null,
 ) {
 
+  /**
+   * Creates the loader of an animation. The frames are shared with the other animations with the
+   * same [sharedFramesKey] if there is a [SharedAnimationFrameCache].
+   */
   fun createBufferLoader(
       cacheKey: String,
       bitmapFrameRenderer: BitmapFrameRenderer,
-      animationInformation: AnimationInformation
+      animationInformation: AnimationInformation,
+      sharedFramesKey: CacheKey? = null
   ): FrameLoader {
     synchronized(UNUSED_FRAME_LOADERS) {
       val unusedFrameLoader = UNUSED_FRAME_LOADERS[cacheKey]
@@ -38,7 +45,9 @@ class FrameLoaderFactory(
         bitmapFrameRenderer,
         FpsCompressorInfo(maxFpsRender),
         animationInformation,
-        bufferLengthMilliseconds)
+        bufferLengthMilliseconds,
+        sharedFrameCache,
+        sharedFramesKey)
   }
 
   companion object {
@@ -13,6 +13,7 @@ import android.graphics.Color
 import android.graphics.PorterDuff
 import androidx.annotation.UiThread
 import androidx.annotation.WorkerThread
+import com.facebook.cache.common.CacheKey
 import com.facebook.common.references.CloseableReference
 import com.facebook.fresco.animation.backend.AnimationInformation
 import com.facebook.fresco.animation.bitmap.BitmapFrameRenderer
@@ -21,19 +22,30 @@ import com.facebook.fresco.animation.bitmap.preparation.loadframe.FpsCompressorI
 import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory
 import java.util.ArrayDeque
 import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executor
 import java.util.concurrent.TimeUnit
 import kotlin.collections.set
 
 /**
  * This frame loader uses a fixed number of bitmap. The buffer loads the next bunch of frames when
  * the animation render an specific threshold frame
+ *
+ * With a [sharedFrameCache], the frames are shared with the other loaders of the same
+ * [sharedFramesKey] and size: a frame is only rendered if it is not in the cache yet, and a bitmap
+ * is never rendered again once its frame is in the cache. The bitmaps of the frames that are not in
+ * the cache, e.g. because they don't fit, are reused as without a cache.
+ *
+ * The frames are loaded on the [loadExecutor], which is the [AnimationLoaderExecutor] by default.
  */
 class BufferFrameLoader(
     private val platformBitmapFactory: PlatformBitmapFactory,
     private val bitmapFrameRenderer: BitmapFrameRenderer,
     private val fpsCompressor: FpsCompressorInfo,
     override val animationInformation: AnimationInformation,
-    private val bufferLengthMilliseconds: Int
+    private val bufferLengthMilliseconds: Int,
+    private val sharedFrameCache: SharedAnimationFrameCache? = null,
+    private val sharedFramesKey: CacheKey? = null,
+    private val loadExecutor: Executor = AnimationLoaderExecutor
 ) : FrameLoader {
 
   private val bufferSize =
@@ -59,14 +71,16 @@ class BufferFrameLoader(
 
     lastRenderedFrameNumber = cachedFrameIndex
 
-    val cachedFrame = bufferFramesHash[cachedFrameIndex]?.takeIf { it.isFrameAvailable }
+    // the frame can be released by the loading thread at any time
+    val cachedFrameRef =
+        bufferFramesHash[cachedFrameIndex]?.takeIf { it.isFrameAvailable }?.bitmapRef?.cloneOrNull()
 
-    if (cachedFrame != null) {
+    if (cachedFrameRef != null) {
       val isTargetAhead = frameSequence.isTargetAhead(thresholdFrame, cachedFrameIndex, bufferSize)
       if (isTargetAhead) {
         loadNextFrames(width, height)
       }
-      return FrameResult(cachedFrame.bitmapRef.clone(), FrameResult.FrameType.SUCCESS)
+      return FrameResult(cachedFrameRef, FrameResult.FrameType.SUCCESS)
     }
 
     loadNextFrames(width, height)
@@ -76,9 +90,9 @@ class BufferFrameLoader(
   @UiThread
   private fun findNearestToRender(targetFrame: Int): FrameResult {
     val nearestFrame = findNearestFrame(targetFrame)
+    val bitmapRef = nearestFrame?.bitmap?.cloneOrNull()
 
-    return if (nearestFrame != null) {
-      val bitmapRef = nearestFrame.bitmap.clone()
+    return if (nearestFrame != null && bitmapRef != null) {
       lastRenderedFrameNumber = nearestFrame.frameNumber
       FrameResult(bitmapRef, FrameResult.FrameType.NEAREST)
     } else {
@@ -117,7 +131,7 @@ class BufferFrameLoader(
     }
     isFetching = true
 
-    AnimationLoaderExecutor.execute {
+    loadExecutor.execute {
       do {
         val targetFrame = lastRenderedFrameNumber.coerceAtLeast(0)
         val success = extractDemandedFrame(targetFrame, width, height)
@@ -151,6 +165,12 @@ class BufferFrameLoader(
       }
 
       val deprecatedFrameNumber = oldFramesNumbers.pollFirst() ?: -1
+      if (sharedFrameCache != null && sharedFramesKey != null) {
+        loadSharedFrame(
+            sharedFrameCache, sharedFramesKey, newFrameNumber, deprecatedFrameNumber, width, height)
+        return@forEach
+      }
+
       val cachedFrame = bufferFramesHash[deprecatedFrameNumber]
       val bufferFrame: BufferFrame
       val bitmapRef: CloseableReference<Bitmap>
@@ -182,6 +202,53 @@ class BufferFrameLoader(
     return true
   }
 
+  /**
+   * Loads the frame from the shared cache, or renders it and publishes it to the shared cache. The
+   * bitmap of the deprecated frame is rendered into if it is not shared, otherwise it is released.
+   */
+  @WorkerThread
+  private fun loadSharedFrame(
+      sharedFrameCache: SharedAnimationFrameCache,
+      sharedFramesKey: CacheKey,
+      frameNumber: Int,
+      deprecatedFrameNumber: Int,
+      width: Int,
+      height: Int
+  ) {
+    val sharedRef = sharedFrameCache.get(sharedFramesKey, frameNumber, width, height)
+    if (sharedRef != null) {
+      bufferFramesHash[frameNumber] = BufferFrame(sharedRef, isShared = true)
+      bufferFramesHash.remove(deprecatedFrameNumber)?.release()
+      return
+    }
+
+    val deprecatedFrame = bufferFramesHash[deprecatedFrameNumber]
+    // the bitmap is published under this size, so a bitmap of another size cannot be reused
+    val reusedRef =
+        deprecatedFrame?.takeIf { !it.isShared }?.bitmapRef?.cloneOrNull()?.let { ref ->
+          if (ref.get().width == width && ref.get().height == height) {
+            ref
+          } else {
+            ref.close()
+            null
+          }
+        }
+    val bitmapRef = reusedRef ?: platformBitmapFactory.createBitmap(width, height)
+    if (reusedRef != null) {
+      deprecatedFrame?.isUpdatingFrame = true
+    }
+    obtainFrame(bitmapRef, frameNumber, width, height)
+    bufferFramesHash.remove(deprecatedFrameNumber)?.release()
+
+    val cachedRef = sharedFrameCache.put(sharedFramesKey, frameNumber, width, height, bitmapRef)
+    if (cachedRef != null) {
+      bitmapRef.close()
+      bufferFramesHash[frameNumber] = BufferFrame(cachedRef, isShared = true)
+    } else {
+      bufferFramesHash[frameNumber] = BufferFrame(bitmapRef)
+    }
+  }
+
   private fun obtainFrame(
       targetBitmap: CloseableReference<Bitmap>,
       targetFrame: Int,
@@ -230,7 +297,11 @@ class BufferFrameLoader(
   private fun AnimationInformation.fps(): Int =
       TimeUnit.SECONDS.toMillis(1).div(loopDurationMs.div(frameCount)).coerceAtLeast(1).toInt()
 
-  private class BufferFrame(val bitmapRef: CloseableReference<Bitmap>) {
+  /** @param isShared whether the bitmap is in the shared frame cache, and must not be modified */
+  private class BufferFrame(
+      val bitmapRef: CloseableReference<Bitmap>,
+      val isShared: Boolean = false
+  ) {
     var isUpdatingFrame: Boolean = false
     val isFrameAvailable: Boolean
       get(): Boolean = !isUpdatingFrame && bitmapRef.isValid
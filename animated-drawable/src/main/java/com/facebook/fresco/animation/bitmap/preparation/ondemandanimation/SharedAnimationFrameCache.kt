@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.fresco.animation.bitmap.preparation.ondemandanimation
+
+import android.graphics.Bitmap
+import com.facebook.cache.common.CacheKey
+import com.facebook.common.memory.MemoryTrimType
+import com.facebook.common.memory.MemoryTrimmable
+import com.facebook.common.references.CloseableReference
+import com.facebook.imageutils.BitmapUtil
+
+/**
+ * Frames of animations shared by all the [BufferFrameLoader]s that show the same animation at the
+ * same size, e.g. the same sticker in several chat bubbles, so that each frame is rendered once.
+ *
+ * Frames are keyed by the cache key of the animated image, the frame number and the size of the
+ * frame. The cache holds its own reference to each frame, and the least recently used frames are
+ * closed once the frames take more than [maxSizeBytes], or when the memory is trimmed. A frame that
+ * is closed by the cache stays valid for the loaders that still reference it.
+ *
+ * A frame must not be modified once it is in the cache.
+ */
+class SharedAnimationFrameCache(private val maxSizeBytes: Int) : MemoryTrimmable {
+
+  private val frames = LinkedHashMap<FrameKey, CloseableReference<Bitmap>>(16, 0.75f, true)
+  private var sizeInBytes = 0
+
+  /**
+   * Returns the frame, or null if it is not cached. The caller must close the returned reference.
+   */
+  @Synchronized
+  fun get(animationKey: CacheKey, frameNumber: Int, width: Int, height: Int) =
+      frames[FrameKey(animationKey, frameNumber, width, height)]?.cloneOrNull()
+
+  /**
+   * Caches the frame, unless the same frame has been cached already, e.g. by a loader that
+   * rendered it at the same time.
+   *
+   * The caller keeps the ownership of [bitmapRef] and must not modify its bitmap anymore. Returns
+   * the cached frame to use instead of [bitmapRef], or null if the frame does not fit in the cache.
+   * The caller must close the returned reference.
+   */
+  fun put(
+      animationKey: CacheKey,
+      frameNumber: Int,
+      width: Int,
+      height: Int,
+      bitmapRef: CloseableReference<Bitmap>
+  ): CloseableReference<Bitmap>? {
+    val frameSizeInBytes = BitmapUtil.getSizeInBytes(bitmapRef.get())
+    if (frameSizeInBytes > maxSizeBytes) {
+      return null
+    }
+    val key = FrameKey(animationKey, frameNumber, width, height)
+    val evictedFrames: List<CloseableReference<Bitmap>>
+    val cachedRef: CloseableReference<Bitmap>?
+    synchronized(this) {
+      val existingRef = frames[key]
+      if (existingRef != null) {
+        return existingRef.cloneOrNull()
+      }
+      val newRef = bitmapRef.cloneOrNull() ?: return null
+      frames[key] = newRef
+      sizeInBytes += frameSizeInBytes
+      evictedFrames = removeLeastRecentlyUsed(maxSizeBytes, key)
+      cachedRef = newRef.clone()
+    }
+    CloseableReference.closeSafely(evictedFrames)
+    return cachedRef
+  }
+
+  /** Closes the least recently used frames, as many as suggested by [trimType] */
+  override fun trim(trimType: MemoryTrimType) {
+    val evictedFrames: List<CloseableReference<Bitmap>>
+    synchronized(this) {
+      evictedFrames =
+          removeLeastRecentlyUsed((sizeInBytes * (1 - trimType.suggestedTrimRatio)).toInt(), null)
+    }
+    CloseableReference.closeSafely(evictedFrames)
+  }
+
+  /** Total size of the cached frames */
+  @get:Synchronized
+  val sizeBytes: Int
+    get() = sizeInBytes
+
+  /** Closes all the cached frames */
+  fun clear() {
+    val evictedFrames: List<CloseableReference<Bitmap>>
+    synchronized(this) {
+      evictedFrames = ArrayList(frames.values)
+      frames.clear()
+      sizeInBytes = 0
+    }
+    CloseableReference.closeSafely(evictedFrames)
+  }
+
+  /**
+   * Removes the least recently used frames, except [keptKey], until the frames take at most
+   * [sizeBytes]. Returns the removed frames, to be closed outside of the lock.
+   */
+  private fun removeLeastRecentlyUsed(
+      sizeBytes: Int,
+      keptKey: FrameKey?
+  ): List<CloseableReference<Bitmap>> {
+    val evictedFrames = ArrayList<CloseableReference<Bitmap>>()
+    val iterator = frames.entries.iterator()
+    while (sizeInBytes > sizeBytes && iterator.hasNext()) {
+      val eldest = iterator.next()
+      if (eldest.key == keptKey) {
+        continue
+      }
+      iterator.remove()
+      sizeInBytes -= BitmapUtil.getSizeInBytes(eldest.value.get())
+      evictedFrames.add(eldest.value)
+    }
+    return evictedFrames
+  }
+
+  private data class FrameKey(
+      val animationKey: CacheKey,
+      val frameNumber: Int,
+      val width: Int,
+      val height: Int
+  )
+}
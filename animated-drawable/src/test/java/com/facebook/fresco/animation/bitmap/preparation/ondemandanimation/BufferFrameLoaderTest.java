@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.fresco.animation.bitmap.preparation.ondemandanimation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.SimpleCacheKey;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import com.facebook.fresco.animation.backend.AnimationInformation;
+import com.facebook.fresco.animation.bitmap.BitmapFrameRenderer;
+import com.facebook.fresco.animation.bitmap.preparation.loadframe.FpsCompressorInfo;
+import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+import kotlin.Unit;
+import kotlin.jvm.functions.Function0;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Tests the shared frames of {@link BufferFrameLoader}. */
+@RunWith(RobolectricTestRunner.class)
+public class BufferFrameLoaderTest {
+
+  private static final CacheKey ANIMATION_KEY = new SimpleCacheKey("anim://1");
+  private static final int SIZE = 10;
+  private static final int FRAME_SIZE_BYTES = SIZE * SIZE * 4;
+  // 10 fps
+  private static final int FRAME_DURATION_MS = 100;
+  // the loads start from the last frame shown, so a frame ahead of the buffer can take two of them
+  private static final int MAX_LOADS_PER_FRAME = 2;
+
+  private final AtomicInteger mRenderedFrames = new AtomicInteger();
+  private final AtomicInteger mCreatedBitmaps = new AtomicInteger();
+  private final Queue<Runnable> mPendingLoads = new ArrayDeque<>();
+  private final Executor mLoadExecutor =
+      new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+          mPendingLoads.add(runnable);
+        }
+      };
+
+  private BitmapFrameRenderer mBitmapFrameRenderer;
+  private PlatformBitmapFactory mPlatformBitmapFactory;
+
+  @Before
+  public void setUp() {
+    mBitmapFrameRenderer =
+        new BitmapFrameRenderer() {
+          @Override
+          public boolean renderFrame(int frameNumber, Bitmap targetBitmap) {
+            mRenderedFrames.incrementAndGet();
+            return true;
+          }
+
+          @Override
+          public void setBounds(@Nullable Rect bounds) {}
+
+          @Override
+          public int getIntrinsicWidth() {
+            return SIZE;
+          }
+
+          @Override
+          public int getIntrinsicHeight() {
+            return SIZE;
+          }
+        };
+    mPlatformBitmapFactory =
+        new PlatformBitmapFactory() {
+          @Override
+          public CloseableReference<Bitmap> createBitmapInternal(
+              int width, int height, Bitmap.Config bitmapConfig) {
+            mCreatedBitmaps.incrementAndGet();
+            return CloseableReference.of(
+                Bitmap.createBitmap(width, height, bitmapConfig),
+                new ResourceReleaser<Bitmap>() {
+                  @Override
+                  public void release(Bitmap value) {
+                    value.recycle();
+                  }
+                });
+          }
+        };
+  }
+
+  @Test
+  public void testFramesAreRenderedOnceForAllLoaders() throws Exception {
+    SharedAnimationFrameCache cache = new SharedAnimationFrameCache(4 * FRAME_SIZE_BYTES);
+    // the buffer holds the whole animation
+    BufferFrameLoader loader1 = createLoader(4, 400, cache);
+    BufferFrameLoader loader2 = createLoader(4, 400, cache);
+
+    Bitmap[] frames = new Bitmap[4];
+    for (int i = 0; i < frames.length; i++) {
+      CloseableReference<Bitmap> frame = awaitFrame(loader1, i);
+      frames[i] = frame.get();
+      frame.close();
+    }
+    int renderedFrames = mRenderedFrames.get();
+    assertEquals(4, mCreatedBitmaps.get());
+
+    for (int i = 0; i < frames.length; i++) {
+      CloseableReference<Bitmap> frame = awaitFrame(loader2, i);
+      assertSame(frames[i], frame.get());
+      frame.close();
+    }
+    assertEquals(renderedFrames, mRenderedFrames.get());
+    assertEquals(4, mCreatedBitmaps.get());
+    assertEquals(4 * FRAME_SIZE_BYTES, cache.getSizeBytes());
+
+    loader1.clear();
+    loader2.clear();
+  }
+
+  @Test
+  public void testFramesNotInTheCacheReuseTheBitmaps() throws Exception {
+    // no frame fits
+    SharedAnimationFrameCache cache = new SharedAnimationFrameCache(FRAME_SIZE_BYTES - 1);
+    // the buffer holds half of the animation
+    BufferFrameLoader loader = createLoader(8, 400, cache);
+
+    for (int loop = 0; loop < 2; loop++) {
+      for (int i = 0; i < 8; i++) {
+        awaitFrame(loader, i).close();
+      }
+    }
+    // one bitmap per frame of the buffer, rendered again for the next frames
+    assertEquals(4, mCreatedBitmaps.get());
+    assertEquals(0, cache.getSizeBytes());
+
+    loader.clear();
+  }
+
+  private BufferFrameLoader createLoader(
+      final int frameCount, int bufferLengthMilliseconds, SharedAnimationFrameCache cache) {
+    AnimationInformation animationInformation =
+        new AnimationInformation() {
+          @Override
+          public int getFrameCount() {
+            return frameCount;
+          }
+
+          @Override
+          public int getFrameDurationMs(int frameNumber) {
+            return FRAME_DURATION_MS;
+          }
+
+          @Override
+          public int getLoopDurationMs() {
+            return frameCount * FRAME_DURATION_MS;
+          }
+
+          @Override
+          public int width() {
+            return SIZE;
+          }
+
+          @Override
+          public int height() {
+            return SIZE;
+          }
+
+          @Override
+          public int getLoopCount() {
+            return 1;
+          }
+        };
+    return new BufferFrameLoader(
+        mPlatformBitmapFactory,
+        mBitmapFrameRenderer,
+        new FpsCompressorInfo(60),
+        animationInformation,
+        bufferLengthMilliseconds,
+        cache,
+        ANIMATION_KEY,
+        mLoadExecutor);
+  }
+
+  /** Shows the frame, running the loads that the loader queues until it has the frame. */
+  private CloseableReference<Bitmap> awaitFrame(BufferFrameLoader loader, int frameNumber) {
+    loader.prepareFrames(
+        SIZE,
+        SIZE,
+        new Function0<Unit>() {
+          @Override
+          public Unit invoke() {
+            return Unit.INSTANCE;
+          }
+        });
+    for (int loads = 0; loads <= MAX_LOADS_PER_FRAME; loads++) {
+      runPendingLoads();
+      FrameResult result = loader.getFrame(frameNumber, SIZE, SIZE);
+      if (result.getType() == FrameResult.FrameType.SUCCESS) {
+        assertNotNull(result.getBitmapRef());
+        return result.getBitmapRef();
+      }
+      CloseableReference.closeSafely(result.getBitmapRef());
+    }
+    fail("frame " + frameNumber + " was not loaded");
+    return null;
+  }
+
+  private void runPendingLoads() {
+    Runnable load;
+    while ((load = mPendingLoads.poll()) != null) {
+      load.run();
+    }
+  }
+}
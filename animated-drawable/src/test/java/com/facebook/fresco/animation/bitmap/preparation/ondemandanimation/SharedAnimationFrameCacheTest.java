@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.fresco.animation.bitmap.preparation.ondemandanimation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import android.graphics.Bitmap;
+import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.SimpleCacheKey;
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Tests {@link SharedAnimationFrameCache}. */
+@RunWith(RobolectricTestRunner.class)
+public class SharedAnimationFrameCacheTest {
+
+  private static final CacheKey ANIMATION_KEY = new SimpleCacheKey("anim://1");
+  private static final int SIZE = 10;
+  private static final int FRAME_SIZE_BYTES = SIZE * SIZE * 4;
+
+  private ResourceReleaser<Bitmap> mReleaser;
+  private SharedAnimationFrameCache mCache;
+
+  @Before
+  public void setUp() {
+    mReleaser = mock(ResourceReleaser.class);
+    mCache = new SharedAnimationFrameCache(2 * FRAME_SIZE_BYTES);
+  }
+
+  @Test
+  public void testFrameIsSharedForSameAnimationAndSize() {
+    CloseableReference<Bitmap> frame = newFrame();
+    Bitmap bitmap = frame.get();
+    CloseableReference<Bitmap> cachedFrame = mCache.put(ANIMATION_KEY, 0, SIZE, SIZE, frame);
+    assertSame(bitmap, cachedFrame.get());
+    frame.close();
+    cachedFrame.close();
+
+    CloseableReference<Bitmap> sharedFrame = mCache.get(ANIMATION_KEY, 0, SIZE, SIZE);
+    assertSame(bitmap, sharedFrame.get());
+    sharedFrame.close();
+    assertNull(mCache.get(ANIMATION_KEY, 1, SIZE, SIZE));
+    assertNull(mCache.get(ANIMATION_KEY, 0, SIZE * 2, SIZE * 2));
+    assertNull(mCache.get(new SimpleCacheKey("anim://2"), 0, SIZE, SIZE));
+    assertEquals(FRAME_SIZE_BYTES, mCache.getSizeBytes());
+    verify(mReleaser, never()).release(bitmap);
+  }
+
+  @Test
+  public void testPut_KeepsFrameCachedFirst() {
+    CloseableReference<Bitmap> frame1 = newFrame();
+    CloseableReference<Bitmap> frame2 = newFrame();
+    mCache.put(ANIMATION_KEY, 0, SIZE, SIZE, frame1).close();
+
+    CloseableReference<Bitmap> cachedFrame = mCache.put(ANIMATION_KEY, 0, SIZE, SIZE, frame2);
+    assertSame(frame1.get(), cachedFrame.get());
+    assertEquals(FRAME_SIZE_BYTES, mCache.getSizeBytes());
+    Bitmap bitmap2 = frame2.get();
+    frame2.close();
+    verify(mReleaser).release(bitmap2);
+    cachedFrame.close();
+    frame1.close();
+  }
+
+  @Test
+  public void testPut_EvictsLeastRecentlyUsedFrames() {
+    CloseableReference<Bitmap> frame0 = newFrame();
+    CloseableReference<Bitmap> frame1 = newFrame();
+    CloseableReference<Bitmap> frame2 = newFrame();
+    Bitmap bitmap0 = frame0.get();
+    Bitmap bitmap1 = frame1.get();
+    mCache.put(ANIMATION_KEY, 0, SIZE, SIZE, frame0).close();
+    mCache.put(ANIMATION_KEY, 1, SIZE, SIZE, frame1).close();
+    frame0.close();
+    frame1.close();
+    mCache.get(ANIMATION_KEY, 0, SIZE, SIZE).close();
+
+    mCache.put(ANIMATION_KEY, 2, SIZE, SIZE, frame2).close();
+    assertEquals(2 * FRAME_SIZE_BYTES, mCache.getSizeBytes());
+    assertNull(mCache.get(ANIMATION_KEY, 1, SIZE, SIZE));
+    verify(mReleaser).release(bitmap1);
+    verify(mReleaser, never()).release(bitmap0);
+    frame2.close();
+  }
+
+  @Test
+  public void testEvictedFrameStaysValidForItsUsers() {
+    CloseableReference<Bitmap> frame = newFrame();
+    CloseableReference<Bitmap> cachedFrame = mCache.put(ANIMATION_KEY, 0, SIZE, SIZE, frame);
+    frame.close();
+    mCache.clear();
+
+    assertEquals(0, mCache.getSizeBytes());
+    assertTrue(cachedFrame.isValid());
+    Bitmap bitmap = cachedFrame.get();
+    verify(mReleaser, never()).release(bitmap);
+    cachedFrame.close();
+    verify(mReleaser).release(bitmap);
+  }
+
+  @Test
+  public void testTrim_ClosesLeastRecentlyUsedFrames() {
+    CloseableReference<Bitmap> frame0 = newFrame();
+    CloseableReference<Bitmap> frame1 = newFrame();
+    Bitmap bitmap0 = frame0.get();
+    Bitmap bitmap1 = frame1.get();
+    mCache.put(ANIMATION_KEY, 0, SIZE, SIZE, frame0).close();
+    mCache.put(ANIMATION_KEY, 1, SIZE, SIZE, frame1).close();
+    frame0.close();
+    frame1.close();
+    mCache.get(ANIMATION_KEY, 0, SIZE, SIZE).close();
+
+    mCache.trim(MemoryTrimType.OnCloseToDalvikHeapLimit);
+    assertEquals(FRAME_SIZE_BYTES, mCache.getSizeBytes());
+    assertNull(mCache.get(ANIMATION_KEY, 1, SIZE, SIZE));
+    verify(mReleaser).release(bitmap1);
+    verify(mReleaser, never()).release(bitmap0);
+
+    mCache.trim(MemoryTrimType.OnAppBackgrounded);
+    assertEquals(0, mCache.getSizeBytes());
+    verify(mReleaser).release(bitmap0);
+  }
+
+  @Test
+  public void testPut_FrameLargerThanCacheIsNotCached() {
+    mCache = new SharedAnimationFrameCache(FRAME_SIZE_BYTES - 1);
+    CloseableReference<Bitmap> frame = newFrame();
+
+    assertNull(mCache.put(ANIMATION_KEY, 0, SIZE, SIZE, frame));
+    assertNull(mCache.get(ANIMATION_KEY, 0, SIZE, SIZE));
+    assertEquals(0, mCache.getSizeBytes());
+    Bitmap bitmap = frame.get();
+    frame.close();
+    verify(mReleaser).release(bitmap);
+  }
+
+  private CloseableReference<Bitmap> newFrame() {
+    return CloseableReference.of(
+        Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888), mReleaser);
+  }
+}
@@ -14,8 +14,8 @@ import com.facebook.infer.annotation.FalseOnNull;
 import com.facebook.infer.annotation.Nullsafe;
 import java.util.IdentityHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import javax.annotation.Nullable;
-import javax.annotation.concurrent.GuardedBy;
 
 /**
  * A shared-reference class somewhat similar to c++ shared_ptr. The underlying value is reference
@@ -60,21 +60,29 @@ import javax.annotation.concurrent.GuardedBy;
  * foo(SharedReference r, ...) { // first assert that the reference is valid
  * Preconditions.checkArgument(SharedReference.isValid(r)); ... // increment ref count before
  * returning r.addReference(); return r; }
+ *
+ * <p>The reference count is updated with compare-and-set rather than under a lock, and the table of
+ * live objects is split in shards with a lock each, as references are cloned and closed several
+ * times per image from all the threads of the pipeline.
  */
 @Nullsafe(Nullsafe.Mode.STRICT)
 public class SharedReference<T> {
 
+  private static final int LIVE_OBJECTS_SHARD_COUNT = 16;
+
   // Keeps references to all live objects so finalization of those Objects always happens after
   // SharedReference first disposes of it. Note, this does not prevent CloseableReference's from
   // being finalized when the reference is no longer reachable.
-  @GuardedBy("itself")
-  private static final Map<Object, Integer> sLiveObjects = new IdentityHashMap<>();
+  // Objects are spread over the shards by identity hash code, each shard is guarded by itself.
+  private static final Map<Object, Integer>[] sLiveObjects = createLiveObjectShards();
 
-  @GuardedBy("this")
-  private @Nullable T mValue;
+  @SuppressWarnings("rawtypes")
+  private static final AtomicIntegerFieldUpdater<SharedReference> REF_COUNT_UPDATER =
+      AtomicIntegerFieldUpdater.newUpdater(SharedReference.class, "mRefCount");
 
-  @GuardedBy("this")
-  private int mRefCount;
+  private volatile @Nullable T mValue;
+
+  private volatile int mRefCount;
 
   private final @Nullable ResourceReleaser<T> mResourceReleaser;
 
@@ -101,6 +109,19 @@ public class SharedReference<T> {
     this(value, resourceReleaser, false);
   }
 
+  @SuppressWarnings("unchecked")
+  private static Map<Object, Integer>[] createLiveObjectShards() {
+    Map<Object, Integer>[] shards = new Map[LIVE_OBJECTS_SHARD_COUNT];
+    for (int i = 0; i < LIVE_OBJECTS_SHARD_COUNT; i++) {
+      shards[i] = new IdentityHashMap<>();
+    }
+    return shards;
+  }
+
+  private static Map<Object, Integer> liveObjectsShardOf(Object value) {
+    return sLiveObjects[System.identityHashCode(value) & (LIVE_OBJECTS_SHARD_COUNT - 1)];
+  }
+
   /**
    * Increases the reference count of a live object in the static map. Adds it if it's not being
    * held.
@@ -108,12 +129,13 @@ public class SharedReference<T> {
    * @param value the value to add.
    */
   private static void addLiveReference(Object value) {
-    synchronized (sLiveObjects) {
-      Integer count = sLiveObjects.get(value);
+    Map<Object, Integer> liveObjects = liveObjectsShardOf(value);
+    synchronized (liveObjects) {
+      Integer count = liveObjects.get(value);
       if (count == null) {
-        sLiveObjects.put(value, 1);
+        liveObjects.put(value, 1);
       } else {
-        sLiveObjects.put(value, count + 1);
+        liveObjects.put(value, count + 1);
       }
     }
   }
@@ -125,16 +147,17 @@ public class SharedReference<T> {
    * @param value the value to remove.
    */
   private static void removeLiveReference(Object value) {
-    synchronized (sLiveObjects) {
-      Integer count = sLiveObjects.get(value);
+    Map<Object, Integer> liveObjects = liveObjectsShardOf(value);
+    synchronized (liveObjects) {
+      Integer count = liveObjects.get(value);
       if (count == null) {
         // Uh oh.
         FLog.wtf(
             "SharedReference", "No entry in sLiveObjects for value of type %s", value.getClass());
       } else if (count == 1) {
-        sLiveObjects.remove(value);
+        liveObjects.remove(value);
       } else {
-        sLiveObjects.put(value, count - 1);
+        liveObjects.put(value, count - 1);
       }
     }
   }
@@ -145,7 +168,7 @@ public class SharedReference<T> {
    * @return the referenced value
    */
   @Nullable
-  public synchronized T get() {
+  public T get() {
     return mValue;
   }
 
@@ -154,7 +177,7 @@ public class SharedReference<T> {
    *
    * @return true if shared reference is valid
    */
-  public synchronized boolean isValid() {
+  public boolean isValid() {
     return mRefCount > 0;
   }
 
@@ -172,26 +195,34 @@ public class SharedReference<T> {
    * Bump up the reference count for the shared reference Note: The reference must be valid (aka not
    * null) at this point
    */
-  public synchronized void addReference() {
-    ensureValid();
-    mRefCount++;
+  public void addReference() {
+    if (!addReferenceIfValid()) {
+      throw new NullReferenceException();
+    }
   }
 
   /** Bump up the reference count for the shared reference if the shared-reference is valid. */
-  public synchronized boolean addReferenceIfValid() {
-    if (isValid()) {
-      addReference();
-      return true;
+  public boolean addReferenceIfValid() {
+    while (true) {
+      int refCount = mRefCount;
+      if (refCount <= 0) {
+        return false;
+      }
+      if (REF_COUNT_UPDATER.compareAndSet(this, refCount, refCount + 1)) {
+        return true;
+      }
     }
-    return false;
   }
 
-  public synchronized boolean deleteReferenceIfValid() {
-    if (isValid()) {
-      deleteReference();
-      return true;
+  public boolean deleteReferenceIfValid() {
+    int refCount = decreaseRefCountIfValid();
+    if (refCount < 0) {
+      return false;
     }
-    return false;
+    if (refCount == 0) {
+      dispose();
+    }
+    return true;
   }
 
   /**
@@ -200,17 +231,20 @@ public class SharedReference<T> {
    */
   public void deleteReference() {
     if (decreaseRefCount() == 0) {
-      T deleted;
-      synchronized (this) {
-        deleted = mValue;
-        mValue = null;
-      }
-      if (deleted != null) {
-        if (mResourceReleaser != null) {
-          mResourceReleaser.release(deleted);
-        }
-        removeLiveReference(deleted);
+      dispose();
+    }
+  }
+
+  /** Releases the value once the reference count has dropped to zero. */
+  private void dispose() {
+    // only the thread that dropped the count to zero gets here, and the count never goes up again
+    T deleted = mValue;
+    mValue = null;
+    if (deleted != null) {
+      if (mResourceReleaser != null) {
+        mResourceReleaser.release(deleted);
       }
+      removeLiveReference(deleted);
     }
   }
 
@@ -218,27 +252,32 @@ public class SharedReference<T> {
    * Decrements reference count for the shared reference. Returns value of mRefCount after
    * decrementing
    */
-  private synchronized int decreaseRefCount() {
-    ensureValid();
-    Preconditions.checkArgument(mRefCount > 0);
-
-    mRefCount--;
-    return mRefCount;
+  private int decreaseRefCount() {
+    int refCount = decreaseRefCountIfValid();
+    if (refCount < 0) {
+      throw new NullReferenceException();
+    }
+    return refCount;
   }
 
   /**
-   * Assert that there is a valid referenced value. Throw a NullReferenceException otherwise
-   *
-   * @throws NullReferenceException, if the reference is invalid (i.e.) the underlying value is null
+   * Decrements reference count for the shared reference if it is valid. Returns value of mRefCount
+   * after decrementing, or -1 if the reference was not valid
    */
-  private void ensureValid() {
-    if (!isValid(this)) {
-      throw new NullReferenceException();
+  private int decreaseRefCountIfValid() {
+    while (true) {
+      int refCount = mRefCount;
+      if (refCount <= 0) {
+        return -1;
+      }
+      if (REF_COUNT_UPDATER.compareAndSet(this, refCount, refCount - 1)) {
+        return refCount - 1;
+      }
     }
   }
 
   /** A test-only method to get the ref count DO NOT USE in regular code */
-  public synchronized int getRefCountTestOnly() {
+  public int getRefCountTestOnly() {
     return mRefCount;
   }
 
@@ -254,7 +293,17 @@ public class SharedReference<T> {
 
   public static String reportData() {
     return Objects.toStringHelper("SharedReference")
-        .add("live_objects_count", sLiveObjects.size())
+        .add("live_objects_count", getLiveObjectsCount())
         .toString();
   }
+
+  private static int getLiveObjectsCount() {
+    int count = 0;
+    for (Map<Object, Integer> liveObjects : sLiveObjects) {
+      synchronized (liveObjects) {
+        count += liveObjects.size();
+      }
+    }
+    return count;
+  }
 }
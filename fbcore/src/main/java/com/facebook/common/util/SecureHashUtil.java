@@ -7,11 +7,11 @@
 
 package com.facebook.common.util;
 
-import android.util.Base64;
 import com.facebook.infer.annotation.Nullsafe;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
@@ -19,6 +19,38 @@ import java.security.NoSuchAlgorithmException;
 @Nullsafe(Nullsafe.Mode.STRICT)
 public class SecureHashUtil {
 
+  private static final int SHA1_LENGTH = 20;
+
+  // SHA-1 digests and output buffers are reused per thread, as hashing runs on every disk cache
+  // operation
+  private static final ThreadLocal<MessageDigest> sSha1Digest =
+      new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+          try {
+            return MessageDigest.getInstance("SHA-1");
+          } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      };
+
+  private static final ThreadLocal<byte[]> sSha1Buffer =
+      new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+          return new byte[SHA1_LENGTH];
+        }
+      };
+
+  private static final ThreadLocal<char[]> sSha1Base64Buffer =
+      new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+          return new char[(SHA1_LENGTH * 4 + 2) / 3];
+        }
+      };
+
   public static String makeSHA1Hash(String text) {
     try {
       return makeSHA1Hash(text.getBytes("utf-8"));
@@ -35,15 +67,22 @@ public class SecureHashUtil {
     return makeHash(bytes, "SHA-256");
   }
 
+  /**
+   * Returns the SHA-1 hash of the bytes, encoded in URL safe Base64 without padding nor wrapping.
+   * The only allocation is the returned string.
+   */
   public static String makeSHA1HashBase64(byte[] bytes) {
+    MessageDigest md = sSha1Digest.get();
+    byte[] sha1hash = sSha1Buffer.get();
+    char[] encoded = sSha1Base64Buffer.get();
     try {
-      MessageDigest md = MessageDigest.getInstance("SHA-1");
       md.update(bytes, 0, bytes.length);
-      byte[] sha1hash = md.digest();
-      return Base64.encodeToString(sha1hash, Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP);
-    } catch (NoSuchAlgorithmException e) {
+      md.digest(sha1hash, 0, SHA1_LENGTH);
+    } catch (DigestException e) {
+      md.reset();
       throw new RuntimeException(e);
     }
+    return new String(encoded, 0, encodeBase64UrlSafe(sha1hash, encoded));
   }
 
   public static String makeMD5Hash(String text) {
@@ -92,6 +131,40 @@ public class SecureHashUtil {
     }
   }
 
+  static final char[] BASE64_URL_SAFE_CHAR_TABLE =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+  /**
+   * Same as {@code Base64.encode(raw, Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP)}, but
+   * writes into the given buffer.
+   *
+   * @return the number of chars written
+   */
+  static int encodeBase64UrlSafe(byte[] raw, char[] out) {
+    int length = 0;
+    int i = 0;
+    for (; i + 2 < raw.length; i += 3) {
+      int v = ((raw[i] & 0xFF) << 16) | ((raw[i + 1] & 0xFF) << 8) | (raw[i + 2] & 0xFF);
+      out[length++] = BASE64_URL_SAFE_CHAR_TABLE[v >>> 18];
+      out[length++] = BASE64_URL_SAFE_CHAR_TABLE[(v >>> 12) & 0x3F];
+      out[length++] = BASE64_URL_SAFE_CHAR_TABLE[(v >>> 6) & 0x3F];
+      out[length++] = BASE64_URL_SAFE_CHAR_TABLE[v & 0x3F];
+    }
+    int remaining = raw.length - i;
+    if (remaining > 0) {
+      int v = (raw[i] & 0xFF) << 16;
+      if (remaining == 2) {
+        v |= (raw[i + 1] & 0xFF) << 8;
+      }
+      out[length++] = BASE64_URL_SAFE_CHAR_TABLE[v >>> 18];
+      out[length++] = BASE64_URL_SAFE_CHAR_TABLE[(v >>> 12) & 0x3F];
+      if (remaining == 2) {
+        out[length++] = BASE64_URL_SAFE_CHAR_TABLE[(v >>> 6) & 0x3F];
+      }
+    }
+    return length;
+  }
+
   private static final int BUFFER_SIZE = 4096;
 
   private static String makeHash(InputStream stream, String algorithm) throws IOException {
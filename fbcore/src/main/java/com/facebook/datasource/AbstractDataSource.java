@@ -7,14 +7,15 @@
 
 package com.facebook.datasource;
 
-import android.util.Pair;
 import com.facebook.common.internal.Preconditions;
 import com.facebook.infer.annotation.Nullsafe;
 import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import javax.annotation.Nullable;
-import javax.annotation.concurrent.GuardedBy;
 
 /**
  * An abstract implementation of {@link DataSource} interface.
@@ -24,12 +25,23 @@ import javax.annotation.concurrent.GuardedBy;
  *
  * <p>Subclasses should override {@link #closeResult(T result)} if results need clean up
  *
+ * <p>The state is kept in an immutable snapshot that is swapped with a compare-and-set, so the
+ * getters never block, e.g. when the UI thread polls the state while a result is being set.
+ *
  * @param <T>
  */
 @Nullsafe(Nullsafe.Mode.LOCAL)
 public abstract class AbstractDataSource<T> implements DataSource<T> {
 
-  private @Nullable Map<String, Object> mExtras;
+  @SuppressWarnings("rawtypes")
+  private static final AtomicReferenceFieldUpdater<AbstractDataSource, State> STATE_UPDATER =
+      AtomicReferenceFieldUpdater.newUpdater(AbstractDataSource.class, State.class, "mState");
+
+  @SuppressWarnings("rawtypes")
+  private static final AtomicIntegerFieldUpdater<AbstractDataSource> PROGRESS_UPDATER =
+      AtomicIntegerFieldUpdater.newUpdater(AbstractDataSource.class, "mProgressBits");
+
+  private volatile @Nullable Map<String, Object> mExtras;
 
   /** Describes state of data source */
   private enum DataSourceStatus {
@@ -43,23 +55,44 @@ public abstract class AbstractDataSource<T> implements DataSource<T> {
     FAILURE,
   }
 
-  @GuardedBy("this")
-  private DataSourceStatus mDataSourceStatus;
+  /**
+   * Immutable snapshot of the state of the data source.
+   *
+   * <p>Each transition replaces the whole snapshot with a compare-and-set, so readers never take a
+   * lock and always see a status, a result and a failure that belong together.
+   */
+  private static final class State<T> {
+    final DataSourceStatus status;
+    final boolean isClosed;
+    final @Nullable T result;
+    final @Nullable Throwable failureThrowable;
+
+    State(
+        DataSourceStatus status,
+        boolean isClosed,
+        @Nullable T result,
+        @Nullable Throwable failureThrowable) {
+      this.status = status;
+      this.isClosed = isClosed;
+      this.result = result;
+      this.failureThrowable = failureThrowable;
+    }
 
-  @GuardedBy("this")
-  private boolean mIsClosed;
+    boolean isFinished() {
+      return status != DataSourceStatus.IN_PROGRESS;
+    }
 
-  @GuardedBy("this")
-  private @Nullable T mResult = null;
+    boolean wasCancelled() {
+      return isClosed && !isFinished();
+    }
+  }
 
-  @Nullable
-  @GuardedBy("this")
-  private Throwable mFailureThrowable = null;
+  private volatile State<T> mState;
 
-  @GuardedBy("this")
-  private float mProgress = 0;
+  /** Bits of the float progress, so that it can be raised with a compare-and-set. */
+  private volatile int mProgressBits = Float.floatToIntBits(0);
 
-  private final ConcurrentLinkedQueue<Pair<DataSubscriber<T>, Executor>> mSubscribers;
+  private final ConcurrentLinkedQueue<Subscriber> mSubscribers;
 
   @Nullable private static volatile DataSourceInstrumenter sDataSourceInstrumenter;
 
@@ -68,30 +101,34 @@ public abstract class AbstractDataSource<T> implements DataSource<T> {
   }
 
   protected AbstractDataSource() {
-    mIsClosed = false;
-    mDataSourceStatus = DataSourceStatus.IN_PROGRESS;
-    mSubscribers = new ConcurrentLinkedQueue<Pair<DataSubscriber<T>, Executor>>();
+    mState = new State<>(DataSourceStatus.IN_PROGRESS, false, null, null);
+    mSubscribers = new ConcurrentLinkedQueue<Subscriber>();
+  }
+
+  @SuppressWarnings("unchecked")
+  private boolean compareAndSetState(State<T> expected, State<T> update) {
+    return STATE_UPDATER.compareAndSet(this, expected, update);
   }
 
   @Override
-  public synchronized boolean isClosed() {
-    return mIsClosed;
+  public boolean isClosed() {
+    return mState.isClosed;
   }
 
   @Override
-  public synchronized boolean isFinished() {
-    return mDataSourceStatus != DataSourceStatus.IN_PROGRESS;
+  public boolean isFinished() {
+    return mState.isFinished();
   }
 
   @Override
-  public synchronized boolean hasResult() {
-    return mResult != null;
+  public boolean hasResult() {
+    return mState.result != null;
   }
 
   @Override
   @Nullable
-  public synchronized T getResult() {
-    return mResult;
+  public T getResult() {
+    return mState.result;
   }
 
   @Override
@@ -104,41 +141,39 @@ public abstract class AbstractDataSource<T> implements DataSource<T> {
   }
 
   @Override
-  public synchronized boolean hasFailed() {
-    return mDataSourceStatus == DataSourceStatus.FAILURE;
+  public boolean hasFailed() {
+    return mState.status == DataSourceStatus.FAILURE;
   }
 
   @Override
   @Nullable
-  public synchronized Throwable getFailureCause() {
-    return mFailureThrowable;
+  public Throwable getFailureCause() {
+    return mState.failureThrowable;
   }
 
   @Override
-  public synchronized float getProgress() {
-    return mProgress;
+  public float getProgress() {
+    // the progress is raised to 1 right after the status is set to success
+    return mState.status == DataSourceStatus.SUCCESS ? 1 : Float.intBitsToFloat(mProgressBits);
   }
 
   @Override
   public boolean close() {
-    T resultToClose;
-    synchronized (this) {
-      if (mIsClosed) {
+    State<T> state;
+    do {
+      state = mState;
+      if (state.isClosed) {
         return false;
       }
-      mIsClosed = true;
-      resultToClose = mResult;
-      mResult = null;
+    } while (!compareAndSetState(
+        state, new State<T>(state.status, true, null, state.failureThrowable)));
+    if (state.result != null) {
+      closeResult(state.result);
     }
-    if (resultToClose != null) {
-      closeResult(resultToClose);
-    }
-    if (!isFinished()) {
+    if (!state.isFinished()) {
       notifyDataSubscribers();
     }
-    synchronized (this) {
-      mSubscribers.clear();
-    }
+    mSubscribers.clear();
     return true;
   }
 
@@ -156,30 +191,33 @@ public abstract class AbstractDataSource<T> implements DataSource<T> {
   public void subscribe(final DataSubscriber<T> dataSubscriber, final Executor executor) {
     Preconditions.checkNotNull(dataSubscriber);
     Preconditions.checkNotNull(executor);
-    boolean shouldNotify;
-
-    synchronized (this) {
-      if (mIsClosed) {
-        return;
-      }
-
-      if (mDataSourceStatus == DataSourceStatus.IN_PROGRESS) {
-        mSubscribers.add(Pair.create(dataSubscriber, executor));
-      }
+    State<T> state = mState;
+    if (state.isClosed) {
+      return;
+    }
 
-      shouldNotify = hasResult() || isFinished() || wasCancelled();
+    if (state.status == DataSourceStatus.IN_PROGRESS) {
+      mSubscribers.add(new Subscriber(dataSubscriber, executor));
+      // a transition that happened before the subscriber was added did not notify it
+      state = mState;
     }
 
-    if (shouldNotify) {
-      notifyDataSubscriber(dataSubscriber, executor, hasFailed(), wasCancelled());
+    if (state.result != null || state.isFinished() || state.wasCancelled()) {
+      notifyDataSubscriber(
+          dataSubscriber,
+          executor,
+          state.status == DataSourceStatus.FAILURE,
+          state.wasCancelled());
     }
   }
 
   private void notifyDataSubscribers() {
-    final boolean isFailure = hasFailed();
-    final boolean isCancellation = wasCancelled();
-    for (Pair<DataSubscriber<T>, Executor> pair : mSubscribers) {
-      notifyDataSubscriber(pair.first, pair.second, isFailure, isCancellation);
+    final State<T> state = mState;
+    final boolean isFailure = state.status == DataSourceStatus.FAILURE;
+    final boolean isCancellation = state.wasCancelled();
+    for (Subscriber subscriber : mSubscribers) {
+      notifyDataSubscriber(
+          subscriber.dataSubscriber, subscriber.executor, isFailure, isCancellation);
     }
   }
 
@@ -207,11 +245,6 @@ public abstract class AbstractDataSource<T> implements DataSource<T> {
     }
     executor.execute(runnable);
   }
-
-  private synchronized boolean wasCancelled() {
-    return isClosed() && !isFinished();
-  }
-
   /**
    * Subclasses should invoke this method to set the result to {@code value}.
    *
@@ -301,65 +334,71 @@ public abstract class AbstractDataSource<T> implements DataSource<T> {
   }
 
   private boolean setResultInternal(@Nullable T value, boolean isLast) {
-    T resultToClose = null;
-    try {
-      synchronized (this) {
-        if (mIsClosed || mDataSourceStatus != DataSourceStatus.IN_PROGRESS) {
-          resultToClose = value;
-          return false;
-        } else {
-          if (isLast) {
-            mDataSourceStatus = DataSourceStatus.SUCCESS;
-            mProgress = 1;
-          }
-          if (mResult != value) {
-            resultToClose = mResult;
-            mResult = value;
-          }
-          return true;
+    State<T> state;
+    do {
+      state = mState;
+      if (state.isClosed || state.isFinished()) {
+        if (value != null) {
+          closeResult(value);
         }
+        return false;
       }
-    } finally {
-      if (resultToClose != null) {
-        closeResult(resultToClose);
-      }
+    } while (!compareAndSetState(
+        state,
+        new State<T>(
+            isLast ? DataSourceStatus.SUCCESS : DataSourceStatus.IN_PROGRESS, false, value, null)));
+    if (isLast) {
+      mProgressBits = Float.floatToIntBits(1);
     }
+    if (state.result != null && state.result != value) {
+      closeResult(state.result);
+    }
+    return true;
   }
 
-  private synchronized boolean setFailureInternal(
+  private boolean setFailureInternal(
       @Nullable Throwable throwable, @Nullable Map<String, Object> extras) {
-    if (mIsClosed || mDataSourceStatus != DataSourceStatus.IN_PROGRESS) {
-      return false;
-    } else {
-      mDataSourceStatus = DataSourceStatus.FAILURE;
-      mFailureThrowable = throwable;
-      mExtras = extras;
-      return true;
-    }
+    State<T> state;
+    do {
+      state = mState;
+      if (state.isClosed || state.isFinished()) {
+        return false;
+      }
+    } while (!compareAndSetState(
+        state, new State<T>(DataSourceStatus.FAILURE, false, state.result, throwable)));
+    mExtras = extras;
+    return true;
   }
 
-  private synchronized boolean setProgressInternal(float progress) {
-    if (mIsClosed || mDataSourceStatus != DataSourceStatus.IN_PROGRESS) {
-      return false;
-    } else if (progress < mProgress) {
-      return false;
-    } else {
-      mProgress = progress;
-      return true;
+  private boolean setProgressInternal(float progress) {
+    while (true) {
+      State<T> state = mState;
+      if (state.isClosed || state.isFinished()) {
+        return false;
+      }
+      int progressBits = mProgressBits;
+      if (progress < Float.intBitsToFloat(progressBits)) {
+        return false;
+      }
+      if (PROGRESS_UPDATER.compareAndSet(this, progressBits, Float.floatToIntBits(progress))) {
+        return true;
+      }
     }
   }
 
+  /**
+   * Notifies the subscribers of the progress.
+   *
+   * <p>Progress updates are coalesced: a subscriber that has not yet been called back for the
+   * previous update is not scheduled again, and reads the latest progress once it runs. A
+   * subscriber thus never has more than one progress update queued on its executor, e.g. one per
+   * frame for a subscriber on the UI thread.
+   */
   protected void notifyProgressUpdate() {
-    for (Pair<DataSubscriber<T>, Executor> pair : mSubscribers) {
-      final DataSubscriber<T> subscriber = pair.first;
-      Executor executor = pair.second;
-      executor.execute(
-          new Runnable() {
-            @Override
-            public void run() {
-              subscriber.onProgressUpdate(AbstractDataSource.this);
-            }
-          });
+    for (Subscriber subscriber : mSubscribers) {
+      if (subscriber.progressUpdatePending.compareAndSet(false, true)) {
+        subscriber.executor.execute(subscriber);
+      }
     }
   }
 
@@ -373,6 +412,25 @@ public abstract class AbstractDataSource<T> implements DataSource<T> {
     return false;
   }
 
+  /** A subscriber with its executor, that also runs its coalesced progress updates. */
+  private final class Subscriber implements Runnable {
+    final DataSubscriber<T> dataSubscriber;
+    final Executor executor;
+    final AtomicBoolean progressUpdatePending = new AtomicBoolean();
+
+    Subscriber(DataSubscriber<T> dataSubscriber, Executor executor) {
+      this.dataSubscriber = dataSubscriber;
+      this.executor = executor;
+    }
+
+    @Override
+    public void run() {
+      // cleared first, so that an update made while the subscriber runs is not lost
+      progressUpdatePending.set(false);
+      dataSubscriber.onProgressUpdate(AbstractDataSource.this);
+    }
+  }
+
   /** Allows to capture unit of works for instrumentation purposes. */
   public interface DataSourceInstrumenter {
 
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.common.references;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.facebook.imagepipeline.testing.ConcurrentRunner;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Runs threads that clone and close references concurrently, as the producers of the pipeline do
+ * with the references to the images they pass along, and checks that the reference counts end up
+ * right and that every value is released exactly once.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CloseableReferenceContentionTest {
+
+  private static final int THREAD_COUNT = 8;
+  private static final int OPERATION_COUNT = 100000;
+  private static final int CLONES_PER_THREAD = 1000;
+
+  @Test
+  public void testCloneAndCloseSharedReference() throws Exception {
+    final AtomicInteger releasedCount = new AtomicInteger();
+    final CloseableReference<Closeable> shared =
+        CloseableReference.of(new CountingCloseable(releasedCount));
+    runContention(
+        new Operation() {
+          @Override
+          public void run(int i) {
+            shared.clone().close();
+          }
+        });
+    assertEquals(1, shared.getUnderlyingReferenceTestOnly().getRefCountTestOnly());
+    assertEquals(0, releasedCount.get());
+    shared.close();
+    assertEquals(1, releasedCount.get());
+  }
+
+  @Test
+  public void testCloseClonesConcurrently() throws Exception {
+    final AtomicInteger releasedCount = new AtomicInteger();
+    final CloseableReference<Closeable> original =
+        CloseableReference.of(new CountingCloseable(releasedCount));
+    final List<CloseableReference<Closeable>> clones = new ArrayList<>();
+    for (int i = 0; i < THREAD_COUNT * CLONES_PER_THREAD; i++) {
+      clones.add(original.clone());
+    }
+    final SharedReference<Closeable> sharedReference = original.getUnderlyingReferenceTestOnly();
+    original.close();
+    assertEquals(THREAD_COUNT * CLONES_PER_THREAD, sharedReference.getRefCountTestOnly());
+
+    final AtomicInteger nextClone = new AtomicInteger();
+    runContention(
+        new Operation() {
+          @Override
+          public void run(int i) {
+            int index = nextClone.getAndIncrement();
+            if (index < clones.size()) {
+              CloseableReference<Closeable> clone = clones.get(index);
+              clone.close();
+              // closing a reference again is a no-op
+              clone.close();
+            }
+          }
+        });
+    assertEquals(0, sharedReference.getRefCountTestOnly());
+    assertFalse(sharedReference.isValid());
+    assertEquals(1, releasedCount.get());
+  }
+
+  @Test
+  public void testCloneAndCloseNewReferences() throws Exception {
+    final AtomicInteger createdCount = new AtomicInteger();
+    final AtomicInteger releasedCount = new AtomicInteger();
+    final String liveObjectsBefore = SharedReference.reportData();
+    runContention(
+        new Operation() {
+          @Override
+          public void run(int i) {
+            createdCount.incrementAndGet();
+            CloseableReference<Closeable> ref =
+                CloseableReference.of(new CountingCloseable(releasedCount));
+            ref.clone().close();
+            ref.close();
+            assertFalse(ref.isValid());
+          }
+        });
+    assertEquals(createdCount.get(), releasedCount.get());
+    assertEquals(liveObjectsBefore, SharedReference.reportData());
+  }
+
+  /** Runs the operation {@link #OPERATION_COUNT} times on each of the threads. */
+  private static void runContention(final Operation operation) throws Exception {
+    ConcurrentRunner.runOnThreads(
+        THREAD_COUNT,
+        new ConcurrentRunner.ThreadTask() {
+          @Override
+          public void run(int threadIndex) {
+            for (int i = 0; i < OPERATION_COUNT; i++) {
+              operation.run(i);
+            }
+          }
+        });
+  }
+
+  private interface Operation {
+    void run(int i);
+  }
+
+  private static class CountingCloseable implements Closeable {
+    private final AtomicInteger mReleasedCount;
+    private boolean mClosed;
+
+    CountingCloseable(AtomicInteger releasedCount) {
+      mReleasedCount = releasedCount;
+    }
+
+    @Override
+    public synchronized void close() {
+      if (mClosed) {
+        throw new IllegalStateException("Released twice");
+      }
+      mClosed = true;
+      mReleasedCount.incrementAndGet();
+    }
+  }
+}
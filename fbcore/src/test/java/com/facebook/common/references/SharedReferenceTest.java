@@ -10,6 +10,11 @@ package com.facebook.common.references;
 import com.facebook.common.internal.Closeables;
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import junit.framework.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -90,6 +95,81 @@ public class SharedReferenceTest {
     Mockito.verify(releaser, Mockito.times(1)).release(thing);
   }
 
+  @Test
+  public void testAddAndDeleteReferenceIfValid() {
+    SharedReference<Thing> tRef = new SharedReference<Thing>(new Thing("abc"), THING_RELEASER);
+    Assert.assertTrue(tRef.addReferenceIfValid());
+    Assert.assertEquals(2, tRef.getRefCountTestOnly());
+    Assert.assertTrue(tRef.deleteReferenceIfValid());
+    Assert.assertTrue(tRef.deleteReferenceIfValid());
+    Assert.assertEquals(0, tRef.getRefCountTestOnly());
+    Assert.assertNull(tRef.get());
+
+    // once released, the reference can not be revived
+    Assert.assertFalse(tRef.addReferenceIfValid());
+    Assert.assertFalse(tRef.deleteReferenceIfValid());
+    Assert.assertEquals(0, tRef.getRefCountTestOnly());
+  }
+
+  @Test
+  public void testLiveObjects() {
+    Thing thing = new Thing("abc");
+    int liveObjectsCount = getLiveObjectsCount();
+    SharedReference<Thing> tRef1 = new SharedReference<Thing>(thing, THING_RELEASER, true);
+    SharedReference<Thing> tRef2 = new SharedReference<Thing>(thing, THING_RELEASER, true);
+    Assert.assertEquals(liveObjectsCount + 1, getLiveObjectsCount());
+    tRef1.deleteReference();
+    Assert.assertEquals(liveObjectsCount + 1, getLiveObjectsCount());
+    tRef2.deleteReference();
+    Assert.assertEquals(liveObjectsCount, getLiveObjectsCount());
+  }
+
+  @Test
+  public void testConcurrentAddAndDeleteReference() throws Exception {
+    final ResourceReleaser releaser = Mockito.mock(ResourceReleaser.class);
+    final Thing thing = new Thing("abc");
+    final SharedReference<Thing> tRef = new SharedReference<Thing>(thing, releaser, true);
+    final int threadCount = 4;
+    final int iterations = 10000;
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < threadCount; t++) {
+      Thread thread =
+          new Thread(
+              new Runnable() {
+                @Override
+                public void run() {
+                  try {
+                    startLatch.await();
+                  } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                  }
+                  for (int i = 0; i < iterations; i++) {
+                    tRef.addReference();
+                    tRef.deleteReference();
+                  }
+                }
+              });
+      thread.start();
+      threads.add(thread);
+    }
+    startLatch.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    Assert.assertEquals(1, tRef.getRefCountTestOnly());
+    Mockito.verify(releaser, Mockito.never()).release(thing);
+    tRef.deleteReference();
+    Mockito.verify(releaser, Mockito.times(1)).release(thing);
+  }
+
+  private static int getLiveObjectsCount() {
+    String report = SharedReference.reportData();
+    Matcher matcher = Pattern.compile("live_objects_count=(\\d+)").matcher(report);
+    Assert.assertTrue(report, matcher.find());
+    return Integer.parseInt(matcher.group(1));
+  }
+
   public static class Thing implements Closeable {
     private String mValue;
 
@@ -11,7 +11,9 @@ import static com.facebook.datasource.DataSourceTestUtils.*;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
+import com.facebook.imagepipeline.testing.ConcurrentRunner;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.Nullable;
 import org.junit.Before;
 import org.junit.Test;
@@ -48,6 +50,17 @@ public class AbstractDataSourceTest {
     }
   }
 
+  private static class CountingValue implements Value {
+    final AtomicInteger mCloseCount = new AtomicInteger();
+
+    @Override
+    public void close() {
+      mCloseCount.incrementAndGet();
+    }
+  }
+
+  private static final int RACE_ITERATIONS = 1000;
+
   private Executor mExecutor1;
   private Executor mExecutor2;
   private DataSubscriber<Value> mDataSubscriber1;
@@ -316,4 +329,131 @@ public class AbstractDataSourceTest {
     mDataSource.close();
     verify(value3).close();
   }
+
+  @Test
+  public void testProgress() {
+    assertTrue(mDataSource.setProgress(0.5f));
+    assertFalse(mDataSource.setProgress(0.2f));
+    assertEquals(0.5f, mDataSource.getProgress(), 0);
+    mDataSource.setResult(mock(Value.class), LAST);
+    assertEquals(1f, mDataSource.getProgress(), 0);
+    assertFalse(mDataSource.setProgress(0.8f));
+    assertEquals(1f, mDataSource.getProgress(), 0);
+  }
+
+  @Test
+  public void testProgressUpdatesAreCoalesced() {
+    subscribe();
+    mDataSource.setProgress(0.1f);
+    mDataSource.setProgress(0.2f);
+    mDataSource.setProgress(0.3f);
+    // one update is pending per subscriber until it runs, and it then reads the latest progress
+    verifyExecutor(mExecutor1);
+    verify(mDataSubscriber1).onProgressUpdate(mDataSource);
+    verifyExecutor(mExecutor2);
+    verify(mDataSubscriber2).onProgressUpdate(mDataSource);
+    assertEquals(0.3f, mDataSource.getProgress(), 0);
+    reset(mExecutor1, mExecutor2, mDataSubscriber1, mDataSubscriber2);
+
+    mDataSource.setProgress(0.4f);
+    verifyExecutor(mExecutor1);
+    verify(mDataSubscriber1).onProgressUpdate(mDataSource);
+    verifyExecutor(mExecutor2);
+    verify(mDataSubscriber2).onProgressUpdate(mDataSource);
+  }
+
+  @Test
+  public void testRace_CloseAndSetResult() throws InterruptedException {
+    for (int i = 0; i < RACE_ITERATIONS; i++) {
+      final FakeAbstractDataSource dataSource = new FakeAbstractDataSource();
+      final CountingValue value = new CountingValue();
+      final boolean isLast = i % 2 == 0;
+      final AtomicInteger setResultCount = new AtomicInteger();
+      ConcurrentRunner.run(
+          new Runnable() {
+            @Override
+            public void run() {
+              if (dataSource.setResult(value, isLast)) {
+                setResultCount.incrementAndGet();
+              }
+            }
+          },
+          new Runnable() {
+            @Override
+            public void run() {
+              dataSource.close();
+            }
+          });
+      // whichever wins, the value is closed exactly once, either by close or by setResult
+      assertEquals(1, value.mCloseCount.get());
+      assertTrue(dataSource.isClosed());
+      assertFalse(dataSource.hasResult());
+      assertNull(dataSource.getResult());
+      assertEquals(setResultCount.get() == 1 && isLast, dataSource.isFinished());
+    }
+  }
+
+  @Test
+  public void testRace_SetResults() throws InterruptedException {
+    for (int i = 0; i < RACE_ITERATIONS; i++) {
+      final FakeAbstractDataSource dataSource = new FakeAbstractDataSource();
+      final CountingValue value1 = new CountingValue();
+      final CountingValue value2 = new CountingValue();
+      ConcurrentRunner.run(
+          new Runnable() {
+            @Override
+            public void run() {
+              dataSource.setResult(value1, INTERMEDIATE);
+            }
+          },
+          new Runnable() {
+            @Override
+            public void run() {
+              dataSource.setResult(value2, INTERMEDIATE);
+            }
+          });
+      Value result = dataSource.getResult();
+      assertTrue(result == value1 || result == value2);
+      // only the value that lost is closed
+      assertEquals(result == value1 ? 0 : 1, value1.mCloseCount.get());
+      assertEquals(result == value2 ? 0 : 1, value2.mCloseCount.get());
+      dataSource.close();
+      assertEquals(1, value1.mCloseCount.get());
+      assertEquals(1, value2.mCloseCount.get());
+    }
+  }
+
+  @Test
+  public void testRace_CloseAndSetFailure() throws InterruptedException {
+    for (int i = 0; i < RACE_ITERATIONS; i++) {
+      final FakeAbstractDataSource dataSource = new FakeAbstractDataSource();
+      final CountingValue value = new CountingValue();
+      dataSource.setResult(value, INTERMEDIATE);
+      final Throwable throwable = new RuntimeException();
+      final AtomicInteger closeCount = new AtomicInteger();
+      ConcurrentRunner.run(
+          new Runnable() {
+            @Override
+            public void run() {
+              dataSource.setFailure(throwable);
+            }
+          },
+          new Runnable() {
+            @Override
+            public void run() {
+              if (dataSource.close()) {
+                closeCount.incrementAndGet();
+              }
+              if (dataSource.close()) {
+                closeCount.incrementAndGet();
+              }
+            }
+          });
+      assertEquals(1, closeCount.get());
+      assertEquals(1, value.mCloseCount.get());
+      assertTrue(dataSource.isClosed());
+      assertEquals(dataSource.hasFailed(), dataSource.getFailureCause() == throwable);
+      assertEquals(dataSource.hasFailed(), dataSource.isFinished());
+    }
+  }
 }
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.backends.okhttp3
+
+import com.facebook.imagepipeline.producers.BaseProducerContextCallbacks
+import com.facebook.imagepipeline.producers.NetworkFetcher
+import java.io.IOException
+import java.io.InputStream
+import java.util.concurrent.Executor
+import okhttp3.Call
+import okhttp3.Dispatcher
+import okhttp3.OkHttpClient
+import okhttp3.Request
+
+/**
+ * Network fetcher that uses OkHttp 3 as a backend, with a per-host limit of requests in flight and
+ * a priority queue in front of it.
+ *
+ * OkHttp negotiates HTTP/2 with the servers that support it, and then multiplexes all the requests
+ * to a host over a single connection, so that many more images can be downloaded at once than with
+ * one blocking connection per image. At most [maxRequestsPerHost] requests per host are handed to
+ * OkHttp; the others wait, and the waiting request whose producer context has the highest priority
+ * is sent first, in submission order among requests of the same priority. The priority is read when
+ * a slot frees up, so that a request whose priority changed while waiting is ordered accordingly.
+ *
+ * A request cancelled while waiting leaves the queue and is reported as cancelled right away. A
+ * request cancelled while in flight keeps its slot until OkHttp reports the cancellation, as the
+ * dispatcher of OkHttp counts the call against its own per-host limit until then.
+ *
+ * @param callFactory custom [Call.Factory] for fetching image from the network. Its own per-host
+ *   limit, if any, should not be lower than [maxRequestsPerHost]
+ * @param cancellationExecutor executor on which fetching cancellation is performed if cancellation
+ *   is requested from the UI Thread
+ * @param maxRequestsPerHost maximum number of requests to a host in flight at once
+ * @param disableOkHttpCache true if network requests should not be cached by OkHttp
+ */
+open class MultiplexedOkHttpNetworkFetcher
+@JvmOverloads
+constructor(
+    callFactory: Call.Factory,
+    cancellationExecutor: Executor,
+    private val maxRequestsPerHost: Int,
+    disableOkHttpCache: Boolean = true
+) : OkHttpNetworkFetcher(callFactory, cancellationExecutor, disableOkHttpCache) {
+
+  /**
+   * @param okHttpClient client to derive the client of the fetcher from. The derived client shares
+   *   its connection pool and executor, but has a dispatcher of its own that allows
+   *   [maxRequestsPerHost] requests per host
+   * @param maxRequestsPerHost maximum number of requests to a host in flight at once
+   */
+  @JvmOverloads
+  constructor(
+      okHttpClient: OkHttpClient,
+      maxRequestsPerHost: Int = DEFAULT_MAX_REQUESTS_PER_HOST
+  ) : this(
+      newClient(okHttpClient, maxRequestsPerHost),
+      okHttpClient.dispatcher().executorService(),
+      maxRequestsPerHost)
+
+  /** Requests per host, guarded by itself. */
+  private val hosts: MutableMap<String, HostRequests> = HashMap()
+
+  init {
+    require(maxRequestsPerHost > 0) { "maxRequestsPerHost must be positive: $maxRequestsPerHost" }
+  }
+
+  override fun fetchWithRequest(
+      fetchState: OkHttpNetworkFetchState,
+      callback: NetworkFetcher.Callback,
+      request: Request
+  ) {
+    val host = request.url().host()
+    val pendingRequest = PendingRequest(fetchState, callback, request, host)
+    synchronized(hosts) { hosts.getOrPut(host) { HostRequests() }.waiting.add(pendingRequest) }
+    fetchState.context.addCallbacks(
+        object : BaseProducerContextCallbacks() {
+          override fun onCancellationRequested() {
+            onCancellationRequested(pendingRequest)
+          }
+        })
+    sendRequests(host)
+  }
+
+  /** Returns the number of requests to [host] waiting for a slot. */
+  fun getWaitingRequestCount(host: String): Int =
+      synchronized(hosts) { hosts[host]?.waiting?.size ?: 0 }
+
+  /** Returns the number of requests to [host] in flight. */
+  fun getInFlightRequestCount(host: String): Int =
+      synchronized(hosts) { hosts[host]?.inFlightCount ?: 0 }
+
+  private fun onCancellationRequested(pendingRequest: PendingRequest) {
+    synchronized(hosts) {
+      // OkHttpNetworkFetcher cancels the call in flight itself, and its slot is released once
+      // OkHttp reports the cancellation
+      if (pendingRequest.state != STATE_WAITING) {
+        return
+      }
+      hosts[pendingRequest.host]?.waiting?.remove(pendingRequest)
+      pendingRequest.state = STATE_FINISHED
+      removeHostIfIdle(pendingRequest.host)
+    }
+    pendingRequest.callback.onCancellation()
+  }
+
+  private fun onRequestFinished(pendingRequest: PendingRequest) {
+    val released = synchronized(hosts) { release(pendingRequest) }
+    if (released) {
+      sendRequests(pendingRequest.host)
+    }
+  }
+
+  /** Sends the waiting requests to [host], highest priority first, while there are free slots. */
+  private fun sendRequests(host: String) {
+    while (true) {
+      val pendingRequest: PendingRequest
+      synchronized(hosts) {
+        val hostRequests = hosts[host] ?: return
+        if (hostRequests.inFlightCount >= maxRequestsPerHost || hostRequests.waiting.isEmpty()) {
+          return
+        }
+        pendingRequest = hostRequests.pollHighestPriority()
+        pendingRequest.state = STATE_IN_FLIGHT
+        hostRequests.inFlightCount++
+      }
+      super.fetchWithRequest(
+          pendingRequest.fetchState, ReleasingCallback(pendingRequest), pendingRequest.request)
+    }
+  }
+
+  /** Releases the slot of [pendingRequest] if it is in flight. Must be called holding [hosts]. */
+  private fun release(pendingRequest: PendingRequest): Boolean {
+    if (pendingRequest.state != STATE_IN_FLIGHT) {
+      return false
+    }
+    pendingRequest.state = STATE_FINISHED
+    hosts[pendingRequest.host]?.let { it.inFlightCount-- }
+    removeHostIfIdle(pendingRequest.host)
+    return true
+  }
+
+  private fun removeHostIfIdle(host: String) {
+    val hostRequests = hosts[host] ?: return
+    if (hostRequests.inFlightCount == 0 && hostRequests.waiting.isEmpty()) {
+      hosts.remove(host)
+    }
+  }
+
+  /** Releases the slot of the request once OkHttpNetworkFetcher is done with it. */
+  private inner class ReleasingCallback(private val pendingRequest: PendingRequest) :
+      NetworkFetcher.Callback {
+
+    @Throws(IOException::class)
+    override fun onResponse(response: InputStream, responseLength: Int) {
+      try {
+        pendingRequest.callback.onResponse(response, responseLength)
+      } finally {
+        onRequestFinished(pendingRequest)
+      }
+    }
+
+    override fun onFailure(throwable: Throwable) {
+      try {
+        pendingRequest.callback.onFailure(throwable)
+      } finally {
+        onRequestFinished(pendingRequest)
+      }
+    }
+
+    override fun onCancellation() {
+      try {
+        pendingRequest.callback.onCancellation()
+      } finally {
+        onRequestFinished(pendingRequest)
+      }
+    }
+  }
+
+  private class PendingRequest(
+      val fetchState: OkHttpNetworkFetchState,
+      val callback: NetworkFetcher.Callback,
+      val request: Request,
+      val host: String
+  ) {
+    /** Guarded by [hosts]. */
+    var state: Int = STATE_WAITING
+  }
+
+  private class HostRequests {
+    val waiting: MutableList<PendingRequest> = ArrayList()
+    var inFlightCount: Int = 0
+
+    fun pollHighestPriority(): PendingRequest {
+      var best = 0
+      for (i in 1 until waiting.size) {
+        val priority = waiting[i].fetchState.context.priority
+        val bestPriority = waiting[best].fetchState.context.priority
+        // the queue is in submission order, so only a strictly higher priority goes first
+        if (priority > bestPriority) {
+          best = i
+        }
+      }
+      return waiting.removeAt(best)
+    }
+  }
+
+  companion object {
+    const val DEFAULT_MAX_REQUESTS_PER_HOST = 16
+
+    private const val STATE_WAITING = 0
+    private const val STATE_IN_FLIGHT = 1
+    private const val STATE_FINISHED = 2
+
+    private fun newClient(okHttpClient: OkHttpClient, maxRequestsPerHost: Int): OkHttpClient {
+      val dispatcher = Dispatcher(okHttpClient.dispatcher().executorService())
+      dispatcher.maxRequests = maxOf(okHttpClient.dispatcher().maxRequests, maxRequestsPerHost)
+      dispatcher.maxRequestsPerHost = maxRequestsPerHost
+      return okHttpClient.newBuilder().dispatcher(dispatcher).build()
+    }
+  }
+}
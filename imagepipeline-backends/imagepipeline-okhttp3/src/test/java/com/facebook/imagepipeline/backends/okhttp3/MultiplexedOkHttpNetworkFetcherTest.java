@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.backends.okhttp3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.net.Uri;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.core.ImagePipelineConfigInterface;
+import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.producers.Consumer;
+import com.facebook.imagepipeline.producers.FetchState;
+import com.facebook.imagepipeline.producers.NetworkFetcher;
+import com.facebook.imagepipeline.producers.ProducerListener2;
+import com.facebook.imagepipeline.producers.SettableProducerContext;
+import com.facebook.imagepipeline.request.ImageRequest;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Tests {@link MultiplexedOkHttpNetworkFetcher} against a local HTTP server. */
+@RunWith(RobolectricTestRunner.class)
+public class MultiplexedOkHttpNetworkFetcherTest {
+
+  private static final String HOST = "127.0.0.1";
+  private static final int IMAGE_SIZE = 16 * 1024;
+  private static final long TIMEOUT_SECONDS = 30;
+
+  private HttpServer mServer;
+  private ExecutorService mServerExecutor;
+  private CallExecutor mCallExecutor;
+  private OkHttpClient mOkHttpClient;
+
+  private final List<String> mRequestedPaths = Collections.synchronizedList(new ArrayList<>());
+  private final BlockingQueue<String> mRequests = new LinkedBlockingQueue<>();
+  private final AtomicInteger mConcurrentRequests = new AtomicInteger();
+  private final AtomicInteger mMaxConcurrentRequests = new AtomicInteger();
+  private volatile CountDownLatch mServerGate = new CountDownLatch(0);
+
+  @Before
+  public void setUp() throws Exception {
+    mServerExecutor = Executors.newCachedThreadPool();
+    mServer = HttpServer.create(new InetSocketAddress(HOST, 0), 0);
+    mServer.setExecutor(mServerExecutor);
+    mServer.createContext(
+        "/",
+        new HttpHandler() {
+          @Override
+          public void handle(HttpExchange exchange) throws IOException {
+            serve(exchange);
+          }
+        });
+    mServer.start();
+    mCallExecutor = new CallExecutor();
+    mOkHttpClient = new OkHttpClient.Builder().dispatcher(new Dispatcher(mCallExecutor)).build();
+  }
+
+  @After
+  public void tearDown() {
+    mServerGate.countDown();
+    mServer.stop(0);
+    mServerExecutor.shutdownNow();
+    mCallExecutor.shutdown();
+    mOkHttpClient.connectionPool().evictAll();
+  }
+
+  @Test
+  public void testMaxRequestsPerHost() throws Exception {
+    MultiplexedOkHttpNetworkFetcher fetcher = new MultiplexedOkHttpNetworkFetcher(mOkHttpClient, 2);
+    mServerGate = new CountDownLatch(1);
+    TestCallback callback = new TestCallback(5);
+    for (int i = 0; i < 5; i++) {
+      fetch(fetcher, "/image" + i, Priority.HIGH, callback);
+    }
+    takeRequest();
+    takeRequest();
+    assertEquals(2, fetcher.getInFlightRequestCount(HOST));
+    assertEquals(3, fetcher.getWaitingRequestCount(HOST));
+
+    mServerGate.countDown();
+    callback.await();
+    assertEquals(5, callback.mResponses.get());
+    assertEquals(2, mMaxConcurrentRequests.get());
+    waitUntilIdle(fetcher);
+  }
+
+  @Test
+  public void testHigherPriorityIsSentFirst() throws Exception {
+    MultiplexedOkHttpNetworkFetcher fetcher = new MultiplexedOkHttpNetworkFetcher(mOkHttpClient, 1);
+    mServerGate = new CountDownLatch(1);
+    TestCallback callback = new TestCallback(4);
+    fetch(fetcher, "/first", Priority.LOW, callback);
+    assertEquals("/first", takeRequest());
+    fetch(fetcher, "/low", Priority.LOW, callback);
+    fetch(fetcher, "/medium", Priority.MEDIUM, callback);
+    fetch(fetcher, "/high", Priority.HIGH, callback);
+
+    mServerGate.countDown();
+    callback.await();
+    assertEquals(4, callback.mResponses.get());
+    assertEquals(Arrays.asList("/first", "/high", "/medium", "/low"), mRequestedPaths);
+  }
+
+  @Test
+  public void testCancelWaitingRequest() throws Exception {
+    MultiplexedOkHttpNetworkFetcher fetcher = new MultiplexedOkHttpNetworkFetcher(mOkHttpClient, 1);
+    mServerGate = new CountDownLatch(1);
+    TestCallback firstCallback = new TestCallback(1);
+    fetch(fetcher, "/first", Priority.HIGH, firstCallback);
+    assertEquals("/first", takeRequest());
+    TestCallback cancelledCallback = new TestCallback(1);
+    SettableProducerContext context =
+        fetch(fetcher, "/cancelled", Priority.HIGH, cancelledCallback);
+    assertEquals(1, fetcher.getWaitingRequestCount(HOST));
+
+    context.cancel();
+    assertEquals(1, cancelledCallback.mCancellations.get());
+    assertEquals(0, fetcher.getWaitingRequestCount(HOST));
+
+    mServerGate.countDown();
+    firstCallback.await();
+    assertEquals(Arrays.asList("/first"), mRequestedPaths);
+  }
+
+  @Test
+  public void testCancelInFlightRequestFreesSlotOnceOkHttpIsDone() throws Exception {
+    MultiplexedOkHttpNetworkFetcher fetcher = new MultiplexedOkHttpNetworkFetcher(mOkHttpClient, 1);
+    mServerGate = new CountDownLatch(1);
+    TestCallback cancelledCallback = new TestCallback(1);
+    SettableProducerContext context =
+        fetch(fetcher, "/cancelled", Priority.HIGH, cancelledCallback);
+    assertEquals("/cancelled", takeRequest());
+    TestCallback nextCallback = new TestCallback(1);
+    fetch(fetcher, "/next", Priority.HIGH, nextCallback);
+
+    context.cancel();
+    assertEquals("/next", takeRequest());
+    // the next request is only sent once OkHttp reported the cancellation, so that OkHttp never
+    // has more calls in flight to the host than the fetcher allows
+    assertEquals(1, cancelledCallback.mCancellations.get());
+    assertEquals(1, fetcher.getInFlightRequestCount(HOST));
+    assertEquals(0, fetcher.getWaitingRequestCount(HOST));
+
+    mServerGate.countDown();
+    nextCallback.await();
+    assertEquals(1, nextCallback.mResponses.get());
+    waitUntilIdle(fetcher);
+  }
+
+  private <FETCH_STATE extends FetchState> SettableProducerContext fetch(
+      NetworkFetcher<FETCH_STATE> fetcher,
+      String path,
+      Priority priority,
+      NetworkFetcher.Callback callback) {
+    ImageRequest imageRequest = mock(ImageRequest.class);
+    when(imageRequest.getSourceUri())
+        .thenReturn(Uri.parse("http://" + HOST + ":" + mServer.getAddress().getPort() + path));
+    SettableProducerContext context =
+        new SettableProducerContext(
+            imageRequest,
+            path,
+            mock(ProducerListener2.class),
+            null,
+            ImageRequest.RequestLevel.FULL_FETCH,
+            false,
+            false,
+            priority,
+            mock(ImagePipelineConfigInterface.class));
+    Consumer<EncodedImage> consumer = mock(Consumer.class);
+    fetcher.fetch(fetcher.createFetchState(consumer, context), callback);
+    return context;
+  }
+
+  private void serve(HttpExchange exchange) throws IOException {
+    String path = exchange.getRequestURI().getPath();
+    mRequestedPaths.add(path);
+    mRequests.add(path);
+    int concurrentRequests = mConcurrentRequests.incrementAndGet();
+    mMaxConcurrentRequests.accumulateAndGet(concurrentRequests, Math::max);
+    try {
+      mServerGate.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    mConcurrentRequests.decrementAndGet();
+    exchange.sendResponseHeaders(200, IMAGE_SIZE);
+    try (OutputStream body = exchange.getResponseBody()) {
+      body.write(new byte[IMAGE_SIZE]);
+    }
+  }
+
+  /** Waits for the server to receive the next request, and returns its path. */
+  private String takeRequest() throws InterruptedException {
+    String path = mRequests.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    assertNotNull(path);
+    return path;
+  }
+
+  /**
+   * The slot of a request is released right after its callback returns, on the thread of its call,
+   * so the fetcher is idle once no call of OkHttp is running anymore.
+   */
+  private void waitUntilIdle(MultiplexedOkHttpNetworkFetcher fetcher) throws InterruptedException {
+    mCallExecutor.awaitIdle();
+    assertEquals(0, fetcher.getInFlightRequestCount(HOST));
+    assertEquals(0, fetcher.getWaitingRequestCount(HOST));
+  }
+
+  /** Runs the calls of OkHttp, and lets the tests wait until none of them is running. */
+  private static class CallExecutor extends ThreadPoolExecutor {
+    private int mRunningCount;
+
+    CallExecutor() {
+      super(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      synchronized (this) {
+        mRunningCount++;
+      }
+      try {
+        super.execute(command);
+      } catch (RejectedExecutionException e) {
+        onTaskDone();
+        throw e;
+      }
+    }
+
+    @Override
+    protected void afterExecute(Runnable runnable, Throwable throwable) {
+      onTaskDone();
+    }
+
+    private synchronized void onTaskDone() {
+      mRunningCount--;
+      if (mRunningCount == 0) {
+        notifyAll();
+      }
+    }
+
+    synchronized void awaitIdle() throws InterruptedException {
+      long deadlineNs = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+      while (mRunningCount > 0) {
+        long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadlineNs - System.nanoTime());
+        assertTrue(remainingMs > 0);
+        wait(remainingMs);
+      }
+    }
+  }
+
+  private static class TestCallback implements NetworkFetcher.Callback {
+    private final CountDownLatch mLatch;
+    final AtomicInteger mResponses = new AtomicInteger();
+    final AtomicInteger mCancellations = new AtomicInteger();
+
+    TestCallback(int count) {
+      mLatch = new CountDownLatch(count);
+    }
+
+    @Override
+    public void onResponse(InputStream response, int responseLength) throws IOException {
+      byte[] buffer = new byte[4096];
+      while (response.read(buffer) != -1) {
+        // read the whole image, as the pipeline would
+      }
+      mResponses.incrementAndGet();
+      mLatch.countDown();
+    }
+
+    @Override
+    public void onFailure(Throwable throwable) {
+      mLatch.countDown();
+    }
+
+    @Override
+    public void onCancellation() {
+      mCancellations.incrementAndGet();
+      mLatch.countDown();
+    }
+
+    void await() throws InterruptedException {
+      assertTrue(mLatch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.testing;
+
+import com.facebook.infer.annotation.Nullsafe;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs code on several threads at once, for the tests of thread safe classes.
+ *
+ * <p>The threads are all started first and then released together, so that their code overlaps as
+ * much as possible. The first failure of a thread is rethrown once all the threads are done.
+ */
+@Nullsafe(Nullsafe.Mode.STRICT)
+public class ConcurrentRunner {
+
+  /** Code to run on each of the threads. */
+  public interface ThreadTask {
+    /**
+     * @param threadIndex the index of the thread, from 0 to the number of threads - 1
+     */
+    void run(int threadIndex) throws Exception;
+  }
+
+  private ConcurrentRunner() {}
+
+  /** Runs each of the runnables on a thread of its own, and waits until they are all done. */
+  public static void run(final Runnable... runnables) throws InterruptedException {
+    runOnThreads(
+        runnables.length,
+        new ThreadTask() {
+          @Override
+          public void run(int threadIndex) {
+            runnables[threadIndex].run();
+          }
+        });
+  }
+
+  /** Runs the task on the given number of threads, and waits until they are all done. */
+  public static void runOnThreads(int threadCount, final ThreadTask task)
+      throws InterruptedException {
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    List<Thread> threads = new ArrayList<>(threadCount);
+    for (int t = 0; t < threadCount; t++) {
+      final int threadIndex = t;
+      Thread thread =
+          new Thread(
+              new Runnable() {
+                @Override
+                public void run() {
+                  try {
+                    startLatch.await();
+                    task.run(threadIndex);
+                  } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                  }
+                }
+              });
+      thread.start();
+      threads.add(thread);
+    }
+    startLatch.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    Throwable firstFailure = failure.get();
+    if (firstFailure != null) {
+      throw new AssertionError(firstFailure);
+    }
+  }
+}
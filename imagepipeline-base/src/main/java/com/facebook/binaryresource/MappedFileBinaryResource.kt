@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.binaryresource
+
+import com.facebook.common.internal.Files
+import java.io.File
+import java.io.FileInputStream
+import java.io.IOException
+import java.io.InputStream
+import java.io.RandomAccessFile
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+
+/*
+ * Implementation of BinaryResource based on a real file, which can also be read through a read-only
+ * memory mapping instead of being copied. @see BinaryResource for more details.
+ */
+
+class MappedFileBinaryResource private constructor(val file: File) : BinaryResource {
+
+  @Throws(IOException::class) override fun openStream(): InputStream = FileInputStream(file)
+
+  override fun size(): Long = file.length() // 0L if file doesn't exist
+
+  @Throws(IOException::class) override fun read(): ByteArray = Files.toByteArray(file)
+
+  /**
+   * Maps the whole file read-only. The mapping doesn't need the file to stay open and is released
+   * once the returned buffer is no longer referenced.
+   */
+  @Throws(IOException::class)
+  fun map(): MappedByteBuffer =
+      RandomAccessFile(file, "r").use { randomAccessFile ->
+        randomAccessFile.channel.map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length())
+      }
+
+  override fun equals(other: Any?): Boolean {
+    if (other == null || other !is MappedFileBinaryResource) {
+      return false
+    }
+    return file == other.file
+  }
+
+  override fun hashCode(): Int = file.hashCode()
+
+  companion object {
+    @JvmStatic
+    fun create(file: File): MappedFileBinaryResource {
+      return MappedFileBinaryResource(file)
+    }
+
+    /*
+     * Returns a mappable view of the given resource if it is backed by a file, null otherwise.
+     */
+    @JvmStatic
+    fun createOrNull(resource: BinaryResource): MappedFileBinaryResource? {
+      return (resource as? FileBinaryResource)?.let { MappedFileBinaryResource(it.file) }
+    }
+  }
+}
@@ -39,4 +39,8 @@ public class BaseCacheEventListener implements CacheEventListener {
 
   @Override
   public void onCleared() {}
+
+  @Override
+  public void onEvictionPassFinished(
+      EvictionReason reason, int batchCount, long maxPauseMs, long totalPauseMs) {}
 }
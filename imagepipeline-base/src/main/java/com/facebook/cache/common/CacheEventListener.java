@@ -48,6 +48,20 @@ public interface CacheEventListener {
   /** Triggered by a full cache clearance. */
   void onCleared();
 
+  /**
+   * Triggered at the end of an eviction pass of a disk cache, after the eviction events of the
+   * pass. A pass evicts entries in batches, and the other operations of the cache wait for the
+   * batch in progress, so the pauses are the durations of the batches. An eviction that is not
+   * done in the background is a single batch, which includes listing the victims.
+   *
+   * @param reason the reason of the evictions
+   * @param batchCount the number of batches of the pass
+   * @param maxPauseMs the duration of the longest batch
+   * @param totalPauseMs the total duration of the batches
+   */
+  default void onEvictionPassFinished(
+      EvictionReason reason, int batchCount, long maxPauseMs, long totalPauseMs) {}
+
   enum EvictionReason {
     CACHE_FULL,
     CONTENT_STALE,
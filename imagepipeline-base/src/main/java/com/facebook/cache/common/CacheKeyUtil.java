@@ -11,6 +11,7 @@ import com.facebook.common.util.SecureHashUtil;
 import com.facebook.infer.annotation.Nullsafe;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 @Nullsafe(Nullsafe.Mode.STRICT)
@@ -18,45 +19,72 @@ public final class CacheKeyUtil {
 
   /**
    * Get a list of possible resourceIds from MultiCacheKey or get single resourceId from CacheKey.
+   *
+   * <p>The ids of {@link SimpleCacheKey} and {@link MultiCacheKey} are computed once and memoized
+   * in the key. The returned list must not be modified.
    */
   public static List<String> getResourceIds(final CacheKey key) {
-    try {
-      final List<String> ids;
-      if (key instanceof MultiCacheKey) {
-        List<CacheKey> keys = ((MultiCacheKey) key).getCacheKeys();
-        ids = new ArrayList<>(keys.size());
+    if (key instanceof MultiCacheKey) {
+      MultiCacheKey multiCacheKey = (MultiCacheKey) key;
+      List<String> ids = multiCacheKey.mResourceIds;
+      if (ids == null) {
+        List<CacheKey> keys = multiCacheKey.getCacheKeys();
+        List<String> newIds = new ArrayList<>(keys.size());
         for (int i = 0; i < keys.size(); i++) {
-          ids.add(secureHashKey(keys.get(i)));
+          newIds.add(secureHashKey(keys.get(i)));
         }
-      } else {
-        ids = new ArrayList<>(1);
-        ids.add(key.isResourceIdForDebugging() ? key.getUriString() : secureHashKey(key));
+        ids = Collections.unmodifiableList(newIds);
+        multiCacheKey.mResourceIds = ids;
+      }
+      return ids;
+    }
+    if (key instanceof SimpleCacheKey) {
+      SimpleCacheKey simpleCacheKey = (SimpleCacheKey) key;
+      List<String> ids = simpleCacheKey.mResourceIds;
+      if (ids == null) {
+        ids = Collections.singletonList(getSingleResourceId(key));
+        simpleCacheKey.mResourceIds = ids;
       }
       return ids;
-    } catch (UnsupportedEncodingException e) {
-      // This should never happen. All VMs support UTF-8
-      throw new RuntimeException(e);
     }
+    return Collections.singletonList(getSingleResourceId(key));
   }
 
   /**
    * Get the resourceId from the first key in MultiCacheKey or get single resourceId from CacheKey.
    */
   public static String getFirstResourceId(final CacheKey key) {
-    try {
-      if (key instanceof MultiCacheKey) {
-        List<CacheKey> keys = ((MultiCacheKey) key).getCacheKeys();
-        return secureHashKey(keys.get(0));
-      } else {
-        return secureHashKey(key);
+    if (key instanceof MultiCacheKey) {
+      List<CacheKey> keys = ((MultiCacheKey) key).getCacheKeys();
+      return secureHashKey(keys.get(0));
+    } else {
+      return secureHashKey(key);
+    }
+  }
+
+  private static String getSingleResourceId(final CacheKey key) {
+    return key.isResourceIdForDebugging() ? key.getUriString() : secureHashKey(key);
+  }
+
+  private static String secureHashKey(final CacheKey key) {
+    if (key instanceof SimpleCacheKey) {
+      SimpleCacheKey simpleCacheKey = (SimpleCacheKey) key;
+      String hash = simpleCacheKey.mSecureHash;
+      if (hash == null) {
+        hash = computeSecureHash(key);
+        simpleCacheKey.mSecureHash = hash;
       }
+      return hash;
+    }
+    return computeSecureHash(key);
+  }
+
+  private static String computeSecureHash(final CacheKey key) {
+    try {
+      return SecureHashUtil.makeSHA1HashBase64(key.getUriString().getBytes("UTF-8"));
     } catch (UnsupportedEncodingException e) {
       // This should never happen. All VMs support UTF-8
       throw new RuntimeException(e);
     }
   }
-
-  private static String secureHashKey(final CacheKey key) throws UnsupportedEncodingException {
-    return SecureHashUtil.makeSHA1HashBase64(key.getUriString().getBytes("UTF-8"));
-  }
 }
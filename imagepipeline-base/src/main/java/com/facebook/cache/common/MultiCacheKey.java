@@ -30,6 +30,9 @@ public class MultiCacheKey implements CacheKey {
 
   final List<CacheKey> mCacheKeys;
 
+  // Disk cache resource ids, memoized by CacheKeyUtil. Racy but immutable once computed.
+  @Nullable List<String> mResourceIds;
+
   public MultiCacheKey(List<CacheKey> cacheKeys) {
     mCacheKeys = Preconditions.checkNotNull(cacheKeys);
   }
@@ -47,4 +47,8 @@ public class NoOpCacheEventListener implements CacheEventListener {
 
   @Override
   public void onCleared() {}
+
+  @Override
+  public void onEvictionPassFinished(
+      EvictionReason reason, int batchCount, long maxPauseMs, long totalPauseMs) {}
 }
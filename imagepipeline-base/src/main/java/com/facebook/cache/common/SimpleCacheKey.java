@@ -10,6 +10,7 @@ package com.facebook.cache.common;
 import android.net.Uri;
 import com.facebook.common.internal.Preconditions;
 import com.facebook.infer.annotation.Nullsafe;
+import java.util.List;
 import javax.annotation.Nullable;
 
 /**
@@ -23,6 +24,10 @@ public class SimpleCacheKey implements CacheKey {
   final String mKey;
   final boolean mIsResourceIdForDebugging;
 
+  // Disk cache resource ids, memoized by CacheKeyUtil. Racy but immutable once computed.
+  @Nullable String mSecureHash;
+  @Nullable List<String> mResourceIds;
+
   public SimpleCacheKey(final String key) {
     this(key, false);
   }
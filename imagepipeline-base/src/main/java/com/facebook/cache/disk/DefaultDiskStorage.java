@@ -44,6 +44,7 @@ public class DefaultDiskStorage implements DiskStorage {
 
   private static final String CONTENT_FILE_EXTENSION = ".cnt";
   private static final String TEMP_FILE_EXTENSION = ".tmp";
+  private static final String INDEX_JOURNAL_FILE_EXTENSION = ".idx";
 
   private static final String DEFAULT_DISK_STORAGE_VERSION_PREFIX = "v2";
 
@@ -55,7 +56,7 @@ public class DefaultDiskStorage implements DiskStorage {
    * - such usage will hit Samsung's 6,500 photos cap in 43 days
    * - 100 buckets will extend that period to 4,300 days which is 11.78 years
    */
-  private static final int SHARDING_BUCKET_COUNT = 100;
+  static final int SHARDING_BUCKET_COUNT = 100;
 
   /** We will allow purging of any temp files older than this. */
   static final long TEMP_FILE_LIFETIME_MS = TimeUnit.MINUTES.toMillis(30);
@@ -149,6 +150,14 @@ public class DefaultDiskStorage implements DiskStorage {
         version);
   }
 
+  /**
+   * Name of the {@link DiskCacheIndexJournal} file of the given version. The journal lives in the
+   * root directory, next to the version directory, and is not purged as an unexpected file.
+   */
+  public static String getIndexJournalFileName(int version) {
+    return getVersionSubdirectoryName(version) + INDEX_JOURNAL_FILE_EXTENSION;
+  }
+
   @Override
   public boolean isEnabled() {
     return true;
@@ -217,10 +226,18 @@ public class DefaultDiskStorage implements DiskStorage {
    * @return the directory to store the file in
    */
   private String getSubdirectoryPath(String resourceId) {
-    String subdirectory = String.valueOf(Math.abs(resourceId.hashCode() % SHARDING_BUCKET_COUNT));
+    String subdirectory = String.valueOf(getShardBucket(resourceId));
     return mVersionDirectory + File.separator + subdirectory;
   }
 
+  /**
+   * Gets the shard bucket, i.e. the subdirectory, of a resource, in [0, SHARDING_BUCKET_COUNT).
+   * Resources of the same bucket are best accessed together.
+   */
+  public static int getShardBucket(String resourceId) {
+    return Math.abs(resourceId.hashCode() % SHARDING_BUCKET_COUNT);
+  }
+
   /**
    * Gets the directory to use to store the given key
    *
@@ -280,11 +297,17 @@ public class DefaultDiskStorage implements DiskStorage {
 
     @Override
     public void visitFile(File file) {
-      if (!insideBaseDirectory || !isExpectedFile(file)) {
+      if (insideBaseDirectory ? !isExpectedFile(file) : !isIndexJournalFile(file)) {
         file.delete();
       }
     }
 
+    /** The index journal (and its compaction temp file) live next to the version directory */
+    private boolean isIndexJournalFile(File file) {
+      return mRootDirectory.equals(file.getParentFile())
+          && file.getName().startsWith(mVersionDirectory.getName() + INDEX_JOURNAL_FILE_EXTENSION);
+    }
+
     @Override
     public void postVisitDirectory(File directory) {
       if (!mRootDirectory.equals(directory)) { // if it's root directory we must not touch it
@@ -39,6 +39,10 @@ public class DiskCacheConfig {
   private final DiskTrimmableRegistry mDiskTrimmableRegistry;
   @Nullable private final Context mContext;
   private final boolean mIndexPopulateAtStartupEnabled;
+  private final boolean mPersistentIndexEnabled;
+  private final boolean mIncrementalEvictionEnabled;
+  private final boolean mStripedLockingEnabled;
+  private final boolean mBackgroundEvictionEnabled;
 
   protected DiskCacheConfig(Builder builder) {
     mContext = builder.mContext;
@@ -76,6 +80,10 @@ public class DiskCacheConfig {
             ? NoOpDiskTrimmableRegistry.getInstance()
             : builder.mDiskTrimmableRegistry;
     mIndexPopulateAtStartupEnabled = builder.mIndexPopulateAtStartupEnabled;
+    mPersistentIndexEnabled = builder.mPersistentIndexEnabled;
+    mIncrementalEvictionEnabled = builder.mIncrementalEvictionEnabled;
+    mStripedLockingEnabled = builder.mStripedLockingEnabled;
+    mBackgroundEvictionEnabled = builder.mBackgroundEvictionEnabled;
   }
 
   public int getVersion() {
@@ -126,6 +134,22 @@ public class DiskCacheConfig {
     return mIndexPopulateAtStartupEnabled;
   }
 
+  public boolean getPersistentIndexEnabled() {
+    return mPersistentIndexEnabled;
+  }
+
+  public boolean getIncrementalEvictionEnabled() {
+    return mIncrementalEvictionEnabled;
+  }
+
+  public boolean getStripedLockingEnabled() {
+    return mStripedLockingEnabled;
+  }
+
+  public boolean getBackgroundEvictionEnabled() {
+    return mBackgroundEvictionEnabled;
+  }
+
   /**
    * Create a new builder.
    *
@@ -153,6 +177,10 @@ public class DiskCacheConfig {
     private @Nullable CacheEventListener mCacheEventListener;
     private @Nullable DiskTrimmableRegistry mDiskTrimmableRegistry;
     private boolean mIndexPopulateAtStartupEnabled;
+    private boolean mPersistentIndexEnabled;
+    private boolean mIncrementalEvictionEnabled;
+    private boolean mStripedLockingEnabled;
+    private boolean mBackgroundEvictionEnabled;
 
     private final @Nullable Context mContext;
 
@@ -251,6 +279,52 @@ public class DiskCacheConfig {
       return this;
     }
 
+    /**
+     * Persists the index of the cache in a journal next to the cache files, so that it can be
+     * restored at startup without listing every file of the cache.
+     *
+     * <p>See {@link DiskCacheIndexJournal}.
+     */
+    public Builder setPersistentIndexEnabled(boolean persistentIndexEnabled) {
+      mPersistentIndexEnabled = persistentIndexEnabled;
+      return this;
+    }
+
+    /**
+     * Maintains the eviction order in memory as entries are inserted, accessed and removed, so
+     * that evicting doesn't require listing and sorting every file of the cache.
+     *
+     * <p>The {@link EntryEvictionComparatorSupplier} must only rely on the id, size and timestamp
+     * of the entries. See {@link DiskCacheEvictionIndex}.
+     */
+    public Builder setIncrementalEvictionEnabled(boolean incrementalEvictionEnabled) {
+      mIncrementalEvictionEnabled = incrementalEvictionEnabled;
+      return this;
+    }
+
+    /**
+     * Guards the file system operations of the cache with one lock per shard bucket instead of a
+     * single cache-wide lock, so that reads, probes and inserts of unrelated entries don't wait for
+     * each other. Only the in-memory bookkeeping is still done under the cache-wide lock.
+     */
+    public Builder setStripedLockingEnabled(boolean stripedLockingEnabled) {
+      mStripedLockingEnabled = stripedLockingEnabled;
+      return this;
+    }
+
+    /**
+     * Evicts entries on a dedicated low priority thread, in small batches between which reads and
+     * inserts can proceed, instead of evicting them all at once before the insert that finds the
+     * cache full. The cache can exceed its size limit until the eviction catches up.
+     *
+     * <p>The pauses of the evictions are reported to {@link
+     * CacheEventListener#onEvictionPassFinished}.
+     */
+    public Builder setBackgroundEvictionEnabled(boolean backgroundEvictionEnabled) {
+      mBackgroundEvictionEnabled = backgroundEvictionEnabled;
+      return this;
+    }
+
     public DiskCacheConfig build() {
       return new DiskCacheConfig(this);
     }
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.disk;
+
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.infer.annotation.Nullsafe;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * In-memory eviction order of the entries of a {@link DiskStorageCache}, kept up to date on every
+ * insert, access and removal so that an eviction pass only has to pop its victims, in O(k log n),
+ * instead of listing and sorting the whole storage.
+ *
+ * <p>The order is given by a single {@link EntryEvictionComparator} obtained once from the
+ * supplier. This honours the default LRU order and {@link ScoreBasedEvictionComparatorSupplier},
+ * whose relative order does not depend on when the comparator was created. Comparators only see
+ * the id, size and timestamp of the entries: {@link DiskStorage.Entry#getResource()} is null for
+ * the entries whose resource was not seen by the cache, e.g. the ones loaded from the index
+ * journal.
+ *
+ * <p>As the other {@link DiskStorageCache} bookkeeping, this is guarded by the cache lock.
+ */
+@NotThreadSafe
+@Nullsafe(Nullsafe.Mode.STRICT)
+public class DiskCacheEvictionIndex {
+
+  /** An indexed entry. Immutable, so that its position in the ordered set never changes. */
+  static class IndexedEntry implements DiskStorage.Entry {
+    private final String mId;
+    private final long mSize;
+    private final long mTimestamp;
+    private final @Nullable BinaryResource mResource;
+
+    IndexedEntry(String id, long size, long timestamp, @Nullable BinaryResource resource) {
+      mId = id;
+      mSize = size;
+      mTimestamp = timestamp;
+      mResource = resource;
+    }
+
+    @Override
+    public String getId() {
+      return mId;
+    }
+
+    @Override
+    public long getTimestamp() {
+      return mTimestamp;
+    }
+
+    @Override
+    public long getSize() {
+      return mSize;
+    }
+
+    @Override
+    public @Nullable BinaryResource getResource() {
+      return mResource;
+    }
+  }
+
+  private final Map<String, IndexedEntry> mEntries = new HashMap<>();
+
+  // Entries written with a timestamp in the future, they are evicted before anything else
+  private final Map<String, IndexedEntry> mFutureEntries = new HashMap<>();
+
+  private final TreeSet<IndexedEntry> mEvictionOrder;
+
+  public DiskCacheEvictionIndex(final EntryEvictionComparator comparator) {
+    mEvictionOrder =
+        new TreeSet<>(
+            new Comparator<IndexedEntry>() {
+              @Override
+              public int compare(IndexedEntry lhs, IndexedEntry rhs) {
+                int result = comparator.compare(lhs, rhs);
+                // entries the comparator considers equal are still distinct entries
+                return result != 0 ? result : lhs.mId.compareTo(rhs.mId);
+              }
+            });
+  }
+
+  /** Replaces the content of the index with the given entries, e.g. after listing the storage. */
+  public void reset(Collection<DiskStorage.Entry> entries, long futureTimestampThreshold) {
+    clear();
+    for (DiskStorage.Entry entry : entries) {
+      add(
+          new IndexedEntry(
+              entry.getId(), entry.getSize(), entry.getTimestamp(), entry.getResource()),
+          futureTimestampThreshold);
+    }
+  }
+
+  /** Adds (or replaces) an entry. */
+  public void put(
+      String id,
+      long size,
+      long timestamp,
+      @Nullable BinaryResource resource,
+      long futureTimestampThreshold) {
+    remove(id);
+    add(new IndexedEntry(id, size, timestamp, resource), futureTimestampThreshold);
+  }
+
+  /**
+   * Updates the timestamp of an entry after it has been accessed.
+   *
+   * @param resource the resource of the entry, if known
+   */
+  public void touch(String id, long timestamp, @Nullable BinaryResource resource) {
+    IndexedEntry entry = mEntries.get(id);
+    if (entry == null) {
+      return;
+    }
+    remove(id);
+    add(
+        new IndexedEntry(
+            id, entry.mSize, timestamp, resource != null ? resource : entry.mResource),
+        Long.MAX_VALUE);
+  }
+
+  public void remove(String id) {
+    IndexedEntry entry = mEntries.remove(id);
+    if (entry != null && mFutureEntries.remove(id) == null) {
+      mEvictionOrder.remove(entry);
+    }
+  }
+
+  public void clear() {
+    mEntries.clear();
+    mFutureEntries.clear();
+    mEvictionOrder.clear();
+  }
+
+  public boolean contains(String id) {
+    return mEntries.containsKey(id);
+  }
+
+  public int getCount() {
+    return mEntries.size();
+  }
+
+  /**
+   * Returns the entry that should be evicted first, without removing it.
+   *
+   * @param futureTimestampThreshold entries with a timestamp above this are considered bogus and
+   *     evicted first
+   */
+  public @Nullable DiskStorage.Entry peekVictim(long futureTimestampThreshold) {
+    settleFutureEntries(futureTimestampThreshold);
+    if (!mFutureEntries.isEmpty()) {
+      return mFutureEntries.values().iterator().next();
+    }
+    return mEvictionOrder.isEmpty() ? null : mEvictionOrder.first();
+  }
+
+  /**
+   * Returns, in eviction order, the entries that should be evicted to free at least the given
+   * number of bytes. The entries are not removed, so that they can be deleted outside of the lock
+   * and removed one by one.
+   */
+  public List<DiskStorage.Entry> getVictims(long bytesToFree, long futureTimestampThreshold) {
+    List<DiskStorage.Entry> victims = new ArrayList<>();
+    settleFutureEntries(futureTimestampThreshold);
+    long sumItemSizes = 0L;
+    for (IndexedEntry futureEntry : mFutureEntries.values()) {
+      if (sumItemSizes > bytesToFree) {
+        return victims;
+      }
+      victims.add(futureEntry);
+      sumItemSizes += futureEntry.mSize;
+    }
+    for (IndexedEntry entry : mEvictionOrder) {
+      if (sumItemSizes > bytesToFree) {
+        break;
+      }
+      victims.add(entry);
+      sumItemSizes += entry.mSize;
+    }
+    return victims;
+  }
+
+  /** Moves the entries that time caught up with to the regular eviction order. */
+  private void settleFutureEntries(long futureTimestampThreshold) {
+    Iterator<IndexedEntry> iterator = mFutureEntries.values().iterator();
+    while (iterator.hasNext()) {
+      IndexedEntry futureEntry = iterator.next();
+      if (futureEntry.mTimestamp <= futureTimestampThreshold) {
+        iterator.remove();
+        mEvictionOrder.add(futureEntry);
+      }
+    }
+  }
+
+  private void add(IndexedEntry entry, long futureTimestampThreshold) {
+    mEntries.put(entry.mId, entry);
+    if (entry.mTimestamp > futureTimestampThreshold) {
+      mFutureEntries.put(entry.mId, entry);
+    } else {
+      mEvictionOrder.add(entry);
+    }
+  }
+}
@@ -0,0 +1,489 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.disk;
+
+import androidx.annotation.VisibleForTesting;
+import com.facebook.cache.common.CacheErrorLogger;
+import com.facebook.common.file.FileUtils;
+import com.facebook.common.internal.Closeables;
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.logging.FLog;
+import com.facebook.infer.annotation.Nullsafe;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Append-only journal that persists the {@link DiskStorageCache} index (resource id, size, last
+ * access time and key hash) next to the version directory, so that the index and the cache size
+ * can be restored at startup without walking every shard directory.
+ *
+ * <p>Inserts and removals are appended as checksummed records. The journal is periodically
+ * compacted into a snapshot of the live entries. If the journal is missing, was written for a
+ * different storage version or any record fails its checksum, {@link #load()} returns null and the
+ * caller is expected to {@link #rebuild} it from a full listing of the storage.
+ */
+@ThreadSafe
+@Nullsafe(Nullsafe.Mode.STRICT)
+public class DiskCacheIndexJournal {
+
+  private static final Class<?> TAG = DiskCacheIndexJournal.class;
+
+  private static final int MAGIC = 0x46494458; // "FIDX"
+  private static final int FORMAT_VERSION = 1;
+
+  private static final byte OP_INSERT = 1;
+  private static final byte OP_REMOVE = 2;
+
+  private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+  // Don't bother compacting small journals, rewriting them costs more than replaying them
+  private static final int COMPACTION_MIN_RECORD_COUNT = 2000;
+
+  /** An entry of the index, as persisted in the journal. */
+  public static class IndexEntry {
+    public final String resourceId;
+    public final long size;
+    public final long timestamp;
+    public final int keyHash;
+
+    public IndexEntry(String resourceId, long size, long timestamp, int keyHash) {
+      this.resourceId = resourceId;
+      this.size = size;
+      this.timestamp = timestamp;
+      this.keyHash = keyHash;
+    }
+  }
+
+  private final Supplier<File> mJournalFileSupplier;
+  private final int mVersion;
+  private final CacheErrorLogger mCacheErrorLogger;
+
+  @GuardedBy("this")
+  private final Map<String, IndexEntry> mEntries = new HashMap<>();
+
+  @GuardedBy("this")
+  private final ByteArrayOutputStream mRecordBuffer = new ByteArrayOutputStream(128);
+
+  @GuardedBy("this")
+  private final DataOutputStream mRecordWriter = new DataOutputStream(mRecordBuffer);
+
+  @GuardedBy("this")
+  private final CRC32 mCrc = new CRC32();
+
+  @GuardedBy("this")
+  private @Nullable DataOutputStream mOutput;
+
+  // Records appended while a compaction is writing its snapshot
+  @GuardedBy("this")
+  private @Nullable List<byte[]> mPendingRecords;
+
+  @GuardedBy("this")
+  private int mRecordCount;
+
+  @GuardedBy("this")
+  private long mSize;
+
+  // Set when a mutation could not be recorded, the journal on disk can't be trusted anymore
+  @GuardedBy("this")
+  private boolean mInvalidated;
+
+  /**
+   * @param journalFileSupplier supplies the journal file, lazily so that no disk access happens at
+   *     construction time
+   * @param version the version of the disk storage, journals written for other versions are
+   *     discarded
+   * @param cacheErrorLogger logger for various events
+   */
+  public DiskCacheIndexJournal(
+      Supplier<File> journalFileSupplier, int version, CacheErrorLogger cacheErrorLogger) {
+    mJournalFileSupplier = journalFileSupplier;
+    mVersion = version;
+    mCacheErrorLogger = cacheErrorLogger;
+  }
+
+  /** @return true if the journal has been loaded or rebuilt and is recording mutations */
+  public synchronized boolean isOpen() {
+    return mOutput != null;
+  }
+
+  /**
+   * Reads the journal from disk and opens it for appending.
+   *
+   * @return the live entries, or null if the journal is missing or can't be trusted
+   */
+  public synchronized @Nullable Collection<IndexEntry> load() {
+    File journalFile = mJournalFileSupplier.get();
+    if (mInvalidated || !journalFile.exists()) {
+      return null;
+    }
+    mEntries.clear();
+    mSize = 0;
+    int recordCount = 0;
+    boolean success = false;
+    DataInputStream input = null;
+    try {
+      input = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+      if (input.readInt() != MAGIC
+          || input.readInt() != FORMAT_VERSION
+          || input.readInt() != mVersion) {
+        FLog.w(TAG, "Index journal version mismatch, discarding it");
+        return null;
+      }
+      int op;
+      while ((op = input.read()) != -1) {
+        IndexEntry entry =
+            new IndexEntry(input.readUTF(), input.readLong(), input.readLong(), input.readInt());
+        int crc = input.readInt();
+        if (crc != encodeRecord((byte) op, entry)) {
+          FLog.w(TAG, "Index journal checksum mismatch, discarding it");
+          return null;
+        }
+        applyRecord((byte) op, entry);
+        recordCount++;
+      }
+      success = openForAppend(journalFile);
+    } catch (EOFException eofe) {
+      // a record was cut in the middle, most likely the process died while appending
+      FLog.w(TAG, "Index journal truncated, discarding it");
+      return null;
+    } catch (IOException ioe) {
+      mCacheErrorLogger.logError(
+          CacheErrorLogger.CacheErrorCategory.READ_FILE, TAG, "load: " + ioe.getMessage(), ioe);
+      return null;
+    } finally {
+      Closeables.closeQuietly(input);
+      if (!success) {
+        // forget about anything read so far
+        mEntries.clear();
+        mSize = 0;
+      }
+    }
+    if (!success) {
+      return null;
+    }
+    mRecordCount = recordCount;
+    return Collections.unmodifiableCollection(new ArrayList<>(mEntries.values()));
+  }
+
+  /**
+   * Replaces the journal with a snapshot of the given entries, obtained by listing the storage.
+   * Key hashes already known to the journal are preserved.
+   */
+  public synchronized void rebuild(Collection<DiskStorage.Entry> entries) {
+    Map<String, IndexEntry> previous = new HashMap<>(mEntries);
+    mEntries.clear();
+    mSize = 0;
+    for (DiskStorage.Entry entry : entries) {
+      IndexEntry known = previous.get(entry.getId());
+      applyRecord(
+          OP_INSERT,
+          new IndexEntry(
+              entry.getId(),
+              entry.getSize(),
+              entry.getTimestamp(),
+              known == null ? 0 : known.keyHash));
+    }
+    mInvalidated = false;
+    mPendingRecords = null;
+    List<IndexEntry> snapshot = new ArrayList<>(mEntries.values());
+    File tempFile = getTempFile();
+    try {
+      swapIn(tempFile, openSnapshot(tempFile, snapshot), null, snapshot.size());
+    } catch (IOException ioe) {
+      mCacheErrorLogger.logError(
+          CacheErrorLogger.CacheErrorCategory.WRITE_UPDATE_FILE_NOT_FOUND,
+          TAG,
+          "rebuild: " + ioe.getMessage(),
+          ioe);
+      invalidate();
+    }
+  }
+
+  /** Records a newly committed resource. */
+  public synchronized void recordInsert(String resourceId, long size, long timestamp, int keyHash) {
+    IndexEntry entry = new IndexEntry(resourceId, size, timestamp, keyHash);
+    applyRecord(OP_INSERT, entry);
+    appendRecord(OP_INSERT, entry);
+  }
+
+  /** Records that a resource was removed from the storage. */
+  public synchronized void recordRemove(String resourceId) {
+    if (mOutput != null && !mEntries.containsKey(resourceId)) {
+      return;
+    }
+    IndexEntry entry = new IndexEntry(resourceId, 0, 0, 0);
+    applyRecord(OP_REMOVE, entry);
+    appendRecord(OP_REMOVE, entry);
+  }
+
+  /**
+   * Records an access to a resource. Accesses are only kept in memory and persisted on the next
+   * compaction, so that reads never write to the journal.
+   */
+  public synchronized void recordAccess(String resourceId, long timestamp) {
+    IndexEntry entry = mEntries.get(resourceId);
+    if (entry != null) {
+      mEntries.put(
+          resourceId, new IndexEntry(resourceId, entry.size, timestamp, entry.keyHash));
+    }
+  }
+
+  /** Drops every entry, e.g. after the storage has been cleared. */
+  public synchronized void clear() {
+    rebuild(Collections.<DiskStorage.Entry>emptyList());
+  }
+
+  /** @return true if the journal holds enough obsolete records to be worth compacting */
+  public synchronized boolean shouldCompact() {
+    return mOutput != null
+        && mPendingRecords == null
+        && mRecordCount > COMPACTION_MIN_RECORD_COUNT
+        && mRecordCount > 2 * mEntries.size();
+  }
+
+  /**
+   * Rewrites the journal as a snapshot of the live entries. Only the final swap of the files
+   * happens under the journal lock, mutations recorded meanwhile are carried over to the new
+   * journal.
+   */
+  public void compact() {
+    List<IndexEntry> snapshot;
+    synchronized (this) {
+      if (mOutput == null || mPendingRecords != null) {
+        return;
+      }
+      snapshot = new ArrayList<>(mEntries.values());
+      mPendingRecords = new ArrayList<>();
+    }
+    File tempFile = getTempFile();
+    try {
+      DataOutputStream tempOutput = openSnapshot(tempFile, snapshot);
+      synchronized (this) {
+        List<byte[]> pendingRecords = mPendingRecords;
+        mPendingRecords = null;
+        if (pendingRecords == null || mOutput == null) {
+          // the journal was rebuilt or invalidated meanwhile, the snapshot is obsolete
+          Closeables.close(tempOutput, true);
+          tempFile.delete();
+          return;
+        }
+        swapIn(tempFile, tempOutput, pendingRecords, snapshot.size() + pendingRecords.size());
+      }
+    } catch (IOException ioe) {
+      tempFile.delete();
+      mCacheErrorLogger.logError(
+          CacheErrorLogger.CacheErrorCategory.WRITE_RENAME_FILE_OTHER,
+          TAG,
+          "compact: " + ioe.getMessage(),
+          ioe);
+      synchronized (this) {
+        mPendingRecords = null;
+        if (mOutput == null) {
+          invalidate();
+        }
+      }
+    }
+  }
+
+  public synchronized long getSize() {
+    return mSize;
+  }
+
+  public synchronized int getCount() {
+    return mEntries.size();
+  }
+
+  @VisibleForTesting
+  synchronized int getRecordCount() {
+    return mRecordCount;
+  }
+
+  @GuardedBy("this")
+  private void applyRecord(byte op, IndexEntry entry) {
+    IndexEntry previous =
+        op == OP_INSERT ? mEntries.put(entry.resourceId, entry) : mEntries.remove(entry.resourceId);
+    if (previous != null) {
+      mSize -= previous.size;
+    }
+    if (op == OP_INSERT) {
+      mSize += entry.size;
+    }
+  }
+
+  @GuardedBy("this")
+  private void appendRecord(byte op, IndexEntry entry) {
+    DataOutputStream output = mOutput;
+    if (output == null) {
+      // Not loaded yet: whatever is on disk doesn't reflect this mutation anymore
+      mInvalidated = true;
+      return;
+    }
+    try {
+      int crc = encodeRecord(op, entry);
+      mRecordWriter.writeInt(crc);
+      if (mPendingRecords != null) {
+        mPendingRecords.add(mRecordBuffer.toByteArray());
+      }
+      mRecordBuffer.writeTo(output);
+      output.flush();
+      mRecordCount++;
+    } catch (IOException ioe) {
+      mCacheErrorLogger.logError(
+          CacheErrorLogger.CacheErrorCategory.WRITE_UPDATE_FILE_NOT_FOUND,
+          TAG,
+          "appendRecord: " + ioe.getMessage(),
+          ioe);
+      invalidate();
+    }
+  }
+
+  /**
+   * Encodes the record into {@link #mRecordBuffer}.
+   *
+   * @return the checksum of the encoded record
+   */
+  @GuardedBy("this")
+  private int encodeRecord(byte op, IndexEntry entry) throws IOException {
+    mRecordBuffer.reset();
+    mRecordWriter.writeByte(op);
+    mRecordWriter.writeUTF(entry.resourceId);
+    mRecordWriter.writeLong(entry.size);
+    mRecordWriter.writeLong(entry.timestamp);
+    mRecordWriter.writeInt(entry.keyHash);
+    mRecordWriter.flush();
+    mCrc.reset();
+    mCrc.update(mRecordBuffer.toByteArray());
+    return (int) mCrc.getValue();
+  }
+
+  /**
+   * Appends the given records to the snapshot being written and replaces the journal with it.
+   * The snapshot stream is closed in any case.
+   */
+  @GuardedBy("this")
+  private void swapIn(
+      File tempFile,
+      DataOutputStream tempOutput,
+      @Nullable List<byte[]> extraRecords,
+      int recordCount)
+      throws IOException {
+    try {
+      if (extraRecords != null) {
+        for (byte[] record : extraRecords) {
+          tempOutput.write(record);
+        }
+      }
+    } finally {
+      tempOutput.close();
+    }
+    File journalFile = mJournalFileSupplier.get();
+    closeOutput();
+    FileUtils.rename(tempFile, journalFile);
+    if (!openForAppend(journalFile)) {
+      throw new IOException("Could not reopen index journal " + journalFile);
+    }
+    mRecordCount = recordCount;
+  }
+
+  private File getTempFile() {
+    return new File(mJournalFileSupplier.get().getPath() + TEMP_FILE_SUFFIX);
+  }
+
+  /** Writes the header and the given entries to a new file, returning the still open stream. */
+  private DataOutputStream openSnapshot(File file, List<IndexEntry> snapshot) throws IOException {
+    File parent = file.getParentFile();
+    if (parent != null) {
+      FileUtils.mkdirs(parent);
+    }
+    DataOutputStream output =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    boolean success = false;
+    try {
+      output.writeInt(MAGIC);
+      output.writeInt(FORMAT_VERSION);
+      output.writeInt(mVersion);
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream(128);
+      DataOutputStream writer = new DataOutputStream(buffer);
+      CRC32 crc = new CRC32();
+      for (IndexEntry entry : snapshot) {
+        buffer.reset();
+        writer.writeByte(OP_INSERT);
+        writer.writeUTF(entry.resourceId);
+        writer.writeLong(entry.size);
+        writer.writeLong(entry.timestamp);
+        writer.writeInt(entry.keyHash);
+        writer.flush();
+        crc.reset();
+        crc.update(buffer.toByteArray());
+        writer.writeInt((int) crc.getValue());
+        buffer.writeTo(output);
+      }
+      success = true;
+      return output;
+    } finally {
+      if (!success) {
+        Closeables.close(output, true);
+      }
+    }
+  }
+
+  @GuardedBy("this")
+  private boolean openForAppend(File journalFile) {
+    closeOutput();
+    try {
+      mOutput =
+          new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile, true)));
+      return true;
+    } catch (IOException ioe) {
+      mCacheErrorLogger.logError(
+          CacheErrorLogger.CacheErrorCategory.WRITE_UPDATE_FILE_NOT_FOUND,
+          TAG,
+          "openForAppend: " + ioe.getMessage(),
+          ioe);
+      invalidate();
+      return false;
+    }
+  }
+
+  @GuardedBy("this")
+  private void closeOutput() {
+    DataOutputStream output = mOutput;
+    mOutput = null;
+    try {
+      Closeables.close(output, true);
+    } catch (IOException ioe) {
+      // swallowed
+    }
+  }
+
+  /** Stops recording and makes sure the journal on disk is never trusted again. */
+  @GuardedBy("this")
+  private void invalidate() {
+    closeOutput();
+    mInvalidated = true;
+    mJournalFileSupplier.get().delete();
+  }
+}
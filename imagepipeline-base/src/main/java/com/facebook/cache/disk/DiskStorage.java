@@ -163,6 +163,11 @@ public interface DiskStorage {
     /** calculated on first time and never changes so it can be used as immutable * */
     long getSize();
 
+    /**
+     * @return the resource, or null if it is not known, e.g. for the entries of a {@link
+     *     DiskCacheEvictionIndex} whose resource was not seen by the cache
+     */
+    @Nullable
     BinaryResource getResource();
   }
 
@@ -20,6 +20,8 @@ import com.facebook.common.internal.Preconditions;
 import com.facebook.common.logging.FLog;
 import com.facebook.common.statfs.StatFsHelper;
 import com.facebook.common.time.Clock;
+import com.facebook.common.time.MonotonicClock;
+import com.facebook.common.time.RealtimeSinceBootClock;
 import com.facebook.common.time.SystemClock;
 import com.facebook.infer.annotation.Nullsafe;
 import java.io.IOException;
@@ -27,11 +29,15 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
@@ -53,11 +59,14 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
   private static final long FILECACHE_SIZE_UPDATE_PERIOD_MS = TimeUnit.MINUTES.toMillis(30);
   private static final double TRIMMING_LOWER_BOUND = 0.02;
   private static final long UNINITIALIZED = -1;
+  // Bounds of a batch of a background eviction, the other operations wait for the batch
+  private static final int EVICTION_BATCH_MAX_COUNT = 32;
+  private static final long EVICTION_BATCH_MAX_DURATION_MS = 8;
 
   private final long mLowDiskSpaceCacheSizeLimit;
   private final long mDefaultCacheSizeLimit;
   private final CountDownLatch mCountDownLatch;
-  private long mCacheSizeLimit;
+  private volatile long mCacheSizeLimit;
 
   private final CacheEventListener mCacheEventListener;
 
@@ -66,7 +75,7 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
   @VisibleForTesting
   final Set<String> mResourceIndex;
 
-  private long mCacheSizeLastUpdateTime;
+  private volatile long mCacheSizeLastUpdateTime;
 
   private final long mCacheSizeLimitMinimum;
 
@@ -77,6 +86,22 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
   private final CacheErrorLogger mCacheErrorLogger;
   private final boolean mIndexPopulateAtStartupEnabled;
 
+  // Persistent copy of the index, if enabled. Mutations are recorded under mLock.
+  private final @Nullable DiskCacheIndexJournal mIndexJournal;
+
+  @GuardedBy("mLock")
+  private boolean mIndexJournalLoadAttempted;
+
+  private final AtomicBoolean mIndexJournalCompactionScheduled = new AtomicBoolean();
+
+  // Eviction order maintained incrementally, if enabled. Only valid while mCacheStats is.
+  @GuardedBy("mLock")
+  private final @Nullable DiskCacheEvictionIndex mEvictionIndex;
+
+  private final AtomicBoolean mPurgeScheduled = new AtomicBoolean();
+
+  private final Executor mBackgroundExecutor;
+
   private final CacheStats mCacheStats;
 
   private final Clock mClock;
@@ -84,47 +109,70 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
   // synchronization object.
   private final Object mLock = new Object();
 
+  // Per shard bucket locks guarding the file system operations on a resource, if striped locking
+  // is enabled. A stripe lock is always acquired before mLock, never while holding it.
+  private final @Nullable Object[] mStripeLocks;
+
+  // Serializes the evictions in striped mode, or each batch of a background eviction. Acquired
+  // before any stripe lock.
+  private final Object mEvictionLock = new Object();
+
+  // Runs the evictions in batches, if background eviction is enabled. Inserts only schedule them.
+  private final @Nullable Executor mEvictionExecutor;
+
+  private final AtomicBoolean mEvictionScheduled = new AtomicBoolean();
+
+  // Incremented to cancel the background eviction scheduled or in progress, if any
+  private final AtomicInteger mEvictionGeneration = new AtomicInteger();
+
+  // Measures the pauses of the evictions
+  private final MonotonicClock mMonotonicClock = RealtimeSinceBootClock.get();
+
   private boolean mIndexReady;
 
   /**
    * Stats about the cache - currently size of the cache (in bytes) and number of items in the cache
+   *
+   * <p>The getters are lock-free, so that the size checks done before each insert don't contend on
+   * a monitor. The updates are all made while holding mLock, which keeps an increment from racing
+   * with a reset.
    */
   @VisibleForTesting
   static class CacheStats {
 
-    private boolean mInitialized = false;
-    private long mSize = UNINITIALIZED; // size of the cache (in bytes)
-    private long mCount = UNINITIALIZED; // number of items in the cache
+    private volatile boolean mInitialized = false;
+    private final AtomicLong mSize = new AtomicLong(UNINITIALIZED); // size of the cache (in bytes)
+    private final AtomicLong mCount = new AtomicLong(UNINITIALIZED); // number of items in the cache
 
-    public synchronized boolean isInitialized() {
+    public boolean isInitialized() {
       return mInitialized;
     }
 
-    public synchronized void reset() {
+    public void reset() {
       mInitialized = false;
-      mCount = UNINITIALIZED;
-      mSize = UNINITIALIZED;
+      mCount.set(UNINITIALIZED);
+      mSize.set(UNINITIALIZED);
     }
 
-    public synchronized void set(long size, long count) {
-      mCount = count;
-      mSize = size;
+    public void set(long size, long count) {
+      mCount.set(count);
+      mSize.set(size);
       mInitialized = true;
     }
 
-    public synchronized void increment(long sizeIncrement, long countIncrement) {
+    public void increment(long sizeIncrement, long countIncrement) {
       if (mInitialized) {
-        mSize += sizeIncrement;
-        mCount += countIncrement;
+        mSize.addAndGet(sizeIncrement);
+        mCount.addAndGet(countIncrement);
       }
     }
 
-    public synchronized long getSize() {
-      return mSize;
+    public long getSize() {
+      return mSize.get();
     }
 
-    public synchronized long getCount() {
-      return mCount;
+    public long getCount() {
+      return mCount.get();
     }
   }
 
@@ -132,12 +180,48 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
     public final long mCacheSizeLimitMinimum;
     public final long mLowDiskSpaceCacheSizeLimit;
     public final long mDefaultCacheSizeLimit;
+    public final boolean mIncrementalEvictionEnabled;
+    public final boolean mStripedLockingEnabled;
 
     public Params(
         long cacheSizeLimitMinimum, long lowDiskSpaceCacheSizeLimit, long defaultCacheSizeLimit) {
+      this(cacheSizeLimitMinimum, lowDiskSpaceCacheSizeLimit, defaultCacheSizeLimit, false);
+    }
+
+    /**
+     * @param incrementalEvictionEnabled if true, the eviction order is maintained in memory (see
+     *     {@link DiskCacheEvictionIndex}) instead of listing and sorting the storage on every
+     *     eviction
+     */
+    public Params(
+        long cacheSizeLimitMinimum,
+        long lowDiskSpaceCacheSizeLimit,
+        long defaultCacheSizeLimit,
+        boolean incrementalEvictionEnabled) {
+      this(
+          cacheSizeLimitMinimum,
+          lowDiskSpaceCacheSizeLimit,
+          defaultCacheSizeLimit,
+          incrementalEvictionEnabled,
+          false);
+    }
+
+    /**
+     * @param stripedLockingEnabled if true, reads, probes and commits of resources in different
+     *     shard buckets don't block each other, and only the bookkeeping is done under the cache
+     *     lock
+     */
+    public Params(
+        long cacheSizeLimitMinimum,
+        long lowDiskSpaceCacheSizeLimit,
+        long defaultCacheSizeLimit,
+        boolean incrementalEvictionEnabled,
+        boolean stripedLockingEnabled) {
       mCacheSizeLimitMinimum = cacheSizeLimitMinimum;
       mLowDiskSpaceCacheSizeLimit = lowDiskSpaceCacheSizeLimit;
       mDefaultCacheSizeLimit = defaultCacheSizeLimit;
+      mIncrementalEvictionEnabled = incrementalEvictionEnabled;
+      mStripedLockingEnabled = stripedLockingEnabled;
     }
   }
 
@@ -150,6 +234,63 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
       @Nullable DiskTrimmableRegistry diskTrimmableRegistry,
       final Executor executorForBackgrountInit,
       boolean indexPopulateAtStartupEnabled) {
+    this(
+        diskStorage,
+        entryEvictionComparatorSupplier,
+        params,
+        cacheEventListener,
+        cacheErrorLogger,
+        diskTrimmableRegistry,
+        executorForBackgrountInit,
+        indexPopulateAtStartupEnabled,
+        null);
+  }
+
+  /**
+   * @param indexJournal if not null, the index and the cache size are persisted in this journal
+   *     and restored from it at startup instead of listing the whole storage
+   */
+  public DiskStorageCache(
+      DiskStorage diskStorage,
+      EntryEvictionComparatorSupplier entryEvictionComparatorSupplier,
+      Params params,
+      CacheEventListener cacheEventListener,
+      CacheErrorLogger cacheErrorLogger,
+      @Nullable DiskTrimmableRegistry diskTrimmableRegistry,
+      final Executor executorForBackgrountInit,
+      boolean indexPopulateAtStartupEnabled,
+      @Nullable DiskCacheIndexJournal indexJournal) {
+    this(
+        diskStorage,
+        entryEvictionComparatorSupplier,
+        params,
+        cacheEventListener,
+        cacheErrorLogger,
+        diskTrimmableRegistry,
+        executorForBackgrountInit,
+        indexPopulateAtStartupEnabled,
+        indexJournal,
+        null);
+  }
+
+  /**
+   * @param evictionExecutor if not null, evictions run on this executor, ideally a low priority
+   *     one, in batches between which the other operations of the cache can proceed. Inserts
+   *     then only schedule an eviction when the cache is full, instead of evicting before writing.
+   *     The eviction keeps going from the size limit down to 90% of it, unless the cache is
+   *     cleared meanwhile
+   */
+  public DiskStorageCache(
+      DiskStorage diskStorage,
+      EntryEvictionComparatorSupplier entryEvictionComparatorSupplier,
+      Params params,
+      CacheEventListener cacheEventListener,
+      CacheErrorLogger cacheErrorLogger,
+      @Nullable DiskTrimmableRegistry diskTrimmableRegistry,
+      final Executor executorForBackgrountInit,
+      boolean indexPopulateAtStartupEnabled,
+      @Nullable DiskCacheIndexJournal indexJournal,
+      @Nullable Executor evictionExecutor) {
     this.mLowDiskSpaceCacheSizeLimit = params.mLowDiskSpaceCacheSizeLimit;
     this.mDefaultCacheSizeLimit = params.mDefaultCacheSizeLimit;
     this.mCacheSizeLimit = params.mDefaultCacheSizeLimit;
@@ -173,6 +314,26 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
 
     mIndexPopulateAtStartupEnabled = indexPopulateAtStartupEnabled;
 
+    mIndexJournal = indexJournal;
+
+    mBackgroundExecutor = executorForBackgrountInit;
+
+    mEvictionExecutor = evictionExecutor;
+
+    mEvictionIndex =
+        params.mIncrementalEvictionEnabled
+            ? new DiskCacheEvictionIndex(entryEvictionComparatorSupplier.get())
+            : null;
+
+    if (params.mStripedLockingEnabled) {
+      mStripeLocks = new Object[DefaultDiskStorage.SHARDING_BUCKET_COUNT];
+      for (int i = 0; i < mStripeLocks.length; i++) {
+        mStripeLocks[i] = new Object();
+      }
+    } else {
+      mStripeLocks = null;
+    }
+
     this.mResourceIndex = new HashSet<>();
 
     if (diskTrimmableRegistry != null) {
@@ -187,9 +348,7 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
 
             @Override
             public void run() {
-              synchronized (mLock) {
-                maybeUpdateFileCacheSize();
-              }
+              updateFileCacheSize(false);
               mIndexReady = true;
               mCountDownLatch.countDown();
             }
@@ -241,30 +400,46 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
    */
   @Override
   public @Nullable BinaryResource getResource(final CacheKey key) {
+    if (mStripeLocks == null) {
+      synchronized (mLock) {
+        return getResourceInternal(key);
+      }
+    }
+    return getResourceInternal(key);
+  }
+
+  private @Nullable BinaryResource getResourceInternal(final CacheKey key) {
     String resourceId = null;
     SettableCacheEvent cacheEvent = SettableCacheEvent.obtain().setCacheKey(key);
     try {
-      synchronized (mLock) {
-        BinaryResource resource = null;
-        List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
-        for (int i = 0; i < resourceIds.size(); i++) {
-          resourceId = resourceIds.get(i);
-          cacheEvent.setResourceId(resourceId);
+      BinaryResource resource = null;
+      List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
+      for (int i = 0; i < resourceIds.size() && resource == null; i++) {
+        resourceId = resourceIds.get(i);
+        cacheEvent.setResourceId(resourceId);
+        synchronized (getStripeLock(resourceId)) {
           resource = mStorage.getResource(resourceId, key);
           if (resource != null) {
-            break;
+            synchronized (mLock) {
+              mResourceIndex.add(resourceId);
+              onResourceAccessed(resourceId, resource);
+            }
+          } else if (i == resourceIds.size() - 1) {
+            synchronized (mLock) {
+              if (mResourceIndex.remove(resourceId)) {
+                onResourceRemoved(resourceId);
+              }
+            }
           }
         }
-        if (resource == null) {
-          mCacheEventListener.onMiss(cacheEvent);
-          mResourceIndex.remove(resourceId);
-        } else {
-          Preconditions.checkNotNull(resourceId);
-          mCacheEventListener.onHit(cacheEvent);
-          mResourceIndex.add(resourceId);
-        }
-        return resource;
       }
+      if (resource == null) {
+        mCacheEventListener.onMiss(cacheEvent);
+      } else {
+        Preconditions.checkNotNull(resourceId);
+        mCacheEventListener.onHit(cacheEvent);
+      }
+      return resource;
     } catch (IOException ioe) {
       mCacheErrorLogger.logError(
           CacheErrorLogger.CacheErrorCategory.GENERIC_IO, TAG, "getResource", ioe);
@@ -287,19 +462,31 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
    * @return whether the keyed mValue is in the cache
    */
   public boolean probe(final CacheKey key) {
+    if (mStripeLocks == null) {
+      synchronized (mLock) {
+        return probeInternal(key);
+      }
+    }
+    return probeInternal(key);
+  }
+
+  private boolean probeInternal(final CacheKey key) {
     String resourceId = null;
     try {
-      synchronized (mLock) {
-        List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
-        for (int i = 0; i < resourceIds.size(); i++) {
-          resourceId = resourceIds.get(i);
+      List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
+      for (int i = 0; i < resourceIds.size(); i++) {
+        resourceId = resourceIds.get(i);
+        synchronized (getStripeLock(resourceId)) {
           if (mStorage.touch(resourceId, key)) {
-            mResourceIndex.add(resourceId);
+            synchronized (mLock) {
+              mResourceIndex.add(resourceId);
+              onResourceAccessed(resourceId, null);
+            }
             return true;
           }
         }
-        return false;
       }
+      return false;
     } catch (IOException e) {
       SettableCacheEvent cacheEvent =
           // NULLSAFE_FIXME[Parameter Not Nullable]
@@ -313,7 +500,11 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
   /** Creates a temp file for writing outside the session lock */
   private DiskStorage.Inserter startInsert(final String resourceId, final CacheKey key)
       throws IOException {
-    maybeEvictFilesInCacheDir();
+    if (mEvictionExecutor != null) {
+      maybeScheduleEviction(mEvictionExecutor);
+    } else {
+      maybeEvictFilesInCacheDir();
+    }
     return mStorage.insert(resourceId, key);
   }
 
@@ -324,10 +515,22 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
   private BinaryResource endInsert(
       final DiskStorage.Inserter inserter, final CacheKey key, String resourceId)
       throws IOException {
-    synchronized (mLock) {
+    synchronized (getStripeLock(resourceId)) {
       BinaryResource resource = inserter.commit(key);
-      mResourceIndex.add(resourceId);
-      mCacheStats.increment(resource.size(), 1);
+      synchronized (mLock) {
+        mResourceIndex.add(resourceId);
+        mCacheStats.increment(resource.size(), 1);
+        long now = mClock.now();
+        if (mEvictionIndex != null) {
+          mEvictionIndex.put(
+              resourceId, resource.size(), now, resource, now + FUTURE_TIMESTAMP_THRESHOLD_MS);
+        }
+        if (mIndexJournal != null) {
+          mIndexJournal.recordInsert(
+              resourceId, resource.size(), now, key.getUriString().hashCode());
+          maybeScheduleIndexJournalCompaction();
+        }
+      }
       return resource;
     }
   }
@@ -338,11 +541,8 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
     // when writing files.
     SettableCacheEvent cacheEvent = SettableCacheEvent.obtain().setCacheKey(key);
     mCacheEventListener.onWriteAttempt(cacheEvent);
-    String resourceId;
-    synchronized (mLock) {
-      // for multiple resource ids associated with the same image, we only write one file
-      resourceId = CacheKeyUtil.getFirstResourceId(key);
-    }
+    // for multiple resource ids associated with the same image, we only write one file
+    String resourceId = CacheKeyUtil.getFirstResourceId(key);
     cacheEvent.setResourceId(resourceId);
     try {
       // getting the file is synchronized
@@ -371,19 +571,49 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
 
   @Override
   public void remove(CacheKey key) {
-    synchronized (mLock) {
-      try {
-        String resourceId = null;
-        List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
-        for (int i = 0; i < resourceIds.size(); i++) {
-          resourceId = resourceIds.get(i);
-          mStorage.remove(resourceId);
-          mResourceIndex.remove(resourceId);
+    if (mStripeLocks == null) {
+      synchronized (mLock) {
+        removeInternal(key);
+      }
+    } else {
+      removeInternal(key);
+    }
+  }
+
+  private void removeInternal(CacheKey key) {
+    try {
+      List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
+      for (int i = 0; i < resourceIds.size(); i++) {
+        removeResource(resourceIds.get(i), null);
+      }
+    } catch (IOException e) {
+      mCacheErrorLogger.logError(
+          CacheErrorLogger.CacheErrorCategory.DELETE_FILE, TAG, "delete: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Removes a resource from the storage and from all the bookkeeping. The resource is removed
+   * under its stripe lock so that it can't race with a commit of the same resource.
+   *
+   * <p>In striped mode this must NOT be called while holding mLock.
+   *
+   * @param entry the entry listed by the storage, if the resource comes from a listing
+   * @return size of the deleted file, 0 or -1 if nothing was deleted
+   */
+  private long removeResource(String resourceId, @Nullable DiskStorage.Entry entry)
+      throws IOException {
+    synchronized (getStripeLock(resourceId)) {
+      long deletedSize = entry != null ? mStorage.remove(entry) : mStorage.remove(resourceId);
+      synchronized (mLock) {
+        mResourceIndex.remove(resourceId);
+        // also drops it from the eviction index, even if it could not be deleted
+        onResourceRemoved(resourceId);
+        if (deletedSize > 0) {
+          mCacheStats.increment(-deletedSize, -1);
         }
-      } catch (IOException e) {
-        mCacheErrorLogger.logError(
-            CacheErrorLogger.CacheErrorCategory.DELETE_FILE, TAG, "delete: " + e.getMessage(), e);
       }
+      return deletedSize;
     }
   }
 
@@ -395,48 +625,53 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
    */
   @Override
   public long clearOldEntries(long cacheExpirationMs) {
+    if (mStripeLocks == null) {
+      synchronized (mLock) {
+        return clearOldEntriesInternal(cacheExpirationMs);
+      }
+    }
+    return clearOldEntriesInternal(cacheExpirationMs);
+  }
+
+  private long clearOldEntriesInternal(long cacheExpirationMs) {
     long oldestRemainingEntryAgeMs = 0L;
-    synchronized (mLock) {
-      try {
-        long now = mClock.now();
-        Collection<DiskStorage.Entry> allEntries = mStorage.getEntries();
-        final long cacheSizeBeforeClearance = mCacheStats.getSize();
-        int itemsRemovedCount = 0;
-        long itemsRemovedSize = 0L;
-        for (DiskStorage.Entry entry : allEntries) {
-          // entry age of zero is disallowed.
-          long entryAgeMs = Math.max(1, Math.abs(now - entry.getTimestamp()));
-          if (entryAgeMs >= cacheExpirationMs) {
-            long entryRemovedSize = mStorage.remove(entry);
-            mResourceIndex.remove(entry.getId());
-            if (entryRemovedSize > 0) {
-              itemsRemovedCount++;
-              itemsRemovedSize += entryRemovedSize;
-              SettableCacheEvent cacheEvent =
-                  SettableCacheEvent.obtain()
-                      .setResourceId(entry.getId())
-                      .setEvictionReason(CacheEventListener.EvictionReason.CONTENT_STALE)
-                      .setItemSize(entryRemovedSize)
-                      .setCacheSize(cacheSizeBeforeClearance - itemsRemovedSize);
-              mCacheEventListener.onEviction(cacheEvent);
-              cacheEvent.recycle();
-            }
-          } else {
-            oldestRemainingEntryAgeMs = Math.max(oldestRemainingEntryAgeMs, entryAgeMs);
+    try {
+      long now = mClock.now();
+      Collection<DiskStorage.Entry> allEntries = mStorage.getEntries();
+      final long cacheSizeBeforeClearance = mCacheStats.getSize();
+      int itemsRemovedCount = 0;
+      long itemsRemovedSize = 0L;
+      for (DiskStorage.Entry entry : allEntries) {
+        // entry age of zero is disallowed.
+        long entryAgeMs = Math.max(1, Math.abs(now - entry.getTimestamp()));
+        if (entryAgeMs >= cacheExpirationMs) {
+          long entryRemovedSize = removeResource(entry.getId(), entry);
+          if (entryRemovedSize > 0) {
+            itemsRemovedCount++;
+            itemsRemovedSize += entryRemovedSize;
+            SettableCacheEvent cacheEvent =
+                SettableCacheEvent.obtain()
+                    .setResourceId(entry.getId())
+                    .setEvictionReason(CacheEventListener.EvictionReason.CONTENT_STALE)
+                    .setItemSize(entryRemovedSize)
+                    .setCacheSize(cacheSizeBeforeClearance - itemsRemovedSize);
+            mCacheEventListener.onEviction(cacheEvent);
+            cacheEvent.recycle();
           }
+        } else {
+          oldestRemainingEntryAgeMs = Math.max(oldestRemainingEntryAgeMs, entryAgeMs);
         }
-        mStorage.purgeUnexpectedResources();
-        if (itemsRemovedCount > 0) {
-          maybeUpdateFileCacheSize();
-          mCacheStats.increment(-itemsRemovedSize, -itemsRemovedCount);
-        }
-      } catch (IOException ioe) {
-        mCacheErrorLogger.logError(
-            CacheErrorLogger.CacheErrorCategory.EVICTION,
-            TAG,
-            "clearOldEntries: " + ioe.getMessage(),
-            ioe);
       }
+      mStorage.purgeUnexpectedResources();
+      if (itemsRemovedCount > 0) {
+        updateFileCacheSize(false);
+      }
+    } catch (IOException ioe) {
+      mCacheErrorLogger.logError(
+          CacheErrorLogger.CacheErrorCategory.EVICTION,
+          TAG,
+          "clearOldEntries: " + ioe.getMessage(),
+          ioe);
     }
     return oldestRemainingEntryAgeMs;
   }
@@ -445,72 +680,233 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
    * Test if the cache size has exceeded its limits, and if so, evict some files. It also calls
    * maybeUpdateFileCacheSize
    *
-   * <p>This method uses mLock for synchronization purposes.
+   * <p>This method uses mLock for synchronization purposes. In striped mode, the size check is
+   * lock-free and evictions are serialized on mEvictionLock, without holding mLock while deleting
+   * files.
    */
   private void maybeEvictFilesInCacheDir() throws IOException {
-    synchronized (mLock) {
-      boolean calculatedRightNow = maybeUpdateFileCacheSize();
+    if (mStripeLocks == null) {
+      synchronized (mLock) {
+        evictFilesInCacheDirIfNeeded();
+      }
+      return;
+    }
+    updateFileCacheSizeLimit();
+    if (!isFileCacheSizeUpdateDue() && mCacheStats.getSize() <= mCacheSizeLimit) {
+      return;
+    }
+    synchronized (mEvictionLock) {
+      // the size is checked again, a previous eviction may have already taken care of it
+      evictFilesInCacheDirIfNeeded();
+    }
+  }
+
+  /**
+   * Schedules an eviction on the eviction executor if the cache may have exceeded its size limit,
+   * or if its size has to be recalculated. The eviction checks the size again before evicting.
+   */
+  private void maybeScheduleEviction(Executor evictionExecutor) {
+    updateFileCacheSizeLimit();
+    if (!isFileCacheSizeUpdateDue() && mCacheStats.getSize() <= mCacheSizeLimit) {
+      return;
+    }
+    if (!mEvictionScheduled.compareAndSet(false, true)) {
+      return;
+    }
+    final int generation = mEvictionGeneration.get();
+    evictionExecutor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              // no lock around the whole pass, mEvictionScheduled already serializes the
+              // background passes and the batches take the eviction lock one at a time
+              evictFilesInCacheDirIfNeeded(generation);
+            } catch (IOException ioe) {
+              // already logged, the next insert schedules another eviction
+            } finally {
+              mEvictionScheduled.set(false);
+            }
+          }
+        });
+  }
+
+  private void evictFilesInCacheDirIfNeeded() throws IOException {
+    evictFilesInCacheDirIfNeeded(null);
+  }
+
+  /**
+   * @param generation the eviction generation when a background eviction was scheduled, or null
+   *     if the eviction is not done in the background
+   */
+  private void evictFilesInCacheDirIfNeeded(@Nullable Integer generation) throws IOException {
+    boolean calculatedRightNow = updateFileCacheSize(false);
 
+    long cacheSize;
+    long cacheSizeLimit;
+    synchronized (mLock) {
       // Update the size limit (mCacheSizeLimit)
       updateFileCacheSizeLimit();
 
-      long cacheSize = mCacheStats.getSize();
-      // If we are going to evict force a recalculation of the size
-      // (except if it was already calculated!)
-      if (cacheSize > mCacheSizeLimit && !calculatedRightNow) {
+      cacheSize = mCacheStats.getSize();
+      // If we are going to evict force a recalculation of the size (except if it was already
+      // calculated, or if the eviction index or the striped bookkeeping keep track of it!)
+      if (cacheSize > mCacheSizeLimit
+          && !calculatedRightNow
+          && mEvictionIndex == null
+          && mStripeLocks == null) {
         mCacheStats.reset();
         maybeUpdateFileCacheSize();
       }
+      cacheSizeLimit = mCacheSizeLimit;
+    }
 
-      // If size has exceeded the size limit, evict some files
-      if (cacheSize > mCacheSizeLimit) {
-        evictAboveSize(
-            mCacheSizeLimit * 9 / 10, CacheEventListener.EvictionReason.CACHE_FULL); // 90%
-      }
+    // If size has exceeded the size limit, evict some files
+    if (cacheSize > cacheSizeLimit) {
+      evictAboveSize(
+          cacheSizeLimit * 9 / 10, CacheEventListener.EvictionReason.CACHE_FULL, generation); // 90%
     }
   }
 
-  @GuardedBy("mLock")
+  /**
+   * Evicts entries until the cache size is below the desired size. Victims are taken from the
+   * eviction index if enabled, otherwise from a sorted listing of the storage.
+   *
+   * <p>In striped mode this must NOT be called while holding mLock.
+   */
   private void evictAboveSize(long desiredSize, CacheEventListener.EvictionReason reason)
       throws IOException {
+    evictAboveSize(desiredSize, reason, null);
+  }
+
+  /**
+   * Evicts entries until the cache size is below the desired size, see {@link
+   * #evictAboveSize(long, CacheEventListener.EvictionReason)}.
+   *
+   * <p>A background eviction deletes the entries in bounded batches, holding mLock, or
+   * mEvictionLock in striped mode, only during each batch. It yields between the batches, and
+   * stops early if the cache was cleared, or if the cache size went below the desired size
+   * meanwhile. Other evictions delete all the entries in one batch.
+   *
+   * @param generation the eviction generation when a background eviction was scheduled, or null
+   *     if the eviction is not done in the background
+   */
+  private void evictAboveSize(
+      long desiredSize,
+      CacheEventListener.EvictionReason reason,
+      @Nullable Integer generation)
+      throws IOException {
+    final boolean inBackground = generation != null;
+    final long passStartMs = mMonotonicClock.now();
+    long cacheSizeBeforeClearance;
+    List<DiskStorage.Entry> indexedVictims = null;
+    synchronized (mLock) {
+      cacheSizeBeforeClearance = mCacheStats.getSize();
+      if (mEvictionIndex != null && mCacheStats.isInitialized()) {
+        indexedVictims =
+            mEvictionIndex.getVictims(
+                cacheSizeBeforeClearance - desiredSize,
+                mClock.now() + FUTURE_TIMESTAMP_THRESHOLD_MS);
+      }
+    }
     Collection<DiskStorage.Entry> entries;
-    try {
-      entries = getSortedEntries(mStorage.getEntries());
-    } catch (IOException ioe) {
-      mCacheErrorLogger.logError(
-          CacheErrorLogger.CacheErrorCategory.EVICTION,
-          TAG,
-          "evictAboveSize: " + ioe.getMessage(),
-          ioe);
-      throw ioe;
+    if (indexedVictims != null) {
+      entries = indexedVictims;
+    } else {
+      try {
+        entries = getSortedEntries(mStorage.getEntries());
+      } catch (IOException ioe) {
+        mCacheErrorLogger.logError(
+            CacheErrorLogger.CacheErrorCategory.EVICTION,
+            TAG,
+            "evictAboveSize: " + ioe.getMessage(),
+            ioe);
+        throw ioe;
+      }
     }
 
-    long cacheSizeBeforeClearance = mCacheStats.getSize();
     long deleteSize = cacheSizeBeforeClearance - desiredSize;
-    int itemCount = 0;
     long sumItemSizes = 0L;
-    for (DiskStorage.Entry entry : entries) {
-      if (sumItemSizes > (deleteSize)) {
+    int batchCount = 0;
+    long maxPauseMs = 0;
+    long totalPauseMs = 0;
+    // mLock is reentrant for the callers that already hold it
+    final Object batchLock = mStripeLocks == null ? mLock : mEvictionLock;
+    final Iterator<DiskStorage.Entry> iterator = entries.iterator();
+    while (sumItemSizes <= deleteSize && iterator.hasNext()) {
+      if (generation != null && isBackgroundEvictionDone(generation, desiredSize)) {
         break;
       }
-      long deletedSize = mStorage.remove(entry);
-      mResourceIndex.remove(entry.getId());
-      if (deletedSize > 0) {
-        itemCount++;
-        sumItemSizes += deletedSize;
-        SettableCacheEvent cacheEvent =
-            SettableCacheEvent.obtain()
-                .setResourceId(entry.getId())
-                .setEvictionReason(reason)
-                .setItemSize(deletedSize)
-                .setCacheSize(cacheSizeBeforeClearance - sumItemSizes)
-                .setCacheLimit(desiredSize);
-        mCacheEventListener.onEviction(cacheEvent);
-        cacheEvent.recycle();
+      final long batchStartMs = inBackground ? mMonotonicClock.now() : passStartMs;
+      synchronized (batchLock) {
+        int batchEntryCount = 0;
+        while (sumItemSizes <= deleteSize && iterator.hasNext()) {
+          if (inBackground
+              && (batchEntryCount >= EVICTION_BATCH_MAX_COUNT
+                  || mMonotonicClock.now() - batchStartMs >= EVICTION_BATCH_MAX_DURATION_MS)) {
+            break;
+          }
+          DiskStorage.Entry entry = iterator.next();
+          batchEntryCount++;
+          // entries of the eviction index can only be removed by id
+          long deletedSize = removeResource(entry.getId(), indexedVictims != null ? null : entry);
+          if (deletedSize > 0) {
+            sumItemSizes += deletedSize;
+            SettableCacheEvent cacheEvent =
+                SettableCacheEvent.obtain()
+                    .setResourceId(entry.getId())
+                    .setEvictionReason(reason)
+                    .setItemSize(deletedSize)
+                    .setCacheSize(cacheSizeBeforeClearance - sumItemSizes)
+                    .setCacheLimit(desiredSize);
+            mCacheEventListener.onEviction(cacheEvent);
+            cacheEvent.recycle();
+          }
+        }
+      }
+      final long pauseMs = mMonotonicClock.now() - batchStartMs;
+      batchCount++;
+      maxPauseMs = Math.max(maxPauseMs, pauseMs);
+      totalPauseMs += pauseMs;
+      if (inBackground) {
+        Thread.yield();
       }
     }
-    mCacheStats.increment(-sumItemSizes, -itemCount);
-    mStorage.purgeUnexpectedResources();
+    if (batchCount > 0) {
+      mCacheEventListener.onEvictionPassFinished(reason, batchCount, maxPauseMs, totalPauseMs);
+    }
+    if (indexedVictims != null) {
+      // Unexpected resources are purged in the background
+      schedulePurgeUnexpectedResources();
+    } else {
+      mStorage.purgeUnexpectedResources();
+    }
+  }
+
+  /**
+   * Returns whether a background eviction should stop, because the cache was cleared since it was
+   * scheduled, or because the cache is already below the desired size.
+   */
+  private boolean isBackgroundEvictionDone(int generation, long desiredSize) {
+    return mEvictionGeneration.get() != generation
+        || (mCacheStats.isInitialized() && mCacheStats.getSize() <= desiredSize);
+  }
+
+  private void schedulePurgeUnexpectedResources() {
+    if (!mPurgeScheduled.compareAndSet(false, true)) {
+      return;
+    }
+    mBackgroundExecutor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              mStorage.purgeUnexpectedResources();
+            } finally {
+              mPurgeScheduled.set(false);
+            }
+          }
+        });
   }
 
   /**
@@ -540,7 +936,6 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
    * Helper method that sets the cache size limit to be either a high, or a low limit. If there is
    * not enough free space to satisfy the high limit, it is set to the low limit.
    */
-  @GuardedBy("mLock")
   private void updateFileCacheSizeLimit() {
     // Test if mCacheSizeLimit can be set to the high limit
     boolean isAvailableSpaceLowerThanHighLimit;
@@ -566,17 +961,34 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
   }
 
   public void clearAll() {
-    synchronized (mLock) {
-      try {
-        mStorage.clearAll();
-        mResourceIndex.clear();
-        mCacheEventListener.onCleared();
-      } catch (IOException | NullPointerException e) {
-        mCacheErrorLogger.logError(
-            CacheErrorLogger.CacheErrorCategory.EVICTION, TAG, "clearAll: " + e.getMessage(), e);
-      }
-      mCacheStats.reset();
-    }
+    // cancels the background eviction, if any
+    mEvictionGeneration.incrementAndGet();
+    runWithAllStripes(
+        new Runnable() {
+          @Override
+          public void run() {
+            synchronized (mLock) {
+              try {
+                mStorage.clearAll();
+                mResourceIndex.clear();
+                if (mEvictionIndex != null) {
+                  mEvictionIndex.clear();
+                }
+                if (mIndexJournal != null) {
+                  mIndexJournal.clear();
+                }
+                mCacheEventListener.onCleared();
+              } catch (IOException | NullPointerException e) {
+                mCacheErrorLogger.logError(
+                    CacheErrorLogger.CacheErrorCategory.EVICTION,
+                    TAG,
+                    "clearAll: " + e.getMessage(),
+                    e);
+              }
+              mCacheStats.reset();
+            }
+          }
+        });
   }
 
   @Override
@@ -596,39 +1008,58 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
 
   @Override
   public boolean hasKey(final CacheKey key) {
-    synchronized (mLock) {
-      if (hasKeySync(key)) {
-        return true;
+    if (mStripeLocks == null) {
+      synchronized (mLock) {
+        return hasKeyInternal(key);
       }
-      try {
-        String resourceId = null;
-        List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
-        for (int i = 0; i < resourceIds.size(); i++) {
-          resourceId = resourceIds.get(i);
+    }
+    return hasKeyInternal(key);
+  }
+
+  private boolean hasKeyInternal(final CacheKey key) {
+    if (hasKeySync(key)) {
+      return true;
+    }
+    try {
+      String resourceId = null;
+      List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
+      for (int i = 0; i < resourceIds.size(); i++) {
+        resourceId = resourceIds.get(i);
+        synchronized (getStripeLock(resourceId)) {
           if (mStorage.contains(resourceId, key)) {
-            mResourceIndex.add(resourceId);
+            synchronized (mLock) {
+              mResourceIndex.add(resourceId);
+            }
             return true;
           }
         }
-        return false;
-      } catch (IOException e) {
-        return false;
       }
+      return false;
+    } catch (IOException e) {
+      return false;
     }
   }
 
   @Override
   public void trimToMinimum() {
-    synchronized (mLock) {
-      maybeUpdateFileCacheSize();
-      long cacheSize = mCacheStats.getSize();
-      if (mCacheSizeLimitMinimum <= 0 || cacheSize <= 0 || cacheSize < mCacheSizeLimitMinimum) {
-        return;
-      }
-      double trimRatio = 1 - (double) mCacheSizeLimitMinimum / (double) cacheSize;
-      if (trimRatio > TRIMMING_LOWER_BOUND) {
-        trimBy(trimRatio);
+    if (mStripeLocks == null) {
+      synchronized (mLock) {
+        trimToMinimumInternal();
       }
+    } else {
+      trimToMinimumInternal();
+    }
+  }
+
+  private void trimToMinimumInternal() {
+    updateFileCacheSize(false);
+    long cacheSize = mCacheStats.getSize();
+    if (mCacheSizeLimitMinimum <= 0 || cacheSize <= 0 || cacheSize < mCacheSizeLimitMinimum) {
+      return;
+    }
+    double trimRatio = 1 - (double) mCacheSizeLimitMinimum / (double) cacheSize;
+    if (trimRatio > TRIMMING_LOWER_BOUND) {
+      trimBy(trimRatio);
     }
   }
 
@@ -638,21 +1069,171 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
   }
 
   private void trimBy(final double trimRatio) {
-    synchronized (mLock) {
-      try {
-        // Force update the ground truth if we are about to evict
-        mCacheStats.reset();
-        maybeUpdateFileCacheSize();
-        long cacheSize = mCacheStats.getSize();
-        long newMaxBytesInFiles = cacheSize - (long) (trimRatio * cacheSize);
-        evictAboveSize(newMaxBytesInFiles, CacheEventListener.EvictionReason.CACHE_MANAGER_TRIMMED);
-      } catch (IOException ioe) {
-        mCacheErrorLogger.logError(
-            CacheErrorLogger.CacheErrorCategory.EVICTION, TAG, "trimBy: " + ioe.getMessage(), ioe);
+    try {
+      // Force update the ground truth if we are about to evict
+      updateFileCacheSize(true);
+      long cacheSize = mCacheStats.getSize();
+      long newMaxBytesInFiles = cacheSize - (long) (trimRatio * cacheSize);
+      evictAboveSize(newMaxBytesInFiles, CacheEventListener.EvictionReason.CACHE_MANAGER_TRIMMED);
+    } catch (IOException ioe) {
+      mCacheErrorLogger.logError(
+          CacheErrorLogger.CacheErrorCategory.EVICTION, TAG, "trimBy: " + ioe.getMessage(), ioe);
+    }
+  }
+
+  /** Returns the lock guarding the file system operations on the given resource. */
+  private Object getStripeLock(String resourceId) {
+    Object[] stripeLocks = mStripeLocks;
+    if (stripeLocks == null) {
+      return mLock;
+    }
+    return stripeLocks[DefaultDiskStorage.getShardBucket(resourceId)];
+  }
+
+  /**
+   * Runs the given runnable while holding all the stripe locks, so that no resource can be read,
+   * committed or removed meanwhile. Without striped locking, just runs it.
+   */
+  private void runWithAllStripes(Runnable runnable) {
+    Object[] stripeLocks = mStripeLocks;
+    if (stripeLocks == null) {
+      runnable.run();
+    } else {
+      runWithStripes(stripeLocks, 0, runnable);
+    }
+  }
+
+  private static void runWithStripes(Object[] stripeLocks, int from, Runnable runnable) {
+    if (from == stripeLocks.length) {
+      runnable.run();
+      return;
+    }
+    synchronized (stripeLocks[from]) {
+      runWithStripes(stripeLocks, from + 1, runnable);
+    }
+  }
+
+  /**
+   * Recalculates the cache size from a listing of the storage if needed, see {@link
+   * #maybeUpdateFileCacheSize()}. With striped locking, the listing is done while holding all the
+   * stripe locks, so that it is consistent with the concurrent commits and removals.
+   *
+   * <p>In striped mode this must NOT be called while holding mLock.
+   *
+   * @param force if true, the cache size is recalculated even if it is up to date
+   * @return true if it was recalculated, false otherwise.
+   */
+  private boolean updateFileCacheSize(final boolean force) {
+    if (!force && !isFileCacheSizeUpdateDue()) {
+      return false;
+    }
+    final boolean[] updated = new boolean[1];
+    runWithAllStripes(
+        new Runnable() {
+          @Override
+          public void run() {
+            synchronized (mLock) {
+              if (force) {
+                mCacheStats.reset();
+              }
+              updated[0] = maybeUpdateFileCacheSize();
+            }
+          }
+        });
+    return updated[0];
+  }
+
+  private boolean isFileCacheSizeUpdateDue() {
+    return !mCacheStats.isInitialized()
+        || mCacheSizeLastUpdateTime == UNINITIALIZED
+        || (mClock.now() - mCacheSizeLastUpdateTime) > FILECACHE_SIZE_UPDATE_PERIOD_MS;
+  }
+
+  /**
+   * Restores the index and the cache size from the persistent journal, the first time the cache
+   * size is needed. This is what makes the index ready without listing the whole storage.
+   *
+   * @return true if the journal could be used, false if the storage has to be listed
+   */
+  @GuardedBy("mLock")
+  private boolean maybeLoadIndexJournal() {
+    if (mIndexJournal == null || mIndexJournalLoadAttempted) {
+      return false;
+    }
+    mIndexJournalLoadAttempted = true;
+    Collection<DiskCacheIndexJournal.IndexEntry> entries = mIndexJournal.load();
+    if (entries == null) {
+      return false;
+    }
+    long size = 0;
+    long threshold = mClock.now() + FUTURE_TIMESTAMP_THRESHOLD_MS;
+    if (mEvictionIndex != null) {
+      mEvictionIndex.clear();
+    }
+    for (DiskCacheIndexJournal.IndexEntry entry : entries) {
+      size += entry.size;
+      if (mIndexPopulateAtStartupEnabled) {
+        mResourceIndex.add(entry.resourceId);
       }
+      if (mEvictionIndex != null) {
+        mEvictionIndex.put(entry.resourceId, entry.size, entry.timestamp, null, threshold);
+      }
+    }
+    mCacheStats.set(size, entries.size());
+    mCacheSizeLastUpdateTime = mClock.now();
+    return true;
+  }
+
+  /** Keeps the eviction index and the index journal up to date after a resource is removed. */
+  @GuardedBy("mLock")
+  private void onResourceRemoved(@Nullable String resourceId) {
+    if (resourceId == null) {
+      return;
+    }
+    if (mEvictionIndex != null) {
+      mEvictionIndex.remove(resourceId);
+    }
+    if (mIndexJournal != null) {
+      mIndexJournal.recordRemove(resourceId);
+      maybeScheduleIndexJournalCompaction();
+    }
+  }
+
+  /** Keeps the eviction index and the index journal up to date after a resource is touched. */
+  @GuardedBy("mLock")
+  private void onResourceAccessed(String resourceId, @Nullable BinaryResource resource) {
+    if (mEvictionIndex == null && mIndexJournal == null) {
+      return;
+    }
+    long now = mClock.now();
+    if (mEvictionIndex != null) {
+      mEvictionIndex.touch(resourceId, now, resource);
+    }
+    if (mIndexJournal != null) {
+      mIndexJournal.recordAccess(resourceId, now);
     }
   }
 
+  private void maybeScheduleIndexJournalCompaction() {
+    final DiskCacheIndexJournal indexJournal = mIndexJournal;
+    if (indexJournal == null
+        || !indexJournal.shouldCompact()
+        || !mIndexJournalCompactionScheduled.compareAndSet(false, true)) {
+      return;
+    }
+    mBackgroundExecutor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              indexJournal.compact();
+            } finally {
+              mIndexJournalCompactionScheduled.set(false);
+            }
+          }
+        });
+  }
+
   /**
    * If file cache size is not calculated or if it was calculated a long time ago
    * (FILECACHE_SIZE_UPDATE_PERIOD_MS) recalculated from file listing.
@@ -661,10 +1242,7 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
    */
   @GuardedBy("mLock")
   private boolean maybeUpdateFileCacheSize() {
-    long now = mClock.now();
-    if ((!mCacheStats.isInitialized())
-        || mCacheSizeLastUpdateTime == UNINITIALIZED
-        || (now - mCacheSizeLastUpdateTime) > FILECACHE_SIZE_UPDATE_PERIOD_MS) {
+    if (isFileCacheSizeUpdateDue()) {
       return maybeUpdateFileCacheSizeAndIndex();
     }
     return false;
@@ -672,6 +1250,9 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
 
   @GuardedBy("mLock")
   private boolean maybeUpdateFileCacheSizeAndIndex() {
+    if (maybeLoadIndexJournal()) {
+      return true;
+    }
     long size = 0;
     int count = 0;
     boolean foundFutureTimestamp = false;
@@ -718,6 +1299,9 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
                 + "ms",
             null);
       }
+      if (mEvictionIndex != null) {
+        mEvictionIndex.reset(entries, timeThreshold);
+      }
       if (mCacheStats.getCount() != count || mCacheStats.getSize() != size) {
         if (mIndexPopulateAtStartupEnabled && mResourceIndex != tempResourceIndex) {
           Preconditions.checkNotNull(tempResourceIndex);
@@ -725,6 +1309,12 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
           mResourceIndex.addAll(tempResourceIndex);
         }
         mCacheStats.set(size, count);
+        if (mIndexJournal != null) {
+          // the journal drifted from the ground truth
+          mIndexJournal.rebuild(entries);
+        }
+      } else if (mIndexJournal != null && !mIndexJournal.isOpen()) {
+        mIndexJournal.rebuild(entries);
       }
     } catch (IOException ioe) {
       mCacheErrorLogger.logError(
@@ -9,6 +9,7 @@ package com.facebook.imagepipeline.animated.factory
 
 import com.facebook.cache.common.CacheKey
 import com.facebook.common.executors.SerialExecutorService
+import com.facebook.common.memory.MemoryTrimmableRegistry
 import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory
 import com.facebook.imagepipeline.cache.CountingMemoryCache
 import com.facebook.imagepipeline.core.ExecutorSupplier
@@ -28,6 +29,8 @@ object AnimatedFactoryProvider {
       useBalancedAnimationStrategy: Boolean,
       animationFpsLimit: Int,
       bufferLengthMilliseconds: Int,
+      sharedFrameCacheMaxSizeBytes: Int,
+      memoryTrimmableRegistry: MemoryTrimmableRegistry?,
       serialExecutorService: ExecutorService?
   ): AnimatedFactory? {
     if (!implLoaded) {
@@ -42,6 +45,8 @@ object AnimatedFactoryProvider {
                 java.lang.Boolean.TYPE,
                 Integer.TYPE,
                 Integer.TYPE,
+                Integer.TYPE,
+                MemoryTrimmableRegistry::class.java,
                 SerialExecutorService::class.java)
         impl =
             constructor.newInstance(
@@ -52,6 +57,8 @@ object AnimatedFactoryProvider {
                 useBalancedAnimationStrategy,
                 animationFpsLimit,
                 bufferLengthMilliseconds,
+                sharedFrameCacheMaxSizeBytes,
+                memoryTrimmableRegistry,
                 serialExecutorService) as AnimatedFactory
       } catch (e: Throwable) {
         // Head in the sand
@@ -21,6 +21,7 @@ import com.facebook.common.references.ResourceReleaser;
 import com.facebook.infer.annotation.Nullsafe;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
@@ -144,16 +145,20 @@ public abstract class AbstractAdaptiveCountingMemoryCache<K, V>
       int lfuFractionPromil) {
     FLog.d(TAG, "Create Adaptive Replacement Cache");
     mValueDescriptor = valueDescriptor;
-    mLeastFrequentlyUsedExclusiveEntries =
-        new CountingLruMap<>(wrapValueDescriptor(valueDescriptor));
-    mMostFrequentlyUsedExclusiveEntries =
-        new CountingLruMap<>(wrapValueDescriptor(valueDescriptor));
-    mCachedEntries = new CountingLruMap<>(wrapValueDescriptor(valueDescriptor));
     mCacheTrimStrategy = cacheTrimStrategy;
     mMemoryCacheParamsSupplier = memoryCacheParamsSupplier;
     mMemoryCacheParams =
         Preconditions.checkNotNull(
             mMemoryCacheParamsSupplier.get(), "mMemoryCacheParamsSupplier returned null");
+    mLeastFrequentlyUsedExclusiveEntries =
+        new CountingLruMap<>(
+            wrapValueDescriptor(valueDescriptor), mMemoryCacheParams.uriIndexEnabled);
+    mMostFrequentlyUsedExclusiveEntries =
+        new CountingLruMap<>(
+            wrapValueDescriptor(valueDescriptor), mMemoryCacheParams.uriIndexEnabled);
+    mCachedEntries =
+        new CountingLruMap<>(
+            wrapValueDescriptor(valueDescriptor), mMemoryCacheParams.uriIndexEnabled);
     mLastCacheParamsCheck = SystemClock.uptimeMillis();
     mFrequentlyUsedThreshold = frequentlyUsedThreshold;
     mGhostListMaxSize = ghostListMaxSize;
@@ -423,13 +428,36 @@ public abstract class AbstractAdaptiveCountingMemoryCache<K, V>
    * @return number of the items removed from the cache
    */
   public int removeAll(Predicate<K> predicate) {
+    return removeAll(null, predicate);
+  }
+
+  /**
+   * Removes all the items from the cache whose key was built for the given URI and matches the
+   * specified predicate.
+   *
+   * @param uriString the URI string of the keys
+   * @param predicate returns true if an item with the given key should be removed
+   * @return number of the items removed from the cache
+   */
+  @Override
+  public int removeAllForUri(String uriString, Predicate<K> predicate) {
+    return removeAll(uriString, predicate);
+  }
+
+  private int removeAll(@Nullable String uriString, Predicate<K> predicate) {
     ArrayList<Entry<K, V>> oldLFUExclusives;
     ArrayList<Entry<K, V>> oldMFUExclusives;
     ArrayList<Entry<K, V>> oldEntries;
     synchronized (this) {
-      oldLFUExclusives = mLeastFrequentlyUsedExclusiveEntries.removeAll(predicate);
-      oldMFUExclusives = mMostFrequentlyUsedExclusiveEntries.removeAll(predicate);
-      oldEntries = mCachedEntries.removeAll(predicate);
+      if (uriString == null) {
+        oldLFUExclusives = mLeastFrequentlyUsedExclusiveEntries.removeAll(predicate);
+        oldMFUExclusives = mMostFrequentlyUsedExclusiveEntries.removeAll(predicate);
+        oldEntries = mCachedEntries.removeAll(predicate);
+      } else {
+        oldLFUExclusives = mLeastFrequentlyUsedExclusiveEntries.removeAll(uriString, predicate);
+        oldMFUExclusives = mMostFrequentlyUsedExclusiveEntries.removeAll(uriString, predicate);
+        oldEntries = mCachedEntries.removeAll(uriString, predicate);
+      }
       makeOrphans(oldEntries);
     }
     maybeClose(oldEntries);
@@ -466,6 +494,40 @@ public abstract class AbstractAdaptiveCountingMemoryCache<K, V>
     return !mCachedEntries.getMatchingEntries(predicate).isEmpty();
   }
 
+  /**
+   * Check if any items from the cache whose key was built for the given URI matches the specified
+   * predicate.
+   *
+   * @param uriString the URI string of the keys
+   * @param predicate returns true if an item with the given key matches
+   * @return true is any items matches from the cache
+   */
+  @Override
+  public synchronized boolean containsForUri(String uriString, Predicate<K> predicate) {
+    return !mCachedEntries.getMatchingEntries(uriString, predicate).isEmpty();
+  }
+
+  /**
+   * Gets the keys of the items of the cache whose key was built for the given URI and matches the
+   * specified predicate. Returns an empty list if the cache does not index its keys by URI.
+   *
+   * @param uriString the URI string of the keys
+   * @param predicate returns true if the key of an item matches
+   * @return the keys of the matching items
+   */
+  @Override
+  public synchronized List<K> getKeysForUri(String uriString, Predicate<K> predicate) {
+    if (!mCachedEntries.isUriIndexEnabled()) {
+      return Collections.emptyList();
+    }
+    ArrayList<K> keys = new ArrayList<>();
+    for (Map.Entry<K, Entry<K, V>> entry :
+        mCachedEntries.getMatchingEntries(uriString, predicate)) {
+      keys.add(entry.getKey());
+    }
+    return keys;
+  }
+
   /**
    * Check if an item with the given cache key is currently in the cache.
    *
@@ -0,0 +1,831 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import androidx.annotation.VisibleForTesting;
+import com.facebook.common.internal.Objects;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.Predicate;
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import com.facebook.infer.annotation.Nullsafe;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A {@link CountingMemoryCache} with the semantics of {@link LruCountingMemoryCache}, built on a
+ * {@link ConcurrentHashMap} instead of a cache-wide lock.
+ *
+ * <p>Cache hits only look the entry up in the map and update the entry itself, under the entry's
+ * own monitor. The access is then recorded in a lossy read buffer, striped by thread, and the
+ * buffers are drained into the eviction policy in batches, by whichever thread manages to acquire
+ * the eviction lock. The entries released by their last client are queued and drained the same
+ * way, but never dropped. Inserts, removals and evictions update the eviction policy under that
+ * lock.
+ *
+ * <p>As in {@link LruCountingMemoryCache}, only the exclusively owned elements, i.e. the elements
+ * not referenced by any client, can be evicted. They are evicted in LRU order, or with the
+ * frequency-aware {@link TinyLfuEvictionPolicy} if {@link MemoryCacheParams#tinyLfuEnabled} is set.
+ * The access order is only approximate: accesses that don't fit in a full read buffer are dropped.
+ *
+ * <p>The size of each entry is always stored when it is cached, so that the counters stay
+ * consistent without a lock.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+@ThreadSafe
+@Nullsafe(Nullsafe.Mode.STRICT)
+public class ConcurrentCountingMemoryCache<K, V> implements CountingMemoryCache<K, V> {
+
+  // Number of accesses a read buffer holds, a power of two
+  private static final int READ_BUFFER_SIZE = 64;
+  private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+  // Number of pending accesses after which a read buffer is drained
+  private static final int READ_BUFFER_DRAIN_THRESHOLD = READ_BUFFER_SIZE / 2;
+  private static final int MAX_READ_BUFFER_COUNT = 16;
+
+  private final @Nullable EntryStateObserver<K> mEntryStateObserver;
+
+  // Contains all the cached items, including the exclusively owned ones.
+  @VisibleForTesting final ConcurrentHashMap<K, Entry<K, V>> mCachedEntries;
+
+  // Index of the keys of mCachedEntries by URI, if enabled. Updated after the map.
+  private final @Nullable UriKeyIndex<K> mUriIndex;
+
+  private final ReentrantLock mEvictionLock = new ReentrantLock();
+
+  @GuardedBy("mEvictionLock")
+  private final EvictionPolicy<K, V> mEvictionPolicy;
+
+  // Whether an entry can be evicted. Must hold the eviction lock.
+  private final Predicate<Entry<K, V>> mEvictablePredicate =
+      new Predicate<Entry<K, V>>() {
+        @Override
+        public boolean apply(Entry<K, V> entry) {
+          synchronized (entry) {
+            return !entry.isOrphan && entry.clientCount == 0;
+          }
+        }
+      };
+
+  private final ReadBuffer<K, V>[] mReadBuffers;
+
+  // Entries whose last client released them, drained into the eviction policy under the eviction
+  // lock. Unlike the accesses, the releases are never dropped.
+  private final ConcurrentLinkedQueue<Entry<K, V>> mReleaseBuffer = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger mReleaseBufferCount = new AtomicInteger();
+
+  // Total count and size of the cached items and of the exclusively owned items. They are updated
+  // with the state of an entry, under the entry's monitor.
+  private final AtomicInteger mCount = new AtomicInteger();
+  private final AtomicInteger mSizeInBytes = new AtomicInteger();
+  private final AtomicInteger mExclusiveCount = new AtomicInteger();
+  private final AtomicInteger mExclusiveSizeInBytes = new AtomicInteger();
+
+  private final ValueDescriptor<V> mValueDescriptor;
+
+  private final CacheTrimStrategy mCacheTrimStrategy;
+
+  // Cache size constraints.
+  private final Supplier<MemoryCacheParams> mMemoryCacheParamsSupplier;
+
+  protected volatile MemoryCacheParams mMemoryCacheParams;
+
+  private final AtomicLong mLastCacheParamsCheck;
+
+  @SuppressWarnings("unchecked")
+  public ConcurrentCountingMemoryCache(
+      ValueDescriptor<V> valueDescriptor,
+      CacheTrimStrategy cacheTrimStrategy,
+      Supplier<MemoryCacheParams> memoryCacheParamsSupplier,
+      @Nullable EntryStateObserver<K> entryStateObserver) {
+    mValueDescriptor = valueDescriptor;
+    mCachedEntries = new ConcurrentHashMap<>();
+    mCacheTrimStrategy = cacheTrimStrategy;
+    mMemoryCacheParamsSupplier = memoryCacheParamsSupplier;
+    mMemoryCacheParams =
+        Preconditions.checkNotNull(
+            mMemoryCacheParamsSupplier.get(), "mMemoryCacheParamsSupplier returned null");
+    mLastCacheParamsCheck = new AtomicLong(SystemClock.uptimeMillis());
+    mEntryStateObserver = entryStateObserver;
+    mUriIndex = mMemoryCacheParams.uriIndexEnabled ? new UriKeyIndex<K>() : null;
+    mEvictionPolicy =
+        mMemoryCacheParams.tinyLfuEnabled
+            ? new TinyLfuEvictionPolicy<K, V>(
+                mMemoryCacheParams.maxCacheSize, mMemoryCacheParams.maxCacheEntries)
+            : new LruEvictionPolicy<K, V>();
+    int readBufferCount =
+        Math.min(
+            MAX_READ_BUFFER_COUNT,
+            Integer.highestOneBit(Runtime.getRuntime().availableProcessors()) * 2);
+    mReadBuffers = new ReadBuffer[readBufferCount];
+    for (int i = 0; i < readBufferCount; i++) {
+      mReadBuffers[i] = new ReadBuffer<>();
+    }
+  }
+
+  /**
+   * Caches the given key-value pair.
+   *
+   * <p>Important: the client should use the returned reference instead of the original one. It is
+   * the caller's responsibility to close the returned reference once not needed anymore.
+   *
+   * @return the new reference to be used, null if the value cannot be cached
+   */
+  @Override
+  public @Nullable CloseableReference<V> cache(final K key, final CloseableReference<V> valueRef) {
+    return cache(key, valueRef, mEntryStateObserver);
+  }
+
+  /**
+   * Caches the given key-value pair.
+   *
+   * <p>Important: the client should use the returned reference instead of the original one. It is
+   * the caller's responsibility to close the returned reference once not needed anymore.
+   *
+   * @return the new reference to be used, null if the value cannot be cached
+   */
+  @Override
+  public @Nullable CloseableReference<V> cache(
+      final K key,
+      final CloseableReference<V> valueRef,
+      final @Nullable EntryStateObserver<K> observer) {
+    Preconditions.checkNotNull(key);
+    Preconditions.checkNotNull(valueRef);
+
+    maybeUpdateCacheParams();
+
+    int size = mValueDescriptor.getSizeInBytes(valueRef.get());
+    Entry<K, V> oldEntry;
+    CloseableReference<V> clientRef = null;
+    if (canCacheNewValueOfSize(size)) {
+      Entry<K, V> newEntry = Entry.of(key, valueRef, size, observer);
+      // the entry is created in use by the client, so that it can't be evicted before its
+      // reference is returned
+      newEntry.clientCount = 1;
+      mCount.incrementAndGet();
+      mSizeInBytes.addAndGet(size);
+      oldEntry = mCachedEntries.put(key, newEntry);
+      if (mUriIndex != null) {
+        mUriIndex.add(key);
+      }
+      addToAccessOrder(newEntry);
+      clientRef = newClientReferenceOfInUseEntry(newEntry);
+    } else {
+      // remove the old item (if any) as it is stale now
+      oldEntry = mCachedEntries.remove(key);
+    }
+
+    if (oldEntry != null) {
+      if (mUriIndex != null) {
+        mUriIndex.remove(key);
+      }
+      removeOrphans(Collections.singletonList(oldEntry));
+    }
+    maybeEvictEntries();
+    return clientRef;
+  }
+
+  /**
+   * Checks the cache constraints to determine whether the new value of given size can be cached or
+   * not.
+   */
+  private boolean canCacheNewValueOfSize(int newValueSize) {
+    MemoryCacheParams params = mMemoryCacheParams;
+    return (newValueSize <= params.maxCacheEntrySize)
+        && (getInUseCount() <= params.maxCacheEntries - 1)
+        && (getInUseSizeInBytes() <= params.maxCacheSize - newValueSize);
+  }
+
+  /**
+   * Gets the item with the given key, or null if there is no such item.
+   *
+   * <p>It is the caller's responsibility to close the returned reference once not needed anymore.
+   */
+  @Override
+  public @Nullable CloseableReference<V> get(final K key) {
+    Preconditions.checkNotNull(key);
+    Entry<K, V> entry = mCachedEntries.get(key);
+    if (entry == null) {
+      return null;
+    }
+    boolean wasExclusive;
+    CloseableReference<V> clientRef;
+    synchronized (entry) {
+      if (entry.isOrphan) {
+        // concurrently removed
+        return null;
+      }
+      wasExclusive = entry.clientCount == 0;
+      if (wasExclusive) {
+        mExclusiveCount.decrementAndGet();
+        mExclusiveSizeInBytes.addAndGet(-entry.size);
+      }
+      entry.clientCount++;
+      clientRef = newClientReference(entry);
+    }
+    if (wasExclusive) {
+      maybeNotifyExclusiveEntryRemoval(entry);
+    }
+    recordAccess(entry);
+    if (maybeUpdateCacheParams()) {
+      maybeEvictEntries();
+    }
+    return clientRef;
+  }
+
+  @Override
+  public @Nullable V inspect(final K key) {
+    Entry<K, V> entry = mCachedEntries.get(key);
+    if (entry == null) {
+      return null;
+    }
+    synchronized (entry) {
+      return entry.isOrphan ? null : entry.valueRef.get();
+    }
+  }
+
+  /**
+   * Probes whether the object corresponding to the key is in the cache. Note that the act of
+   * probing touches the item (if present in cache), thus changing its LRU position.
+   */
+  @Override
+  public void probe(final K key) {
+    Preconditions.checkNotNull(key);
+    Entry<K, V> entry = mCachedEntries.get(key);
+    if (entry != null) {
+      recordAccess(entry);
+    }
+  }
+
+  /**
+   * Gets the value with the given key to be reused, or null if there is no such value.
+   *
+   * <p>The item can be reused only if it is exclusively owned by the cache.
+   */
+  @Override
+  public @Nullable CloseableReference<V> reuse(K key) {
+    Preconditions.checkNotNull(key);
+    Entry<K, V> entry = mCachedEntries.get(key);
+    if (entry == null) {
+      return null;
+    }
+    synchronized (entry) {
+      if (entry.isOrphan || entry.clientCount != 0) {
+        return null;
+      }
+      makeOrphan(entry);
+      removeCachedEntry(entry);
+    }
+    removeFromAccessOrder(Collections.singletonList(entry));
+    maybeNotifyExclusiveEntryRemoval(entry);
+    // optimization: instead of cloning and then closing the original reference, we just do a move
+    return entry.valueRef;
+  }
+
+  /**
+   * Removes all the items from the cache whose key matches the specified predicate.
+   *
+   * @param predicate returns true if an item with the given key should be removed
+   * @return number of the items removed from the cache
+   */
+  @Override
+  public int removeAll(Predicate<K> predicate) {
+    return removeEntries(mCachedEntries.values(), predicate);
+  }
+
+  /**
+   * Removes all the items from the cache whose key was built for the given URI and matches the
+   * specified predicate.
+   *
+   * @param uriString the URI string of the keys
+   * @param predicate returns true if an item with the given key should be removed
+   * @return number of the items removed from the cache
+   */
+  @Override
+  public int removeAllForUri(String uriString, Predicate<K> predicate) {
+    if (mUriIndex == null) {
+      return removeAll(predicate);
+    }
+    ArrayList<Entry<K, V>> entries = new ArrayList<>();
+    for (K key : mUriIndex.getKeys(uriString)) {
+      Entry<K, V> entry = mCachedEntries.get(key);
+      if (entry != null) {
+        entries.add(entry);
+      }
+    }
+    return removeEntries(entries, predicate);
+  }
+
+  private int removeEntries(Iterable<Entry<K, V>> entries, Predicate<K> predicate) {
+    ArrayList<Entry<K, V>> oldEntries = new ArrayList<>();
+    for (Entry<K, V> entry : entries) {
+      if (predicate.apply(entry.key) && removeCachedEntry(entry)) {
+        oldEntries.add(entry);
+      }
+    }
+    int removedCount = removeOrphans(oldEntries);
+    maybeUpdateCacheParams();
+    maybeEvictEntries();
+    return removedCount;
+  }
+
+  /** Removes all the items from the cache. */
+  @Override
+  public void clear() {
+    ArrayList<Entry<K, V>> oldEntries = new ArrayList<>(mCachedEntries.values());
+    for (Entry<K, V> entry : oldEntries) {
+      removeCachedEntry(entry);
+    }
+    removeOrphans(oldEntries);
+    maybeUpdateCacheParams();
+  }
+
+  /**
+   * Check if any items from the cache whose key matches the specified predicate.
+   *
+   * @param predicate returns true if an item with the given key matches
+   * @return true is any items matches from the cache
+   */
+  @Override
+  public boolean contains(Predicate<K> predicate) {
+    for (K key : mCachedEntries.keySet()) {
+      if (predicate.apply(key)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Check if an item with the given cache key is currently in the cache.
+   *
+   * @param key returns true if an item with the given key matches
+   * @return true is any items matches from the cache
+   */
+  @Override
+  public boolean contains(K key) {
+    return mCachedEntries.containsKey(key);
+  }
+
+  /**
+   * Check if any items from the cache whose key was built for the given URI matches the specified
+   * predicate.
+   *
+   * @param uriString the URI string of the keys
+   * @param predicate returns true if an item with the given key matches
+   * @return true is any items matches from the cache
+   */
+  @Override
+  public boolean containsForUri(String uriString, Predicate<K> predicate) {
+    if (mUriIndex == null) {
+      return contains(predicate);
+    }
+    for (K key : mUriIndex.getKeys(uriString)) {
+      if (mCachedEntries.containsKey(key) && predicate.apply(key)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Gets the keys of the items of the cache whose key was built for the given URI and matches the
+   * specified predicate. Returns an empty list if the cache does not index its keys by URI.
+   *
+   * @param uriString the URI string of the keys
+   * @param predicate returns true if the key of an item matches
+   * @return the keys of the matching items
+   */
+  @Override
+  public List<K> getKeysForUri(String uriString, Predicate<K> predicate) {
+    if (mUriIndex == null) {
+      return Collections.emptyList();
+    }
+    ArrayList<K> keys = new ArrayList<>();
+    for (K key : mUriIndex.getKeys(uriString)) {
+      if (mCachedEntries.containsKey(key) && predicate.apply(key)) {
+        keys.add(key);
+      }
+    }
+    return keys;
+  }
+
+  /** Trims the cache according to the specified trimming strategy and the given trim type. */
+  @Override
+  public void trim(MemoryTrimType trimType) {
+    final double trimRatio = mCacheTrimStrategy.getTrimRatio(trimType);
+    int targetCacheSize = (int) (mSizeInBytes.get() * (1 - trimRatio));
+    int targetEvictionQueueSize = Math.max(0, targetCacheSize - getInUseSizeInBytes());
+    evictExclusivelyOwnedEntries(Integer.MAX_VALUE, targetEvictionQueueSize);
+    maybeUpdateCacheParams();
+    maybeEvictEntries();
+  }
+
+  /**
+   * Updates the cache params (constraints) if enough time has passed since the last update.
+   *
+   * @return whether the params were updated
+   */
+  private boolean maybeUpdateCacheParams() {
+    long lastCacheParamsCheck = mLastCacheParamsCheck.get();
+    long now = SystemClock.uptimeMillis();
+    if (lastCacheParamsCheck + mMemoryCacheParams.paramsCheckIntervalMs > now
+        || !mLastCacheParamsCheck.compareAndSet(lastCacheParamsCheck, now)) {
+      return false;
+    }
+    mMemoryCacheParams =
+        Preconditions.checkNotNull(
+            mMemoryCacheParamsSupplier.get(), "mMemoryCacheParamsSupplier returned null");
+    return true;
+  }
+
+  @Override
+  public MemoryCacheParams getMemoryCacheParams() {
+    return mMemoryCacheParams;
+  }
+
+  /**
+   * The entries are not kept in a {@link CountingLruMap}, so this returns a snapshot of the cached
+   * entries, which is not in eviction order and is not updated afterwards.
+   */
+  @Override
+  public CountingLruMap<K, Entry<K, V>> getCachedEntries() {
+    CountingLruMap<K, Entry<K, V>> snapshot =
+        new CountingLruMap<>(
+            new ValueDescriptor<Entry<K, V>>() {
+              @Override
+              public int getSizeInBytes(Entry<K, V> entry) {
+                return entry.size;
+              }
+            });
+    for (Entry<K, V> entry : mCachedEntries.values()) {
+      snapshot.put(entry.key, entry);
+    }
+    return snapshot;
+  }
+
+  @Override
+  public Map<Bitmap, Object> getOtherEntries() {
+    return Collections.emptyMap();
+  }
+
+  /**
+   * Removes the exclusively owned items until the cache constraints are met.
+   *
+   * <p>This method invokes the external {@link CloseableReference#close} method, so it must not be
+   * called while holding the eviction lock.
+   */
+  @Override
+  public void maybeEvictEntries() {
+    MemoryCacheParams params = mMemoryCacheParams;
+    int maxCount =
+        Math.min(params.maxEvictionQueueEntries, params.maxCacheEntries - getInUseCount());
+    int maxSize =
+        Math.min(params.maxEvictionQueueSize, params.maxCacheSize - getInUseSizeInBytes());
+    evictExclusivelyOwnedEntries(maxCount, maxSize);
+  }
+
+  /**
+   * Evicts the exclusively owned items, in the order of the eviction policy, until there is at most
+   * <code>count</code> of them and they occupy no more than <code>size</code> bytes.
+   */
+  private void evictExclusivelyOwnedEntries(int count, int size) {
+    final int maxCount = Math.max(count, 0);
+    final int maxSize = Math.max(size, 0);
+    // fast path without locking if no eviction is necessary
+    if (mExclusiveCount.get() <= maxCount && mExclusiveSizeInBytes.get() <= maxSize) {
+      return;
+    }
+    ArrayList<Entry<K, V>> oldEntries = new ArrayList<>();
+    mEvictionLock.lock();
+    try {
+      drainBuffers();
+      mEvictionPolicy.setMaxSizeInBytes(mMemoryCacheParams.maxCacheSize);
+      while (mExclusiveCount.get() > maxCount || mExclusiveSizeInBytes.get() > maxSize) {
+        Entry<K, V> entry = mEvictionPolicy.selectVictim(mEvictablePredicate);
+        if (entry == null) {
+          break;
+        }
+        synchronized (entry) {
+          if (entry.isOrphan || entry.clientCount != 0) {
+            // concurrently reused, the next victim will be selected without it
+            continue;
+          }
+          makeOrphan(entry);
+          removeCachedEntry(entry);
+        }
+        mEvictionPolicy.onEvict(entry);
+        oldEntries.add(entry);
+      }
+    } finally {
+      mEvictionLock.unlock();
+    }
+    for (Entry<K, V> oldEntry : oldEntries) {
+      CloseableReference.closeSafely(oldEntry.valueRef);
+      maybeNotifyExclusiveEntryRemoval(oldEntry);
+    }
+  }
+
+  /**
+   * Makes orphans of entries that were removed from the map, and closes the ones that are not used
+   * by any client.
+   *
+   * @return the number of entries that were not orphans already
+   */
+  private int removeOrphans(List<Entry<K, V>> oldEntries) {
+    ArrayList<Entry<K, V>> oldExclusives = new ArrayList<>();
+    ArrayList<CloseableReference<V>> oldRefsToClose = new ArrayList<>();
+    int orphanedCount = 0;
+    for (Entry<K, V> oldEntry : oldEntries) {
+      synchronized (oldEntry) {
+        if (oldEntry.isOrphan) {
+          continue;
+        }
+        orphanedCount++;
+        if (oldEntry.clientCount == 0) {
+          oldExclusives.add(oldEntry);
+          oldRefsToClose.add(oldEntry.valueRef);
+        }
+        makeOrphan(oldEntry);
+      }
+    }
+    removeFromAccessOrder(oldEntries);
+    for (CloseableReference<V> oldRef : oldRefsToClose) {
+      CloseableReference.closeSafely(oldRef);
+    }
+    for (Entry<K, V> oldExclusive : oldExclusives) {
+      maybeNotifyExclusiveEntryRemoval(oldExclusive);
+    }
+    return orphanedCount;
+  }
+
+  /** Removes the entry from the map of the cached entries, if it is still there. */
+  private boolean removeCachedEntry(Entry<K, V> entry) {
+    if (!mCachedEntries.remove(entry.key, entry)) {
+      return false;
+    }
+    if (mUriIndex != null) {
+      mUriIndex.remove(entry.key);
+    }
+    return true;
+  }
+
+  /** Marks the entry as orphan and updates the counters. Must hold the entry's monitor. */
+  @GuardedBy("entry")
+  private void makeOrphan(Entry<K, V> entry) {
+    Preconditions.checkState(!entry.isOrphan);
+    entry.isOrphan = true;
+    mCount.decrementAndGet();
+    mSizeInBytes.addAndGet(-entry.size);
+    if (entry.clientCount == 0) {
+      mExclusiveCount.decrementAndGet();
+      mExclusiveSizeInBytes.addAndGet(-entry.size);
+    }
+  }
+
+  /** Creates a new reference for the client, whose count has already been increased. */
+  @GuardedBy("entry")
+  private CloseableReference<V> newClientReference(final Entry<K, V> entry) {
+    return CloseableReference.of(
+        entry.valueRef.get(),
+        new ResourceReleaser<V>() {
+          @Override
+          public void release(V unused) {
+            releaseClientReference(entry);
+          }
+        });
+  }
+
+  private CloseableReference<V> newClientReferenceOfInUseEntry(final Entry<K, V> entry) {
+    synchronized (entry) {
+      return newClientReference(entry);
+    }
+  }
+
+  /** Called when the client closes its reference. */
+  private void releaseClientReference(final Entry<K, V> entry) {
+    boolean isExclusiveAdded = false;
+    CloseableReference<V> oldRefToClose = null;
+    synchronized (entry) {
+      Preconditions.checkState(entry.clientCount > 0);
+      entry.clientCount--;
+      if (entry.clientCount == 0) {
+        if (entry.isOrphan) {
+          oldRefToClose = entry.valueRef;
+        } else {
+          isExclusiveAdded = true;
+          mExclusiveCount.incrementAndGet();
+          mExclusiveSizeInBytes.addAndGet(entry.size);
+        }
+      }
+    }
+    CloseableReference.closeSafely(oldRefToClose);
+    if (isExclusiveAdded) {
+      // not an access: the frequencies of the policy only count lookups and inserts
+      recordRelease(entry);
+      maybeNotifyExclusiveEntryInsertion(entry);
+      maybeUpdateCacheParams();
+      maybeEvictEntries();
+    }
+  }
+
+  private void addToAccessOrder(Entry<K, V> entry) {
+    mEvictionLock.lock();
+    try {
+      synchronized (entry) {
+        // the entry may already have been replaced
+        if (!entry.isOrphan) {
+          mEvictionPolicy.onInsert(entry);
+        }
+      }
+    } finally {
+      mEvictionLock.unlock();
+    }
+  }
+
+  private void removeFromAccessOrder(List<Entry<K, V>> entries) {
+    if (entries.isEmpty()) {
+      return;
+    }
+    mEvictionLock.lock();
+    try {
+      for (Entry<K, V> entry : entries) {
+        mEvictionPolicy.onRemove(entry);
+      }
+    } finally {
+      mEvictionLock.unlock();
+    }
+  }
+
+  /**
+   * Records an access to the entry in the read buffer of the current thread, and drains the
+   * buffers if it is getting full and nobody else is doing it.
+   */
+  private void recordAccess(Entry<K, V> entry) {
+    ReadBuffer<K, V> readBuffer =
+        mReadBuffers[(int) Thread.currentThread().getId() & (mReadBuffers.length - 1)];
+    if (readBuffer.offer(entry) >= READ_BUFFER_DRAIN_THRESHOLD && mEvictionLock.tryLock()) {
+      try {
+        drainBuffers();
+      } finally {
+        mEvictionLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Records that the last client of the entry released it, and drains the buffers if there are
+   * enough pending releases and nobody else is doing it.
+   */
+  private void recordRelease(Entry<K, V> entry) {
+    mReleaseBuffer.offer(entry);
+    if (mReleaseBufferCount.incrementAndGet() >= READ_BUFFER_DRAIN_THRESHOLD
+        && mEvictionLock.tryLock()) {
+      try {
+        drainBuffers();
+      } finally {
+        mEvictionLock.unlock();
+      }
+    }
+  }
+
+  /** Drains the pending accesses and releases into the eviction policy. */
+  @GuardedBy("mEvictionLock")
+  private void drainBuffers() {
+    Entry<K, V> entry;
+    while ((entry = mReleaseBuffer.poll()) != null) {
+      mReleaseBufferCount.decrementAndGet();
+      synchronized (entry) {
+        // removals update the policy under the eviction lock too, once the entry is an orphan
+        if (!entry.isOrphan) {
+          mEvictionPolicy.onRelease(entry);
+        }
+      }
+    }
+    for (ReadBuffer<K, V> readBuffer : mReadBuffers) {
+      while ((entry = readBuffer.poll()) != null) {
+        mEvictionPolicy.onAccess(entry);
+      }
+    }
+  }
+
+  private static <K, V> void maybeNotifyExclusiveEntryRemoval(Entry<K, V> entry) {
+    if (entry.observer != null) {
+      entry.observer.onExclusivityChanged(entry.key, false);
+    }
+  }
+
+  private static <K, V> void maybeNotifyExclusiveEntryInsertion(Entry<K, V> entry) {
+    if (entry.observer != null) {
+      entry.observer.onExclusivityChanged(entry.key, true);
+    }
+  }
+
+  /** Gets the total number of all currently cached items. */
+  @Override
+  public int getCount() {
+    return mCount.get();
+  }
+
+  /** Gets the total size in bytes of all currently cached items. */
+  @Override
+  public int getSizeInBytes() {
+    return mSizeInBytes.get();
+  }
+
+  /** Gets the number of the cached items that are used by at least one client. */
+  public int getInUseCount() {
+    return mCount.get() - mExclusiveCount.get();
+  }
+
+  /** Gets the total size in bytes of the cached items that are used by at least one client. */
+  @Override
+  public int getInUseSizeInBytes() {
+    return mSizeInBytes.get() - mExclusiveSizeInBytes.get();
+  }
+
+  /** Gets the number of the exclusively owned items. */
+  @Override
+  public int getEvictionQueueCount() {
+    return mExclusiveCount.get();
+  }
+
+  /** Gets the total size in bytes of the exclusively owned items. */
+  @Override
+  public int getEvictionQueueSizeInBytes() {
+    return mExclusiveSizeInBytes.get();
+  }
+
+  @Override
+  public @Nullable String getDebugData() {
+    return Objects.toStringHelper("CountingMemoryCache")
+        .add("cached_entries_count", getCount())
+        .add("cached_entries_size_bytes", getSizeInBytes())
+        .add("exclusive_entries_count", getEvictionQueueCount())
+        .add("exclusive_entries_size_bytes", getEvictionQueueSizeInBytes())
+        .toString();
+  }
+
+  /**
+   * Bounded buffer of accessed entries, written by any thread and read under the eviction lock.
+   * Accesses are dropped when the buffer is full or contended, which only makes the eviction order
+   * less precise.
+   */
+  private static class ReadBuffer<K, V> {
+    private final AtomicReferenceArray<Entry<K, V>> mBuffer =
+        new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+    private final AtomicLong mWriteCount = new AtomicLong();
+    private volatile long mReadCount;
+
+    /** @return the number of pending accesses, after recording this one if there was room */
+    int offer(Entry<K, V> entry) {
+      long writeCount = mWriteCount.get();
+      int pending = (int) (writeCount - mReadCount);
+      if (pending >= READ_BUFFER_SIZE || !mWriteCount.compareAndSet(writeCount, writeCount + 1)) {
+        return pending;
+      }
+      mBuffer.lazySet((int) writeCount & READ_BUFFER_MASK, entry);
+      return pending + 1;
+    }
+
+    @GuardedBy("mEvictionLock")
+    @Nullable
+    Entry<K, V> poll() {
+      long readCount = mReadCount;
+      if (readCount == mWriteCount.get()) {
+        return null;
+      }
+      int index = (int) readCount & READ_BUFFER_MASK;
+      Entry<K, V> entry = mBuffer.get(index);
+      if (entry == null) {
+        // the write of that slot is not visible yet
+        return null;
+      }
+      mBuffer.lazySet(index, null);
+      mReadCount = readCount + 1;
+      return entry;
+    }
+  }
+}
@@ -35,13 +35,16 @@ public class CountingLruBitmapMemoryCacheFactory implements BitmapMemoryCacheFac
         };
 
     CountingMemoryCache<CacheKey, CloseableImage> countingCache =
-        new LruCountingMemoryCache<>(
-            valueDescriptor,
-            trimStrategy,
-            bitmapMemoryCacheParamsSupplier,
-            observer,
-            storeEntrySize,
-            ignoreSizeMismatch);
+        bitmapMemoryCacheParamsSupplier.get().tinyLfuEnabled
+            ? new ConcurrentCountingMemoryCache<>(
+                valueDescriptor, trimStrategy, bitmapMemoryCacheParamsSupplier, observer)
+            : new LruCountingMemoryCache<>(
+                valueDescriptor,
+                trimStrategy,
+                bitmapMemoryCacheParamsSupplier,
+                observer,
+                storeEntrySize,
+                ignoreSizeMismatch);
 
     memoryTrimmableRegistry.registerMemoryTrimmable(countingCache);
 
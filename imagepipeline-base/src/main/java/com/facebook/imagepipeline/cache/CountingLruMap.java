@@ -10,6 +10,7 @@ package com.facebook.imagepipeline.cache;
 import androidx.annotation.VisibleForTesting;
 import com.facebook.common.internal.Predicate;
 import com.facebook.infer.annotation.Nullsafe;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -17,7 +18,12 @@ import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
-/** Map that keeps track of the elements order (according to the LRU policy) and their size. */
+/**
+ * Map that keeps track of the elements order (according to the LRU policy) and their size.
+ *
+ * <p>The map can also index its keys by URI, see {@link UriKeyIndex}, so that the elements of a URI
+ * can be matched without going through all the elements.
+ */
 @ThreadSafe
 @Nullsafe(Nullsafe.Mode.STRICT)
 public class CountingLruMap<K, V> {
@@ -30,8 +36,16 @@ public class CountingLruMap<K, V> {
   @GuardedBy("this")
   private int mSizeInBytes = 0;
 
+  @GuardedBy("this")
+  private final @Nullable UriKeyIndex<K> mUriIndex;
+
   public CountingLruMap(ValueDescriptor<V> valueDescriptor) {
+    this(valueDescriptor, false);
+  }
+
+  public CountingLruMap(ValueDescriptor<V> valueDescriptor, boolean uriIndexEnabled) {
     mValueDescriptor = valueDescriptor;
+    mUriIndex = uriIndexEnabled ? new UriKeyIndex<K>() : null;
   }
 
   @VisibleForTesting
@@ -44,6 +58,11 @@ public class CountingLruMap<K, V> {
     return new ArrayList<>(mMap.values());
   }
 
+  /** Returns whether the map indexes its keys by URI. */
+  public boolean isUriIndexEnabled() {
+    return mUriIndex != null;
+  }
+
   /** Gets the count of the elements in the map. */
   public synchronized int getCount() {
     return mMap.size();
@@ -72,6 +91,27 @@ public class CountingLruMap<K, V> {
     return matchingEntries;
   }
 
+  /**
+   * Gets the all matching elements among the elements of the given URI.
+   *
+   * <p>If the map indexes its keys by URI, only the keys indexed under {@code uriString} are tested
+   * against the predicate. Otherwise this is the same as {@link #getMatchingEntries(Predicate)}.
+   */
+  public synchronized ArrayList<LinkedHashMap.Entry<K, V>> getMatchingEntries(
+      String uriString, @Nullable Predicate<K> predicate) {
+    if (mUriIndex == null) {
+      return getMatchingEntries(predicate);
+    }
+    ArrayList<LinkedHashMap.Entry<K, V>> matchingEntries = new ArrayList<>();
+    for (K key : mUriIndex.getKeys(uriString)) {
+      V value = mMap.get(key);
+      if (value != null && (predicate == null || predicate.apply(key))) {
+        matchingEntries.add(new AbstractMap.SimpleImmutableEntry<>(key, value));
+      }
+    }
+    return matchingEntries;
+  }
+
   /** Returns whether the map contains an element with the given key. */
   public synchronized boolean contains(K key) {
     return mMap.containsKey(key);
@@ -92,6 +132,9 @@ public class CountingLruMap<K, V> {
     mSizeInBytes -= getValueSizeInBytes(oldValue);
     mMap.put(key, value);
     mSizeInBytes += getValueSizeInBytes(value);
+    if (oldValue == null && mUriIndex != null) {
+      mUriIndex.add(key);
+    }
     return oldValue;
   }
 
@@ -100,6 +143,9 @@ public class CountingLruMap<K, V> {
   public synchronized V remove(K key) {
     V oldValue = mMap.remove(key);
     mSizeInBytes -= getValueSizeInBytes(oldValue);
+    if (oldValue != null && mUriIndex != null) {
+      mUriIndex.remove(key);
+    }
     return oldValue;
   }
 
@@ -113,6 +159,31 @@ public class CountingLruMap<K, V> {
         oldValues.add(entry.getValue());
         mSizeInBytes -= getValueSizeInBytes(entry.getValue());
         iterator.remove();
+        if (mUriIndex != null) {
+          mUriIndex.remove(entry.getKey());
+        }
+      }
+    }
+    return oldValues;
+  }
+
+  /**
+   * Removes all the matching elements among the elements of the given URI.
+   *
+   * <p>If the map indexes its keys by URI, only the keys indexed under {@code uriString} are tested
+   * against the predicate. Otherwise this is the same as {@link #removeAll(Predicate)}.
+   */
+  public synchronized ArrayList<V> removeAll(String uriString, @Nullable Predicate<K> predicate) {
+    if (mUriIndex == null) {
+      return removeAll(predicate);
+    }
+    ArrayList<V> oldValues = new ArrayList<>();
+    for (K key : mUriIndex.getKeys(uriString)) {
+      if (predicate == null || predicate.apply(key)) {
+        V oldValue = remove(key);
+        if (oldValue != null) {
+          oldValues.add(oldValue);
+        }
       }
     }
     return oldValues;
@@ -123,6 +194,9 @@ public class CountingLruMap<K, V> {
     ArrayList<V> oldValues = new ArrayList<>(mMap.values());
     mMap.clear();
     mSizeInBytes = 0;
+    if (mUriIndex != null) {
+      mUriIndex.clear();
+    }
     return oldValues;
   }
 
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.common.internal.Predicate;
+import com.facebook.infer.annotation.Nullsafe;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Order in which {@link ConcurrentCountingMemoryCache} evicts its entries.
+ *
+ * <p>The policy is told about every cached entry, in use or not, and is always called under the
+ * eviction lock of the cache. It may stop tracking the entries that {@link #selectVictim} finds
+ * not evictable, as long as it tracks them again when they are released.
+ */
+@NotThreadSafe
+@Nullsafe(Nullsafe.Mode.STRICT)
+interface EvictionPolicy<K, V> {
+
+  /** Called when a new entry is added to the cache. */
+  void onInsert(CountingMemoryCache.Entry<K, V> entry);
+
+  /** Called when an entry is accessed. The entry may have been removed since. */
+  void onAccess(CountingMemoryCache.Entry<K, V> entry);
+
+  /**
+   * Called when the last client of an entry released it, so that it can be evicted again. This is
+   * not an access, the entry was accessed when the client got it.
+   */
+  void onRelease(CountingMemoryCache.Entry<K, V> entry);
+
+  /** Called when an entry is removed from the cache, whatever the reason. */
+  void onRemove(CountingMemoryCache.Entry<K, V> entry);
+
+  /**
+   * Called instead of {@link #onRemove} when the cache evicts the entry last returned by {@link
+   * #selectVictim}. As the cache may end up not evicting the victim, e.g. if a client got it in the
+   * meantime, what choosing it implies for the other entries is only done here.
+   */
+  void onEvict(CountingMemoryCache.Entry<K, V> entry);
+
+  /**
+   * Returns the next entry to evict among the ones accepted by the given predicate, without
+   * removing it or changing the order of the other entries, or null if there is none.
+   */
+  @Nullable
+  CountingMemoryCache.Entry<K, V> selectVictim(
+      Predicate<CountingMemoryCache.Entry<K, V>> evictable);
+
+  /** Updates the maximum size of the cache in bytes, as the cache params may change over time. */
+  void setMaxSizeInBytes(int maxSizeInBytes);
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.infer.annotation.Nullsafe;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Compact count-min sketch estimating how often keys were seen recently, as used by {@link
+ * TinyLfuEvictionPolicy}.
+ *
+ * <p>Each key is counted in 4 counters of 4 bits, packed 16 per long, so that the estimate
+ * saturates at 15. Once the number of recorded accesses reaches 10 times the width of the table,
+ * all the counters are halved, so that the keys that are no longer accessed lose their popularity.
+ */
+@NotThreadSafe
+@Nullsafe(Nullsafe.Mode.STRICT)
+class FrequencySketch {
+
+  private static final long[] SEEDS = {
+    0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+  };
+  private static final long RESET_MASK = 0x7777777777777777L;
+  private static final long ONE_MASK = 0x1111111111111111L;
+  private static final int MIN_WIDTH = 16;
+  private static final int MAX_WIDTH = 1 << 16;
+  private static final int SAMPLE_SIZE_FACTOR = 10;
+  static final int MAX_FREQUENCY = 15;
+
+  private final long[] mTable;
+  private final int mTableMask;
+  private final int mSampleSize;
+  private int mSize;
+
+  /** @param expectedEntries the number of entries the cache is expected to hold */
+  FrequencySketch(int expectedEntries) {
+    int width = Math.max(MIN_WIDTH, Math.min(MAX_WIDTH, expectedEntries));
+    width = Integer.highestOneBit(width - 1) << 1;
+    mTable = new long[width];
+    mTableMask = width - 1;
+    mSampleSize = SAMPLE_SIZE_FACTOR * width;
+  }
+
+  /** Returns the estimated number of recent occurrences of the key, at most 15. */
+  int frequency(Object key) {
+    int hash = spread(key.hashCode());
+    int start = (hash & 3) << 2;
+    int frequency = MAX_FREQUENCY;
+    for (int i = 0; i < 4; i++) {
+      int index = indexOf(hash, i);
+      int count = (int) ((mTable[index] >>> ((start + i) << 2)) & 0xfL);
+      frequency = Math.min(frequency, count);
+    }
+    return frequency;
+  }
+
+  /** Records an occurrence of the key, and ages all the counters once enough were recorded. */
+  void increment(Object key) {
+    int hash = spread(key.hashCode());
+    int start = (hash & 3) << 2;
+    boolean added = false;
+    for (int i = 0; i < 4; i++) {
+      added |= incrementAt(indexOf(hash, i), start + i);
+    }
+    if (added && ++mSize == mSampleSize) {
+      reset();
+    }
+  }
+
+  private boolean incrementAt(int index, int counter) {
+    int offset = counter << 2;
+    long mask = 0xfL << offset;
+    if ((mTable[index] & mask) != mask) {
+      mTable[index] += 1L << offset;
+      return true;
+    }
+    return false;
+  }
+
+  /** Halves all the counters. */
+  private void reset() {
+    int oddCount = 0;
+    for (int i = 0; i < mTable.length; i++) {
+      oddCount += Long.bitCount(mTable[i] & ONE_MASK);
+      mTable[i] = (mTable[i] >>> 1) & RESET_MASK;
+    }
+    // the truncated halves are lost, which is what the odd counters account for
+    mSize = (mSize >>> 1) - (oddCount >>> 2);
+  }
+
+  private int indexOf(int hash, int i) {
+    long seeded = (hash + SEEDS[i]) * SEEDS[i];
+    seeded += seeded >>> 32;
+    return ((int) seeded) & mTableMask;
+  }
+
+  private static int spread(int hash) {
+    hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+    hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+    return (hash >>> 16) ^ hash;
+  }
+}
@@ -20,6 +20,8 @@ import com.facebook.common.references.CloseableReference;
 import com.facebook.common.references.ResourceReleaser;
 import com.facebook.infer.annotation.Nullsafe;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
 import javax.annotation.Nullable;
@@ -85,13 +87,17 @@ public class LruCountingMemoryCache<K, V>
       boolean storeEntrySize,
       boolean ignoreSizeMismatch) {
     mValueDescriptor = valueDescriptor;
-    mExclusiveEntries = new CountingLruMap<>(wrapValueDescriptor(valueDescriptor));
-    mCachedEntries = new CountingLruMap<>(wrapValueDescriptor(valueDescriptor));
     mCacheTrimStrategy = cacheTrimStrategy;
     mMemoryCacheParamsSupplier = memoryCacheParamsSupplier;
     mMemoryCacheParams =
         Preconditions.checkNotNull(
             mMemoryCacheParamsSupplier.get(), "mMemoryCacheParamsSupplier returned null");
+    mExclusiveEntries =
+        new CountingLruMap<>(
+            wrapValueDescriptor(valueDescriptor), mMemoryCacheParams.uriIndexEnabled);
+    mCachedEntries =
+        new CountingLruMap<>(
+            wrapValueDescriptor(valueDescriptor), mMemoryCacheParams.uriIndexEnabled);
     mLastCacheParamsCheck = SystemClock.uptimeMillis();
     mEntryStateObserver = entryStateObserver;
     mStoreEntrySize = storeEntrySize;
@@ -306,11 +312,33 @@ public class LruCountingMemoryCache<K, V>
    * @return number of the items removed from the cache
    */
   public int removeAll(Predicate<K> predicate) {
+    return removeAll(null, predicate);
+  }
+
+  /**
+   * Removes all the items from the cache whose key was built for the given URI and matches the
+   * specified predicate.
+   *
+   * @param uriString the URI string of the keys
+   * @param predicate returns true if an item with the given key should be removed
+   * @return number of the items removed from the cache
+   */
+  @Override
+  public int removeAllForUri(String uriString, Predicate<K> predicate) {
+    return removeAll(uriString, predicate);
+  }
+
+  private int removeAll(@Nullable String uriString, Predicate<K> predicate) {
     ArrayList<Entry<K, V>> oldExclusives;
     ArrayList<Entry<K, V>> oldEntries;
     synchronized (this) {
-      oldExclusives = mExclusiveEntries.removeAll(predicate);
-      oldEntries = mCachedEntries.removeAll(predicate);
+      if (uriString == null) {
+        oldExclusives = mExclusiveEntries.removeAll(predicate);
+        oldEntries = mCachedEntries.removeAll(predicate);
+      } else {
+        oldExclusives = mExclusiveEntries.removeAll(uriString, predicate);
+        oldEntries = mCachedEntries.removeAll(uriString, predicate);
+      }
       makeOrphans(oldEntries);
     }
     maybeClose(oldEntries);
@@ -346,6 +374,40 @@ public class LruCountingMemoryCache<K, V>
     return !mCachedEntries.getMatchingEntries(predicate).isEmpty();
   }
 
+  /**
+   * Check if any items from the cache whose key was built for the given URI matches the specified
+   * predicate.
+   *
+   * @param uriString the URI string of the keys
+   * @param predicate returns true if an item with the given key matches
+   * @return true is any items matches from the cache
+   */
+  @Override
+  public synchronized boolean containsForUri(String uriString, Predicate<K> predicate) {
+    return !mCachedEntries.getMatchingEntries(uriString, predicate).isEmpty();
+  }
+
+  /**
+   * Gets the keys of the items of the cache whose key was built for the given URI and matches the
+   * specified predicate. Returns an empty list if the cache does not index its keys by URI.
+   *
+   * @param uriString the URI string of the keys
+   * @param predicate returns true if the key of an item matches
+   * @return the keys of the matching items
+   */
+  @Override
+  public synchronized List<K> getKeysForUri(String uriString, Predicate<K> predicate) {
+    if (!mCachedEntries.isUriIndexEnabled()) {
+      return Collections.emptyList();
+    }
+    ArrayList<K> keys = new ArrayList<>();
+    for (Map.Entry<K, Entry<K, V>> entry :
+        mCachedEntries.getMatchingEntries(uriString, predicate)) {
+      keys.add(entry.getKey());
+    }
+    return keys;
+  }
+
   /**
    * Check if an item with the given cache key is currently in the cache.
    *
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.common.internal.Predicate;
+import com.facebook.infer.annotation.Nullsafe;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Evicts the least recently used entry first.
+ *
+ * <p>As in {@link LruCountingMemoryCache}, the queue only holds the entries that can be evicted:
+ * the entries found in use while looking for a victim are dropped from it, and come back as the
+ * most recently used ones when their last client releases them. Looking for a victim is then
+ * amortized constant time, instead of going through all the entries in use every time.
+ */
+@NotThreadSafe
+@Nullsafe(Nullsafe.Mode.STRICT)
+class LruEvictionPolicy<K, V> implements EvictionPolicy<K, V> {
+
+  // From the least to the most recently used. May still hold entries that went in use since they
+  // were last released.
+  private final LinkedHashSet<CountingMemoryCache.Entry<K, V>> mAccessOrder = new LinkedHashSet<>();
+
+  @Override
+  public void onInsert(CountingMemoryCache.Entry<K, V> entry) {
+    mAccessOrder.add(entry);
+  }
+
+  @Override
+  public void onAccess(CountingMemoryCache.Entry<K, V> entry) {
+    // moves the entry to the most recently used end, unless it has been removed since
+    if (mAccessOrder.remove(entry)) {
+      mAccessOrder.add(entry);
+    }
+  }
+
+  @Override
+  public void onRelease(CountingMemoryCache.Entry<K, V> entry) {
+    // as in LruCountingMemoryCache, the entries are evicted in the order they were released
+    mAccessOrder.remove(entry);
+    mAccessOrder.add(entry);
+  }
+
+  @Override
+  public void onRemove(CountingMemoryCache.Entry<K, V> entry) {
+    mAccessOrder.remove(entry);
+  }
+
+  @Override
+  public void onEvict(CountingMemoryCache.Entry<K, V> entry) {
+    onRemove(entry);
+  }
+
+  @Override
+  public @Nullable CountingMemoryCache.Entry<K, V> selectVictim(
+      Predicate<CountingMemoryCache.Entry<K, V>> evictable) {
+    Iterator<CountingMemoryCache.Entry<K, V>> iterator = mAccessOrder.iterator();
+    while (iterator.hasNext()) {
+      CountingMemoryCache.Entry<K, V> entry = iterator.next();
+      if (evictable.apply(entry)) {
+        return entry;
+      }
+      // in use, it is added back by onRelease
+      iterator.remove();
+    }
+    return null;
+  }
+
+  @Override
+  public void setMaxSizeInBytes(int maxSizeInBytes) {}
+}
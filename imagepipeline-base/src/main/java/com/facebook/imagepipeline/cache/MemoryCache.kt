@@ -81,6 +81,46 @@ interface MemoryCache<K, V> : MemoryTrimmable, HasDebugData {
    */
   operator fun contains(predicate: Predicate<K>): Boolean
 
+  /**
+   * Removes all the items from the cache whose keys were built for the given URI and match the
+   * specified predicate.
+   *
+   * Caches that index their keys by URI only test the keys indexed under [uriString], the others
+   * test all their keys, as [removeAll] does.
+   *
+   * @param uriString the URI string of the keys, as returned by their `getUriString`
+   * @param predicate returns true if an item with the given key should be removed
+   * @return number of the items removed from the cache
+   */
+  fun removeAllForUri(uriString: String, predicate: Predicate<K>): Int = removeAll(predicate)
+
+  /**
+   * Find if any of the items from the cache whose keys were built for the given URI match the
+   * specified predicate.
+   *
+   * Caches that index their keys by URI only test the keys indexed under [uriString], the others
+   * test all their keys, as [contains] does.
+   *
+   * @param uriString the URI string of the keys, as returned by their `getUriString`
+   * @param predicate returns true if an item with the given key matches
+   * @return true if the predicate was found in the cache, false otherwise
+   */
+  fun containsForUri(uriString: String, predicate: Predicate<K>): Boolean = contains(predicate)
+
+  /**
+   * Gets the keys of the items of the cache whose keys were built for the given URI and match the
+   * specified predicate, e.g. to look for another variant of an image.
+   *
+   * Only caches that index their keys by URI list them, testing the keys indexed under
+   * [uriString]. The others return an empty list rather than testing all their keys, so that a
+   * lookup never costs a scan of the whole cache.
+   *
+   * @param uriString the URI string of the keys, as returned by their `getUriString`
+   * @param predicate returns true if the key of an item matches
+   * @return the keys of the matching items
+   */
+  fun getKeysForUri(uriString: String, predicate: Predicate<K>): List<K> = emptyList()
+
   /**
    * Check if the cache contains an item for the given key.
    *
@@ -29,7 +29,9 @@ constructor(
     @JvmField val maxEvictionQueueSize: Int,
     @JvmField val maxEvictionQueueEntries: Int,
     @JvmField val maxCacheEntrySize: Int,
-    @JvmField val paramsCheckIntervalMs: Long = TimeUnit.MINUTES.toMillis(5)
+    @JvmField val paramsCheckIntervalMs: Long = TimeUnit.MINUTES.toMillis(5),
+    @JvmField val tinyLfuEnabled: Boolean = false,
+    @JvmField val uriIndexEnabled: Boolean = false
 ) {
   /**
    * Pass arguments to control the cache's behavior in the constructor.
@@ -41,5 +43,15 @@ constructor(
    * @param maxEvictionQueueEntries The maximum number of entries in the eviction queue.
    * @param maxCacheEntrySize The maximum size of a single cache entry.
    * @param paramsCheckIntervalMs Interval between checking parameters for updated values in ms.
+   * @param tinyLfuEnabled Whether the cache should use a frequency-aware (TinyLFU) admission and
+   *   eviction policy instead of a plain LRU. The frequently used items are then kept across
+   *   one-off accesses, at the cost of a small frequency sketch. The value is read when the cache
+   *   is created. Only [ConcurrentCountingMemoryCache] implements it, so the default bitmap and
+   *   encoded memory caches are created as such a cache when it is set, and as a
+   *   [LruCountingMemoryCache] otherwise.
+   * @param uriIndexEnabled Whether the cache should index its keys by URI, so that removing or
+   *   looking up the items of a URI only goes through the keys built for that URI. Only the keys
+   *   whose [com.facebook.cache.common.CacheKey.getUriString] is the URI are found this way. The
+   *   value is read when the cache is created.
    */
 }
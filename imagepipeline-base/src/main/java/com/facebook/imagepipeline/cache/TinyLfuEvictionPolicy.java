@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.common.internal.Predicate;
+import com.facebook.infer.annotation.Nullsafe;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Frequency-aware eviction policy (W-TinyLFU).
+ *
+ * <p>New entries go to a small LRU window. Once the window is over its budget, its least recently
+ * used entry only makes it into the main area if it was seen more often than the entry the main
+ * area would evict instead, according to a {@link FrequencySketch}. The main area is a segmented
+ * LRU: entries start in the probation segment, and move to the protected segment when accessed
+ * again. This keeps the frequently displayed images cached across one-off scans, e.g. when
+ * scrolling through a long feed.
+ *
+ * <p>As a small window is a poor fit for workloads where recency matters most, e.g. when the
+ * working set changes from one screen to the next, the size of the window is adapted by hill
+ * climbing: it keeps moving in the same direction as long as the miss rate improves.
+ *
+ * <p>As in {@link LruEvictionPolicy}, the segments only queue the entries that can be evicted:
+ * the entries found in use while looking for a victim are dropped from the queue of their segment,
+ * and are queued again as its most recently used ones when their last client releases them. They
+ * still count towards the size of their segment meanwhile. Looking for a victim is then amortized
+ * constant time.
+ */
+@NotThreadSafe
+@Nullsafe(Nullsafe.Mode.STRICT)
+class TinyLfuEvictionPolicy<K, V> implements EvictionPolicy<K, V> {
+
+  private static final int MIN_WINDOW_SIZE_PERCENT = 1;
+  private static final int MAX_WINDOW_SIZE_PERCENT = 80;
+  private static final int WINDOW_SIZE_STEP_PERCENT = 10;
+  private static final int PROTECTED_SIZE_PERCENT = 80;
+  // Number of events, per expected entry, between two adjustments of the window size
+  private static final int CLIMB_SAMPLE_FACTOR = 3;
+  private static final int MIN_CLIMB_SAMPLE_SIZE = 128;
+
+  private final FrequencySketch mSketch;
+
+  private final Segment<K, V> mWindow = new Segment<>();
+  private final Segment<K, V> mProbation = new Segment<>();
+  private final Segment<K, V> mProtected = new Segment<>();
+  // The segment of each tracked entry, queued or not
+  private final HashMap<CountingMemoryCache.Entry<K, V>, Segment<K, V>> mSegments = new HashMap<>();
+
+  // The window entry to admit to the main area if the last victim selected is evicted
+  private @Nullable CountingMemoryCache.Entry<K, V> mAdmissionCandidate;
+  private @Nullable CountingMemoryCache.Entry<K, V> mAdmissionVictim;
+
+  private int mMaxSizeInBytes;
+  private int mMaxWindowSizeInBytes;
+  private int mMaxMainSizeInBytes;
+  private int mMaxProtectedSizeInBytes;
+
+  // Hill climbing state. Inserts are cache misses, so their share of all the events measures the
+  // miss rate.
+  private int mWindowSizePercent = MIN_WINDOW_SIZE_PERCENT;
+  private int mWindowSizeStepPercent = WINDOW_SIZE_STEP_PERCENT;
+  private final int mClimbSampleSize;
+  private int mSampleEventCount;
+  private int mSampleInsertCount;
+  private float mPreviousMissRate = -1;
+
+  TinyLfuEvictionPolicy(int maxSizeInBytes, int maxEntries) {
+    mSketch = new FrequencySketch(maxEntries);
+    mClimbSampleSize = Math.max(MIN_CLIMB_SAMPLE_SIZE, CLIMB_SAMPLE_FACTOR * maxEntries);
+    setMaxSizeInBytes(maxSizeInBytes);
+  }
+
+  @Override
+  public void setMaxSizeInBytes(int maxSizeInBytes) {
+    mMaxSizeInBytes = maxSizeInBytes;
+    mMaxWindowSizeInBytes =
+        Math.max(1, (int) ((long) maxSizeInBytes * mWindowSizePercent / 100));
+    mMaxMainSizeInBytes = Math.max(0, maxSizeInBytes - mMaxWindowSizeInBytes);
+    mMaxProtectedSizeInBytes = (int) ((long) mMaxMainSizeInBytes * PROTECTED_SIZE_PERCENT / 100);
+  }
+
+  @Override
+  public void onInsert(CountingMemoryCache.Entry<K, V> entry) {
+    recordEvent(true);
+    mSketch.increment(entry.key);
+    moveTo(entry, mWindow);
+    // while the main area is not full, the entries leaving the window don't need to be admitted
+    while (mWindow.sizeInBytes > mMaxWindowSizeInBytes && mWindow.queue.size() > 1) {
+      CountingMemoryCache.Entry<K, V> oldest = mWindow.queue.iterator().next();
+      if (mProbation.sizeInBytes + mProtected.sizeInBytes + oldest.size > mMaxMainSizeInBytes) {
+        break;
+      }
+      moveTo(oldest, mProbation);
+    }
+  }
+
+  @Override
+  public void onAccess(CountingMemoryCache.Entry<K, V> entry) {
+    recordEvent(false);
+    Segment<K, V> segment = mSegments.get(entry);
+    if (segment == null) {
+      // removed since
+      return;
+    }
+    mSketch.increment(entry.key);
+    if (segment != mProbation) {
+      segment.moveToTail(entry);
+      return;
+    }
+    moveTo(entry, mProtected);
+    // demotes the least recently used protected entries to make room
+    while (mProtected.sizeInBytes > mMaxProtectedSizeInBytes && mProtected.queue.size() > 1) {
+      moveTo(mProtected.queue.iterator().next(), mProbation);
+    }
+  }
+
+  @Override
+  public void onRelease(CountingMemoryCache.Entry<K, V> entry) {
+    // the order only follows the lookups and the inserts, unless the entry was dropped from the
+    // queue of its segment while in use
+    Segment<K, V> segment = mSegments.get(entry);
+    if (segment != null) {
+      segment.enqueue(entry);
+    }
+  }
+
+  @Override
+  public void onRemove(CountingMemoryCache.Entry<K, V> entry) {
+    Segment<K, V> segment = mSegments.remove(entry);
+    if (segment != null) {
+      segment.remove(entry);
+    }
+  }
+
+  @Override
+  public void onEvict(CountingMemoryCache.Entry<K, V> entry) {
+    onRemove(entry);
+    CountingMemoryCache.Entry<K, V> candidate = mAdmissionCandidate;
+    if (entry == mAdmissionVictim && candidate != null && mSegments.get(candidate) == mWindow) {
+      moveTo(candidate, mProbation);
+    }
+    mAdmissionCandidate = null;
+    mAdmissionVictim = null;
+  }
+
+  @Override
+  public @Nullable CountingMemoryCache.Entry<K, V> selectVictim(
+      Predicate<CountingMemoryCache.Entry<K, V>> evictable) {
+    mAdmissionCandidate = null;
+    mAdmissionVictim = null;
+    CountingMemoryCache.Entry<K, V> candidate = mWindow.first(evictable);
+    CountingMemoryCache.Entry<K, V> victim = mProbation.first(evictable);
+    if (victim == null) {
+      victim = mProtected.first(evictable);
+    }
+    if (candidate == null || victim == null) {
+      return candidate != null ? candidate : victim;
+    }
+    if (mWindow.sizeInBytes <= mMaxWindowSizeInBytes) {
+      return victim;
+    }
+    // the window is full: its least recently used entry has to be evicted, unless it is more
+    // popular than the main area's victim, in which case it is admitted to the main area once the
+    // victim is evicted
+    if (mSketch.frequency(candidate.key) > mSketch.frequency(victim.key)) {
+      mAdmissionCandidate = candidate;
+      mAdmissionVictim = victim;
+      return victim;
+    }
+    return candidate;
+  }
+
+  /** Moves the entry to the most recently used end of the segment, tracking it if it is new. */
+  private void moveTo(CountingMemoryCache.Entry<K, V> entry, Segment<K, V> segment) {
+    Segment<K, V> previous = mSegments.put(entry, segment);
+    if (previous != null) {
+      previous.remove(entry);
+    }
+    segment.add(entry);
+  }
+
+  private void recordEvent(boolean isInsert) {
+    mSampleEventCount++;
+    if (isInsert) {
+      mSampleInsertCount++;
+    }
+    if (mSampleEventCount < mClimbSampleSize) {
+      return;
+    }
+    float missRate = (float) mSampleInsertCount / mSampleEventCount;
+    if (mPreviousMissRate >= 0 && missRate > mPreviousMissRate) {
+      // the last move made things worse, goes back the other way
+      mWindowSizeStepPercent = -mWindowSizeStepPercent;
+    }
+    mWindowSizePercent =
+        Math.max(
+            MIN_WINDOW_SIZE_PERCENT,
+            Math.min(MAX_WINDOW_SIZE_PERCENT, mWindowSizePercent + mWindowSizeStepPercent));
+    mPreviousMissRate = missRate;
+    mSampleEventCount = 0;
+    mSampleInsertCount = 0;
+    setMaxSizeInBytes(mMaxSizeInBytes);
+  }
+
+  /**
+   * The entries of a segment. Its size counts all of them, but its queue, from the least to the
+   * most recently used entry, may miss the ones found in use.
+   */
+  private static class Segment<K, V> {
+    final LinkedHashSet<CountingMemoryCache.Entry<K, V>> queue = new LinkedHashSet<>();
+    int sizeInBytes;
+
+    /** Adds a new entry to the segment. */
+    void add(CountingMemoryCache.Entry<K, V> entry) {
+      queue.add(entry);
+      sizeInBytes += entry.size;
+    }
+
+    /** Removes an entry of the segment, queued or not. */
+    void remove(CountingMemoryCache.Entry<K, V> entry) {
+      queue.remove(entry);
+      sizeInBytes -= entry.size;
+    }
+
+    /** Queues again an entry of the segment that was dropped from the queue. */
+    void enqueue(CountingMemoryCache.Entry<K, V> entry) {
+      queue.add(entry);
+    }
+
+    /** Moves a queued entry to the most recently used end. */
+    void moveToTail(CountingMemoryCache.Entry<K, V> entry) {
+      if (queue.remove(entry)) {
+        queue.add(entry);
+      }
+    }
+
+    /**
+     * Returns the least recently used entry accepted by the predicate. The entries found in use on
+     * the way are dropped from the queue, they are queued again when released.
+     */
+    @Nullable
+    CountingMemoryCache.Entry<K, V> first(Predicate<CountingMemoryCache.Entry<K, V>> predicate) {
+      Iterator<CountingMemoryCache.Entry<K, V>> iterator = queue.iterator();
+      while (iterator.hasNext()) {
+        CountingMemoryCache.Entry<K, V> entry = iterator.next();
+        if (predicate.apply(entry)) {
+          return entry;
+        }
+        iterator.remove();
+      }
+      return null;
+    }
+  }
+}
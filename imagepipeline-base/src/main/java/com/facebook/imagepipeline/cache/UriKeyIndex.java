@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.MultiCacheKey;
+import com.facebook.infer.annotation.Nullsafe;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Index of the keys of a memory cache by the URI they were built for, so that the items of a URI
+ * can be found without going through all the items of the cache.
+ *
+ * <p>A {@link CacheKey} is indexed under its {@link CacheKey#getUriString}, and a {@link
+ * MultiCacheKey} under the URI strings of all the keys it contains. Other keys are not indexed.
+ *
+ * <p>The index counts the additions and removals of each key rather than storing a set, so that it
+ * stays right when a concurrent cache replaces or removes an item between the update of its map
+ * and the update of the index. The caller must check the keys it gets against its own map.
+ */
+@ThreadSafe
+@Nullsafe(Nullsafe.Mode.STRICT)
+class UriKeyIndex<K> {
+
+  @GuardedBy("this")
+  private final Map<String, Map<K, Integer>> mKeysByUri = new HashMap<>();
+
+  /** Adds the key under each of its URI strings. */
+  synchronized void add(K key) {
+    if (key instanceof CacheKey) {
+      update((CacheKey) key, key, 1);
+    }
+  }
+
+  /** Removes the key from each of its URI strings. */
+  synchronized void remove(K key) {
+    if (key instanceof CacheKey) {
+      update((CacheKey) key, key, -1);
+    }
+  }
+
+  /** Gets the keys indexed under the given URI string. */
+  synchronized List<K> getKeys(String uriString) {
+    ArrayList<K> result = new ArrayList<>();
+    Map<K, Integer> keys = mKeysByUri.get(uriString);
+    if (keys != null) {
+      for (Map.Entry<K, Integer> entry : keys.entrySet()) {
+        if (entry.getValue() > 0) {
+          result.add(entry.getKey());
+        }
+      }
+    }
+    return result;
+  }
+
+  synchronized void clear() {
+    mKeysByUri.clear();
+  }
+
+  /** Gets the number of URI strings with at least one key. */
+  synchronized int getUriCount() {
+    return mKeysByUri.size();
+  }
+
+  @GuardedBy("this")
+  private void update(CacheKey cacheKey, K key, int delta) {
+    if (cacheKey instanceof MultiCacheKey) {
+      for (CacheKey innerKey : ((MultiCacheKey) cacheKey).getCacheKeys()) {
+        update(innerKey, key, delta);
+      }
+      return;
+    }
+    String uriString = cacheKey.getUriString();
+    Map<K, Integer> keys = mKeysByUri.get(uriString);
+    if (keys == null) {
+      keys = new HashMap<>();
+      mKeysByUri.put(uriString, keys);
+    }
+    Integer oldCount = keys.get(key);
+    int count = (oldCount == null ? 0 : oldCount) + delta;
+    if (count != 0) {
+      keys.put(key, count);
+    } else {
+      keys.remove(key);
+      if (keys.isEmpty()) {
+        mKeysByUri.remove(uriString);
+      }
+    }
+  }
+}
@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.infer.annotation.Nullsafe;
+
+/**
+ * A task that tells a {@link PriorityExecutor} the priority of the request it works for.
+ *
+ * <p>The priority is read again when the task is re-prioritised with {@link
+ * PriorityExecutor#reprioritize}, so implementations may return a different value over time.
+ */
+@Nullsafe(Nullsafe.Mode.STRICT)
+public interface PrioritizedRunnable extends Runnable {
+
+  /** Gets the current priority of this task. */
+  Priority getPriority();
+}
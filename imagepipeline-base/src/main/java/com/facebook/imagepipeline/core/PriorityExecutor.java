@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.infer.annotation.Nullsafe;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Fixed size thread pool whose queue orders the tasks by priority, and by submission time among
+ * tasks of the same priority.
+ *
+ * <p>Tasks that implement {@link PrioritizedRunnable} are queued with their own priority, other
+ * tasks with {@link Priority#MEDIUM}. A task that is still queued can be moved to its new place
+ * with {@link #reprioritize} when the priority of its request changes.
+ *
+ * <p>An executor can be given a victim executor: when its own queue is empty, its idle threads run
+ * the tasks queued on the victim. This lets the decode threads help with disk reads when there is
+ * nothing to decode, instead of waiting while the IO threads are saturated.
+ */
+@ThreadSafe
+@Nullsafe(Nullsafe.Mode.STRICT)
+public class PriorityExecutor implements Executor {
+
+  private static final Comparator<Task> TASK_COMPARATOR =
+      new Comparator<Task>() {
+        @Override
+        public int compare(Task lhs, Task rhs) {
+          if (lhs.mPriority != rhs.mPriority) {
+            // higher priorities first
+            return rhs.mPriority.ordinal() - lhs.mPriority.ordinal();
+          }
+          return Long.compare(lhs.mSequenceNumber, rhs.mSequenceNumber);
+        }
+      };
+
+  private final int mMaxThreadCount;
+  private final ThreadFactory mThreadFactory;
+  private final @Nullable PriorityExecutor mVictim;
+
+  @GuardedBy("this")
+  private final PriorityQueue<Task> mQueue = new PriorityQueue<>(16, TASK_COMPARATOR);
+
+  @GuardedBy("this")
+  private final List<PriorityExecutor> mThieves = new ArrayList<>();
+
+  @GuardedBy("this")
+  private long mNextSequenceNumber;
+
+  @GuardedBy("this")
+  private int mThreadCount;
+
+  @GuardedBy("this")
+  private int mIdleThreadCount;
+
+  /**
+   * Incremented each time work becomes available to this executor, either on its own queue or on
+   * the queue of its victim. Lets an idle thread know that it must not wait.
+   */
+  @GuardedBy("this")
+  private long mWorkVersion;
+
+  /**
+   * @param maxThreadCount the maximum number of threads; threads are started as tasks come in
+   * @param threadFactory the factory for the threads
+   * @param victim the executor whose queued tasks this one runs when its own queue is empty
+   */
+  public PriorityExecutor(
+      int maxThreadCount, ThreadFactory threadFactory, @Nullable PriorityExecutor victim) {
+    if (maxThreadCount <= 0) {
+      throw new IllegalArgumentException("maxThreadCount must be positive: " + maxThreadCount);
+    }
+    mMaxThreadCount = maxThreadCount;
+    mThreadFactory = threadFactory;
+    mVictim = victim;
+    if (victim != null) {
+      victim.addThief(this);
+    }
+  }
+
+  @Override
+  public void execute(Runnable runnable) {
+    Priority priority =
+        runnable instanceof PrioritizedRunnable
+            ? ((PrioritizedRunnable) runnable).getPriority()
+            : Priority.MEDIUM;
+    boolean startThread = false;
+    List<PriorityExecutor> thieves = null;
+    synchronized (this) {
+      mQueue.add(new Task(runnable, priority, mNextSequenceNumber++));
+      mWorkVersion++;
+      if (mIdleThreadCount > 0) {
+        notify();
+      } else if (mThreadCount < mMaxThreadCount) {
+        mThreadCount++;
+        startThread = true;
+      } else if (!mThieves.isEmpty()) {
+        // all our threads are busy, let the idle threads of the thieves help
+        thieves = new ArrayList<>(mThieves);
+      }
+    }
+    if (startThread) {
+      startWorker();
+    }
+    if (thieves != null) {
+      for (PriorityExecutor thief : thieves) {
+        thief.onVictimWorkAvailable();
+      }
+    }
+  }
+
+  /**
+   * Moves a queued task to the place of its current {@link PrioritizedRunnable#getPriority}.
+   *
+   * <p>The task keeps its submission time, so among the tasks of its new priority it runs in the
+   * order it was submitted. Does nothing if the task is not queued, e.g. because it has started.
+   *
+   * @return true if the task was queued
+   */
+  public boolean reprioritize(PrioritizedRunnable runnable) {
+    Priority priority = runnable.getPriority();
+    synchronized (this) {
+      for (Task task : mQueue) {
+        if (task.mRunnable == runnable) {
+          if (task.mPriority != priority) {
+            mQueue.remove(task);
+            task.mPriority = priority;
+            mQueue.add(task);
+          }
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /** Gets the number of tasks waiting to run. */
+  public synchronized int getQueueSize() {
+    return mQueue.size();
+  }
+
+  private synchronized void addThief(PriorityExecutor thief) {
+    mThieves.add(thief);
+  }
+
+  private synchronized void onVictimWorkAvailable() {
+    mWorkVersion++;
+    if (mIdleThreadCount > 0) {
+      notify();
+    }
+  }
+
+  private synchronized @Nullable Runnable pollQueue() {
+    Task task = mQueue.poll();
+    return task == null ? null : task.mRunnable;
+  }
+
+  private void startWorker() {
+    mThreadFactory
+        .newThread(
+            new Runnable() {
+              @Override
+              public void run() {
+                runWorker();
+              }
+            })
+        .start();
+  }
+
+  private void runWorker() {
+    try {
+      while (true) {
+        Runnable runnable = takeTask();
+        if (runnable == null) {
+          return;
+        }
+        try {
+          runnable.run();
+        } catch (RuntimeException e) {
+          // a failing task must not stop the pool
+          Thread thread = Thread.currentThread();
+          Thread.UncaughtExceptionHandler handler = thread.getUncaughtExceptionHandler();
+          if (handler != null) {
+            handler.uncaughtException(thread, e);
+          }
+        }
+      }
+    } finally {
+      // only reached when a task throws an Error, which kills the thread, or when the thread is
+      // interrupted while it waits for a task
+      onWorkerDied();
+    }
+  }
+
+  /**
+   * Gives the slot of a stopped thread back, and starts a new thread if tasks are still queued, as
+   * a ThreadPoolExecutor does.
+   */
+  private void onWorkerDied() {
+    boolean startThread = false;
+    synchronized (this) {
+      mThreadCount--;
+      if (!mQueue.isEmpty() && mThreadCount < mMaxThreadCount) {
+        mThreadCount++;
+        startThread = true;
+      }
+    }
+    if (startThread) {
+      startWorker();
+    }
+  }
+
+  /**
+   * Waits for the next task to run.
+   *
+   * @return the task, or null if the thread was interrupted while waiting, in which case its
+   *   interrupt flag is set again and the thread must stop
+   */
+  private @Nullable Runnable takeTask() {
+    while (true) {
+      long workVersion;
+      synchronized (this) {
+        Task task = mQueue.poll();
+        if (task != null) {
+          return task.mRunnable;
+        }
+        workVersion = mWorkVersion;
+      }
+      // the victim is polled outside of our lock so that the two locks are never nested this way
+      Runnable stolen = mVictim != null ? mVictim.pollQueue() : null;
+      if (stolen != null) {
+        return stolen;
+      }
+      synchronized (this) {
+        if (workVersion == mWorkVersion && mQueue.isEmpty()) {
+          mIdleThreadCount++;
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            // waiting again would throw right away, let the owner of the thread see the interrupt
+            Thread.currentThread().interrupt();
+            return null;
+          } finally {
+            mIdleThreadCount--;
+          }
+        }
+      }
+    }
+  }
+
+  private static class Task {
+    final Runnable mRunnable;
+    final long mSequenceNumber;
+    Priority mPriority;
+
+    Task(Runnable runnable, Priority priority, long sequenceNumber) {
+      mRunnable = runnable;
+      mPriority = priority;
+      mSequenceNumber = sequenceNumber;
+    }
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.core
+
+import android.os.Process
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+
+/**
+ * Implementation of [ExecutorSupplier] whose thread pools run the tasks of visible images first.
+ *
+ * Provides the same thread pools as [DefaultExecutorSupplier], but each of them is a
+ * [PriorityExecutor] that orders its queue by the priority of the requests, so that a low priority
+ * prefetch queued first does not delay the decode of an image that is on screen. The decode
+ * threads run queued disk reads when there is nothing to decode.
+ */
+class PriorityExecutorSupplier(numCpuBoundThreads: Int) : ExecutorSupplier {
+
+  private val ioBoundExecutor: PriorityExecutor =
+      PriorityExecutor(
+          NUM_IO_BOUND_THREADS,
+          PriorityThreadFactory(Process.THREAD_PRIORITY_BACKGROUND, "FrescoIoBoundExecutor", true),
+          null)
+  private val decodeExecutor: PriorityExecutor =
+      PriorityExecutor(
+          numCpuBoundThreads,
+          PriorityThreadFactory(Process.THREAD_PRIORITY_BACKGROUND, "FrescoDecodeExecutor", true),
+          ioBoundExecutor)
+  private val backgroundExecutor: PriorityExecutor =
+      PriorityExecutor(
+          numCpuBoundThreads,
+          PriorityThreadFactory(
+              Process.THREAD_PRIORITY_BACKGROUND, "FrescoBackgroundExecutor", true),
+          null)
+  private val lightWeightBackgroundExecutor: Executor =
+      Executors.newFixedThreadPool(
+          NUM_LIGHTWEIGHT_BACKGROUND_THREADS,
+          PriorityThreadFactory(
+              Process.THREAD_PRIORITY_BACKGROUND, "FrescoLightWeightBackgroundExecutor", true))
+  private val backgroundScheduledExecutorService: ScheduledExecutorService =
+      Executors.newScheduledThreadPool(
+          numCpuBoundThreads,
+          PriorityThreadFactory(
+              Process.THREAD_PRIORITY_BACKGROUND, "FrescoBackgroundExecutor", true))
+
+  override fun forLocalStorageRead(): Executor = ioBoundExecutor
+
+  override fun forLocalStorageWrite(): Executor = ioBoundExecutor
+
+  override fun forDecode(): Executor = decodeExecutor
+
+  override fun forBackgroundTasks(): Executor = backgroundExecutor
+
+  override fun scheduledExecutorServiceForBackgroundTasks(): ScheduledExecutorService? =
+      backgroundScheduledExecutorService
+
+  override fun forLightweightBackgroundTasks(): Executor = lightWeightBackgroundExecutor
+
+  override fun forThumbnailProducer(): Executor = ioBoundExecutor
+
+  companion object {
+    // Allows for simultaneous reads and writes.
+    private const val NUM_IO_BOUND_THREADS = 2
+    private const val NUM_LIGHTWEIGHT_BACKGROUND_THREADS = 1
+  }
+}
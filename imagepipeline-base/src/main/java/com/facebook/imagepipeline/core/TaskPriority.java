@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.infer.annotation.Nullsafe;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Priority of the tasks that a request submits to a thread pool, e.g. its disk cache reads.
+ *
+ * <p>The tasks submitted through {@link #wrap} are queued with this priority when the executor is a
+ * {@link PriorityExecutor}, and the ones that have not started yet are moved when {@link
+ * #setPriority} changes it. Tasks submitted to other executors run as they are.
+ */
+@ThreadSafe
+@Nullsafe(Nullsafe.Mode.STRICT)
+public class TaskPriority {
+
+  private volatile Priority mPriority;
+
+  @GuardedBy("this")
+  private final List<QueuedTask> mQueuedTasks = new ArrayList<>(1);
+
+  public TaskPriority(Priority priority) {
+    mPriority = priority;
+  }
+
+  public Priority getPriority() {
+    return mPriority;
+  }
+
+  /** Sets the priority, and moves the tasks that are still queued to their new place. */
+  public void setPriority(Priority priority) {
+    if (mPriority == priority) {
+      return;
+    }
+    mPriority = priority;
+    List<QueuedTask> queuedTasks;
+    synchronized (this) {
+      queuedTasks = new ArrayList<>(mQueuedTasks);
+    }
+    for (QueuedTask task : queuedTasks) {
+      task.mExecutor.reprioritize(task);
+    }
+  }
+
+  /** Returns an executor that submits the tasks to the given one with this priority. */
+  public Executor wrap(Executor executor) {
+    if (!(executor instanceof PriorityExecutor)) {
+      return executor;
+    }
+    final PriorityExecutor priorityExecutor = (PriorityExecutor) executor;
+    return new Executor() {
+      @Override
+      public void execute(Runnable runnable) {
+        QueuedTask task = new QueuedTask(priorityExecutor, runnable);
+        synchronized (TaskPriority.this) {
+          mQueuedTasks.add(task);
+        }
+        priorityExecutor.execute(task);
+      }
+    };
+  }
+
+  private class QueuedTask implements PrioritizedRunnable {
+    final PriorityExecutor mExecutor;
+    private final Runnable mRunnable;
+
+    QueuedTask(PriorityExecutor executor, Runnable runnable) {
+      mExecutor = executor;
+      mRunnable = runnable;
+    }
+
+    @Override
+    public Priority getPriority() {
+      return mPriority;
+    }
+
+    @Override
+    public void run() {
+      synchronized (TaskPriority.this) {
+        mQueuedTasks.remove(this);
+      }
+      mRunnable.run();
+    }
+  }
+}
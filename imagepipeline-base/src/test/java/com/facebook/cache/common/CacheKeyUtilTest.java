@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import android.util.Base64;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Tests for {@link CacheKeyUtil} */
+@RunWith(RobolectricTestRunner.class)
+public class CacheKeyUtilTest {
+
+  private static final String URL =
+      "https://scontent.xx.fbcdn.net/v/t1.0-9/12345678_1234567890123456_1234567890123456789_n.jpg"
+          + "?_nc_cat=1&oh=0123456789abcdef0123456789abcdef&oe=5C0FFEE0";
+
+  private static String expectedResourceId(String uri) throws Exception {
+    MessageDigest md = MessageDigest.getInstance("SHA-1");
+    byte[] hash = md.digest(uri.getBytes("UTF-8"));
+    return Base64.encodeToString(hash, Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP);
+  }
+
+  @Test
+  public void testSimpleCacheKeyResourceIds() throws Exception {
+    CacheKey key = new SimpleCacheKey(URL);
+    List<String> ids = CacheKeyUtil.getResourceIds(key);
+    assertEquals(Arrays.asList(expectedResourceId(URL)), ids);
+    assertEquals(expectedResourceId(URL), CacheKeyUtil.getFirstResourceId(key));
+    // memoized
+    assertSame(ids, CacheKeyUtil.getResourceIds(key));
+    assertSame(ids.get(0), CacheKeyUtil.getFirstResourceId(key));
+  }
+
+  @Test
+  public void testResourceIdsOfVariousLengths() throws Exception {
+    String uri = "";
+    for (int i = 0; i < 100; i++) {
+      assertEquals(
+          expectedResourceId(uri), CacheKeyUtil.getFirstResourceId(new SimpleCacheKey(uri)));
+      uri += (char) ('a' + i % 26);
+    }
+    String unicodeUri = "https://example.com/\u00e9t\u00e9/\u6771\u4eac.png";
+    assertEquals(
+        expectedResourceId(unicodeUri),
+        CacheKeyUtil.getFirstResourceId(new SimpleCacheKey(unicodeUri)));
+  }
+
+  @Test
+  public void testMultiCacheKeyResourceIds() throws Exception {
+    String uri2 = URL + "&size=small";
+    CacheKey key =
+        new MultiCacheKey(
+            Arrays.<CacheKey>asList(new SimpleCacheKey(URL), new SimpleCacheKey(uri2)));
+    List<String> ids = CacheKeyUtil.getResourceIds(key);
+    assertEquals(Arrays.asList(expectedResourceId(URL), expectedResourceId(uri2)), ids);
+    assertEquals(expectedResourceId(URL), CacheKeyUtil.getFirstResourceId(key));
+    assertSame(ids, CacheKeyUtil.getResourceIds(key));
+  }
+
+  @Test
+  public void testResourceIdForDebugging() throws Exception {
+    CacheKey key = new SimpleCacheKey("debugging_id", true);
+    assertEquals(Arrays.asList("debugging_id"), CacheKeyUtil.getResourceIds(key));
+    assertEquals(expectedResourceId("debugging_id"), CacheKeyUtil.getFirstResourceId(key));
+  }
+}
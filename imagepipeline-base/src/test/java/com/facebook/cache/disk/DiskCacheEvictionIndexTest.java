@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.disk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import com.facebook.binaryresource.BinaryResource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Tests for {@link DiskCacheEvictionIndex} */
+@RunWith(RobolectricTestRunner.class)
+public class DiskCacheEvictionIndexTest {
+
+  private static final long NOW = 1000;
+
+  private DiskCacheEvictionIndex mIndex;
+
+  @Before
+  public void setUp() {
+    mIndex = new DiskCacheEvictionIndex(new DefaultEntryEvictionComparatorSupplier().get());
+  }
+
+  @Test
+  public void testVictimsInLeastRecentlyUsedOrder() {
+    mIndex.put("a", 10, 1, null, NOW);
+    mIndex.put("b", 20, 2, null, NOW);
+    mIndex.put("c", 30, 3, null, NOW);
+    mIndex.touch("a", 4, null);
+
+    assertEquals("b", mIndex.peekVictim(NOW).getId());
+    assertEquals(Arrays.asList("b", "c", "a"), getIds(mIndex.getVictims(Long.MAX_VALUE, NOW)));
+    // stops as soon as enough bytes are freed
+    assertEquals(Arrays.asList("b"), getIds(mIndex.getVictims(19, NOW)));
+    assertEquals(Arrays.asList("b", "c"), getIds(mIndex.getVictims(20, NOW)));
+  }
+
+  @Test
+  public void testPutReplacesEntry() {
+    mIndex.put("a", 10, 1, null, NOW);
+    mIndex.put("b", 20, 2, null, NOW);
+    mIndex.put("a", 15, 3, null, NOW);
+
+    assertEquals(2, mIndex.getCount());
+    List<DiskStorage.Entry> victims = mIndex.getVictims(Long.MAX_VALUE, NOW);
+    assertEquals(Arrays.asList("b", "a"), getIds(victims));
+    assertEquals(15, victims.get(1).getSize());
+  }
+
+  @Test
+  public void testRemove() {
+    mIndex.put("a", 10, 1, null, NOW);
+    mIndex.put("b", 20, 2, null, NOW);
+    mIndex.remove("a");
+    mIndex.remove("missing");
+
+    assertFalse(mIndex.contains("a"));
+    assertTrue(mIndex.contains("b"));
+    assertEquals(1, mIndex.getCount());
+    assertEquals(Arrays.asList("b"), getIds(mIndex.getVictims(Long.MAX_VALUE, NOW)));
+
+    mIndex.clear();
+    assertEquals(0, mIndex.getCount());
+    assertNull(mIndex.peekVictim(NOW));
+  }
+
+  @Test
+  public void testFutureEntriesAreEvictedFirst() {
+    mIndex.put("a", 10, 1, null, NOW);
+    mIndex.put("future", 20, NOW + 1, null, NOW);
+
+    assertEquals("future", mIndex.peekVictim(NOW).getId());
+    assertEquals(Arrays.asList("future", "a"), getIds(mIndex.getVictims(Long.MAX_VALUE, NOW)));
+  }
+
+  @Test
+  public void testPeekVictimSettlesAllFutureEntries() {
+    // both are in the future when inserted
+    mIndex.put("a", 10, NOW + 90, null, NOW);
+    mIndex.put("b", 10, NOW + 60, null, NOW);
+    mIndex.put("c", 10, 10, null, NOW);
+
+    // time caught up with b only, which now takes its place in the regular order
+    assertEquals("a", mIndex.peekVictim(NOW + 70).getId());
+    assertEquals(
+        Arrays.asList("a", "c", "b"), getIds(mIndex.getVictims(Long.MAX_VALUE, NOW + 70)));
+
+    // and with a too
+    assertEquals("c", mIndex.peekVictim(NOW + 100).getId());
+    assertEquals(
+        Arrays.asList("c", "b", "a"), getIds(mIndex.getVictims(Long.MAX_VALUE, NOW + 100)));
+  }
+
+  @Test
+  public void testTouchKeepsResource() {
+    BinaryResource resource = mock(BinaryResource.class);
+    mIndex.put("a", 10, 1, resource, NOW);
+    mIndex.put("b", 20, 2, null, NOW);
+    mIndex.touch("a", 3, null);
+    mIndex.touch("missing", 4, null);
+
+    List<DiskStorage.Entry> victims = mIndex.getVictims(Long.MAX_VALUE, NOW);
+    assertEquals(Arrays.asList("b", "a"), getIds(victims));
+    // the resource of an entry that was not seen by the cache is unknown
+    assertNull(victims.get(0).getResource());
+    assertSame(resource, victims.get(1).getResource());
+    assertEquals(3, victims.get(1).getTimestamp());
+    assertFalse(mIndex.contains("missing"));
+  }
+
+  @Test
+  public void testReset() {
+    mIndex.put("a", 10, 1, null, NOW);
+    DiskStorage.Entry entry = new DiskCacheEvictionIndex.IndexedEntry("b", 20, 2, null);
+    DiskStorage.Entry futureEntry =
+        new DiskCacheEvictionIndex.IndexedEntry("c", 30, NOW + 1, null);
+
+    mIndex.reset(Arrays.asList(entry, futureEntry), NOW);
+    assertFalse(mIndex.contains("a"));
+    assertEquals(2, mIndex.getCount());
+    assertEquals(Arrays.asList("c", "b"), getIds(mIndex.getVictims(Long.MAX_VALUE, NOW)));
+  }
+
+  private static List<String> getIds(List<DiskStorage.Entry> entries) {
+    List<String> ids = new ArrayList<>();
+    for (DiskStorage.Entry entry : entries) {
+      ids.add(entry.getId());
+    }
+    return ids;
+  }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.disk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import com.facebook.cache.common.CacheErrorLogger;
+import com.facebook.common.internal.Suppliers;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Tests for {@link DiskCacheIndexJournal} */
+@RunWith(RobolectricTestRunner.class)
+public class DiskCacheIndexJournalTest {
+
+  private static final int VERSION = 1;
+
+  @Rule public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+  private File mJournalFile;
+
+  @Before
+  public void setUp() throws Exception {
+    mJournalFile = new File(mTemporaryFolder.getRoot(), "index.idx");
+  }
+
+  private DiskCacheIndexJournal createJournal(int version) {
+    return new DiskCacheIndexJournal(
+        Suppliers.of(mJournalFile), version, mock(CacheErrorLogger.class));
+  }
+
+  private static Map<String, DiskCacheIndexJournal.IndexEntry> toMap(
+      Collection<DiskCacheIndexJournal.IndexEntry> entries) {
+    Map<String, DiskCacheIndexJournal.IndexEntry> map = new HashMap<>();
+    for (DiskCacheIndexJournal.IndexEntry entry : entries) {
+      map.put(entry.resourceId, entry);
+    }
+    return map;
+  }
+
+  @Test
+  public void testLoadWithoutJournal() {
+    DiskCacheIndexJournal journal = createJournal(VERSION);
+    assertNull(journal.load());
+    assertFalse(journal.isOpen());
+  }
+
+  @Test
+  public void testReplayInsertsAndRemoves() {
+    DiskCacheIndexJournal journal = createJournal(VERSION);
+    journal.clear();
+    assertTrue(journal.isOpen());
+    journal.recordInsert("a", 100, 1000, 11);
+    journal.recordInsert("b", 200, 2000, 22);
+    journal.recordInsert("c", 300, 3000, 33);
+    journal.recordRemove("b");
+    journal.recordInsert("a", 150, 4000, 11);
+
+    DiskCacheIndexJournal reloaded = createJournal(VERSION);
+    Collection<DiskCacheIndexJournal.IndexEntry> entries = reloaded.load();
+    assertNotNull(entries);
+    Map<String, DiskCacheIndexJournal.IndexEntry> map = toMap(entries);
+    assertEquals(2, map.size());
+    assertEquals(150, map.get("a").size);
+    assertEquals(4000, map.get("a").timestamp);
+    assertEquals(11, map.get("a").keyHash);
+    assertEquals(300, map.get("c").size);
+    assertEquals(450, reloaded.getSize());
+    assertEquals(2, reloaded.getCount());
+  }
+
+  @Test
+  public void testVersionMismatchDiscardsJournal() {
+    DiskCacheIndexJournal journal = createJournal(VERSION);
+    journal.clear();
+    journal.recordInsert("a", 100, 1000, 11);
+
+    assertNull(createJournal(VERSION + 1).load());
+  }
+
+  @Test
+  public void testTruncatedJournalIsDiscarded() throws Exception {
+    DiskCacheIndexJournal journal = createJournal(VERSION);
+    journal.clear();
+    journal.recordInsert("a", 100, 1000, 11);
+    journal.recordInsert("b", 200, 2000, 22);
+
+    RandomAccessFile file = new RandomAccessFile(mJournalFile, "rw");
+    file.setLength(file.length() - 3);
+    file.close();
+
+    assertNull(createJournal(VERSION).load());
+  }
+
+  @Test
+  public void testCorruptedRecordIsDiscarded() throws Exception {
+    DiskCacheIndexJournal journal = createJournal(VERSION);
+    journal.clear();
+    journal.recordInsert("a", 100, 1000, 11);
+
+    RandomAccessFile file = new RandomAccessFile(mJournalFile, "rw");
+    // flip a byte of the size of the record
+    long position = file.length() - 20;
+    file.seek(position);
+    int value = file.read();
+    file.seek(position);
+    file.write(value ^ 0xFF);
+    file.close();
+
+    assertNull(createJournal(VERSION).load());
+  }
+
+  @Test
+  public void testMutationBeforeLoadInvalidatesJournal() {
+    DiskCacheIndexJournal journal = createJournal(VERSION);
+    journal.clear();
+    journal.recordInsert("a", 100, 1000, 11);
+
+    DiskCacheIndexJournal notLoaded = createJournal(VERSION);
+    notLoaded.recordRemove("a");
+    assertNull(notLoaded.load());
+  }
+
+  @Test
+  public void testCompactionKeepsLiveEntries() {
+    DiskCacheIndexJournal journal = createJournal(VERSION);
+    journal.clear();
+    for (int i = 0; i < 3000; i++) {
+      journal.recordInsert("id" + i, i, i, i);
+      if (i % 10 != 0) {
+        journal.recordRemove("id" + i);
+      }
+    }
+    journal.recordAccess("id10", 123456);
+    assertTrue(journal.shouldCompact());
+
+    journal.compact();
+
+    assertFalse(journal.shouldCompact());
+    assertEquals(300, journal.getRecordCount());
+    journal.recordInsert("new", 1, 1, 1);
+
+    DiskCacheIndexJournal reloaded = createJournal(VERSION);
+    Map<String, DiskCacheIndexJournal.IndexEntry> map = toMap(reloaded.load());
+    assertEquals(301, map.size());
+    assertEquals(123456, map.get("id10").timestamp);
+    assertTrue(map.containsKey("new"));
+  }
+
+  @Test
+  public void testRebuildReplacesJournal() {
+    DiskCacheIndexJournal journal = createJournal(VERSION);
+    journal.clear();
+    journal.recordInsert("a", 100, 1000, 11);
+    journal.rebuild(Collections.<DiskStorage.Entry>emptyList());
+
+    Collection<DiskCacheIndexJournal.IndexEntry> entries = createJournal(VERSION).load();
+    assertNotNull(entries);
+    assertTrue(entries.isEmpty());
+  }
+}
@@ -15,8 +15,14 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -46,10 +52,15 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -132,6 +143,18 @@ public class DiskStorageCacheTest {
         new DiskStorageCache.Params(
             0, FILE_CACHE_MAX_SIZE_LOW_LIMIT, FILE_CACHE_MAX_SIZE_HIGH_LIMIT);
 
+    return createDiskCache(diskStorage, diskStorageCacheParams, indexPopulateAtStartupEnabled);
+  }
+
+  private DiskStorageCache createDiskCache(
+      DiskStorage diskStorage, DiskStorageCache.Params diskStorageCacheParams) {
+    return createDiskCache(diskStorage, diskStorageCacheParams, false);
+  }
+
+  private DiskStorageCache createDiskCache(
+      DiskStorage diskStorage,
+      DiskStorageCache.Params diskStorageCacheParams,
+      boolean indexPopulateAtStartupEnabled) {
     return new DiskStorageCache(
         diskStorage,
         new DefaultEntryEvictionComparatorSupplier(),
@@ -495,6 +518,115 @@ public class DiskStorageCacheTest {
     t2.join(1000);
   }
 
+  /**
+   * Hammers a cache with striped locking from several threads and verifies that the bookkeeping is
+   * still consistent with the storage.
+   */
+  @Test
+  public void testStripedLockingConcurrentStress() throws Exception {
+    final long sizeLimit = 20000;
+    final int maxItemSize = 300;
+    final int threadCount = 8;
+    final int operationCount = 200;
+    final DiskStorageCache cache =
+        createDiskCache(
+            mStorage, new DiskStorageCache.Params(0, sizeLimit, sizeLimit, false, true));
+    when(mClock.now()).thenReturn(TimeUnit.MILLISECONDS.convert(1, TimeUnit.DAYS));
+    // initializes the cache size before the threads start
+    putOneThingInCache(cache);
+
+    final CyclicBarrier barrier = new CyclicBarrier(threadCount);
+    final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < threadCount; t++) {
+      final int threadIndex = t;
+      Thread thread =
+          new Thread(
+              new Runnable() {
+                @Override
+                public void run() {
+                  Random random = new Random(threadIndex);
+                  try {
+                    barrier.await(10, TimeUnit.SECONDS);
+                    for (int i = 0; i < operationCount; i++) {
+                      CacheKey key = new SimpleCacheKey("stress" + threadIndex + "_" + i);
+                      cache.insert(
+                          key, WriterCallbacks.from(new byte[1 + random.nextInt(maxItemSize)]));
+                      CacheKey otherKey =
+                          new SimpleCacheKey(
+                              "stress" + random.nextInt(threadCount) + "_" + random.nextInt(i + 1));
+                      switch (random.nextInt(3)) {
+                        case 0:
+                          cache.getResource(otherKey);
+                          break;
+                        case 1:
+                          cache.probe(otherKey);
+                          break;
+                        default:
+                          cache.remove(otherKey);
+                          break;
+                      }
+                    }
+                  } catch (Throwable e) {
+                    failures.add(e);
+                  }
+                }
+              });
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads) {
+      thread.join(60000);
+    }
+
+    assertTrue(failures.toString(), failures.isEmpty());
+    long size = 0;
+    int count = 0;
+    for (DiskStorage.Entry entry : mStorage.getEntries()) {
+      size += entry.getSize();
+      count++;
+    }
+    assertEquals(size, cache.getSize());
+    assertEquals(count, cache.getCount());
+    assertTrue(cache.getSize() <= sizeLimit + threadCount * maxItemSize);
+  }
+
+  @Test
+  public void testRemoveUpdatesSizeAndCount() throws Exception {
+    checkRemoveUpdatesSizeAndCount(mCache);
+  }
+
+  @Test
+  public void testStripedRemoveUpdatesSizeAndCount() throws Exception {
+    checkRemoveUpdatesSizeAndCount(
+        createDiskCache(
+            mStorage,
+            new DiskStorageCache.Params(
+                0, FILE_CACHE_MAX_SIZE_LOW_LIMIT, FILE_CACHE_MAX_SIZE_HIGH_LIMIT, false, true)));
+  }
+
+  private void checkRemoveUpdatesSizeAndCount(DiskStorageCache cache) throws Exception {
+    CacheKey key1 = putOneThingInCache(cache);
+    CacheKey key2 = new SimpleCacheKey("bar");
+    cache.insert(key2, WriterCallbacks.from(new byte[50]));
+    assertEquals(151, cache.getSize());
+    assertEquals(2, cache.getCount());
+
+    cache.remove(key1);
+    assertEquals(50, cache.getSize());
+    assertEquals(1, cache.getCount());
+
+    // nothing is deleted, nothing changes
+    cache.remove(key1);
+    cache.remove(new SimpleCacheKey("duck"));
+    assertEquals(50, cache.getSize());
+    assertEquals(1, cache.getCount());
+
+    cache.remove(key2);
+    assertEquals(0, cache.getSize());
+    assertEquals(0, cache.getCount());
+  }
+
   @Test
   public void testIsEnabled() throws Exception {
     DiskStorage storageMock = mock(DiskStorage.class);
@@ -656,6 +788,247 @@ public class DiskStorageCacheTest {
     assertTrue(mCache.hasKey(key3));
   }
 
+  @Test
+  public void testIncrementalSizeEvictionEvictsLeastRecentlyUsed() throws Exception {
+    DiskStorageCache cache =
+        createDiskCache(
+            mStorage,
+            new DiskStorageCache.Params(
+                0, FILE_CACHE_MAX_SIZE_LOW_LIMIT, FILE_CACHE_MAX_SIZE_HIGH_LIMIT, true));
+    when(mClock.now()).thenReturn(TimeUnit.MILLISECONDS.convert(1, TimeUnit.DAYS));
+    CacheKey key1 = putOneThingInCache(cache);
+    CacheKey key2 = new SimpleCacheKey("bar");
+    CacheKey key3 = new SimpleCacheKey("duck");
+    byte[] value2 = new byte[(int) FILE_CACHE_MAX_SIZE_HIGH_LIMIT];
+    value2[80] = 'c';
+    WriterCallback callback = WriterCallbacks.from(value2);
+    when(mClock.now()).thenReturn(TimeUnit.MILLISECONDS.convert(2, TimeUnit.DAYS));
+    cache.insert(key2, callback);
+    // key1 is now more recently used than key2
+    when(mClock.now()).thenReturn(TimeUnit.MILLISECONDS.convert(3, TimeUnit.DAYS));
+    assertNotNull(cache.getResource(key1));
+    // now over limit. Next write will evict key2 only
+    when(mClock.now()).thenReturn(TimeUnit.MILLISECONDS.convert(4, TimeUnit.DAYS));
+    cache.insert(key3, callback);
+
+    assertTrue(cache.hasKey(key1));
+    assertFalse(cache.hasKeySync(key2));
+    assertFalse(cache.hasKey(key2));
+    assertTrue(cache.hasKey(key3));
+    assertEquals(101 + FILE_CACHE_MAX_SIZE_HIGH_LIMIT, cache.getSize());
+    assertEquals(2, cache.getCount());
+  }
+
+  @Test
+  public void testSizeEvictionReportsPause() throws Exception {
+    fillCacheAboveLimit(mCache);
+
+    verify(mCacheEventListener)
+        .onEvictionPassFinished(
+            eq(CacheEventListener.EvictionReason.CACHE_FULL), eq(1), anyLong(), anyLong());
+  }
+
+  @Test
+  public void testBackgroundEviction() throws Exception {
+    TestExecutorService evictionExecutor = new TestExecutorService(new FakeClock());
+    DiskStorageCache cache = createDiskCacheWithBackgroundEviction(evictionExecutor);
+    CacheKey key1 = fillCacheAboveLimit(cache);
+    // the insert that found the cache full only scheduled the eviction
+    assertTrue(cache.hasKeySync(key1));
+    assertEquals(1, evictionExecutor.getPendingCount());
+    verify(mCacheEventListener, never()).onEviction(any(CacheEvent.class));
+
+    evictionExecutor.runUntilIdle();
+    assertFalse(cache.hasKeySync(key1));
+    assertFalse(cache.hasKey(key1));
+    assertTrue(cache.getSize() <= FILE_CACHE_MAX_SIZE_HIGH_LIMIT * 9 / 10);
+    verify(mCacheEventListener, atLeastOnce()).onEviction(any(CacheEvent.class));
+    verify(mCacheEventListener)
+        .onEvictionPassFinished(
+            eq(CacheEventListener.EvictionReason.CACHE_FULL), anyInt(), anyLong(), anyLong());
+  }
+
+  @Test
+  public void testBackgroundEvictionIsScheduledOnce() throws Exception {
+    TestExecutorService evictionExecutor = new TestExecutorService(new FakeClock());
+    DiskStorageCache cache = createDiskCacheWithBackgroundEviction(evictionExecutor);
+    fillCacheAboveLimit(cache);
+    cache.insert(new SimpleCacheKey("goose"), WriterCallbacks.from(new byte[10]));
+    assertEquals(1, evictionExecutor.getPendingCount());
+  }
+
+  @Test
+  public void testBackgroundEvictionCancelledByClearAll() throws Exception {
+    TestExecutorService evictionExecutor = new TestExecutorService(new FakeClock());
+    DiskStorageCache cache = createDiskCacheWithBackgroundEviction(evictionExecutor);
+    fillCacheAboveLimit(cache);
+    cache.clearAll();
+
+    evictionExecutor.runUntilIdle();
+    verify(mCacheEventListener, never()).onEviction(any(CacheEvent.class));
+    verify(mCacheEventListener, never())
+        .onEvictionPassFinished(
+            any(CacheEventListener.EvictionReason.class), anyInt(), anyLong(), anyLong());
+  }
+
+  @Test
+  public void testBackgroundEvictionLetsInsertsProceedBetweenBatches() throws Exception {
+    assertTrue(
+        isOperationDoneBeforeBackgroundEvictionEnds(
+            false,
+            new CacheOperation() {
+              @Override
+              public void run(DiskStorageCache cache) throws IOException {
+                cache.insert(new SimpleCacheKey("goose"), WriterCallbacks.from(new byte[10]));
+              }
+            }));
+  }
+
+  @Test
+  public void testStripedBackgroundEvictionLetsEvictionsProceedBetweenBatches() throws Exception {
+    // striped inserts never wait for the eviction lock, a trim does
+    assertTrue(
+        isOperationDoneBeforeBackgroundEvictionEnds(
+            true,
+            new CacheOperation() {
+              @Override
+              public void run(DiskStorageCache cache) {
+                cache.trimToMinimum();
+              }
+            }));
+  }
+
+  private interface CacheOperation {
+    void run(DiskStorageCache cache) throws IOException;
+  }
+
+  /**
+   * Starts the given operation on another thread during the first batch of a background eviction
+   * that takes several batches, once the operation is blocked by that batch.
+   *
+   * @return whether the operation completed before the background eviction pass finished
+   */
+  private boolean isOperationDoneBeforeBackgroundEvictionEnds(
+      boolean stripedLockingEnabled, final CacheOperation operation) throws Exception {
+    final DiskStorageCache[] cache = new DiskStorageCache[1];
+    final CountDownLatch operationDone = new CountDownLatch(1);
+    final CountDownLatch passFinished = new CountDownLatch(1);
+    final AtomicBoolean operationDoneBeforePassFinished = new AtomicBoolean();
+    final Thread operationThread =
+        new Thread(
+            new Runnable() {
+              @Override
+              public void run() {
+                try {
+                  operation.run(cache[0]);
+                } catch (IOException e) {
+                  throw new RuntimeException(e);
+                } finally {
+                  operationDone.countDown();
+                }
+              }
+            });
+    CacheEventListener listener =
+        new DuplicatingCacheEventListener(mCacheEventListener) {
+          @Override
+          public void onEviction(CacheEvent cacheEvent) {
+            super.onEviction(cacheEvent);
+            if (cacheEvent.getEvictionReason() != CacheEventListener.EvictionReason.CACHE_FULL
+                || operationThread.getState() != Thread.State.NEW) {
+              return;
+            }
+            operationThread.start();
+            try {
+              while (operationThread.getState() != Thread.State.BLOCKED
+                  && !operationDone.await(1, TimeUnit.MILLISECONDS)) {
+                // waits for the operation to be blocked by this batch
+              }
+            } catch (InterruptedException e) {
+              throw new RuntimeException(e);
+            }
+          }
+
+          @Override
+          public void onEvictionPassFinished(
+              CacheEventListener.EvictionReason reason,
+              int batchCount,
+              long maxPauseMs,
+              long totalPauseMs) {
+            if (reason == CacheEventListener.EvictionReason.CACHE_FULL) {
+              operationDoneBeforePassFinished.set(operationDone.getCount() == 0);
+              passFinished.countDown();
+            }
+          }
+        };
+    Executor evictionExecutor =
+        new Executor() {
+          @Override
+          public void execute(Runnable runnable) {
+            new Thread(runnable).start();
+          }
+        };
+    cache[0] =
+        new DiskStorageCache(
+            mStorage,
+            new DefaultEntryEvictionComparatorSupplier(),
+            new DiskStorageCache.Params(3800, 3000, 3000, false, stripedLockingEnabled),
+            listener,
+            mock(CacheErrorLogger.class),
+            mDiskTrimmableRegistry,
+            mBackgroundExecutor,
+            false,
+            null,
+            evictionExecutor);
+
+    // evicting down to 90% of the limit takes 131 of the small entries, hence several batches,
+    // while trimming to the minimum only takes a few of them
+    when(mClock.now()).thenReturn(TimeUnit.MILLISECONDS.convert(1, TimeUnit.DAYS));
+    for (int i = 0; i < 300; i++) {
+      cache[0].insert(new SimpleCacheKey("small" + i), WriterCallbacks.from(new byte[10]));
+    }
+    when(mClock.now()).thenReturn(TimeUnit.MILLISECONDS.convert(2, TimeUnit.DAYS));
+    cache[0].insert(new SimpleCacheKey("big"), WriterCallbacks.from(new byte[1000]));
+    when(mClock.now()).thenReturn(TimeUnit.MILLISECONDS.convert(3, TimeUnit.DAYS));
+    cache[0].insert(new SimpleCacheKey("trigger"), WriterCallbacks.from(new byte[10]));
+
+    assertTrue(passFinished.await(10, TimeUnit.SECONDS));
+    assertTrue(operationDone.await(10, TimeUnit.SECONDS));
+    return operationDoneBeforePassFinished.get();
+  }
+
+  private DiskStorageCache createDiskCacheWithBackgroundEviction(
+      TestExecutorService evictionExecutor) {
+    return new DiskStorageCache(
+        mStorage,
+        new DefaultEntryEvictionComparatorSupplier(),
+        new DiskStorageCache.Params(
+            0, FILE_CACHE_MAX_SIZE_LOW_LIMIT, FILE_CACHE_MAX_SIZE_HIGH_LIMIT),
+        new DuplicatingCacheEventListener(mCacheEventListener),
+        mock(CacheErrorLogger.class),
+        mDiskTrimmableRegistry,
+        mBackgroundExecutor,
+        false,
+        null,
+        evictionExecutor);
+  }
+
+  /**
+   * Inserts three entries, the last one into a full cache.
+   *
+   * @return the key of the oldest entry
+   */
+  private CacheKey fillCacheAboveLimit(DiskStorageCache cache) throws IOException {
+    when(mClock.now()).thenReturn(TimeUnit.MILLISECONDS.convert(1, TimeUnit.DAYS));
+    CacheKey key1 = putOneThingInCache(cache);
+    byte[] value2 = new byte[(int) FILE_CACHE_MAX_SIZE_HIGH_LIMIT];
+    WriterCallback callback = WriterCallbacks.from(value2);
+    when(mClock.now()).thenReturn(TimeUnit.MILLISECONDS.convert(2, TimeUnit.DAYS));
+    cache.insert(new SimpleCacheKey("bar"), callback);
+    when(mClock.now()).thenReturn(TimeUnit.MILLISECONDS.convert(3, TimeUnit.DAYS));
+    cache.insert(new SimpleCacheKey("duck"), callback);
+    return key1;
+  }
+
   @Test
   public void testTimeEvictionClearsIndex() throws Exception {
     when(mClock.now()).thenReturn(5l);
@@ -871,6 +1244,12 @@ public class DiskStorageCacheTest {
       mRecipientListener.onCleared();
     }
 
+    @Override
+    public void onEvictionPassFinished(
+        EvictionReason reason, int batchCount, long maxPauseMs, long totalPauseMs) {
+      mRecipientListener.onEvictionPassFinished(reason, batchCount, maxPauseMs, totalPauseMs);
+    }
+
     private static CacheEvent duplicateEvent(CacheEvent cacheEvent) {
       SettableCacheEvent copyEvent = SettableCacheEvent.obtain();
       copyEvent.setCacheKey(cacheEvent.getCacheKey());
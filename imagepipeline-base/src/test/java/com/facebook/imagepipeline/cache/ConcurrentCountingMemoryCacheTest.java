@@ -0,0 +1,411 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.anyBoolean;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.os.SystemClock;
+import com.facebook.common.internal.Predicate;
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@PrepareForTest({SystemClock.class})
+@PowerMockIgnore({"org.mockito.*", "org.robolectric.*", "androidx.*", "android.*"})
+@Config(manifest = Config.NONE)
+public class ConcurrentCountingMemoryCacheTest {
+
+  private static final int CACHE_MAX_SIZE = 1200;
+  private static final int CACHE_MAX_COUNT = 4;
+  private static final int CACHE_EVICTION_QUEUE_MAX_SIZE = 1100;
+  private static final int CACHE_EVICTION_QUEUE_MAX_COUNT = 3;
+  private static final int CACHE_ENTRY_MAX_SIZE = 1000;
+  private static final long PARAMS_CHECK_INTERVAL_MS = TimeUnit.MINUTES.toMillis(5);
+
+  @Mock public ResourceReleaser<Integer> mReleaser;
+  @Mock public MemoryCache.CacheTrimStrategy mCacheTrimStrategy;
+  @Mock public Supplier<MemoryCacheParams> mParamsSupplier;
+  @Mock public CountingMemoryCache.EntryStateObserver<String> mEntryStateObserver;
+
+  @Rule public PowerMockRule rule = new PowerMockRule();
+
+  private ConcurrentCountingMemoryCache<String, Integer> mCache;
+
+  private static final String KEY = "KEY";
+  private static final String[] KEYS =
+      new String[] {"k0", "k1", "k2", "k3", "k4", "k5", "k6", "k7", "k8", "k9"};
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    PowerMockito.mockStatic(SystemClock.class);
+    PowerMockito.when(SystemClock.uptimeMillis()).thenReturn(0L);
+    ValueDescriptor<Integer> valueDescriptor =
+        new ValueDescriptor<Integer>() {
+          @Override
+          public int getSizeInBytes(Integer value) {
+            return value;
+          }
+        };
+    when(mParamsSupplier.get())
+        .thenReturn(
+            new MemoryCacheParams(
+                CACHE_MAX_SIZE,
+                CACHE_MAX_COUNT,
+                CACHE_EVICTION_QUEUE_MAX_SIZE,
+                CACHE_EVICTION_QUEUE_MAX_COUNT,
+                CACHE_ENTRY_MAX_SIZE,
+                PARAMS_CHECK_INTERVAL_MS));
+    mCache =
+        new ConcurrentCountingMemoryCache<>(
+            valueDescriptor, mCacheTrimStrategy, mParamsSupplier, null);
+  }
+
+  @Test
+  public void testCache() {
+    mCache.cache(KEY, newReference(100));
+    assertTotalSize(1, 100);
+    assertExclusivelyOwnedSize(0, 0);
+    assertSharedWithCount(KEY, 100, 1);
+    verify(mReleaser, never()).release(anyInt());
+  }
+
+  @Test
+  public void testClosingClientReference() {
+    CloseableReference<Integer> cachedRef = mCache.cache(KEY, newReference(100));
+    // cached item should get exclusively owned
+    cachedRef.close();
+    assertTotalSize(1, 100);
+    assertExclusivelyOwnedSize(1, 100);
+    assertSharedWithCount(KEY, 100, 0);
+    verify(mReleaser, never()).release(anyInt());
+  }
+
+  @Test
+  public void testToggleExclusive() {
+    CloseableReference<Integer> cachedRef =
+        mCache.cache(KEY, newReference(100), mEntryStateObserver);
+    verify(mEntryStateObserver, never()).onExclusivityChanged(anyString(), anyBoolean());
+    cachedRef.close();
+    verify(mEntryStateObserver).onExclusivityChanged(KEY, true);
+    CloseableReference<Integer> clientRef = mCache.get(KEY);
+    verify(mEntryStateObserver).onExclusivityChanged(KEY, false);
+    assertExclusivelyOwnedSize(0, 0);
+    clientRef.close();
+    verify(mEntryStateObserver, times(2)).onExclusivityChanged(KEY, true);
+  }
+
+  @Test
+  public void testReuse() {
+    CloseableReference<Integer> originalRef = newReference(100);
+    CloseableReference<Integer> cachedRef = mCache.cache(KEY, originalRef, mEntryStateObserver);
+    originalRef.close();
+    assertNull(mCache.reuse(KEY));
+    cachedRef.close();
+
+    CloseableReference<Integer> reusedRef = mCache.reuse(KEY);
+    assertNotNull(reusedRef);
+    verify(mEntryStateObserver).onExclusivityChanged(KEY, false);
+    assertTotalSize(0, 0);
+    assertExclusivelyOwnedSize(0, 0);
+    assertFalse(mCache.contains(KEY));
+    verify(mReleaser, never()).release(anyInt());
+    reusedRef.close();
+    verify(mReleaser).release(100);
+  }
+
+  @Test
+  public void testCachingSameKeyTwice() {
+    CloseableReference<Integer> originalRef = newReference(110);
+    CloseableReference<Integer> cachedRef1 = mCache.cache(KEY, originalRef);
+    originalRef.close();
+    CloseableReference<Integer> cachedRef2 = mCache.get(KEY);
+    CountingMemoryCache.Entry<String, Integer> entry1 = mCache.mCachedEntries.get(KEY);
+
+    CloseableReference<Integer> cachedRef3 = mCache.cache(KEY, newReference(120));
+    assertNotSame(entry1, mCache.mCachedEntries.get(KEY));
+    assertTrue(entry1.isOrphan);
+    assertEquals(2, entry1.clientCount);
+    assertSharedWithCount(KEY, 120, 1);
+    assertTotalSize(1, 120);
+
+    // release the orphaned reference only when all clients are gone
+    cachedRef1.close();
+    verify(mReleaser, never()).release(anyInt());
+    cachedRef2.close();
+    verify(mReleaser).release(110);
+    assertTotalSize(1, 120);
+    assertExclusivelyOwnedSize(0, 0);
+    cachedRef3.close();
+    assertExclusivelyOwnedSize(1, 120);
+  }
+
+  @Test
+  public void testDoesNotCacheBigValues() {
+    assertNull(mCache.cache(KEY, newReference(CACHE_ENTRY_MAX_SIZE + 1)));
+    assertNotNull(mCache.cache(KEY, newReference(CACHE_ENTRY_MAX_SIZE)));
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsedExclusiveEntries() {
+    insertAndRelease(KEYS[1], 400);
+    insertAndRelease(KEYS[2], 300);
+    insertAndRelease(KEYS[3], 200);
+    // KEYS[1] becomes the most recently used entry
+    mCache.get(KEYS[1]).close();
+
+    CloseableReference<Integer> newRef = mCache.cache(KEYS[4], newReference(500));
+    // the eviction queue has to fit in 1200 - 500 bytes, so the least recently used goes away
+    assertFalse(mCache.contains(KEYS[2]));
+    assertTrue(mCache.contains(KEYS[1]));
+    assertTrue(mCache.contains(KEYS[3]));
+    verify(mReleaser).release(300);
+    assertTotalSize(3, 1100);
+    assertExclusivelyOwnedSize(2, 600);
+    newRef.close();
+  }
+
+  @Test
+  public void testEvictsExclusiveEntriesInTheOrderTheyWereReleased() {
+    CloseableReference<Integer> originalRef = newReference(400);
+    CloseableReference<Integer> cachedRef = mCache.cache(KEYS[1], originalRef);
+    originalRef.close();
+    insertAndRelease(KEYS[2], 300);
+    insertAndRelease(KEYS[3], 200);
+    // KEYS[1] was inserted first, but released last
+    cachedRef.close();
+
+    CloseableReference<Integer> newRef = mCache.cache(KEYS[4], newReference(500));
+    assertFalse(mCache.contains(KEYS[2]));
+    assertTrue(mCache.contains(KEYS[1]));
+    assertTrue(mCache.contains(KEYS[3]));
+    verify(mReleaser).release(300);
+    newRef.close();
+  }
+
+  @Test
+  public void testGetCachedEntries() {
+    CloseableReference<Integer> originalRef = newReference(400);
+    CloseableReference<Integer> cachedRef = mCache.cache(KEYS[1], originalRef);
+    originalRef.close();
+    insertAndRelease(KEYS[2], 300);
+
+    CountingLruMap<String, CountingMemoryCache.Entry<String, Integer>> entries =
+        mCache.getCachedEntries();
+    assertEquals(2, entries.getCount());
+    assertEquals(700, entries.getSizeInBytes());
+    assertSame(mCache.mCachedEntries.get(KEYS[1]), entries.get(KEYS[1]));
+    assertSame(mCache.mCachedEntries.get(KEYS[2]), entries.get(KEYS[2]));
+
+    // a snapshot, not updated afterwards
+    mCache.removeAll(
+        new Predicate<String>() {
+          @Override
+          public boolean apply(String key) {
+            return true;
+          }
+        });
+    assertEquals(2, entries.getCount());
+    cachedRef.close();
+  }
+
+  @Test
+  public void testDoesNotEvictEntriesInUse() {
+    CloseableReference<Integer> inUseRef = mCache.cache(KEYS[1], newReference(700));
+    insertAndRelease(KEYS[2], 300);
+    insertAndRelease(KEYS[3], 250);
+    // only 500 bytes are left for the eviction queue, KEYS[1] is the least recently used entry but
+    // it can't be evicted
+    assertTrue(mCache.contains(KEYS[1]));
+    assertFalse(mCache.contains(KEYS[2]));
+    assertTrue(mCache.contains(KEYS[3]));
+    verify(mReleaser).release(300);
+    inUseRef.close();
+  }
+
+  @Test
+  public void testRemoveAllMatchingItems() {
+    CloseableReference<Integer> originalRef = newReference(110);
+    CloseableReference<Integer> inUseRef = mCache.cache(KEYS[1], originalRef);
+    originalRef.close();
+    insertAndRelease(KEYS[2], 120);
+    insertAndRelease(KEYS[3], 130);
+
+    int numEvictedEntries =
+        mCache.removeAll(
+            new Predicate<String>() {
+              @Override
+              public boolean apply(String key) {
+                return !key.equals(KEYS[3]);
+              }
+            });
+
+    assertEquals(2, numEvictedEntries);
+    assertTotalSize(1, 130);
+    assertExclusivelyOwnedSize(1, 130);
+    verify(mReleaser).release(120);
+    verify(mReleaser, never()).release(110);
+    inUseRef.close();
+    verify(mReleaser).release(110);
+  }
+
+  @Test
+  public void testTrimming() {
+    MemoryTrimType memoryTrimType = MemoryTrimType.OnCloseToDalvikHeapLimit;
+    when(mCacheTrimStrategy.getTrimRatio(memoryTrimType)).thenReturn(0.5);
+    CloseableReference<Integer> inUseRef = mCache.cache(KEYS[1], newReference(300));
+    insertAndRelease(KEYS[2], 200);
+    insertAndRelease(KEYS[3], 100);
+
+    // target size is 300, all of it in use
+    mCache.trim(memoryTrimType);
+    assertTotalSize(1, 300);
+    assertExclusivelyOwnedSize(0, 0);
+    verify(mReleaser).release(200);
+    verify(mReleaser).release(100);
+    inUseRef.close();
+  }
+
+  @Test
+  public void testClear() {
+    CloseableReference<Integer> originalRef = newReference(110);
+    CloseableReference<Integer> inUseRef = mCache.cache(KEYS[1], originalRef);
+    originalRef.close();
+    insertAndRelease(KEYS[2], 120);
+
+    mCache.clear();
+
+    assertTotalSize(0, 0);
+    assertExclusivelyOwnedSize(0, 0);
+    verify(mReleaser).release(120);
+    assertEquals(110, (int) inUseRef.get());
+    inUseRef.close();
+    verify(mReleaser).release(110);
+  }
+
+  @Test
+  public void testConcurrentAccess() throws Exception {
+    final AtomicInteger releasedCount = new AtomicInteger();
+    final ResourceReleaser<Integer> releaser =
+        new ResourceReleaser<Integer>() {
+          @Override
+          public void release(Integer value) {
+            releasedCount.incrementAndGet();
+          }
+        };
+    final AtomicInteger createdCount = new AtomicInteger();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      final Random random = new Random(t);
+      threads[t] =
+          new Thread(
+              new Runnable() {
+                @Override
+                public void run() {
+                  ArrayDeque<CloseableReference<Integer>> heldRefs = new ArrayDeque<>();
+                  for (int i = 0; i < 20000; i++) {
+                    String key = KEYS[random.nextInt(KEYS.length)];
+                    CloseableReference<Integer> ref;
+                    int operation = random.nextInt(10);
+                    if (operation < 7) {
+                      ref = mCache.get(key);
+                    } else if (operation < 9) {
+                      createdCount.incrementAndGet();
+                      CloseableReference<Integer> valueRef =
+                          CloseableReference.of(1 + random.nextInt(200), releaser);
+                      ref = mCache.cache(key, valueRef);
+                      valueRef.close();
+                    } else {
+                      ref = mCache.reuse(key);
+                    }
+                    if (ref != null) {
+                      heldRefs.add(ref);
+                    }
+                    if (heldRefs.size() > 1) {
+                      heldRefs.poll().close();
+                    }
+                  }
+                  while (!heldRefs.isEmpty()) {
+                    heldRefs.poll().close();
+                  }
+                }
+              });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(mCache.getCount(), mCache.getEvictionQueueCount());
+    assertEquals(mCache.getSizeInBytes(), mCache.getEvictionQueueSizeInBytes());
+    assertTrue(mCache.getEvictionQueueCount() <= CACHE_EVICTION_QUEUE_MAX_COUNT);
+    assertTrue(mCache.getEvictionQueueSizeInBytes() <= CACHE_EVICTION_QUEUE_MAX_SIZE);
+    mCache.clear();
+    assertEquals(createdCount.get(), releasedCount.get());
+  }
+
+  private void insertAndRelease(String key, int value) {
+    CloseableReference<Integer> originalRef = newReference(value);
+    mCache.cache(key, originalRef).close();
+    originalRef.close();
+  }
+
+  private CloseableReference<Integer> newReference(int size) {
+    return CloseableReference.of(size, mReleaser);
+  }
+
+  private void assertSharedWithCount(String key, Integer value, int count) {
+    CountingMemoryCache.Entry<String, Integer> entry = mCache.mCachedEntries.get(key);
+    assertNotNull("entry not found in the cache", entry);
+    assertSame("key mismatch", key, entry.key);
+    assertEquals("value mismatch", value, entry.valueRef.get());
+    assertEquals("client count mismatch", count, entry.clientCount);
+    assertFalse("entry is an orphan", entry.isOrphan);
+  }
+
+  private void assertTotalSize(int count, int bytes) {
+    assertEquals("total cache count mismatch", count, mCache.getCount());
+    assertEquals("total cache size mismatch", bytes, mCache.getSizeInBytes());
+  }
+
+  private void assertExclusivelyOwnedSize(int count, int bytes) {
+    assertEquals("total exclusives count mismatch", count, mCache.getEvictionQueueCount());
+    assertEquals("total exclusives size mismatch", bytes, mCache.getEvictionQueueSizeInBytes());
+  }
+}
@@ -9,6 +9,8 @@ package com.facebook.imagepipeline.cache;
 
 import static org.junit.Assert.*;
 
+import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.SimpleCacheKey;
 import com.facebook.common.internal.Predicate;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -270,6 +272,91 @@ public class CountingLruMapTest {
     assertEquals(null, mCountingLruMap.getFirstKey());
   }
 
+  @Test
+  public void testRemoveAllForUri() {
+    CountingLruMap<CacheKey, Integer> map = newUriIndexedMap();
+    CacheKey key1 = new SimpleCacheKey("http://example.com/1.jpg");
+    CacheKey key2 = new SimpleCacheKey("http://example.com/2.jpg");
+    CacheKey key3 = new UriKeyIndexTest.TestCacheKey("http://example.com/1.jpg", "blur");
+    map.put(key1, 110);
+    map.put(key2, 120);
+    map.put(key3, 130);
+
+    List<Integer> oldValues =
+        map.removeAll(
+            "http://example.com/1.jpg",
+            new Predicate<CacheKey>() {
+              @Override
+              public boolean apply(CacheKey key) {
+                return key.toString().endsWith("blur");
+              }
+            });
+    assertEquals(1, oldValues.size());
+    assertEquals(130, (int) oldValues.get(0));
+    assertEquals(2, map.getCount());
+    assertEquals(230, map.getSizeInBytes());
+
+    oldValues = map.removeAll("http://example.com/1.jpg", null);
+    assertEquals(1, oldValues.size());
+    assertEquals(110, (int) oldValues.get(0));
+    assertEquals(1, map.getCount());
+    assertTrue(map.contains(key2));
+    assertTrue(map.removeAll("http://example.com/1.jpg", null).isEmpty());
+  }
+
+  @Test
+  public void testGetMatchingEntriesForUri() {
+    CountingLruMap<CacheKey, Integer> map = newUriIndexedMap();
+    assertTrue(map.isUriIndexEnabled());
+    assertFalse(mCountingLruMap.isUriIndexEnabled());
+    CacheKey key1 = new SimpleCacheKey("http://example.com/1.jpg");
+    CacheKey key2 = new SimpleCacheKey("http://example.com/2.jpg");
+    map.put(key1, 110);
+    map.put(key2, 120);
+    map.put(key1, 140);
+
+    List<LinkedHashMap.Entry<CacheKey, Integer>> entries =
+        map.getMatchingEntries("http://example.com/1.jpg", null);
+    assertEquals(1, entries.size());
+    assertEquals(key1, entries.get(0).getKey());
+    assertEquals(140, (int) entries.get(0).getValue());
+
+    map.remove(key1);
+    assertTrue(map.getMatchingEntries("http://example.com/1.jpg", null).isEmpty());
+    map.clear();
+    assertTrue(map.getMatchingEntries("http://example.com/2.jpg", null).isEmpty());
+  }
+
+  @Test
+  public void testRemoveAllForUri_WithoutIndex() {
+    mCountingLruMap.put("key1", 110);
+    mCountingLruMap.put("key2", 120);
+    // without an index the predicate is applied to all the keys
+    List<Integer> oldValues =
+        mCountingLruMap.removeAll(
+            "key1",
+            new Predicate<String>() {
+              @Override
+              public boolean apply(String key) {
+                return key.equals("key2");
+              }
+            });
+    assertEquals(1, oldValues.size());
+    assertEquals(120, (int) oldValues.get(0));
+    assertKeyOrder("key1");
+  }
+
+  private static CountingLruMap<CacheKey, Integer> newUriIndexedMap() {
+    return new CountingLruMap<>(
+        new ValueDescriptor<Integer>() {
+          @Override
+          public int getSizeInBytes(Integer value) {
+            return value;
+          }
+        },
+        true);
+  }
+
   private void assertKeyOrder(String... expectedKeys) {
     assertArrayEquals(expectedKeys, mCountingLruMap.getKeys().toArray());
   }
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class FrequencySketchTest {
+
+  @Test
+  public void testIncrement() {
+    FrequencySketch sketch = new FrequencySketch(512);
+    assertThat(sketch.frequency("key")).isEqualTo(0);
+    sketch.increment("key");
+    assertThat(sketch.frequency("key")).isEqualTo(1);
+    sketch.increment("key");
+    assertThat(sketch.frequency("key")).isEqualTo(2);
+  }
+
+  @Test
+  public void testFrequencySaturates() {
+    FrequencySketch sketch = new FrequencySketch(512);
+    for (int i = 0; i < 100; i++) {
+      sketch.increment("key");
+    }
+    assertThat(sketch.frequency("key")).isEqualTo(FrequencySketch.MAX_FREQUENCY);
+  }
+
+  @Test
+  public void testPopularKeyEstimatedAboveOneOffKeys() {
+    FrequencySketch sketch = new FrequencySketch(512);
+    for (int i = 0; i < 256; i++) {
+      sketch.increment("one-off" + i);
+      if (i % 32 == 0) {
+        sketch.increment("popular");
+      }
+    }
+    assertThat(sketch.frequency("popular")).isGreaterThan(sketch.frequency("one-off" + 7));
+  }
+
+  @Test
+  public void testAging() {
+    FrequencySketch sketch = new FrequencySketch(16);
+    for (int i = 0; i < FrequencySketch.MAX_FREQUENCY; i++) {
+      sketch.increment("key");
+    }
+    assertThat(sketch.frequency("key")).isEqualTo(FrequencySketch.MAX_FREQUENCY);
+    // the sample size of a 16-wide table is 160 increments
+    for (int i = 0; i < 1000; i++) {
+      sketch.increment("other" + i);
+    }
+    assertThat(sketch.frequency("key")).isLessThan(FrequencySketch.MAX_FREQUENCY / 2);
+  }
+}
@@ -578,6 +578,26 @@ public class LruCountingMemoryCacheTest {
     verify(mReleaser).release(110);
   }
 
+  @Test
+  public void testGetKeysForUri_WithoutIndex() {
+    CloseableReference<Integer> originalRef = newReference(110);
+    mCache.cache(KEYS[1], originalRef).close();
+    originalRef.close();
+
+    // without an index the cache does not scan its keys
+    assertTrue(
+        mCache
+            .getKeysForUri(
+                KEYS[1],
+                new Predicate<String>() {
+                  @Override
+                  public boolean apply(String key) {
+                    return true;
+                  }
+                })
+            .isEmpty());
+  }
+
   @Test
   public void testTrimming() {
     MemoryTrimType memoryTrimType = MemoryTrimType.OnCloseToDalvikHeapLimit;
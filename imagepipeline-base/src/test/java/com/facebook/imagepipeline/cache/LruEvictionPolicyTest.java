@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.facebook.common.internal.Predicate;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class LruEvictionPolicyTest {
+
+  private static final ResourceReleaser<Integer> RELEASER =
+      new ResourceReleaser<Integer>() {
+        @Override
+        public void release(Integer value) {}
+      };
+
+  private LruEvictionPolicy<String, Integer> mPolicy;
+  private Set<CountingMemoryCache.Entry<String, Integer>> mInUse;
+  private int mTestedCount;
+  private Predicate<CountingMemoryCache.Entry<String, Integer>> mEvictable;
+
+  @Before
+  public void setUp() {
+    mPolicy = new LruEvictionPolicy<>();
+    mInUse = new HashSet<>();
+    mTestedCount = 0;
+    mEvictable =
+        new Predicate<CountingMemoryCache.Entry<String, Integer>>() {
+          @Override
+          public boolean apply(CountingMemoryCache.Entry<String, Integer> entry) {
+            mTestedCount++;
+            return !mInUse.contains(entry);
+          }
+        };
+  }
+
+  @Test
+  public void testSelectsLeastRecentlyUsed() {
+    CountingMemoryCache.Entry<String, Integer> entry1 = insert("k1");
+    CountingMemoryCache.Entry<String, Integer> entry2 = insert("k2");
+    mPolicy.onAccess(entry1);
+
+    assertSame(entry2, mPolicy.selectVictim(mEvictable));
+    mPolicy.onRemove(entry2);
+    assertSame(entry1, mPolicy.selectVictim(mEvictable));
+    mPolicy.onRemove(entry1);
+    assertNull(mPolicy.selectVictim(mEvictable));
+  }
+
+  @Test
+  public void testEntriesInUseAreOnlyTestedOnce() {
+    CountingMemoryCache.Entry<String, Integer> entry1 = insert("k1");
+    CountingMemoryCache.Entry<String, Integer> entry2 = insert("k2");
+    CountingMemoryCache.Entry<String, Integer> entry3 = insert("k3");
+    mInUse.add(entry1);
+    mInUse.add(entry2);
+
+    assertSame(entry3, mPolicy.selectVictim(mEvictable));
+    assertEquals(3, mTestedCount);
+    // the entries in use were dropped from the queue
+    assertSame(entry3, mPolicy.selectVictim(mEvictable));
+    assertEquals(4, mTestedCount);
+  }
+
+  @Test
+  public void testReleasedEntryComesBackAsMostRecentlyUsed() {
+    CountingMemoryCache.Entry<String, Integer> entry1 = insert("k1");
+    CountingMemoryCache.Entry<String, Integer> entry2 = insert("k2");
+    mInUse.add(entry1);
+    assertSame(entry2, mPolicy.selectVictim(mEvictable));
+
+    mInUse.remove(entry1);
+    mPolicy.onRelease(entry1);
+    assertSame(entry2, mPolicy.selectVictim(mEvictable));
+    mPolicy.onRemove(entry2);
+    assertSame(entry1, mPolicy.selectVictim(mEvictable));
+  }
+
+  @Test
+  public void testReleaseMovesEntryToMostRecentlyUsed() {
+    CountingMemoryCache.Entry<String, Integer> entry1 = insert("k1");
+    CountingMemoryCache.Entry<String, Integer> entry2 = insert("k2");
+
+    mPolicy.onRelease(entry1);
+    assertSame(entry2, mPolicy.selectVictim(mEvictable));
+  }
+
+  private CountingMemoryCache.Entry<String, Integer> insert(String key) {
+    CloseableReference<Integer> valueRef = CloseableReference.of(100, RELEASER);
+    CountingMemoryCache.Entry<String, Integer> entry =
+        CountingMemoryCache.Entry.of(key, valueRef, 100, null);
+    valueRef.close();
+    mPolicy.onInsert(entry);
+    return entry;
+  }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Replays key sequences against the memory caches and reports their hit ratio and the number of
+ * bytes they saved, i.e. the size of the values that did not have to be decoded again.
+ *
+ * <p>The traces mimic what the bitmap cache sees in an app: a set of popular images displayed over
+ * and over (avatars, icons), interleaved with feeds scrolled once.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MemoryCacheTraceReplayTest {
+
+  private static final int CACHE_MAX_SIZE = 100 * 1024;
+  private static final int CACHE_MAX_COUNT = 256;
+  private static final int CACHE_ENTRY_MAX_SIZE = 16 * 1024;
+  private static final int TRACE_LENGTH = 50000;
+
+  private static final ValueDescriptor<Integer> VALUE_DESCRIPTOR =
+      new ValueDescriptor<Integer>() {
+        @Override
+        public int getSizeInBytes(Integer value) {
+          return value;
+        }
+      };
+
+  private static final MemoryCache.CacheTrimStrategy TRIM_STRATEGY =
+      new MemoryCache.CacheTrimStrategy() {
+        @Override
+        public double getTrimRatio(MemoryTrimType trimType) {
+          return 0;
+        }
+      };
+
+  private static final ResourceReleaser<Integer> RELEASER =
+      new ResourceReleaser<Integer>() {
+        @Override
+        public void release(Integer value) {}
+      };
+
+  @Test
+  public void testPopularImagesWithScans() {
+    List<Access> trace = new ArrayList<>();
+    Random random = new Random(42);
+    int scanned = 0;
+    for (int i = 0; i < TRACE_LENGTH; i++) {
+      if (random.nextInt(100) < 60) {
+        // a few images are much more popular than the others
+        int popular = (int) Math.min(79, Math.abs(random.nextGaussian()) * 25);
+        trace.add(new Access("popular" + popular, 1024));
+      } else {
+        trace.add(new Access("feed" + scanned++, 1024 + random.nextInt(4096)));
+      }
+    }
+    ReplayResult lru = replay("lru", newLruCache(), trace);
+    ReplayResult adaptive = replay("adaptive", newAdaptiveCache(), trace);
+    ReplayResult tinyLfu = replay("tinylfu", newTinyLfuCache(), trace);
+
+    assertThat(tinyLfu.hitRatio()).as(tinyLfu + " vs " + lru).isGreaterThan(lru.hitRatio());
+    assertThat(tinyLfu.hitRatio())
+        .as(tinyLfu + " vs " + adaptive)
+        .isGreaterThan(adaptive.hitRatio());
+    assertThat(tinyLfu.bytesSaved).as(tinyLfu + " vs " + lru).isGreaterThan(lru.bytesSaved);
+  }
+
+  @Test
+  public void testShiftingWorkingSet() {
+    List<Access> trace = new ArrayList<>();
+    Random random = new Random(7);
+    for (int i = 0; i < TRACE_LENGTH; i++) {
+      // the popular images change over time, e.g. when navigating between screens
+      int phase = i / (TRACE_LENGTH / 5);
+      int image = phase * 50 + random.nextInt(50);
+      trace.add(new Access("screen" + image, 1024));
+    }
+    ReplayResult lru = replay("lru", newLruCache(), trace);
+    ReplayResult tinyLfu = replay("tinylfu", newTinyLfuCache(), trace);
+
+    // LRU is the best fit here, the window of the frequency-aware cache has to grow to catch up
+    assertThat(tinyLfu.hitRatio())
+        .as(tinyLfu + " vs " + lru)
+        .isGreaterThan(lru.hitRatio() * 0.9);
+  }
+
+  private static ReplayResult replay(
+      String name, CountingMemoryCache<String, Integer> cache, List<Access> trace) {
+    ReplayResult result = new ReplayResult(name);
+    for (Access access : trace) {
+      result.requests++;
+      CloseableReference<Integer> cachedRef = cache.get(access.key);
+      if (cachedRef != null) {
+        result.hits++;
+        result.bytesSaved += cachedRef.get();
+        cachedRef.close();
+        continue;
+      }
+      CloseableReference<Integer> originalRef = CloseableReference.of(access.size, RELEASER);
+      CloseableReference.closeSafely(cache.cache(access.key, originalRef));
+      originalRef.close();
+    }
+    return result;
+  }
+
+  private static Supplier<MemoryCacheParams> paramsSupplier(final boolean tinyLfuEnabled) {
+    return new Supplier<MemoryCacheParams>() {
+      @Override
+      public MemoryCacheParams get() {
+        return new MemoryCacheParams(
+            CACHE_MAX_SIZE,
+            CACHE_MAX_COUNT,
+            CACHE_MAX_SIZE,
+            CACHE_MAX_COUNT,
+            CACHE_ENTRY_MAX_SIZE,
+            TimeUnit.MINUTES.toMillis(5),
+            tinyLfuEnabled);
+      }
+    };
+  }
+
+  private static CountingMemoryCache<String, Integer> newLruCache() {
+    return new LruCountingMemoryCache<>(
+        VALUE_DESCRIPTOR, TRIM_STRATEGY, paramsSupplier(false), null, false, false);
+  }
+
+  private static CountingMemoryCache<String, Integer> newTinyLfuCache() {
+    return new ConcurrentCountingMemoryCache<>(
+        VALUE_DESCRIPTOR, TRIM_STRATEGY, paramsSupplier(true), null);
+  }
+
+  private static CountingMemoryCache<String, Integer> newAdaptiveCache() {
+    return new AbstractAdaptiveCountingMemoryCache<String, Integer>(
+        paramsSupplier(false),
+        TRIM_STRATEGY,
+        VALUE_DESCRIPTOR,
+        AbstractAdaptiveCountingMemoryCache.DEFAULT_ADAPTIVE_RATE_PROMIL,
+        1,
+        CACHE_MAX_COUNT,
+        AbstractAdaptiveCountingMemoryCache.DEFAULT_LFU_FRACTION_PROMIL) {
+      @Override
+      protected void logIllegalLfuFraction() {}
+
+      @Override
+      protected void logIllegalAdaptiveRate() {}
+
+      @Nullable
+      @Override
+      public String getDebugData() {
+        return null;
+      }
+    };
+  }
+
+  private static class Access {
+    final String key;
+    final int size;
+
+    Access(String key, int size) {
+      this.key = key;
+      this.size = size;
+    }
+  }
+
+  private static class ReplayResult {
+    final String name;
+    int requests;
+    int hits;
+    long bytesSaved;
+
+    ReplayResult(String name) {
+      this.name = name;
+    }
+
+    double hitRatio() {
+      return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US, "%s: hit ratio %.3f, %d bytes saved", name, hitRatio(), bytesSaved);
+    }
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.facebook.common.internal.Predicate;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class TinyLfuEvictionPolicyTest {
+
+  private static final ResourceReleaser<Integer> RELEASER =
+      new ResourceReleaser<Integer>() {
+        @Override
+        public void release(Integer value) {}
+      };
+
+  // the window holds one entry at most, the others go to the main area while it isn't full
+  private static final int MAX_SIZE = 1000;
+  private static final int ENTRY_SIZE = 100;
+
+  private TinyLfuEvictionPolicy<String, Integer> mPolicy;
+  private Set<CountingMemoryCache.Entry<String, Integer>> mInUse;
+  private int mTestedCount;
+  private Predicate<CountingMemoryCache.Entry<String, Integer>> mEvictable;
+
+  private CountingMemoryCache.Entry<String, Integer> mEntry1;
+  private CountingMemoryCache.Entry<String, Integer> mEntry2;
+  private CountingMemoryCache.Entry<String, Integer> mEntry3;
+
+  @Before
+  public void setUp() {
+    mPolicy = new TinyLfuEvictionPolicy<>(MAX_SIZE, MAX_SIZE / ENTRY_SIZE);
+    mInUse = new HashSet<>();
+    mTestedCount = 0;
+    mEvictable =
+        new Predicate<CountingMemoryCache.Entry<String, Integer>>() {
+          @Override
+          public boolean apply(CountingMemoryCache.Entry<String, Integer> entry) {
+            mTestedCount++;
+            return !mInUse.contains(entry);
+          }
+        };
+    // k3 is in the window, k1 and k2 in the probation segment
+    mEntry1 = insert("k1");
+    mEntry2 = insert("k2");
+    mEntry3 = insert("k3");
+  }
+
+  @Test
+  public void testEvictsWindowEntryNotMorePopularThanMainVictim() {
+    assertSame(mEntry3, mPolicy.selectVictim(mEvictable));
+    mPolicy.onEvict(mEntry3);
+    assertSame(mEntry1, mPolicy.selectVictim(mEvictable));
+    mPolicy.onEvict(mEntry1);
+    assertSame(mEntry2, mPolicy.selectVictim(mEvictable));
+    mPolicy.onEvict(mEntry2);
+    assertNull(mPolicy.selectVictim(mEvictable));
+  }
+
+  @Test
+  public void testEntriesInUseAreOnlyTestedOnce() {
+    mInUse.add(mEntry3);
+    mInUse.add(mEntry1);
+
+    assertSame(mEntry2, mPolicy.selectVictim(mEvictable));
+    assertEquals(3, mTestedCount);
+    // the entries in use were dropped from the queues
+    assertSame(mEntry2, mPolicy.selectVictim(mEvictable));
+    assertEquals(4, mTestedCount);
+  }
+
+  @Test
+  public void testReleasedEntryIsQueuedAgain() {
+    mInUse.add(mEntry3);
+    assertSame(mEntry1, mPolicy.selectVictim(mEvictable));
+
+    mInUse.remove(mEntry3);
+    mPolicy.onRelease(mEntry3);
+    assertSame(mEntry3, mPolicy.selectVictim(mEvictable));
+  }
+
+  @Test
+  public void testPopularWindowEntryIsOnlyAdmittedOnEviction() {
+    mPolicy.onAccess(mEntry3);
+    mPolicy.onAccess(mEntry3);
+
+    // k3 is more popular than k1, which is evicted instead
+    assertSame(mEntry1, mPolicy.selectVictim(mEvictable));
+    // nothing moved as long as k1 is not evicted
+    assertSame(mEntry1, mPolicy.selectVictim(mEvictable));
+    mInUse.add(mEntry1);
+    assertSame(mEntry2, mPolicy.selectVictim(mEvictable));
+    mInUse.remove(mEntry1);
+    mPolicy.onRelease(mEntry1);
+
+    assertSame(mEntry2, mPolicy.selectVictim(mEvictable));
+    mPolicy.onEvict(mEntry2);
+    // k3 is now in the main area, after k1
+    assertSame(mEntry1, mPolicy.selectVictim(mEvictable));
+    mPolicy.onEvict(mEntry1);
+    assertSame(mEntry3, mPolicy.selectVictim(mEvictable));
+  }
+
+  @Test
+  public void testRemovedEntryIsNotSelected() {
+    mPolicy.onRemove(mEntry1);
+    mPolicy.onRemove(mEntry3);
+    // accesses and releases of removed entries are ignored
+    mPolicy.onAccess(mEntry1);
+    mPolicy.onRelease(mEntry3);
+
+    assertSame(mEntry2, mPolicy.selectVictim(mEvictable));
+    mPolicy.onEvict(mEntry2);
+    assertNull(mPolicy.selectVictim(mEvictable));
+  }
+
+  private CountingMemoryCache.Entry<String, Integer> insert(String key) {
+    CloseableReference<Integer> valueRef = CloseableReference.of(ENTRY_SIZE, RELEASER);
+    CountingMemoryCache.Entry<String, Integer> entry =
+        CountingMemoryCache.Entry.of(key, valueRef, ENTRY_SIZE, null);
+    valueRef.close();
+    mPolicy.onInsert(entry);
+    return entry;
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.MultiCacheKey;
+import com.facebook.cache.common.SimpleCacheKey;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class UriKeyIndexTest {
+
+  private static final String URI_1 = "http://example.com/1.jpg";
+  private static final String URI_2 = "http://example.com/2.jpg";
+
+  private UriKeyIndex<Object> mIndex;
+
+  @Before
+  public void setUp() {
+    mIndex = new UriKeyIndex<>();
+  }
+
+  @Test
+  public void testAddAndRemove() {
+    CacheKey key1 = new SimpleCacheKey(URI_1);
+    CacheKey key2 = new SimpleCacheKey(URI_2);
+    mIndex.add(key1);
+    mIndex.add(key2);
+    assertEquals(Collections.singletonList(key1), mIndex.getKeys(URI_1));
+    assertEquals(Collections.singletonList(key2), mIndex.getKeys(URI_2));
+    assertEquals(2, mIndex.getUriCount());
+
+    mIndex.remove(key1);
+    assertTrue(mIndex.getKeys(URI_1).isEmpty());
+    assertEquals(1, mIndex.getUriCount());
+  }
+
+  @Test
+  public void testSeveralKeysForUri() {
+    CacheKey key = new SimpleCacheKey(URI_1);
+    CacheKey postprocessedKey = new TestCacheKey(URI_1, "blur");
+    mIndex.add(key);
+    mIndex.add(postprocessedKey);
+    assertEquals(
+        new HashSet<Object>(Arrays.asList(key, postprocessedKey)),
+        new HashSet<>(mIndex.getKeys(URI_1)));
+    assertEquals(1, mIndex.getUriCount());
+  }
+
+  @Test
+  public void testMultiCacheKey() {
+    CacheKey multiKey =
+        new MultiCacheKey(
+            Arrays.<CacheKey>asList(new SimpleCacheKey(URI_1), new SimpleCacheKey(URI_2)));
+    mIndex.add(multiKey);
+    assertEquals(Collections.singletonList(multiKey), mIndex.getKeys(URI_1));
+    assertEquals(Collections.singletonList(multiKey), mIndex.getKeys(URI_2));
+
+    mIndex.remove(multiKey);
+    assertEquals(0, mIndex.getUriCount());
+  }
+
+  @Test
+  public void testKeyAddedTwice() {
+    CacheKey key = new SimpleCacheKey(URI_1);
+    mIndex.add(key);
+    mIndex.add(key);
+    mIndex.remove(key);
+    assertEquals(Collections.singletonList(key), mIndex.getKeys(URI_1));
+    mIndex.remove(key);
+    assertTrue(mIndex.getKeys(URI_1).isEmpty());
+  }
+
+  @Test
+  public void testKeyRemovedBeforeAdded() {
+    CacheKey key = new SimpleCacheKey(URI_1);
+    // a concurrent cache may update the index out of order
+    mIndex.remove(key);
+    assertTrue(mIndex.getKeys(URI_1).isEmpty());
+    mIndex.add(key);
+    assertTrue(mIndex.getKeys(URI_1).isEmpty());
+    assertEquals(0, mIndex.getUriCount());
+  }
+
+  @Test
+  public void testOtherKeysNotIndexed() {
+    mIndex.add(URI_1);
+    assertTrue(mIndex.getKeys(URI_1).isEmpty());
+    assertEquals(0, mIndex.getUriCount());
+  }
+
+  @Test
+  public void testClear() {
+    mIndex.add(new SimpleCacheKey(URI_1));
+    mIndex.add(new SimpleCacheKey(URI_2));
+    mIndex.clear();
+    assertEquals(0, mIndex.getUriCount());
+    assertTrue(mIndex.getKeys(URI_1).isEmpty());
+  }
+
+  /** A key of the same URI as a {@link SimpleCacheKey} of that URI, but not equal to it. */
+  static class TestCacheKey extends SimpleCacheKey {
+    private final String mUriString;
+
+    TestCacheKey(String uriString, String suffix) {
+      super(uriString + "#" + suffix);
+      mUriString = uriString;
+    }
+
+    @Override
+    public String getUriString() {
+      return mUriString;
+    }
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class PriorityExecutorSupplierTest {
+
+  private static final int NUM_IO_BOUND_THREADS = 2;
+
+  private PriorityExecutorSupplier mExecutorSupplier;
+
+  @Before
+  public void setUp() {
+    mExecutorSupplier = new PriorityExecutorSupplier(1);
+  }
+
+  @Test
+  public void testExecutorsOrderTheirTasksByPriority() {
+    assertTrue(mExecutorSupplier.forLocalStorageRead() instanceof PriorityExecutor);
+    assertTrue(mExecutorSupplier.forDecode() instanceof PriorityExecutor);
+    assertTrue(mExecutorSupplier.forBackgroundTasks() instanceof PriorityExecutor);
+    assertSame(mExecutorSupplier.forLocalStorageRead(), mExecutorSupplier.forLocalStorageWrite());
+    assertSame(mExecutorSupplier.forLocalStorageRead(), mExecutorSupplier.forThumbnailProducer());
+  }
+
+  @Test
+  public void testDecodeThreadsRunQueuedDiskReads() throws Exception {
+    // start the decode thread so that it is idle
+    runAndWait(mExecutorSupplier.forDecode());
+
+    Executor ioExecutor = mExecutorSupplier.forLocalStorageRead();
+    final CountDownLatch started = new CountDownLatch(NUM_IO_BOUND_THREADS);
+    final CountDownLatch unblock = new CountDownLatch(1);
+    for (int i = 0; i < NUM_IO_BOUND_THREADS; i++) {
+      ioExecutor.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              started.countDown();
+              try {
+                unblock.await();
+              } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+              }
+            }
+          });
+    }
+    try {
+      assertTrue(started.await(5, TimeUnit.SECONDS));
+      // all the IO threads are busy, so the decode thread must run the read
+      runAndWait(ioExecutor);
+    } finally {
+      unblock.countDown();
+    }
+  }
+
+  private static void runAndWait(Executor executor) throws InterruptedException {
+    final CountDownLatch ran = new CountDownLatch(1);
+    executor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            ran.countDown();
+          }
+        });
+    assertTrue(ran.await(5, TimeUnit.SECONDS));
+  }
+}
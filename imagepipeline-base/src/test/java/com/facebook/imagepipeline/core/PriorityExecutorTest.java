@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.imagepipeline.common.Priority;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class PriorityExecutorTest {
+
+  private PriorityExecutor mExecutor;
+  private List<String> mRunOrder;
+  private CountDownLatch mBlockingLatch;
+
+  @Before
+  public void setUp() {
+    mExecutor = new PriorityExecutor(1, Executors.defaultThreadFactory(), null);
+    mRunOrder = Collections.synchronizedList(new ArrayList<String>());
+    mBlockingLatch = new CountDownLatch(1);
+  }
+
+  @Test
+  public void testExecute_HigherPriorityFirst() throws Exception {
+    blockExecutor(mExecutor);
+    mExecutor.execute(new TestTask("low", Priority.LOW));
+    mExecutor.execute(new TestTask("medium", Priority.MEDIUM));
+    mExecutor.execute(new TestTask("high", Priority.HIGH));
+    assertEquals(3, mExecutor.getQueueSize());
+    runAfterQueue();
+    assertEquals(Arrays.asList("high", "medium", "low"), mRunOrder);
+    assertEquals(0, mExecutor.getQueueSize());
+  }
+
+  @Test
+  public void testExecute_SubmissionOrderWithinPriority() throws Exception {
+    blockExecutor(mExecutor);
+    mExecutor.execute(new TestTask("high1", Priority.HIGH));
+    mExecutor.execute(new TestTask("low1", Priority.LOW));
+    mExecutor.execute(new TestTask("high2", Priority.HIGH));
+    mExecutor.execute(new TestTask("low2", Priority.LOW));
+    runAfterQueue();
+    assertEquals(Arrays.asList("high1", "high2", "low1", "low2"), mRunOrder);
+  }
+
+  @Test
+  public void testExecute_PlainRunnableIsMedium() throws Exception {
+    blockExecutor(mExecutor);
+    mExecutor.execute(new TestTask("low", Priority.LOW));
+    mExecutor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            mRunOrder.add("plain");
+          }
+        });
+    mExecutor.execute(new TestTask("high", Priority.HIGH));
+    runAfterQueue();
+    assertEquals(Arrays.asList("high", "plain", "low"), mRunOrder);
+  }
+
+  @Test
+  public void testReprioritize_QueuedTask() throws Exception {
+    blockExecutor(mExecutor);
+    TestTask prefetch = new TestTask("prefetch", Priority.LOW);
+    mExecutor.execute(new TestTask("medium", Priority.MEDIUM));
+    mExecutor.execute(prefetch);
+    prefetch.mPriority = Priority.HIGH;
+    assertTrue(mExecutor.reprioritize(prefetch));
+    runAfterQueue();
+    assertEquals(Arrays.asList("prefetch", "medium"), mRunOrder);
+  }
+
+  @Test
+  public void testReprioritize_KeepsSubmissionOrder() throws Exception {
+    blockExecutor(mExecutor);
+    TestTask first = new TestTask("first", Priority.LOW);
+    mExecutor.execute(first);
+    mExecutor.execute(new TestTask("second", Priority.HIGH));
+    first.mPriority = Priority.HIGH;
+    mExecutor.reprioritize(first);
+    runAfterQueue();
+    assertEquals(Arrays.asList("first", "second"), mRunOrder);
+  }
+
+  @Test
+  public void testReprioritize_NotQueued() throws Exception {
+    TestTask task = new TestTask("task", Priority.LOW);
+    assertFalse(mExecutor.reprioritize(task));
+    mExecutor.execute(task);
+    runAfterQueue();
+    assertFalse(mExecutor.reprioritize(task));
+    assertEquals(Arrays.asList("task"), mRunOrder);
+  }
+
+  @Test
+  public void testExecute_StealsFromVictim() throws Exception {
+    PriorityExecutor thief = new PriorityExecutor(1, Executors.defaultThreadFactory(), mExecutor);
+    // start the thread of the thief so that it is idle
+    final CountDownLatch thiefStarted = new CountDownLatch(1);
+    thief.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            thiefStarted.countDown();
+          }
+        });
+    assertTrue(thiefStarted.await(5, TimeUnit.SECONDS));
+
+    blockExecutor(mExecutor);
+    final CountDownLatch stolen = new CountDownLatch(1);
+    mExecutor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            stolen.countDown();
+          }
+        });
+    // the only thread of the victim is blocked, so the thief must run the task
+    assertTrue(stolen.await(5, TimeUnit.SECONDS));
+    assertEquals(0, mExecutor.getQueueSize());
+    mBlockingLatch.countDown();
+  }
+
+  @Test
+  public void testExecute_FailingTaskDoesNotStopThePool() throws Exception {
+    final List<Throwable> uncaught = Collections.synchronizedList(new ArrayList<Throwable>());
+    PriorityExecutor executor = new PriorityExecutor(1, newThreadFactory(uncaught), null);
+    executor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            throw new IllegalStateException();
+          }
+        });
+    final CountDownLatch ran = new CountDownLatch(1);
+    executor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            ran.countDown();
+          }
+        });
+    assertTrue(ran.await(5, TimeUnit.SECONDS));
+    assertEquals(1, uncaught.size());
+  }
+
+  @Test
+  public void testExecute_ErrorReplacesTheThread() throws Exception {
+    final List<Throwable> uncaught = Collections.synchronizedList(new ArrayList<Throwable>());
+    PriorityExecutor executor = new PriorityExecutor(1, newThreadFactory(uncaught), null);
+    final CountDownLatch queued = new CountDownLatch(1);
+    executor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              queued.await();
+            } catch (InterruptedException e) {
+              throw new RuntimeException(e);
+            }
+            throw new Error();
+          }
+        });
+    final CountDownLatch ran = new CountDownLatch(1);
+    executor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            ran.countDown();
+          }
+        });
+    queued.countDown();
+    // the task queued while the only thread was dying runs on a new thread
+    assertTrue(ran.await(5, TimeUnit.SECONDS));
+    assertEquals(1, uncaught.size());
+    assertTrue(uncaught.get(0) instanceof Error);
+
+    // the dead thread does not count anymore
+    final CountDownLatch ranLater = new CountDownLatch(1);
+    executor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            ranLater.countDown();
+          }
+        });
+    assertTrue(ranLater.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testExecute_InterruptedIdleThreadStops() throws Exception {
+    final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+    final List<Boolean> interruptedOnExit = Collections.synchronizedList(new ArrayList<Boolean>());
+    PriorityExecutor executor =
+        new PriorityExecutor(
+            1,
+            new ThreadFactory() {
+              @Override
+              public Thread newThread(final Runnable runnable) {
+                Thread thread =
+                    new Thread(
+                        new Runnable() {
+                          @Override
+                          public void run() {
+                            runnable.run();
+                            interruptedOnExit.add(Thread.currentThread().isInterrupted());
+                          }
+                        });
+                threads.add(thread);
+                return thread;
+              }
+            },
+            null);
+    final CountDownLatch ran = new CountDownLatch(1);
+    executor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            ran.countDown();
+          }
+        });
+    assertTrue(ran.await(5, TimeUnit.SECONDS));
+
+    // the worker keeps the interrupt and stops instead of spinning on wait()
+    Thread worker = threads.get(0);
+    worker.interrupt();
+    worker.join(5000);
+    assertFalse(worker.isAlive());
+    assertEquals(Arrays.asList(true), interruptedOnExit);
+
+    // its slot is given back, so the next task gets a new thread
+    final CountDownLatch ranLater = new CountDownLatch(1);
+    executor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            ranLater.countDown();
+          }
+        });
+    assertTrue(ranLater.await(5, TimeUnit.SECONDS));
+    assertEquals(2, threads.size());
+  }
+
+  /** Creates threads that report their uncaught exceptions to the given list. */
+  private static ThreadFactory newThreadFactory(final List<Throwable> uncaught) {
+    return new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable);
+        thread.setUncaughtExceptionHandler(
+            new Thread.UncaughtExceptionHandler() {
+              @Override
+              public void uncaughtException(Thread thread, Throwable e) {
+                uncaught.add(e);
+              }
+            });
+        return thread;
+      }
+    };
+  }
+
+  /** Keeps the only thread of the executor busy until {@link #runAfterQueue} is called. */
+  private void blockExecutor(PriorityExecutor executor) throws InterruptedException {
+    final CountDownLatch started = new CountDownLatch(1);
+    executor.execute(
+        new TestTask("blocker", Priority.HIGH) {
+          @Override
+          public void run() {
+            started.countDown();
+            try {
+              mBlockingLatch.await();
+            } catch (InterruptedException e) {
+              throw new RuntimeException(e);
+            }
+          }
+        });
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+  }
+
+  /** Unblocks the executor and waits until all the tasks queued so far have run. */
+  private void runAfterQueue() throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(1);
+    mExecutor.execute(
+        new TestTask("done", Priority.LOW) {
+          @Override
+          public void run() {
+            done.countDown();
+          }
+        });
+    mBlockingLatch.countDown();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+  }
+
+  private class TestTask implements PrioritizedRunnable {
+    private final String mName;
+    volatile Priority mPriority;
+
+    TestTask(String name, Priority priority) {
+      mName = name;
+      mPriority = priority;
+    }
+
+    @Override
+    public Priority getPriority() {
+      return mPriority;
+    }
+
+    @Override
+    public void run() {
+      mRunOrder.add(mName);
+    }
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.imagepipeline.common.Priority;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class TaskPriorityTest {
+
+  private PriorityExecutor mExecutor;
+  private List<String> mRunOrder;
+  private CountDownLatch mBlockingLatch;
+
+  @Before
+  public void setUp() {
+    mExecutor = new PriorityExecutor(1, Executors.defaultThreadFactory(), null);
+    mRunOrder = Collections.synchronizedList(new ArrayList<String>());
+    mBlockingLatch = new CountDownLatch(1);
+  }
+
+  @Test
+  public void testWrap_QueuesWithPriority() throws Exception {
+    blockExecutor();
+    new TaskPriority(Priority.LOW).wrap(mExecutor).execute(new NamedTask("low"));
+    mExecutor.execute(new NamedTask("medium"));
+    new TaskPriority(Priority.HIGH).wrap(mExecutor).execute(new NamedTask("high"));
+    runAfterQueue();
+    assertEquals(Arrays.asList("high", "medium", "low"), mRunOrder);
+  }
+
+  @Test
+  public void testSetPriority_MovesQueuedTasks() throws Exception {
+    blockExecutor();
+    TaskPriority taskPriority = new TaskPriority(Priority.LOW);
+    Executor executor = taskPriority.wrap(mExecutor);
+    executor.execute(new NamedTask("first"));
+    mExecutor.execute(new NamedTask("medium"));
+    executor.execute(new NamedTask("second"));
+    taskPriority.setPriority(Priority.HIGH);
+    assertEquals(Priority.HIGH, taskPriority.getPriority());
+    runAfterQueue();
+    assertEquals(Arrays.asList("first", "second", "medium"), mRunOrder);
+  }
+
+  @Test
+  public void testSetPriority_AfterTasksRan() throws Exception {
+    TaskPriority taskPriority = new TaskPriority(Priority.LOW);
+    taskPriority.wrap(mExecutor).execute(new NamedTask("task"));
+    runAfterQueue();
+    taskPriority.setPriority(Priority.HIGH);
+    assertEquals(Arrays.asList("task"), mRunOrder);
+    assertEquals(0, mExecutor.getQueueSize());
+  }
+
+  @Test
+  public void testWrap_OtherExecutor() {
+    Executor executor = Executors.newSingleThreadExecutor();
+    assertSame(executor, new TaskPriority(Priority.LOW).wrap(executor));
+  }
+
+  /** Keeps the only thread of the executor busy until {@link #runAfterQueue} is called. */
+  private void blockExecutor() throws InterruptedException {
+    final CountDownLatch started = new CountDownLatch(1);
+    mExecutor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            started.countDown();
+            try {
+              mBlockingLatch.await();
+            } catch (InterruptedException e) {
+              throw new RuntimeException(e);
+            }
+          }
+        });
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+  }
+
+  /** Unblocks the executor and waits until all the tasks queued so far have run. */
+  private void runAfterQueue() throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(1);
+    new TaskPriority(Priority.LOW)
+        .wrap(mExecutor)
+        .execute(
+            new Runnable() {
+              @Override
+              public void run() {
+                done.countDown();
+              }
+            });
+    mBlockingLatch.countDown();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+  }
+
+  private class NamedTask implements Runnable {
+    private final String mName;
+
+    NamedTask(String name) {
+      mName = name;
+    }
+
+    @Override
+    public void run() {
+      mRunOrder.add(mName);
+    }
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.imagepipeline.common.Priority;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Queues a burst of prefetches, then the work of an image that is on screen, and measures how many
+ * prefetches run before it with a FIFO thread pool and with a {@link PriorityExecutor}.
+ *
+ * <p>The time to the first visible image is that count times the cost of a prefetch. The count is
+ * measured instead of the wall-clock time so that the result does not depend on the load of the
+ * machine, and the pools have a single thread so that it is exact.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class TimeToFirstVisibleImageBenchmarkTest {
+
+  private static final int PREFETCH_COUNT = 200;
+
+  @Test
+  public void testVisibleImageSubmittedAfterPrefetches() throws Exception {
+    ExecutorService fifoExecutor = Executors.newSingleThreadExecutor();
+    assertEquals(PREFETCH_COUNT, measurePrefetchesBeforeVisibleImage(fifoExecutor, false));
+    fifoExecutor.shutdownNow();
+    assertEquals(0, measurePrefetchesBeforeVisibleImage(newPriorityExecutor(), false));
+  }
+
+  @Test
+  public void testPrefetchedImageBecomesVisible() throws Exception {
+    ExecutorService fifoExecutor = Executors.newSingleThreadExecutor();
+    assertEquals(
+        PREFETCH_COUNT / 2 + 1, measurePrefetchesBeforeVisibleImage(fifoExecutor, true));
+    fifoExecutor.shutdownNow();
+    assertEquals(0, measurePrefetchesBeforeVisibleImage(newPriorityExecutor(), true));
+  }
+
+  @Test
+  public void testPrefetchedImageBecomesVisibleDuringItsDiskRead() throws Exception {
+    PriorityExecutor ioExecutor = newPriorityExecutor();
+    CountDownLatch unblock = blockExecutor(ioExecutor);
+    AtomicInteger prefetchesRun = new AtomicInteger();
+    CountDownLatch visibleImageRead = new CountDownLatch(1);
+    int[] prefetchesBeforeVisibleImage = new int[1];
+    TaskPriority visibleImagePriority = new TaskPriority(Priority.LOW);
+    for (int i = 0; i < PREFETCH_COUNT; i++) {
+      new TaskPriority(Priority.LOW).wrap(ioExecutor).execute(newPrefetch(prefetchesRun));
+      if (i == PREFETCH_COUNT / 2) {
+        visibleImagePriority
+            .wrap(ioExecutor)
+            .execute(
+                newVisibleImage(prefetchesRun, prefetchesBeforeVisibleImage, visibleImageRead));
+      }
+    }
+    visibleImagePriority.setPriority(Priority.HIGH);
+    unblock.countDown();
+    assertTrue(visibleImageRead.await(30, TimeUnit.SECONDS));
+    assertEquals(0, prefetchesBeforeVisibleImage[0]);
+  }
+
+  /**
+   * @param scrolledIntoView whether the visible image is first queued as one of the prefetches and
+   *   then re-prioritised, rather than submitted after them
+   * @return the number of prefetches that ran before the visible image
+   */
+  private static int measurePrefetchesBeforeVisibleImage(
+      Executor executor, boolean scrolledIntoView) throws InterruptedException {
+    // queue everything before the thread picks anything up, as during a fling
+    CountDownLatch unblock = blockExecutor(executor);
+    AtomicInteger prefetchesRun = new AtomicInteger();
+    CountDownLatch visibleImageDecoded = new CountDownLatch(1);
+    int[] prefetchesBeforeVisibleImage = new int[1];
+    VisibleImageTask visibleImage =
+        newVisibleImage(prefetchesRun, prefetchesBeforeVisibleImage, visibleImageDecoded);
+    for (int i = 0; i < PREFETCH_COUNT; i++) {
+      executor.execute(newPrefetch(prefetchesRun));
+      if (scrolledIntoView && i == PREFETCH_COUNT / 2) {
+        executor.execute(visibleImage);
+      }
+    }
+    visibleImage.mPriority = Priority.HIGH;
+    if (!scrolledIntoView) {
+      executor.execute(visibleImage);
+    } else if (executor instanceof PriorityExecutor) {
+      ((PriorityExecutor) executor).reprioritize(visibleImage);
+    }
+    unblock.countDown();
+    assertTrue(visibleImageDecoded.await(30, TimeUnit.SECONDS));
+    return prefetchesBeforeVisibleImage[0];
+  }
+
+  private static PriorityExecutor newPriorityExecutor() {
+    return new PriorityExecutor(1, Executors.defaultThreadFactory(), null);
+  }
+
+  /** Keeps the only thread of the executor busy until the returned latch is counted down. */
+  private static CountDownLatch blockExecutor(Executor executor) throws InterruptedException {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch unblock = new CountDownLatch(1);
+    executor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            started.countDown();
+            try {
+              unblock.await();
+            } catch (InterruptedException e) {
+              throw new RuntimeException(e);
+            }
+          }
+        });
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    return unblock;
+  }
+
+  private static PrioritizedRunnable newPrefetch(final AtomicInteger prefetchesRun) {
+    return new PrioritizedRunnable() {
+      @Override
+      public Priority getPriority() {
+        return Priority.LOW;
+      }
+
+      @Override
+      public void run() {
+        prefetchesRun.incrementAndGet();
+      }
+    };
+  }
+
+  private static VisibleImageTask newVisibleImage(
+      final AtomicInteger prefetchesRun,
+      final int[] prefetchesBeforeVisibleImage,
+      final CountDownLatch done) {
+    return new VisibleImageTask() {
+      @Override
+      public void run() {
+        prefetchesBeforeVisibleImage[0] = prefetchesRun.get();
+        done.countDown();
+      }
+    };
+  }
+
+  private abstract static class VisibleImageTask implements PrioritizedRunnable {
+    volatile Priority mPriority = Priority.LOW;
+
+    @Override
+    public Priority getPriority() {
+      return mPriority;
+    }
+  }
+}
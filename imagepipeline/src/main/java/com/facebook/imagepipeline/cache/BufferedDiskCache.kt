@@ -8,15 +8,22 @@
 package com.facebook.imagepipeline.cache
 
 import bolts.Task
+import com.facebook.binaryresource.BinaryResource
+import com.facebook.binaryresource.MappedFileBinaryResource
 import com.facebook.cache.common.CacheKey
+import com.facebook.cache.common.CacheKeyUtil
+import com.facebook.cache.common.WriterCallback
+import com.facebook.cache.disk.DefaultDiskStorage
 import com.facebook.cache.disk.FileCache
 import com.facebook.common.logging.FLog
 import com.facebook.common.memory.PooledByteBuffer
 import com.facebook.common.memory.PooledByteBufferFactory
 import com.facebook.common.memory.PooledByteStreams
 import com.facebook.common.references.CloseableReference
+import com.facebook.imagepipeline.core.TaskPriority
 import com.facebook.imagepipeline.image.EncodedImage
 import com.facebook.imagepipeline.instrumentation.FrescoInstrumenter
+import com.facebook.imagepipeline.memory.MappedPooledByteBuffer
 import com.facebook.imagepipeline.systrace.FrescoSystrace.traceSection
 import java.io.IOException
 import java.util.concurrent.Callable
@@ -27,18 +34,27 @@ import java.util.concurrent.atomic.AtomicBoolean
 /**
  * BufferedDiskCache provides get and put operations to take care of scheduling disk-cache
  * read/writes.
+ *
+ * Entries of at least [mappedReadThresholdBytes] bytes, if positive, are memory mapped instead of
+ * being copied into a pooled buffer.
  */
-class BufferedDiskCache(
+class BufferedDiskCache
+@JvmOverloads
+constructor(
     private val fileCache: FileCache,
     private val pooledByteBufferFactory: PooledByteBufferFactory,
     private val pooledByteStreams: PooledByteStreams,
     private val readExecutor: Executor,
     private val writeExecutor: Executor,
-    private val imageCacheStatsTracker: ImageCacheStatsTracker
+    private val imageCacheStatsTracker: ImageCacheStatsTracker,
+    private val mappedReadThresholdBytes: Int = 0
 ) {
 
   private val stagingArea: StagingArea = StagingArea.getInstance()
 
+  // the writes scheduled by [put] that have yet to finish, by key; guarded by itself
+  private val pendingWrites = HashMap<CacheKey, MutableList<PendingWrite>>()
+
   /**
    * Returns true if the key is in the in-memory key index.
    *
@@ -108,15 +124,179 @@ class BufferedDiskCache(
    * i.e. the returned task resolves to null.
    *
    * @param key
+   * @param taskPriority the priority of the disk cache read, if the read executor orders its tasks
+   *   by priority
    * @return Task that resolves to cached element or null if one cannot be retrieved; returned task
    *   never rethrows any exception
    */
-  operator fun get(key: CacheKey, isCancelled: AtomicBoolean): Task<EncodedImage> =
+  @JvmOverloads
+  operator fun get(
+      key: CacheKey,
+      isCancelled: AtomicBoolean,
+      taskPriority: TaskPriority? = null
+  ): Task<EncodedImage> =
       traceSection("BufferedDiskCache#get") {
         val pinnedImage = stagingArea[key]
-        pinnedImage?.let { foundPinnedImage(key, it) } ?: getAsync(key, isCancelled)
+        pinnedImage?.let { foundPinnedImage(key, it) }
+            ?: getAsync(key, isCancelled, taskPriority?.wrap(readExecutor) ?: readExecutor)
+      }
+
+  /**
+   * Batched version of [contains], e.g. for prefetching the items of a list. The staging area is
+   * checked for all the keys at once, and the keys that are not found there are checked by a
+   * single background task, grouped by disk cache shard. Any error manifests itself as a cache
+   * miss.
+   *
+   * @param keys
+   * @return Task that resolves to whether each of the keys was found
+   */
+  fun containsAll(keys: Collection<CacheKey>): Task<Map<CacheKey, Boolean>> {
+    val found = HashMap<CacheKey, Boolean>(keys.size)
+    val stagedKeys = stagingArea.containsKeys(keys)
+    val misses = ArrayList<CacheKey>()
+    for (key in keys) {
+      if (stagedKeys.contains(key) || fileCache.hasKeySync(key)) {
+        found[key] = true
+      } else {
+        misses.add(key)
+      }
+    }
+    if (misses.isEmpty()) {
+      return Task.forResult<Map<CacheKey, Boolean>>(found)
+    }
+    return try {
+      val token = FrescoInstrumenter.onBeforeSubmitWork("BufferedDiskCache_containsAllAsync")
+      Task.call(
+          Callable<Map<CacheKey, Boolean>> {
+            val currentToken = FrescoInstrumenter.onBeginWork(token, null)
+            try {
+              val stagedMisses = stagingArea.containsKeys(misses)
+              for (key in sortedByShard(misses)) {
+                found[key] =
+                    if (stagedMisses.contains(key)) {
+                      imageCacheStatsTracker.onStagingAreaHit(key)
+                      true
+                    } else {
+                      imageCacheStatsTracker.onStagingAreaMiss(key)
+                      try {
+                        fileCache.hasKey(key)
+                      } catch (exception: Exception) {
+                        false
+                      }
+                    }
+              }
+              return@Callable found
+            } catch (th: Throwable) {
+              FrescoInstrumenter.markFailure(token, th)
+              throw th
+            } finally {
+              FrescoInstrumenter.onEndWork(currentToken)
+            }
+          },
+          readExecutor)
+    } catch (exception: Exception) {
+      FLog.w(TAG, exception, "Failed to schedule disk-cache batch check of %d keys", misses.size)
+      Task.forError(exception)
+    }
+  }
+
+  /**
+   * Batched version of [get], e.g. for prefetching the items of a list. The staging area is looked
+   * up for all the keys at once, and the keys that are not found there are read by a single
+   * background task, grouped by disk cache shard. Any error manifests itself as a cache miss of the
+   * key.
+   *
+   * @param keys
+   * @return Task that resolves to the cached element of each of the keys, or null if it cannot be
+   *   retrieved. The caller is responsible for closing the elements
+   */
+  fun getAll(
+      keys: Collection<CacheKey>,
+      isCancelled: AtomicBoolean
+  ): Task<Map<CacheKey, EncodedImage?>> =
+      traceSection("BufferedDiskCache#getAll") {
+        val found = HashMap<CacheKey, EncodedImage?>(keys.size)
+        val pinnedImages = stagingArea.getAll(keys)
+        val misses = ArrayList<CacheKey>()
+        for (key in keys) {
+          val pinnedImage = pinnedImages[key]
+          if (pinnedImage != null) {
+            imageCacheStatsTracker.onStagingAreaHit(key)
+            found[key] = pinnedImage
+          } else {
+            misses.add(key)
+          }
+        }
+        if (misses.isEmpty()) {
+          Task.forResult<Map<CacheKey, EncodedImage?>>(found)
+        } else {
+          getAllAsync(misses, found, isCancelled)
+        }
       }
 
+  private fun getAllAsync(
+      misses: List<CacheKey>,
+      found: HashMap<CacheKey, EncodedImage?>,
+      isCancelled: AtomicBoolean
+  ): Task<Map<CacheKey, EncodedImage?>> {
+    return try {
+      val token = FrescoInstrumenter.onBeforeSubmitWork("BufferedDiskCache_getAllAsync")
+      Task.call(
+          Callable<Map<CacheKey, EncodedImage?>> {
+            val currentToken = FrescoInstrumenter.onBeginWork(token, null)
+            try {
+              val pinnedImages = stagingArea.getAll(misses)
+              for (key in sortedByShard(misses)) {
+                val pinnedImage = pinnedImages[key]
+                if (isCancelled.get()) {
+                  EncodedImage.closeSafely(pinnedImage)
+                  continue
+                }
+                if (pinnedImage != null) {
+                  imageCacheStatsTracker.onStagingAreaHit(key)
+                  found[key] = pinnedImage
+                  continue
+                }
+                imageCacheStatsTracker.onStagingAreaMiss(key)
+                found[key] =
+                    try {
+                      readFromDiskCache(key)?.let { buffer ->
+                        val ref = CloseableReference.of(buffer)
+                        try {
+                          EncodedImage(ref)
+                        } finally {
+                          CloseableReference.closeSafely(ref)
+                        }
+                      }
+                    } catch (exception: Exception) {
+                      null
+                    }
+              }
+              if (isCancelled.get()) {
+                closeAll(found)
+                throw CancellationException()
+              }
+              if (Thread.interrupted()) {
+                FLog.v(TAG, "Host thread was interrupted, decreasing reference count")
+                closeAll(found)
+                throw InterruptedException()
+              }
+              return@Callable found
+            } catch (th: Throwable) {
+              FrescoInstrumenter.markFailure(token, th)
+              throw th
+            } finally {
+              FrescoInstrumenter.onEndWork(currentToken)
+            }
+          },
+          readExecutor)
+    } catch (exception: Exception) {
+      FLog.w(TAG, exception, "Failed to schedule disk-cache batch read of %d keys", misses.size)
+      closeAll(found)
+      Task.forError(exception)
+    }
+  }
+
   /**
    * Performs key-value look up in disk cache. If value is not found in disk cache staging area then
    * disk cache probing is scheduled on background thread.
@@ -173,7 +353,11 @@ class BufferedDiskCache(
     }
   }
 
-  private fun getAsync(key: CacheKey, isCancelled: AtomicBoolean): Task<EncodedImage> {
+  private fun getAsync(
+      key: CacheKey,
+      isCancelled: AtomicBoolean,
+      executor: Executor
+  ): Task<EncodedImage> {
     return try {
       val token = FrescoInstrumenter.onBeforeSubmitWork("BufferedDiskCache_getAsync")
       Task.call(
@@ -217,7 +401,7 @@ class BufferedDiskCache(
               FrescoInstrumenter.onEndWork(currentToken)
             }
           },
-          readExecutor)
+          executor)
     } catch (exception: Exception) {
       // Log failure
       // TODO: 3697790
@@ -241,16 +425,18 @@ class BufferedDiskCache(
         // count. When this write completes (with success/failure), then we will bump down the
         // ref count again.
         val finalEncodedImage = EncodedImage.cloneOrNull(encodedImage)
+        val pendingWrite = addPendingWrite(key)
         try {
           val token = FrescoInstrumenter.onBeforeSubmitWork("BufferedDiskCache_putAsync")
           writeExecutor.execute {
             val currentToken = FrescoInstrumenter.onBeginWork(token, null)
             try {
-              writeToDiskCache(key, finalEncodedImage)
+              pendingWrite.runUnlessCancelled { writeToDiskCache(key, finalEncodedImage) }
             } catch (th: Throwable) {
               FrescoInstrumenter.markFailure(token, th)
               throw th
             } finally {
+              removePendingWrite(key, pendingWrite)
               stagingArea.remove(key, finalEncodedImage!!)
               EncodedImage.closeSafely(finalEncodedImage)
               FrescoInstrumenter.onEndWork(currentToken)
@@ -260,11 +446,45 @@ class BufferedDiskCache(
           // We failed to enqueue cache write. Log failure and decrement ref count
           // TODO: 3697790
           FLog.w(TAG, exception, "Failed to schedule disk-cache write for %s", key.uriString)
+          removePendingWrite(key, pendingWrite)
           stagingArea.remove(key, encodedImage)
           EncodedImage.closeSafely(finalEncodedImage)
         }
       }
 
+  /**
+   * Writes an entry to the disk cache on the calling thread while the writer produces it, e.g.
+   * while it is downloaded, instead of buffering it in memory and writing it on the write executor
+   * as [put] does. The writer writes to a temporary file of the disk cache, which is committed once
+   * the writer returns. The writes of the key scheduled by [put] that haven't started are dropped,
+   * and the one that is running, if any, is waited for, so that they don't overwrite the entry.
+   *
+   * @return the committed entry, memory mapped if it is at least [mappedReadThresholdBytes] long as
+   *   for reads, or null if the disk cache doesn't store entries, in which case the writer may not
+   *   have been called
+   * @throws IOException if the writer failed, in which case nothing is cached, or if the disk cache
+   *   failed
+   */
+  @Throws(IOException::class)
+  fun putSync(key: CacheKey, writer: WriterCallback): PooledByteBuffer? =
+      traceSection("BufferedDiskCache#putSync") {
+        FLog.v(TAG, "About to stream to disk-cache for key %s", key.uriString)
+        // a pending write of an older image for the key must not be read back instead, nor written
+        // over the new entry
+        stagingArea.remove(key)
+        cancelPendingWrites(key)
+        val resource =
+            try {
+              fileCache.insert(key, writer) ?: return@traceSection null
+            } catch (ioe: IOException) {
+              FLog.w(TAG, ioe, "Failed to stream to disk-cache for key %s", key.uriString)
+              throw ioe
+            }
+        imageCacheStatsTracker.onDiskCachePut(key)
+        FLog.v(TAG, "Successful disk-cache stream for key %s", key.uriString)
+        toByteBuffer(key, resource)
+      }
+
   /** Removes the item from the disk cache and the staging area. */
   fun remove(key: CacheKey): Task<Void> {
     stagingArea.remove(key)
@@ -330,6 +550,69 @@ class BufferedDiskCache(
     return Task.forResult(pinnedImage)
   }
 
+  private fun addPendingWrite(key: CacheKey): PendingWrite {
+    val pendingWrite = PendingWrite()
+    synchronized(pendingWrites) { pendingWrites.getOrPut(key) { ArrayList(1) }.add(pendingWrite) }
+    return pendingWrite
+  }
+
+  private fun removePendingWrite(key: CacheKey, pendingWrite: PendingWrite) {
+    synchronized(pendingWrites) {
+      val writes = pendingWrites[key] ?: return
+      writes.remove(pendingWrite)
+      if (writes.isEmpty()) {
+        pendingWrites.remove(key)
+      }
+    }
+  }
+
+  private fun cancelPendingWrites(key: CacheKey) {
+    val writes = synchronized(pendingWrites) { pendingWrites.remove(key) } ?: return
+    for (write in writes) {
+      write.cancel()
+    }
+  }
+
+  /**
+   * Maps the resource if it is at least [mappedReadThresholdBytes] long and file based, copies it
+   * into a pooled buffer otherwise.
+   */
+  @Throws(IOException::class)
+  private fun toByteBuffer(key: CacheKey, resource: BinaryResource): PooledByteBuffer {
+    if (mappedReadThresholdBytes > 0 && resource.size() >= mappedReadThresholdBytes) {
+      val mappedBuffer = mapFromDiskCache(key, resource)
+      if (mappedBuffer != null) {
+        return mappedBuffer
+      }
+    }
+    return copyFromDiskCache(resource)
+  }
+
+  /** Maps the resource if it is file based, returns null if it can't be mapped. */
+  private fun mapFromDiskCache(key: CacheKey, resource: BinaryResource): PooledByteBuffer? {
+    val mappedResource = MappedFileBinaryResource.createOrNull(resource) ?: return null
+    return try {
+      val byteBuffer = MappedPooledByteBuffer(mappedResource.map())
+      FLog.v(TAG, "Successful mapping from disk cache for %s", key.uriString)
+      byteBuffer
+    } catch (ioe: IOException) {
+      // falls back to copying the resource
+      FLog.w(TAG, ioe, "Exception mapping from cache for %s", key.uriString)
+      null
+    }
+  }
+
+  /** Copies the resource into a pooled buffer. */
+  @Throws(IOException::class)
+  private fun copyFromDiskCache(resource: BinaryResource): PooledByteBuffer {
+    val `is` = resource.openStream()
+    return try {
+      pooledByteBufferFactory.newByteBuffer(`is`, resource.size().toInt())
+    } finally {
+      `is`.close()
+    }
+  }
+
   /** Performs disk cache read. In case of any exception null is returned. */
   @Throws(IOException::class)
   private fun readFromDiskCache(key: CacheKey): PooledByteBuffer? {
@@ -344,13 +627,7 @@ class BufferedDiskCache(
         FLog.v(TAG, "Found entry in disk cache for %s", key.uriString)
         imageCacheStatsTracker.onDiskCacheHit(key)
       }
-      val `is` = diskCacheResource.openStream()
-      val byteBuffer =
-          try {
-            pooledByteBufferFactory.newByteBuffer(`is`, diskCacheResource.size().toInt())
-          } finally {
-            `is`.close()
-          }
+      val byteBuffer = toByteBuffer(key, diskCacheResource)
       FLog.v(TAG, "Successful read from disk cache for %s", key.uriString)
       byteBuffer
     } catch (ioe: IOException) {
@@ -385,7 +662,40 @@ class BufferedDiskCache(
     }
   }
 
+  /** A write scheduled by [put], which [putSync] cancels so that it doesn't overwrite its entry. */
+  private class PendingWrite {
+    private var cancelled = false
+
+    /** Runs the write unless it was cancelled. */
+    @Synchronized
+    fun runUnlessCancelled(write: () -> Unit) {
+      if (!cancelled) {
+        write()
+      }
+    }
+
+    /** Cancels the write if it hasn't run yet, or waits for it to finish if it is running. */
+    @Synchronized
+    fun cancel() {
+      cancelled = true
+    }
+  }
+
   companion object {
     private val TAG: Class<*> = BufferedDiskCache::class.java
+
+    /**
+     * Orders the keys by disk cache shard, i.e. subdirectory, so that the lookups of a batch hit
+     * one directory after the other.
+     */
+    private fun sortedByShard(keys: List<CacheKey>): List<CacheKey> =
+        keys.sortedBy { DefaultDiskStorage.getShardBucket(CacheKeyUtil.getFirstResourceId(it)) }
+
+    private fun closeAll(images: MutableMap<CacheKey, EncodedImage?>) {
+      for (image in images.values) {
+        EncodedImage.closeSafely(image)
+      }
+      images.clear()
+    }
   }
 }
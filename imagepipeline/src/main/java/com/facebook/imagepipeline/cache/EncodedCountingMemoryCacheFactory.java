@@ -30,13 +30,16 @@ public class EncodedCountingMemoryCacheFactory {
         };
 
     CountingMemoryCache<CacheKey, PooledByteBuffer> countingCache =
-        new LruCountingMemoryCache<>(
-            valueDescriptor,
-            cacheTrimStrategy,
-            encodedMemoryCacheParamsSupplier,
-            null,
-            false,
-            false);
+        encodedMemoryCacheParamsSupplier.get().tinyLfuEnabled
+            ? new ConcurrentCountingMemoryCache<>(
+                valueDescriptor, cacheTrimStrategy, encodedMemoryCacheParamsSupplier, null)
+            : new LruCountingMemoryCache<>(
+                valueDescriptor,
+                cacheTrimStrategy,
+                encodedMemoryCacheParamsSupplier,
+                null,
+                false,
+                false);
 
     memoryTrimmableRegistry.registerMemoryTrimmable(countingCache);
 
@@ -59,6 +59,14 @@ interface ImageCacheStatsTracker {
   /** called whenever new files are written to disk */
   fun onDiskCachePut(cacheKey: CacheKey)
 
+  /**
+   * Called when a request got its encoded image from the fetch of a request for the same image with
+   * another encoded cache key, e.g. at another size, instead of fetching it on its own. Only called
+   * if the encoded multiplex by source uri experiment is enabled. The number of calls is the number
+   * of fetches saved.
+   */
+  fun onEncodedFetchShared(cacheKey: CacheKey) {}
+
   /**
    * Registers a bitmap cache with this tracker.
    *
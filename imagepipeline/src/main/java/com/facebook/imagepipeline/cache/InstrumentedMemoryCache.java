@@ -11,6 +11,7 @@ import com.facebook.common.internal.Predicate;
 import com.facebook.common.memory.MemoryTrimType;
 import com.facebook.common.references.CloseableReference;
 import com.facebook.infer.annotation.Nullsafe;
+import java.util.List;
 import javax.annotation.Nullable;
 
 @Nullsafe(Nullsafe.Mode.LOCAL)
@@ -57,11 +58,26 @@ public class InstrumentedMemoryCache<K, V> implements MemoryCache<K, V> {
     return mDelegate.removeAll(predicate);
   }
 
+  @Override
+  public int removeAllForUri(String uriString, Predicate<K> predicate) {
+    return mDelegate.removeAllForUri(uriString, predicate);
+  }
+
   @Override
   public boolean contains(Predicate<K> predicate) {
     return mDelegate.contains(predicate);
   }
 
+  @Override
+  public boolean containsForUri(String uriString, Predicate<K> predicate) {
+    return mDelegate.containsForUri(uriString, predicate);
+  }
+
+  @Override
+  public List<K> getKeysForUri(String uriString, Predicate<K> predicate) {
+    return mDelegate.getKeysForUri(uriString, predicate);
+  }
+
   @Override
   public boolean contains(K key) {
     return mDelegate.contains(key);
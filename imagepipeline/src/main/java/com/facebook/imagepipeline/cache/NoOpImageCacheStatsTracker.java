@@ -61,6 +61,9 @@ public class NoOpImageCacheStatsTracker implements ImageCacheStatsTracker {
   @Override
   public void onDiskCachePut(CacheKey cacheKey) {}
 
+  @Override
+  public void onEncodedFetchShared(CacheKey cacheKey) {}
+
   @Override
   public void registerBitmapMemoryCache(MemoryCache<?, ?> bitmapMemoryCache) {}
 
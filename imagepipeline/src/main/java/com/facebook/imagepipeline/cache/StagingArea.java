@@ -15,9 +15,12 @@ import com.facebook.common.references.CloseableReference;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.infer.annotation.Nullsafe;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 
@@ -135,6 +138,40 @@ public class StagingArea {
    */
   public synchronized @Nullable EncodedImage get(final CacheKey key) {
     Preconditions.checkNotNull(key);
+    return getLocked(key);
+  }
+
+  /**
+   * Looks up several keys at once, holding the lock only once.
+   *
+   * @param keys
+   * @return the values associated with the keys that have one. The caller is responsible for
+   *     closing them
+   */
+  public synchronized Map<CacheKey, EncodedImage> getAll(final Collection<CacheKey> keys) {
+    Map<CacheKey, EncodedImage> found = new HashMap<>();
+    for (CacheKey key : keys) {
+      EncodedImage encodedImage = getLocked(Preconditions.checkNotNull(key));
+      if (encodedImage != null) {
+        found.put(key, encodedImage);
+      }
+    }
+    return found;
+  }
+
+  /** Returns the keys for which a valid entry exists in the staging area. */
+  public synchronized Set<CacheKey> containsKeys(final Collection<CacheKey> keys) {
+    Set<CacheKey> found = new HashSet<>();
+    for (CacheKey key : keys) {
+      if (containsKey(key)) {
+        found.add(key);
+      }
+    }
+    return found;
+  }
+
+  @GuardedBy("this")
+  private @Nullable EncodedImage getLocked(final CacheKey key) {
     EncodedImage storedEncodedImage = mMap.get(key);
     if (storedEncodedImage != null) {
       synchronized (storedEncodedImage) {
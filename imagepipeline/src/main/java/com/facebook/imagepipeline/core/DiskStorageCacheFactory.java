@@ -7,11 +7,16 @@
 
 package com.facebook.imagepipeline.core;
 
+import android.os.Process;
+import com.facebook.cache.disk.DefaultDiskStorage;
 import com.facebook.cache.disk.DiskCacheConfig;
+import com.facebook.cache.disk.DiskCacheIndexJournal;
 import com.facebook.cache.disk.DiskStorage;
 import com.facebook.cache.disk.DiskStorageCache;
 import com.facebook.cache.disk.FileCache;
+import com.facebook.common.internal.Supplier;
 import com.facebook.infer.annotation.Nullsafe;
+import java.io.File;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 
@@ -31,14 +36,44 @@ public class DiskStorageCacheFactory implements FileCacheFactory {
   }
 
   public static DiskStorageCache buildDiskStorageCache(
-      DiskCacheConfig diskCacheConfig,
+      final DiskCacheConfig diskCacheConfig,
       DiskStorage diskStorage,
       Executor executorForBackgroundInit) {
     DiskStorageCache.Params params =
         new DiskStorageCache.Params(
             diskCacheConfig.getMinimumSizeLimit(),
             diskCacheConfig.getLowDiskSpaceSizeLimit(),
-            diskCacheConfig.getDefaultSizeLimit());
+            diskCacheConfig.getDefaultSizeLimit(),
+            diskCacheConfig.getIncrementalEvictionEnabled(),
+            diskCacheConfig.getStripedLockingEnabled());
+
+    DiskCacheIndexJournal indexJournal = null;
+    if (diskCacheConfig.getPersistentIndexEnabled()) {
+      indexJournal =
+          new DiskCacheIndexJournal(
+              new Supplier<File>() {
+                @Override
+                public File get() {
+                  File rootDirectory =
+                      new File(
+                          diskCacheConfig.getBaseDirectoryPathSupplier().get(),
+                          diskCacheConfig.getBaseDirectoryName());
+                  return new File(
+                      rootDirectory,
+                      DefaultDiskStorage.getIndexJournalFileName(diskCacheConfig.getVersion()));
+                }
+              },
+              diskCacheConfig.getVersion(),
+              diskCacheConfig.getCacheErrorLogger());
+    }
+
+    Executor evictionExecutor = null;
+    if (diskCacheConfig.getBackgroundEvictionEnabled()) {
+      evictionExecutor =
+          Executors.newSingleThreadExecutor(
+              new PriorityThreadFactory(
+                  Process.THREAD_PRIORITY_LOWEST, "FrescoDiskEvictionExecutor", false));
+    }
 
     return new DiskStorageCache(
         diskStorage,
@@ -48,7 +83,9 @@ public class DiskStorageCacheFactory implements FileCacheFactory {
         diskCacheConfig.getCacheErrorLogger(),
         diskCacheConfig.getDiskTrimmableRegistry(),
         executorForBackgroundInit,
-        diskCacheConfig.getIndexPopulateAtStartupEnabled());
+        diskCacheConfig.getIndexPopulateAtStartupEnabled(),
+        indexJournal,
+        evictionExecutor);
   }
 
   @Override
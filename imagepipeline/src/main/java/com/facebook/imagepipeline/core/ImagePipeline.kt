@@ -11,20 +11,25 @@ import android.net.Uri
 import bolts.Task
 import com.facebook.cache.common.CacheKey
 import com.facebook.callercontext.CallerContextVerifier
+import com.facebook.common.executors.CallerThreadExecutor
 import com.facebook.common.internal.Objects
 import com.facebook.common.internal.Predicate
 import com.facebook.common.internal.Supplier
 import com.facebook.common.memory.PooledByteBuffer
 import com.facebook.common.references.CloseableReference
 import com.facebook.common.util.UriUtil
+import com.facebook.datasource.AbstractDataSource
+import com.facebook.datasource.BaseDataSubscriber
 import com.facebook.datasource.DataSource
 import com.facebook.datasource.DataSources
 import com.facebook.datasource.SimpleDataSource
+import com.facebook.fresco.middleware.HasExtraData
 import com.facebook.imagepipeline.cache.BufferedDiskCache
 import com.facebook.imagepipeline.cache.CacheKeyFactory
 import com.facebook.imagepipeline.cache.MemoryCache
 import com.facebook.imagepipeline.common.Priority
 import com.facebook.imagepipeline.datasource.CloseableProducerToDataSourceAdapter
+import com.facebook.imagepipeline.datasource.ImmediateCloseableDataSource
 import com.facebook.imagepipeline.datasource.ProducerToDataSourceAdapter.Companion.create
 import com.facebook.imagepipeline.image.CloseableImage
 import com.facebook.imagepipeline.listener.ForwardingRequestListener
@@ -65,7 +70,8 @@ class ImagePipeline(
 ) {
 
   private val requestListener: RequestListener = ForwardingRequestListener(requestListeners)
-  private val requestListener2: RequestListener2 = ForwardingRequestListener2(requestListener2s)
+  private val requestListener2 = ForwardingRequestListener2(requestListener2s)
+  private val hasRequestListeners = requestListeners.any { it != null }
 
   /** @return The Bitmap MemoryCache */
   val bitmapMemoryCache: MemoryCache<CacheKey, CloseableImage>
@@ -221,6 +227,9 @@ class ImagePipeline(
       return DataSources.immediateFailedDataSource(NullPointerException())
     }
     return try {
+      fetchFromBitmapMemoryCache(imageRequest, callerContext, requestListener)?.let {
+        return it
+      }
       val producerSequence = producerSequenceFactory.getDecodedImageProducerSequence(imageRequest)
       submitFetchRequest(
           producerSequence,
@@ -516,6 +525,65 @@ class ImagePipeline(
     }
   }
 
+  /**
+   * Submits requests for prefetching a list of images to the disk cache, e.g. the items of a feed
+   * or a grid.
+   *
+   * The disk caches are checked for all the images at once, with [BufferedDiskCache.containsAll],
+   * and a prefetch is only submitted for the images that are not cached yet.
+   *
+   * @param imageRequests the requests to submit
+   * @param priority custom priority for the fetches
+   * @return a DataSource per request, in the same order, that can safely be ignored.
+   */
+  @JvmOverloads
+  fun prefetchAllToDiskCache(
+      imageRequests: List<ImageRequest>,
+      callerContext: Any?,
+      priority: Priority = Priority.MEDIUM,
+      requestListener: RequestListener? = null
+  ): List<DataSource<Void?>> =
+      traceSection("ImagePipeline#prefetchAllToDiskCache") {
+        if (!isPrefetchEnabledSupplier.get()) {
+          return imageRequests.map { DataSources.immediateFailedDataSource(PREFETCH_EXCEPTION) }
+        }
+        val dataSources = imageRequests.map { BatchedPrefetchDataSource() }
+        val requestIndicesByDiskCache = HashMap<BufferedDiskCache, MutableList<Int>>()
+        for ((index, imageRequest) in imageRequests.withIndex()) {
+          val diskCache =
+              when (imageRequest.cacheChoice) {
+                CacheChoice.DEFAULT -> mainBufferedDiskCache
+                CacheChoice.SMALL -> smallImageBufferedDiskCache
+                else -> null
+              }
+          if (diskCache == null) {
+            dataSources[index].follow(
+                prefetchToDiskCache(imageRequest, callerContext, priority, requestListener))
+          } else {
+            requestIndicesByDiskCache.getOrPut(diskCache) { ArrayList() }.add(index)
+          }
+        }
+        for ((diskCache, indices) in requestIndicesByDiskCache) {
+          val cacheKeys =
+              indices.map { cacheKeyFactory.getEncodedCacheKey(imageRequests[it], callerContext) }
+          diskCache.containsAll(cacheKeys).continueWith<Void> { task ->
+            val found = if (task.isCancelled || task.isFaulted) null else task.result
+            for ((i, index) in indices.withIndex()) {
+              val dataSource = dataSources[index]
+              if (found?.get(cacheKeys[i]) == true) {
+                dataSource.onFoundInDiskCache()
+              } else if (!dataSource.isClosed) {
+                dataSource.follow(
+                    prefetchToDiskCache(
+                        imageRequests[index], callerContext, priority, requestListener))
+              }
+            }
+            null
+          }
+        }
+        return dataSources
+      }
+
   fun prefetchToEncodedCache(
       imageRequest: ImageRequest?,
       callerContext: Any?,
@@ -580,9 +648,10 @@ class ImagePipeline(
    * @param uri The uri of the image to evict
    */
   fun evictFromMemoryCache(uri: Uri) {
+    val uriString = uri.toString()
     val predicate = predicateForUri(uri)
-    bitmapMemoryCache.removeAll(predicate)
-    encodedMemoryCache.removeAll(predicate)
+    bitmapMemoryCache.removeAllForUri(uriString, predicate)
+    encodedMemoryCache.removeAllForUri(uriString, predicate)
   }
 
   /**
@@ -666,7 +735,7 @@ class ImagePipeline(
       return false
     }
     val bitmapCachePredicate = predicateForUri(uri)
-    return bitmapMemoryCache.contains(bitmapCachePredicate)
+    return bitmapMemoryCache.containsForUri(uri.toString(), bitmapCachePredicate)
   }
 
   /**
@@ -699,7 +768,7 @@ class ImagePipeline(
       return false
     }
     val encodedCachePredicate = predicateForUri(uri)
-    return encodedMemoryCache.contains(encodedCachePredicate)
+    return encodedMemoryCache.containsForUri(uri.toString(), encodedCachePredicate)
   }
 
   /**
@@ -846,6 +915,56 @@ class ImagePipeline(
     }
   }
 
+  /**
+   * Returns a finished data source of the full quality image cached for [imageRequest], or null if
+   * the request must be submitted to the producers, see
+   * [ImagePipelineExperiments.isBitmapCacheHitFastPathEnabled].
+   *
+   * No producer context, request id or listener wrapper is created: nobody listens to the events
+   * of the request, and the producers of a cache hit would only have reported them. The fast path
+   * is not taken when the producers would do more than that, e.g. prepare the bitmap to draw.
+   */
+  private fun fetchFromBitmapMemoryCache(
+      imageRequest: ImageRequest,
+      callerContext: Any?,
+      requestListener: RequestListener?
+  ): DataSource<CloseableReference<CloseableImage>>? {
+    if (config.experiments?.isBitmapCacheHitFastPathEnabled != true ||
+        requestListener != null ||
+        imageRequest.requestListener != null ||
+        hasRequestListeners ||
+        requestListener2.handledEvents != 0 ||
+        imageRequest.postprocessor != null ||
+        imageRequest.delayMs > 0 ||
+        config.experiments.useBitmapPrepareToDraw ||
+        !imageRequest.isCacheEnabled(ImageRequest.CachesLocationsMasks.BITMAP_READ)) {
+      return null
+    }
+    val cachedReference =
+        getCachedImage(cacheKeyFactory.getBitmapCacheKey(imageRequest, callerContext))
+            ?: return null
+    callerContextVerifier?.verifyCallerContext(callerContext, false)
+    return ImmediateCloseableDataSource.create(
+        cachedReference, getBitmapCacheHitExtras(imageRequest, cachedReference.get()))
+  }
+
+  /** Returns the extras that the producer context of a bitmap cache hit would have. */
+  private fun getBitmapCacheHitExtras(
+      imageRequest: ImageRequest,
+      image: CloseableImage
+  ): Map<String, Any> {
+    val extras = HashMap<String, Any>()
+    extras[HasExtraData.KEY_URI_SOURCE] = imageRequest.sourceUri
+    // as in BitmapMemoryCacheProducer, the extras of the image, then the origin of the hit
+    for ((key, value) in image.extras) {
+      if (value != null) {
+        extras[key] = value
+      }
+    }
+    extras.putAll(BITMAP_CACHE_HIT_EXTRAS)
+    return extras
+  }
+
   private fun <T> submitFetchRequest(
       producerSequence: Producer<CloseableReference<T>>,
       imageRequest: ImageRequest,
@@ -1046,8 +1165,60 @@ class ImagePipeline(
     // an injection would otherwise appear to be unused.
   }
 
+  /**
+   * DataSource of a request of [prefetchAllToDiskCache]. It succeeds right away if the image is
+   * already in the disk cache, and follows the prefetch submitted for the image otherwise.
+   */
+  private class BatchedPrefetchDataSource : AbstractDataSource<Void?>() {
+
+    private var prefetchDataSource: DataSource<Void?>? = null
+
+    fun onFoundInDiskCache() {
+      setResult(null, true)
+    }
+
+    fun follow(prefetch: DataSource<Void?>) {
+      synchronized(this) {
+        if (isClosed) {
+          prefetch.close()
+          return
+        }
+        prefetchDataSource = prefetch
+      }
+      prefetch.subscribe(
+          object : BaseDataSubscriber<Void?>() {
+            override fun onNewResultImpl(dataSource: DataSource<Void?>) {
+              if (dataSource.isFinished) {
+                setResult(null, true)
+              }
+            }
+
+            override fun onFailureImpl(dataSource: DataSource<Void?>) {
+              setFailure(checkNotNull(dataSource.failureCause))
+            }
+
+            override fun onCancellation(dataSource: DataSource<Void?>) {
+              close()
+            }
+          },
+          CallerThreadExecutor.getInstance())
+    }
+
+    override fun close(): Boolean {
+      val dataSource = synchronized(this) { prefetchDataSource.also { prefetchDataSource = null } }
+      dataSource?.close()
+      return super.close()
+    }
+  }
+
   companion object {
     private val PREFETCH_EXCEPTION = CancellationException("Prefetching is not enabled")
     private val NULL_IMAGEREQUEST_EXCEPTION = CancellationException("ImageRequest is null")
+
+    /** The origin extras that BitmapMemoryCacheGetProducer sets for a cache hit. */
+    private val BITMAP_CACHE_HIT_EXTRAS: Map<String, Any> =
+        mapOf(
+            HasExtraData.KEY_ORIGIN to "memory_bitmap",
+            HasExtraData.KEY_ORIGIN_SUBCATEGORY to "pipe_ui")
   }
 }
@@ -26,6 +26,7 @@ import com.facebook.imagepipeline.decoder.ImageDecoder
 import com.facebook.imagepipeline.decoder.ProgressiveJpegConfig
 import com.facebook.imagepipeline.image.CloseableImage
 import com.facebook.imagepipeline.platform.PlatformDecoderOptions
+import com.facebook.imagepipeline.producers.IntermediateDecodePolicy
 import com.facebook.imageutils.BitmapUtil
 
 /**
@@ -75,6 +76,13 @@ class ImagePipelineExperiments private constructor(builder: Builder) {
   val animationRenderFpsLimit: Int
   val prefetchShortcutEnabled: Boolean
   val platformDecoderOptions: PlatformDecoderOptions
+  val mappedDiskCacheReadThresholdBytes: Int
+  val isStreamingNetworkToDiskCacheEnabled: Boolean
+  val isEncodedMultiplexBySourceUriEnabled: Boolean
+  val bitmapCacheSizeToleranceRatio: Float
+  val intermediateDecodePolicy: IntermediateDecodePolicy?
+  val isBitmapCacheHitFastPathEnabled: Boolean
+  val animationSharedFrameCacheMaxSizeBytes: Int
 
   class Builder(private val configBuilder: ImagePipelineConfig.Builder) {
     @JvmField var shouldUseDecodingBufferHelper = false
@@ -128,6 +136,20 @@ class ImagePipelineExperiments private constructor(builder: Builder) {
 
     @JvmField var platformDecoderOptions = PlatformDecoderOptions()
 
+    @JvmField var mappedDiskCacheReadThresholdBytes = 0
+
+    @JvmField var isStreamingNetworkToDiskCacheEnabled = false
+
+    @JvmField var isEncodedMultiplexBySourceUriEnabled = false
+
+    @JvmField var bitmapCacheSizeToleranceRatio = 0f
+
+    @JvmField var intermediateDecodePolicy: IntermediateDecodePolicy? = null
+
+    @JvmField var isBitmapCacheHitFastPathEnabled = false
+
+    @JvmField var animationSharedFrameCacheMaxSizeBytes = 0
+
     private fun asBuilder(block: () -> Unit): Builder {
       block()
       return this
@@ -325,6 +347,82 @@ class ImagePipelineExperiments private constructor(builder: Builder) {
       this.platformDecoderOptions = platformDecoderOptions
     }
 
+    /**
+     * Disk cache entries of at least this size are memory mapped when read instead of being copied
+     * into a pooled buffer, so that they can be decoded straight from the page cache. 0 or less
+     * disables it.
+     */
+    fun setMappedDiskCacheReadThresholdBytes(mappedDiskCacheReadThresholdBytes: Int) = asBuilder {
+      this.mappedDiskCacheReadThresholdBytes = mappedDiskCacheReadThresholdBytes
+    }
+
+    /**
+     * Network responses are written to the disk cache while they are downloaded instead of being
+     * buffered in memory first, and are then decoded from the disk cache file. Responses with
+     * progressive intermediate results or bytes ranges are still buffered. Has no effect if the
+     * disk cache is disabled.
+     */
+    fun setStreamingNetworkToDiskCacheEnabled(streamingNetworkToDiskCacheEnabled: Boolean) =
+        asBuilder {
+          isStreamingNetworkToDiskCacheEnabled = streamingNetworkToDiskCacheEnabled
+        }
+
+    /**
+     * Pending requests for the same source uri share one fetch of the encoded image, even if the
+     * cache key factory gives them different encoded cache keys, e.g. for different resize options.
+     * Each request still decodes the image with its own options, and the encoded image is cached
+     * with the encoded cache key of each request.
+     */
+    fun setEncodedMultiplexBySourceUriEnabled(encodedMultiplexBySourceUriEnabled: Boolean) =
+        asBuilder {
+          isEncodedMultiplexBySourceUriEnabled = encodedMultiplexBySourceUriEnabled
+        }
+
+    /**
+     * A request with resize options that misses the bitmap memory cache can be served by a bitmap
+     * of the same image cached for larger resize options, as long as it is at most
+     * [bitmapCacheSizeToleranceRatio] times the requested size in each dimension, instead of
+     * decoding the image again. The larger bitmap is used as it is. 0, the default, disables it.
+     *
+     * The larger bitmaps are only looked up in a bitmap memory cache that indexes its keys by URI,
+     * see [com.facebook.imagepipeline.cache.MemoryCacheParams.uriIndexEnabled].
+     */
+    fun setBitmapCacheSizeToleranceRatio(bitmapCacheSizeToleranceRatio: Float) = asBuilder {
+      this.bitmapCacheSizeToleranceRatio = bitmapCacheSizeToleranceRatio
+    }
+
+    /**
+     * Decides which intermediate results of progressive images are decoded when they arrive, e.g. a
+     * [com.facebook.imagepipeline.producers.LoadAwareIntermediateDecodePolicy]. The others are
+     * merged into the next decode of their request. By default, the intermediate results of the
+     * requests that expect them are all decoded.
+     */
+    fun setIntermediateDecodePolicy(intermediateDecodePolicy: IntermediateDecodePolicy?) =
+        asBuilder {
+          this.intermediateDecodePolicy = intermediateDecodePolicy
+        }
+
+    /**
+     * [ImagePipeline.fetchDecodedImage] returns a data source that is already finished when the
+     * full quality image is in the bitmap memory cache, without creating a producer context or
+     * running the producers. This only applies while no request listener is registered and to
+     * requests without postprocessor or delay, as those need the producers.
+     */
+    fun setBitmapCacheHitFastPathEnabled(bitmapCacheHitFastPathEnabled: Boolean) = asBuilder {
+      isBitmapCacheHitFastPathEnabled = bitmapCacheHitFastPathEnabled
+    }
+
+    /**
+     * With the balanced animation strategy, the frames of an animation are shared by all the
+     * drawables of the same cached animated image that are shown at the same size, up to
+     * [animationSharedFrameCacheMaxSizeBytes] in total. Each frame is then rendered once instead of
+     * once per view. The frames are dropped when the memory is trimmed. 0, the default, disables it.
+     */
+    fun setAnimationSharedFrameCacheMaxSizeBytes(animationSharedFrameCacheMaxSizeBytes: Int) =
+        asBuilder {
+          this.animationSharedFrameCacheMaxSizeBytes = animationSharedFrameCacheMaxSizeBytes
+        }
+
     fun build(): ImagePipelineExperiments = ImagePipelineExperiments(this)
   }
 
@@ -449,6 +547,13 @@ class ImagePipelineExperiments private constructor(builder: Builder) {
     cancelDecodeOnCacheMiss = builder.cancelDecodeOnCacheMiss
     prefetchShortcutEnabled = builder.prefetchShortcutEnabled
     platformDecoderOptions = builder.platformDecoderOptions
+    mappedDiskCacheReadThresholdBytes = builder.mappedDiskCacheReadThresholdBytes
+    isStreamingNetworkToDiskCacheEnabled = builder.isStreamingNetworkToDiskCacheEnabled
+    isEncodedMultiplexBySourceUriEnabled = builder.isEncodedMultiplexBySourceUriEnabled
+    bitmapCacheSizeToleranceRatio = builder.bitmapCacheSizeToleranceRatio
+    intermediateDecodePolicy = builder.intermediateDecodePolicy
+    isBitmapCacheHitFastPathEnabled = builder.isBitmapCacheHitFastPathEnabled
+    animationSharedFrameCacheMaxSizeBytes = builder.animationSharedFrameCacheMaxSizeBytes
   }
 
   companion object {
@@ -181,6 +181,8 @@ public class ImagePipelineFactory {
               mConfig.getExperiments().getUseBalancedAnimationStrategy(),
               mConfig.getExperiments().getAnimationRenderFpsLimit(),
               mConfig.getExperiments().getAnimationStrategyBufferLengthMilliseconds(),
+              mConfig.getExperiments().getAnimationSharedFrameCacheMaxSizeBytes(),
+              mConfig.getMemoryTrimmableRegistry(),
               mConfig.getExecutorServiceForAnimatedImages());
     }
     return mAnimatedFactory;
@@ -284,7 +286,8 @@ public class ImagePipelineFactory {
               mConfig.getPoolFactory().getPooledByteStreams(),
               mConfig.getExecutorSupplier().forLocalStorageRead(),
               mConfig.getExecutorSupplier().forLocalStorageWrite(),
-              mConfig.getImageCacheStatsTracker());
+              mConfig.getImageCacheStatsTracker(),
+              mConfig.getExperiments().getMappedDiskCacheReadThresholdBytes());
     }
     return mMainBufferedDiskCache;
   }
@@ -317,7 +320,8 @@ public class ImagePipelineFactory {
                 mConfig.getPoolFactory().getPooledByteStreams(),
                 mConfig.getExecutorSupplier().forLocalStorageRead(),
                 mConfig.getExecutorSupplier().forLocalStorageWrite(),
-                mConfig.getImageCacheStatsTracker()));
+                mConfig.getImageCacheStatsTracker(),
+                mConfig.getExperiments().getMappedDiskCacheReadThresholdBytes()));
       }
       mDynamicBufferedDiskCaches = ImmutableMap.copyOf(bufferedDiskCaches);
     }
@@ -438,7 +442,11 @@ public class ImagePipelineFactory {
               mConfig.getExperiments().isEncodedMemoryCacheProbingEnabled(),
               mConfig.getExperiments().isDiskCacheProbingEnabled(),
               mConfig.getExperiments().getAllowDelay(),
-              mConfig.getCustomProducerSequenceFactories());
+              mConfig.getCustomProducerSequenceFactories(),
+              mConfig.getExperiments().isStreamingNetworkToDiskCacheEnabled(),
+              mConfig.getExperiments().isEncodedMultiplexBySourceUriEnabled(),
+              mConfig.getImageCacheStatsTracker(),
+              mConfig.getExperiments().getBitmapCacheSizeToleranceRatio());
     }
     return mProducerSequenceFactory;
   }
@@ -464,7 +472,8 @@ public class ImagePipelineFactory {
               mConfig.getPoolFactory().getPooledByteStreams(),
               mConfig.getExecutorSupplier().forLocalStorageRead(),
               mConfig.getExecutorSupplier().forLocalStorageWrite(),
-              mConfig.getImageCacheStatsTracker());
+              mConfig.getImageCacheStatsTracker(),
+              mConfig.getExperiments().getMappedDiskCacheReadThresholdBytes());
     }
     return mSmallImageBufferedDiskCache;
   }
@@ -23,6 +23,7 @@ import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
 import com.facebook.imagepipeline.cache.BoundedLinkedHashSet;
 import com.facebook.imagepipeline.cache.BufferedDiskCache;
 import com.facebook.imagepipeline.cache.CacheKeyFactory;
+import com.facebook.imagepipeline.cache.ImageCacheStatsTracker;
 import com.facebook.imagepipeline.cache.MemoryCache;
 import com.facebook.imagepipeline.decoder.ImageDecoder;
 import com.facebook.imagepipeline.decoder.ProgressiveJpegConfig;
@@ -237,6 +238,16 @@ public class ProducerFactory {
     return new BitmapMemoryCacheGetProducer(mBitmapMemoryCache, mCacheKeyFactory, inputProducer);
   }
 
+  /**
+   * @param sizeToleranceRatio how much larger than the requested size a cached bitmap of another
+   *     size can be to be used for a request, see {@link BitmapMemoryCacheProducer}
+   */
+  public BitmapMemoryCacheGetProducer newBitmapMemoryCacheGetProducer(
+      Producer<CloseableReference<CloseableImage>> inputProducer, float sizeToleranceRatio) {
+    return new BitmapMemoryCacheGetProducer(
+        mBitmapMemoryCache, mCacheKeyFactory, inputProducer, sizeToleranceRatio);
+  }
+
   public BitmapMemoryCacheKeyMultiplexProducer newBitmapMemoryCacheKeyMultiplexProducer(
       Producer<CloseableReference<CloseableImage>> inputProducer) {
     return new BitmapMemoryCacheKeyMultiplexProducer(mCacheKeyFactory, inputProducer);
@@ -247,6 +258,16 @@ public class ProducerFactory {
     return new BitmapMemoryCacheProducer(mBitmapMemoryCache, mCacheKeyFactory, inputProducer);
   }
 
+  /**
+   * @param sizeToleranceRatio how much larger than the requested size a cached bitmap of another
+   *     size can be to be used for a request, see {@link BitmapMemoryCacheProducer}
+   */
+  public BitmapMemoryCacheProducer newBitmapMemoryCacheProducer(
+      Producer<CloseableReference<CloseableImage>> inputProducer, float sizeToleranceRatio) {
+    return new BitmapMemoryCacheProducer(
+        mBitmapMemoryCache, mCacheKeyFactory, inputProducer, sizeToleranceRatio);
+  }
+
   public static BranchOnSeparateImagesProducer newBranchOnSeparateImagesProducer(
       Producer<EncodedImage> inputProducer1, Producer<EncodedImage> inputProducer2) {
     return new BranchOnSeparateImagesProducer(inputProducer1, inputProducer2);
@@ -306,6 +327,31 @@ public class ProducerFactory {
         mCacheKeyFactory, mKeepCancelledFetchAsLowPriority, inputProducer);
   }
 
+  /**
+   * @param multiplexBySourceUri whether requests are combined by source uri rather than by encoded
+   *     cache key, see {@link EncodedCacheKeyMultiplexProducer}
+   * @param diskCacheEnabled whether the input producer writes to the disk cache, in which case the
+   *     images shared by requests with different encoded cache keys are written to it too
+   * @param imageCacheStatsTracker notified of each request that got the encoded image from the fetch
+   *     of a request with another encoded cache key
+   */
+  public EncodedCacheKeyMultiplexProducer newEncodedCacheKeyMultiplexProducer(
+      Producer<EncodedImage> inputProducer,
+      boolean multiplexBySourceUri,
+      boolean diskCacheEnabled,
+      ImageCacheStatsTracker imageCacheStatsTracker) {
+    return new EncodedCacheKeyMultiplexProducer(
+        mCacheKeyFactory,
+        mKeepCancelledFetchAsLowPriority,
+        multiplexBySourceUri,
+        mEncodedMemoryCache,
+        diskCacheEnabled ? mDefaultBufferedDiskCache : null,
+        diskCacheEnabled ? mSmallImageBufferedDiskCache : null,
+        diskCacheEnabled ? mDynamicBufferedDiskCaches : null,
+        imageCacheStatsTracker,
+        inputProducer);
+  }
+
   public BitmapProbeProducer newBitmapProbeProducer(
       Producer<CloseableReference<CloseableImage>> inputProducer) {
     return new BitmapProbeProducer(
@@ -382,6 +428,25 @@ public class ProducerFactory {
     return new NetworkFetchProducer(mPooledByteBufferFactory, mByteArrayPool, networkFetcher);
   }
 
+  /**
+   * @param streamToDiskCache whether the responses are written to the disk cache while they are
+   *     downloaded, see {@link NetworkFetchProducer}
+   */
+  public Producer<EncodedImage> newNetworkFetchProducer(
+      NetworkFetcher networkFetcher, boolean streamToDiskCache) {
+    if (!streamToDiskCache) {
+      return newNetworkFetchProducer(networkFetcher);
+    }
+    return new NetworkFetchProducer(
+        mPooledByteBufferFactory,
+        mByteArrayPool,
+        networkFetcher,
+        mDefaultBufferedDiskCache,
+        mSmallImageBufferedDiskCache,
+        mDynamicBufferedDiskCaches,
+        mCacheKeyFactory);
+  }
+
   public PostprocessedBitmapMemoryCacheProducer newPostprocessorBitmapMemoryCacheProducer(
       Producer<CloseableReference<CloseableImage>> inputProducer) {
     return new PostprocessedBitmapMemoryCacheProducer(
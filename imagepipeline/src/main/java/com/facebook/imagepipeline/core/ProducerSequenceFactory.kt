@@ -16,6 +16,8 @@ import com.facebook.common.internal.Preconditions
 import com.facebook.common.media.MediaUtils.isVideo
 import com.facebook.common.memory.PooledByteBuffer
 import com.facebook.common.references.CloseableReference
+import com.facebook.imagepipeline.cache.ImageCacheStatsTracker
+import com.facebook.imagepipeline.cache.NoOpImageCacheStatsTracker
 import com.facebook.imagepipeline.common.SourceUriType
 import com.facebook.imagepipeline.image.CloseableImage
 import com.facebook.imagepipeline.image.EncodedImage
@@ -29,7 +31,9 @@ import com.facebook.imagepipeline.request.ImageRequest
 import com.facebook.imagepipeline.systrace.FrescoSystrace.traceSection
 import com.facebook.imagepipeline.transcoder.ImageTranscoderFactory
 
-class ProducerSequenceFactory(
+class ProducerSequenceFactory
+@JvmOverloads
+constructor(
     private val contentResolver: ContentResolver,
     private val producerFactory: ProducerFactory,
     private val networkFetcher: NetworkFetcher<*>,
@@ -44,7 +48,12 @@ class ProducerSequenceFactory(
     private val isEncodedMemoryCacheProbingEnabled: Boolean,
     private val isDiskCacheProbingEnabled: Boolean,
     private val allowDelay: Boolean,
-    private val customProducerSequenceFactories: Set<CustomProducerSequenceFactory>?
+    private val customProducerSequenceFactories: Set<CustomProducerSequenceFactory>?,
+    private val streamingNetworkToDiskCacheEnabled: Boolean = false,
+    private val encodedMultiplexBySourceUriEnabled: Boolean = false,
+    private val imageCacheStatsTracker: ImageCacheStatsTracker =
+        NoOpImageCacheStatsTracker.getInstance(),
+    private val bitmapCacheSizeToleranceRatio: Float = 0f
 ) {
 
   @VisibleForTesting
@@ -298,7 +307,8 @@ class ProducerSequenceFactory(
       traceSection("ProducerSequenceFactory#createCommonNetworkFetchToEncodedMemorySequence") {
         val inputProducer: Producer<EncodedImage> =
             newEncodedCacheMultiplexToTranscodeSequence(
-                producerFactory.newNetworkFetchProducer(networkFetcher))
+                producerFactory.newNetworkFetchProducer(
+                    networkFetcher, diskCacheEnabled && streamingNetworkToDiskCacheEnabled))
         var networkFetchToEncodedMemorySequence: Producer<EncodedImage?> =
             ProducerFactory.newAddImageTransformMetaDataProducer(inputProducer)
         networkFetchToEncodedMemorySequence =
@@ -500,11 +510,17 @@ class ProducerSequenceFactory(
       ip = newDiskCacheSequence(ip)
     }
     val encodedMemoryCacheProducer = producerFactory.newEncodedMemoryCacheProducer(ip)
-    if (isDiskCacheProbingEnabled) {
-      val probeProducer = producerFactory.newEncodedProbeProducer(encodedMemoryCacheProducer)
-      return producerFactory.newEncodedCacheKeyMultiplexProducer(probeProducer)
-    }
-    return producerFactory.newEncodedCacheKeyMultiplexProducer(encodedMemoryCacheProducer)
+    val multiplexInputProducer =
+        if (isDiskCacheProbingEnabled) {
+          producerFactory.newEncodedProbeProducer(encodedMemoryCacheProducer)
+        } else {
+          encodedMemoryCacheProducer
+        }
+    return producerFactory.newEncodedCacheKeyMultiplexProducer(
+        multiplexInputProducer,
+        encodedMultiplexBySourceUriEnabled,
+        diskCacheEnabled,
+        imageCacheStatsTracker)
   }
 
   private fun newDiskCacheSequence(inputProducer: Producer<EncodedImage>): Producer<EncodedImage> =
@@ -529,7 +545,8 @@ class ProducerSequenceFactory(
   private fun newBitmapCacheGetToBitmapCacheSequence(
       inputProducer: Producer<CloseableReference<CloseableImage>>
   ): Producer<CloseableReference<CloseableImage>> {
-    val bitmapMemoryCacheProducer = producerFactory.newBitmapMemoryCacheProducer(inputProducer)
+    val bitmapMemoryCacheProducer =
+        producerFactory.newBitmapMemoryCacheProducer(inputProducer, bitmapCacheSizeToleranceRatio)
     val bitmapKeyMultiplexProducer =
         producerFactory.newBitmapMemoryCacheKeyMultiplexProducer(bitmapMemoryCacheProducer)
     val threadHandoffProducer =
@@ -537,10 +554,12 @@ class ProducerSequenceFactory(
             bitmapKeyMultiplexProducer, threadHandoffProducerQueue)
     if (isEncodedMemoryCacheProbingEnabled || isDiskCacheProbingEnabled) {
       val bitmapMemoryCacheGetProducer =
-          producerFactory.newBitmapMemoryCacheGetProducer(threadHandoffProducer)
+          producerFactory.newBitmapMemoryCacheGetProducer(
+              threadHandoffProducer, bitmapCacheSizeToleranceRatio)
       return producerFactory.newBitmapProbeProducer(bitmapMemoryCacheGetProducer)
     }
-    return producerFactory.newBitmapMemoryCacheGetProducer(threadHandoffProducer)
+    return producerFactory.newBitmapMemoryCacheGetProducer(
+        threadHandoffProducer, bitmapCacheSizeToleranceRatio)
   }
 
   /**
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.datasource
+
+import com.facebook.common.references.CloseableReference
+import com.facebook.datasource.AbstractDataSource
+import com.facebook.datasource.DataSource
+import javax.annotation.concurrent.ThreadSafe
+
+/**
+ * A [DataSource] that is finished from the start, with a closeable reference as its final result,
+ * e.g. an image found in the bitmap memory cache without running the producers.
+ *
+ * The result is cloned for each [getResult] call, and closed when the data source is closed.
+ */
+@ThreadSafe
+class ImmediateCloseableDataSource<T>
+private constructor(result: CloseableReference<T>, extras: Map<String, Any>?) :
+    AbstractDataSource<CloseableReference<T>>() {
+
+  init {
+    setResult(result, /* isLast */ true, extras)
+  }
+
+  override fun getResult(): CloseableReference<T>? =
+      CloseableReference.cloneOrNull(super.getResult())
+
+  override fun closeResult(result: CloseableReference<T>?) {
+    CloseableReference.closeSafely(result)
+  }
+
+  companion object {
+    /** Creates a data source that takes over [result], which the caller must not close. */
+    @JvmStatic
+    fun <T> create(
+        result: CloseableReference<T>,
+        extras: Map<String, Any>?
+    ): DataSource<CloseableReference<T>> = ImmediateCloseableDataSource(result, extras)
+  }
+}
@@ -8,35 +8,83 @@
 package com.facebook.imagepipeline.listener
 
 import com.facebook.common.logging.FLog
+import com.facebook.imagepipeline.listener.RequestListener2Events.ON_PRODUCER_EVENT
+import com.facebook.imagepipeline.listener.RequestListener2Events.ON_PRODUCER_FINISH_WITH_CANCELLATION
+import com.facebook.imagepipeline.listener.RequestListener2Events.ON_PRODUCER_FINISH_WITH_FAILURE
+import com.facebook.imagepipeline.listener.RequestListener2Events.ON_PRODUCER_FINISH_WITH_SUCCESS
+import com.facebook.imagepipeline.listener.RequestListener2Events.ON_PRODUCER_START
+import com.facebook.imagepipeline.listener.RequestListener2Events.ON_REQUEST_CANCELLATION
+import com.facebook.imagepipeline.listener.RequestListener2Events.ON_REQUEST_FAILURE
+import com.facebook.imagepipeline.listener.RequestListener2Events.ON_REQUEST_START
+import com.facebook.imagepipeline.listener.RequestListener2Events.ON_REQUEST_SUCCESS
+import com.facebook.imagepipeline.listener.RequestListener2Events.ON_ULTIMATE_PRODUCER_REACHED
+import com.facebook.imagepipeline.listener.RequestListener2Events.REQUIRES_EXTRA_MAP
 import com.facebook.imagepipeline.producers.ProducerContext
 import java.util.ArrayList
 
+/**
+ * Forwards the callbacks to several listeners.
+ *
+ * The callbacks each listener handles are computed when it is added, see [RequestListener2Events],
+ * so that an event is only dispatched to the listeners that handle it, and costs nothing if none
+ * does.
+ */
 class ForwardingRequestListener2 : RequestListener2 {
 
   private val requestListeners: MutableList<RequestListener2>
 
+  /** The [RequestListener2Events] bits of each listener, in the order of [requestListeners]. */
+  private var listenerEvents: IntArray
+
+  /** The [RequestListener2Events] bits handled by any of the listeners. */
+  var handledEvents: Int = 0
+    private set
+
   constructor(listenersToAdd: Set<RequestListener2?>?) {
-    if (listenersToAdd == null) {
-      requestListeners = mutableListOf()
-      return
-    }
-    requestListeners = ArrayList(listenersToAdd.size)
-    listenersToAdd.filterNotNullTo(requestListeners)
+    requestListeners = ArrayList(listenersToAdd?.size ?: 0)
+    listenersToAdd?.filterNotNullTo(requestListeners)
+    listenerEvents = computeListenerEvents()
   }
 
   constructor(vararg listenersToAdd: RequestListener2?) {
     requestListeners = ArrayList(listenersToAdd.size)
     listenersToAdd.filterNotNullTo(requestListeners)
+    listenerEvents = computeListenerEvents()
   }
 
   fun addRequestListener(requestListener: RequestListener2) {
+    val events = RequestListener2Events.getHandledEvents(requestListener)
+    listenerEvents = listenerEvents.copyOf(requestListeners.size + 1)
+    listenerEvents[requestListeners.size] = events
     requestListeners.add(requestListener)
+    handledEvents = handledEvents or events
   }
 
-  private inline fun forEachListener(methodName: String, block: (RequestListener2) -> Unit) {
-    requestListeners.forEach {
+  /** Returns true if any of the listeners handles [event], one of [RequestListener2Events]. */
+  fun handlesEvent(event: Int): Boolean = handledEvents and event != 0
+
+  private fun computeListenerEvents(): IntArray =
+      IntArray(requestListeners.size) {
+        RequestListener2Events.getHandledEvents(requestListeners[it]).also { events ->
+          handledEvents = handledEvents or events
+        }
+      }
+
+  private inline fun forEachListener(
+      event: Int,
+      methodName: String,
+      block: (RequestListener2) -> Unit
+  ) {
+    if (handledEvents and event == 0) {
+      return
+    }
+    // indexed loop, so that dispatching allocates no iterator
+    for (i in requestListeners.indices) {
+      if (listenerEvents[i] and event == 0) {
+        continue
+      }
       try {
-        block(it)
+        block(requestListeners[i])
       } catch (exception: Exception) {
         // Don't punish the other listeners if we're given a bad one.
         FLog.e(TAG, "InternalListener exception in $methodName", exception)
@@ -45,11 +93,13 @@ class ForwardingRequestListener2 : RequestListener2 {
   }
 
   override fun onRequestStart(producerContext: ProducerContext) {
-    forEachListener("onRequestStart") { it.onRequestStart(producerContext) }
+    forEachListener(ON_REQUEST_START, "onRequestStart") { it.onRequestStart(producerContext) }
   }
 
   override fun onProducerStart(producerContext: ProducerContext, producerName: String) {
-    forEachListener("onProducerStart") { it.onProducerStart(producerContext, producerName) }
+    forEachListener(ON_PRODUCER_START, "onProducerStart") {
+      it.onProducerStart(producerContext, producerName)
+    }
   }
 
   override fun onProducerFinishWithSuccess(
@@ -57,7 +107,7 @@ class ForwardingRequestListener2 : RequestListener2 {
       producerName: String?,
       extraMap: MutableMap<String, String>?
   ) {
-    forEachListener("onProducerFinishWithSuccess") {
+    forEachListener(ON_PRODUCER_FINISH_WITH_SUCCESS, "onProducerFinishWithSuccess") {
       it.onProducerFinishWithSuccess(producerContext, producerName, extraMap)
     }
   }
@@ -68,7 +118,7 @@ class ForwardingRequestListener2 : RequestListener2 {
       t: Throwable?,
       extraMap: MutableMap<String, String>?
   ) {
-    forEachListener("onProducerFinishWithFailure") {
+    forEachListener(ON_PRODUCER_FINISH_WITH_FAILURE, "onProducerFinishWithFailure") {
       it.onProducerFinishWithFailure(producerContext, producerName, t, extraMap)
     }
   }
@@ -78,7 +128,7 @@ class ForwardingRequestListener2 : RequestListener2 {
       producerName: String?,
       extraMap: MutableMap<String, String>?
   ) {
-    forEachListener("onProducerFinishWithCancellation") {
+    forEachListener(ON_PRODUCER_FINISH_WITH_CANCELLATION, "onProducerFinishWithCancellation") {
       it.onProducerFinishWithCancellation(producerContext, producerName, extraMap)
     }
   }
@@ -88,7 +138,7 @@ class ForwardingRequestListener2 : RequestListener2 {
       producerName: String,
       producerEventName: String
   ) {
-    forEachListener("onIntermediateChunkStart") {
+    forEachListener(ON_PRODUCER_EVENT, "onIntermediateChunkStart") {
       it.onProducerEvent(producerContext, producerName, producerEventName)
     }
   }
@@ -98,25 +148,39 @@ class ForwardingRequestListener2 : RequestListener2 {
       producerName: String,
       successful: Boolean
   ) {
-    forEachListener("onProducerFinishWithSuccess") {
+    forEachListener(ON_ULTIMATE_PRODUCER_REACHED, "onProducerFinishWithSuccess") {
       it.onUltimateProducerReached(producerContext, producerName, successful)
     }
   }
 
   override fun onRequestSuccess(producerContext: ProducerContext) {
-    forEachListener("onRequestSuccess") { it.onRequestSuccess(producerContext) }
+    forEachListener(ON_REQUEST_SUCCESS, "onRequestSuccess") { it.onRequestSuccess(producerContext) }
   }
 
   override fun onRequestFailure(producerContext: ProducerContext, throwable: Throwable) {
-    forEachListener("onRequestFailure") { it.onRequestFailure(producerContext, throwable) }
+    forEachListener(ON_REQUEST_FAILURE, "onRequestFailure") {
+      it.onRequestFailure(producerContext, throwable)
+    }
   }
 
   override fun onRequestCancellation(producerContext: ProducerContext) {
-    forEachListener("onRequestCancellation") { it.onRequestCancellation(producerContext) }
+    forEachListener(ON_REQUEST_CANCELLATION, "onRequestCancellation") {
+      it.onRequestCancellation(producerContext)
+    }
   }
 
-  override fun requiresExtraMap(producerContext: ProducerContext, producerName: String): Boolean =
-      requestListeners.any { it.requiresExtraMap(producerContext, producerName) }
+  override fun requiresExtraMap(producerContext: ProducerContext, producerName: String): Boolean {
+    if (!handlesEvent(REQUIRES_EXTRA_MAP)) {
+      return false
+    }
+    for (i in requestListeners.indices) {
+      if (listenerEvents[i] and REQUIRES_EXTRA_MAP != 0 &&
+          requestListeners[i].requiresExtraMap(producerContext, producerName)) {
+        return true
+      }
+    }
+    return false
+  }
 
   companion object {
     private const val TAG = "ForwardingRequestListener2"
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.listener
+
+import com.facebook.imagepipeline.producers.ProducerContext
+
+/**
+ * Bits of the callbacks of a [RequestListener2], so that [ForwardingRequestListener2] only
+ * dispatches an event to the listeners that handle it.
+ *
+ * A listener that extends [BaseRequestListener2] handles the callbacks it overrides. Any other
+ * listener, or one whose methods cannot be looked up, e.g. once obfuscated, handles all of them.
+ */
+object RequestListener2Events {
+  const val ON_REQUEST_START = 1
+  const val ON_REQUEST_SUCCESS = 1 shl 1
+  const val ON_REQUEST_FAILURE = 1 shl 2
+  const val ON_REQUEST_CANCELLATION = 1 shl 3
+  const val ON_PRODUCER_START = 1 shl 4
+  const val ON_PRODUCER_EVENT = 1 shl 5
+  const val ON_PRODUCER_FINISH_WITH_SUCCESS = 1 shl 6
+  const val ON_PRODUCER_FINISH_WITH_FAILURE = 1 shl 7
+  const val ON_PRODUCER_FINISH_WITH_CANCELLATION = 1 shl 8
+  const val ON_ULTIMATE_PRODUCER_REACHED = 1 shl 9
+  const val REQUIRES_EXTRA_MAP = 1 shl 10
+  const val ALL = (1 shl 11) - 1
+
+  private val EVENT_METHODS =
+      arrayOf(
+          EventMethod(ON_REQUEST_START, "onRequestStart", ProducerContext::class.java),
+          EventMethod(ON_REQUEST_SUCCESS, "onRequestSuccess", ProducerContext::class.java),
+          EventMethod(
+              ON_REQUEST_FAILURE,
+              "onRequestFailure",
+              ProducerContext::class.java,
+              Throwable::class.java),
+          EventMethod(
+              ON_REQUEST_CANCELLATION, "onRequestCancellation", ProducerContext::class.java),
+          EventMethod(
+              ON_PRODUCER_START,
+              "onProducerStart",
+              ProducerContext::class.java,
+              String::class.java),
+          EventMethod(
+              ON_PRODUCER_EVENT,
+              "onProducerEvent",
+              ProducerContext::class.java,
+              String::class.java,
+              String::class.java),
+          EventMethod(
+              ON_PRODUCER_FINISH_WITH_SUCCESS,
+              "onProducerFinishWithSuccess",
+              ProducerContext::class.java,
+              String::class.java,
+              Map::class.java),
+          EventMethod(
+              ON_PRODUCER_FINISH_WITH_FAILURE,
+              "onProducerFinishWithFailure",
+              ProducerContext::class.java,
+              String::class.java,
+              Throwable::class.java,
+              Map::class.java),
+          EventMethod(
+              ON_PRODUCER_FINISH_WITH_CANCELLATION,
+              "onProducerFinishWithCancellation",
+              ProducerContext::class.java,
+              String::class.java,
+              Map::class.java),
+          EventMethod(
+              ON_ULTIMATE_PRODUCER_REACHED,
+              "onUltimateProducerReached",
+              ProducerContext::class.java,
+              String::class.java,
+              Boolean::class.javaPrimitiveType!!),
+          EventMethod(
+              REQUIRES_EXTRA_MAP,
+              "requiresExtraMap",
+              ProducerContext::class.java,
+              String::class.java))
+
+  /** Returns the bits of the callbacks that [listener] handles. */
+  @JvmStatic
+  fun getHandledEvents(listener: RequestListener2): Int {
+    if (listener !is BaseRequestListener2) {
+      return ALL
+    }
+    var events = 0
+    for (eventMethod in EVENT_METHODS) {
+      val declaringClass =
+          try {
+            listener.javaClass.getMethod(eventMethod.name, *eventMethod.parameterTypes)
+                .declaringClass
+          } catch (e: NoSuchMethodException) {
+            null
+          }
+      if (declaringClass != BaseRequestListener2::class.java) {
+        events = events or eventMethod.event
+      }
+    }
+    return events
+  }
+
+  private class EventMethod(
+      val event: Int,
+      val name: String,
+      vararg val parameterTypes: Class<*>
+  )
+}
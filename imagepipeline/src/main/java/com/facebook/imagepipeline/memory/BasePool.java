@@ -106,6 +106,13 @@ import javax.annotation.concurrent.NotThreadSafe;
  *       simply controls the release path. If the BucketSizes parameter is null, then the pool will
  *       dynamically create buckets on demand.
  * </ul>
+ *
+ * <p>Magazines The pool can keep the values released recently by each thread in a small free list
+ * of that thread, its magazine, see {@link #setMagazineSize(int)}. A get that can be served from
+ * the magazine of its thread, and a release that fits in it, don't take the pool lock. The values
+ * in the magazines are still accounted as used, and go back to the buckets whenever the pool needs
+ * to trim. With magazines, releasing a value that is still in a magazine throws an {@link
+ * IllegalStateException}, as it can only be a value released twice.
  */
 @Nullsafe(Nullsafe.Mode.STRICT)
 public abstract class BasePool<V> implements Pool<V> {
@@ -140,6 +147,9 @@ public abstract class BasePool<V> implements Pool<V> {
 
   private boolean mIgnoreHardCap;
 
+  /** Free lists of recently released values, per thread, in front of the buckets */
+  private @Nullable PoolMagazines<V> mMagazines;
+
   /**
    * Creates a new instance of the pool.
    *
@@ -177,6 +187,19 @@ public abstract class BasePool<V> implements Pool<V> {
     mIgnoreHardCap = ignoreHardCap;
   }
 
+  /**
+   * Puts magazines of recently released values, per thread, in front of the buckets of the pool.
+   * Must be called before the pool is used.
+   *
+   * <p>With magazines, {@link #release} throws an {@link IllegalStateException} for a value that is
+   * released again while it is in a magazine. Without them, such a value is logged and freed.
+   *
+   * @param magazineSize the maximum number of values in each magazine, 0 to disable the magazines
+   */
+  public void setMagazineSize(int magazineSize) {
+    mMagazines = magazineSize > 0 ? new PoolMagazines<V>(magazineSize) : null;
+  }
+
   /** Finish pool initialization. */
   protected void initialize() {
     mMemoryTrimmableRegistry.registerMemoryTrimmable(this);
@@ -189,6 +212,14 @@ public abstract class BasePool<V> implements Pool<V> {
     return bucket.get();
   }
 
+  /**
+   * Prepares a value taken from a magazine to be reused, as {@link #getValue(Bucket)} may do for
+   * the values taken from the buckets. Subclasses can override this.
+   *
+   * @param value the value to be reused
+   */
+  protected void prepareMagazineValueForReuse(V value) {}
+
   /**
    * Gets a new 'value' from the pool, if available. Allocates a new value if necessary. If we need
    * to perform an allocation, - If the pool size exceeds the max-size soft cap, then we attempt to
@@ -201,11 +232,29 @@ public abstract class BasePool<V> implements Pool<V> {
    * @throws InvalidSizeException
    */
   public V get(int size) {
-    ensurePoolSizeInvariant();
-
     int bucketedSize = this.getBucketedSize(size);
     int sizeInBytes = -1;
 
+    final PoolMagazines<V> magazines = mMagazines;
+    if (magazines != null) {
+      // values in the magazines are already accounted as used, there is nothing to update
+      V value = magazines.take(bucketedSize);
+      if (value != null) {
+        prepareMagazineValueForReuse(value);
+        if (FLog.isLoggable(FLog.VERBOSE)) {
+          FLog.v(
+              TAG,
+              "get (magazine) (object, size) = (%x, %s)",
+              System.identityHashCode(value),
+              bucketedSize);
+        }
+        magazines.markHandedOut(value);
+        return value;
+      }
+    }
+
+    ensurePoolSizeInvariant();
+
     synchronized (this) {
       Bucket<V> bucket = this.getBucket(bucketedSize);
 
@@ -230,6 +279,9 @@ public abstract class BasePool<V> implements Pool<V> {
                 System.identityHashCode(value),
                 bucketedSize);
           }
+          if (magazines != null) {
+            magazines.markHandedOut(value);
+          }
           return value;
         }
         // fall through
@@ -287,6 +339,9 @@ public abstract class BasePool<V> implements Pool<V> {
       }
     }
 
+    if (magazines != null && value != null) {
+      magazines.markHandedOut(value);
+    }
     // NULLSAFE_FIXME[Return Not Nullable]
     return value;
   }
@@ -306,6 +361,36 @@ public abstract class BasePool<V> implements Pool<V> {
 
     final int bucketedSize = getBucketedSizeForValue(value);
     final int sizeInBytes = this.getSizeInBytes(bucketedSize);
+    final PoolMagazines<V> magazines = mMagazines;
+    if (magazines != null && !magazines.markReleased(value)) {
+      // the value is not handed out: it was either released already, possibly by another thread,
+      // or not allocated by the pool
+      synchronized (this) {
+        if (mInUseValues.contains(value)) {
+          // only the values in the magazines are both in use and not handed out
+          throw new IllegalStateException("Value released twice: " + value);
+        }
+      }
+      releaseToBucket(value, bucketedSize, sizeInBytes);
+      return;
+    }
+    if (magazines != null
+        && isReusable(value)
+        && magazines.offer(value, bucketedSize, sizeInBytes)) {
+      if (FLog.isLoggable(FLog.VERBOSE)) {
+        FLog.v(
+            TAG,
+            "release (magazine) (object, size) = (%x, %s)",
+            System.identityHashCode(value),
+            bucketedSize);
+      }
+      return;
+    }
+    releaseToBucket(value, bucketedSize, sizeInBytes);
+  }
+
+  /** Releases the value to its bucket, or frees it, under the pool lock. */
+  private void releaseToBucket(V value, int bucketedSize, int sizeInBytes) {
     synchronized (this) {
       final Bucket<V> bucket = getBucketIfPresent(bucketedSize);
       if (!mInUseValues.remove(value)) {
@@ -546,6 +631,7 @@ public abstract class BasePool<V> implements Pool<V> {
     final List<Bucket<V>> bucketsToTrim;
 
     synchronized (this) {
+      flushMagazines();
       if (mPoolParams.fixBucketsReinitialization) {
         bucketsToTrim = refillBuckets();
       } else {
@@ -616,6 +702,10 @@ public abstract class BasePool<V> implements Pool<V> {
    */
   @VisibleForTesting
   synchronized void trimToSize(int targetSize) {
+    if (mUsed.mNumBytes + mFree.mNumBytes - targetSize > mFree.mNumBytes) {
+      // freeing the free lists is not enough, the values in the magazines can be freed too
+      flushMagazines();
+    }
     // find how much we need to free
     int bytesToFree = Math.min(mUsed.mNumBytes + mFree.mNumBytes - targetSize, mFree.mNumBytes);
     if (bytesToFree <= 0) {
@@ -733,6 +823,11 @@ public abstract class BasePool<V> implements Pool<V> {
 
     int hardCap = mPoolParams.maxSizeHardCap;
 
+    if (sizeInBytes > hardCap - mUsed.mNumBytes) {
+      // the values in the magazines are accounted as used, but can be freed
+      flushMagazines();
+    }
+
     // even with our best effort we cannot ensure hard cap limit.
     // Return immediately - no point in trimming any space
     if (sizeInBytes > hardCap - mUsed.mNumBytes) {
@@ -755,6 +850,20 @@ public abstract class BasePool<V> implements Pool<V> {
     return true;
   }
 
+  /** Moves the values of the magazines back to the buckets, or frees them. */
+  private synchronized void flushMagazines() {
+    final PoolMagazines<V> magazines = mMagazines;
+    if (magazines == null) {
+      return;
+    }
+    List<V> values = magazines.drain();
+    for (int i = 0; i < values.size(); ++i) {
+      final V value = values.get(i);
+      final int bucketedSize = getBucketedSizeForValue(value);
+      releaseToBucket(value, bucketedSize, getSizeInBytes(bucketedSize));
+    }
+  }
+
   /** Simple 'debug' logging of stats. WARNING: The caller is responsible for synchronization */
   @SuppressLint("InvalidAccessToGuardedField")
   private void logStats() {
@@ -782,10 +891,14 @@ public abstract class BasePool<V> implements Pool<V> {
 
     stats.put(PoolStatsTracker.SOFT_CAP, mPoolParams.maxSizeSoftCap);
     stats.put(PoolStatsTracker.HARD_CAP, mPoolParams.maxSizeHardCap);
-    stats.put(PoolStatsTracker.USED_COUNT, mUsed.mCount);
-    stats.put(PoolStatsTracker.USED_BYTES, mUsed.mNumBytes);
-    stats.put(PoolStatsTracker.FREE_COUNT, mFree.mCount);
-    stats.put(PoolStatsTracker.FREE_BYTES, mFree.mNumBytes);
+    // the values in the magazines are accounted as used, but they are free
+    final PoolMagazines<V> magazines = mMagazines;
+    final int magazineCount = magazines != null ? magazines.getCount() : 0;
+    final int magazineBytes = magazines != null ? magazines.getSizeInBytes() : 0;
+    stats.put(PoolStatsTracker.USED_COUNT, mUsed.mCount - magazineCount);
+    stats.put(PoolStatsTracker.USED_BYTES, mUsed.mNumBytes - magazineBytes);
+    stats.put(PoolStatsTracker.FREE_COUNT, mFree.mCount + magazineCount);
+    stats.put(PoolStatsTracker.FREE_BYTES, mFree.mNumBytes + magazineBytes);
 
     return stats;
   }
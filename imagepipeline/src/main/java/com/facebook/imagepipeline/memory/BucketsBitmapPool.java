@@ -128,4 +128,9 @@ public class BucketsBitmapPool extends BasePool<Bitmap> implements BitmapPool {
     }
     return result;
   }
+
+  @Override
+  protected void prepareMagazineValueForReuse(Bitmap value) {
+    value.eraseColor(Color.TRANSPARENT);
+  }
 }
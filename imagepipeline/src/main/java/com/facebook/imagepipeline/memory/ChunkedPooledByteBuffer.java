@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import androidx.annotation.VisibleForTesting;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.memory.PooledByteBuffer;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.infer.annotation.Nullsafe;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A {@link PooledByteBuffer} made of memory chunks of a fixed size, as written by a {@link
+ * ChunkedPooledByteBufferOutputStream}.
+ *
+ * <p>Reads, including the ones of the input stream of the buffer, are served from the chunks
+ * directly. The chunks are copied into a single contiguous chunk only when a caller needs
+ * contiguous memory, through {@link #getNativePtr()} or {@link #getByteBuffer()}, e.g. a decoder
+ * of animated images. That happens at most once: the buffer then keeps the contiguous chunk and
+ * releases the others.
+ */
+@ThreadSafe
+@Nullsafe(Nullsafe.Mode.LOCAL)
+public class ChunkedPooledByteBuffer implements PooledByteBuffer {
+
+  private final MemoryChunkPool mPool;
+  private final int mSize;
+
+  @GuardedBy("this")
+  private int mChunkSize;
+
+  @GuardedBy("this")
+  @Nullable
+  private List<CloseableReference<MemoryChunk>> mChunkRefs;
+
+  /**
+   * @param pool the pool the chunks come from, and to get a contiguous chunk from if needed
+   * @param chunkRefs the chunks, all of at least {@code chunkSize} bytes. They are cloned
+   * @param chunkSize the number of bytes of each chunk used by the buffer
+   * @param size the size of the buffer
+   */
+  public ChunkedPooledByteBuffer(
+      MemoryChunkPool pool,
+      List<CloseableReference<MemoryChunk>> chunkRefs,
+      int chunkSize,
+      int size) {
+    Preconditions.checkArgument(!chunkRefs.isEmpty() && chunkSize > 0);
+    Preconditions.checkArgument(size >= 0 && size <= (long) chunkRefs.size() * chunkSize);
+    mPool = Preconditions.checkNotNull(pool);
+    mChunkSize = chunkSize;
+    mSize = size;
+    final int chunkCount = size == 0 ? 1 : (size - 1) / chunkSize + 1;
+    mChunkRefs = new ArrayList<>(chunkCount);
+    for (int i = 0; i < chunkCount; i++) {
+      mChunkRefs.add(chunkRefs.get(i).clone());
+    }
+  }
+
+  /**
+   * Gets the size of the buffer if it is valid. Otherwise, an exception is raised
+   *
+   * @return the size of the buffer if it is not closed.
+   * @throws {@link ClosedException}
+   */
+  @Override
+  public synchronized int size() {
+    ensureValid();
+    return mSize;
+  }
+
+  @Override
+  public synchronized byte read(int offset) {
+    final List<CloseableReference<MemoryChunk>> chunkRefs = ensureValid();
+    Preconditions.checkArgument(offset >= 0);
+    Preconditions.checkArgument(offset < mSize);
+    return chunkRefs.get(offset / mChunkSize).get().read(offset % mChunkSize);
+  }
+
+  @Override
+  public synchronized int read(int offset, byte[] buffer, int bufferOffset, int length) {
+    final List<CloseableReference<MemoryChunk>> chunkRefs = ensureValid();
+    // We need to make sure that PooledByteBuffer's length is preserved.
+    // The other bounds checks will be performed by the MemoryChunk.read method.
+    Preconditions.checkArgument(offset >= 0 && length >= 0 && offset + length <= mSize);
+    int copied = 0;
+    while (copied < length) {
+      final int position = offset + copied;
+      final int chunkOffset = position % mChunkSize;
+      final int count = Math.min(length - copied, mChunkSize - chunkOffset);
+      chunkRefs
+          .get(position / mChunkSize)
+          .get()
+          .read(chunkOffset, buffer, bufferOffset + copied, count);
+      copied += count;
+    }
+    return copied;
+  }
+
+  @Override
+  public synchronized long getNativePtr() throws UnsupportedOperationException {
+    return getContiguousChunk().getNativePtr();
+  }
+
+  @Override
+  @Nullable
+  public synchronized ByteBuffer getByteBuffer() {
+    return getContiguousChunk().getByteBuffer();
+  }
+
+  @Override
+  public synchronized boolean isClosed() {
+    return mChunkRefs == null;
+  }
+
+  /**
+   * Closes this instance, and releases the chunks to the pool. Note: It is not an error to close an
+   * already closed buffer
+   */
+  @Override
+  public synchronized void close() {
+    CloseableReference.closeSafely(mChunkRefs);
+    mChunkRefs = null;
+  }
+
+  /** Returns the number of chunks of the buffer, 1 once it was made contiguous. */
+  @VisibleForTesting
+  synchronized int getChunkCount() {
+    return ensureValid().size();
+  }
+
+  /**
+   * Returns the only chunk of the buffer, after copying the chunks into a new contiguous one if
+   * there are several.
+   */
+  @GuardedBy("this")
+  private MemoryChunk getContiguousChunk() {
+    final List<CloseableReference<MemoryChunk>> chunkRefs = ensureValid();
+    if (chunkRefs.size() == 1) {
+      return chunkRefs.get(0).get();
+    }
+    final CloseableReference<MemoryChunk> contiguousRef =
+        CloseableReference.of(mPool.get(mSize), mPool);
+    final MemoryChunk contiguous = contiguousRef.get();
+    for (int i = 0; i < chunkRefs.size(); i++) {
+      final int chunkStart = i * mChunkSize;
+      final int count = Math.min(mChunkSize, mSize - chunkStart);
+      chunkRefs.get(i).get().copy(0, contiguous, chunkStart, count);
+    }
+    CloseableReference.closeSafely(chunkRefs);
+    mChunkRefs = Collections.singletonList(contiguousRef);
+    mChunkSize = contiguous.getSize();
+    return contiguous;
+  }
+
+  @GuardedBy("this")
+  private List<CloseableReference<MemoryChunk>> ensureValid() {
+    if (mChunkRefs == null) {
+      throw new ClosedException();
+    }
+    return mChunkRefs;
+  }
+}
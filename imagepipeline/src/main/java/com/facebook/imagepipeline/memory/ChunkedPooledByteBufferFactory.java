@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.memory.PooledByteBuffer;
+import com.facebook.common.memory.PooledByteBufferFactory;
+import com.facebook.common.memory.PooledByteBufferOutputStream;
+import com.facebook.infer.annotation.Nullsafe;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A {@link PooledByteBufferFactory} whose output streams of unknown length are {@link
+ * ChunkedPooledByteBufferOutputStream}s, so that they grow by adding chunks instead of
+ * reallocating and copying their content. Everything else is left to the given factory.
+ */
+@ThreadSafe
+@Nullsafe(Nullsafe.Mode.LOCAL)
+public class ChunkedPooledByteBufferFactory implements PooledByteBufferFactory {
+
+  private final PooledByteBufferFactory mDelegate;
+  private final MemoryChunkPool mPool;
+  private final int mChunkSize;
+
+  /**
+   * @param delegate the factory to create the other buffers and streams with
+   * @param pool the pool to get the chunks from
+   * @param chunkSize the size of the chunks, the pool should have a bucket of that size
+   */
+  public ChunkedPooledByteBufferFactory(
+      PooledByteBufferFactory delegate, MemoryChunkPool pool, int chunkSize) {
+    Preconditions.checkArgument(chunkSize > 0);
+    mDelegate = Preconditions.checkNotNull(delegate);
+    mPool = Preconditions.checkNotNull(pool);
+    mChunkSize = chunkSize;
+  }
+
+  @Override
+  public PooledByteBuffer newByteBuffer(int size) {
+    return mDelegate.newByteBuffer(size);
+  }
+
+  @Override
+  public PooledByteBuffer newByteBuffer(InputStream inputStream) throws IOException {
+    return mDelegate.newByteBuffer(inputStream);
+  }
+
+  @Override
+  public PooledByteBuffer newByteBuffer(byte[] bytes) {
+    return mDelegate.newByteBuffer(bytes);
+  }
+
+  @Override
+  public PooledByteBuffer newByteBuffer(InputStream inputStream, int initialCapacity)
+      throws IOException {
+    return mDelegate.newByteBuffer(inputStream, initialCapacity);
+  }
+
+  @Override
+  public PooledByteBufferOutputStream newOutputStream() {
+    return new ChunkedPooledByteBufferOutputStream(mPool, mChunkSize);
+  }
+
+  @Override
+  public PooledByteBufferOutputStream newOutputStream(int initialCapacity) {
+    return mDelegate.newOutputStream(initialCapacity);
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.memory.PooledByteBufferOutputStream;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.infer.annotation.Nullsafe;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * An implementation of {@link PooledByteBufferOutputStream} that produces a {@link
+ * ChunkedPooledByteBuffer}.
+ *
+ * <p>Unlike {@link MemoryPooledByteBufferOutputStream}, the stream grows by getting another chunk
+ * of a fixed size from the pool, so that the bytes written so far are never copied and there is
+ * never more than one chunk of unused memory. This suits streams whose length isn't known in
+ * advance, e.g. network responses without a content length.
+ */
+@NotThreadSafe
+@Nullsafe(Nullsafe.Mode.LOCAL)
+public class ChunkedPooledByteBufferOutputStream extends PooledByteBufferOutputStream {
+
+  private final MemoryChunkPool mPool;
+  private final int mChunkSize;
+
+  // the chunks written so far, the last one being the one we're writing to; null once closed
+  private @Nullable List<CloseableReference<MemoryChunk>> mChunkRefs;
+  // number of bytes written to the stream
+  private int mCount;
+
+  /**
+   * @param pool the pool to get the chunks from
+   * @param chunkSize the size of the chunks, the pool should have a bucket of that size
+   */
+  public ChunkedPooledByteBufferOutputStream(MemoryChunkPool pool, int chunkSize) {
+    Preconditions.checkArgument(chunkSize > 0);
+    mPool = Preconditions.checkNotNull(pool);
+    mChunkSize = chunkSize;
+    mChunkRefs = new ArrayList<>();
+    mChunkRefs.add(CloseableReference.of(mPool.get(mChunkSize), mPool));
+  }
+
+  /**
+   * Gets a PooledByteBuffer from the current contents. If the stream has already been closed, then
+   * an InvalidStreamException is thrown.
+   *
+   * @return a PooledByteBuffer instance for the contents of the stream
+   * @throws MemoryPooledByteBufferOutputStream.InvalidStreamException if the stream is invalid
+   */
+  @Override
+  public ChunkedPooledByteBuffer toByteBuffer() {
+    return new ChunkedPooledByteBuffer(mPool, ensureValid(), mChunkSize, mCount);
+  }
+
+  /**
+   * Returns the total number of bytes written to this stream so far.
+   *
+   * @return the number of bytes written to this stream.
+   */
+  @Override
+  public int size() {
+    return mCount;
+  }
+
+  @Override
+  public void write(int oneByte) {
+    write(new byte[] {(byte) oneByte}, 0, 1);
+  }
+
+  /**
+   * Writes {@code count} bytes from the byte array {@code buffer} starting at position {@code
+   * offset} to this stream, getting new chunks from the pool as needed.
+   *
+   * @throws MemoryPooledByteBufferOutputStream.InvalidStreamException if the stream is invalid
+   * @throws BasePool.SizeTooLargeException if the allocation from the pool fails
+   */
+  @Override
+  public void write(byte[] buffer, int offset, int count) {
+    if (offset < 0 || count < 0 || offset + count > buffer.length) {
+      throw new ArrayIndexOutOfBoundsException(
+          "length=" + buffer.length + "; regionStart=" + offset + "; regionLength=" + count);
+    }
+    final List<CloseableReference<MemoryChunk>> chunkRefs = ensureValid();
+    int written = 0;
+    while (written < count) {
+      final int chunkOffset = mCount % mChunkSize;
+      if (chunkOffset == 0 && mCount > 0) {
+        chunkRefs.add(CloseableReference.of(mPool.get(mChunkSize), mPool));
+      }
+      final int length = Math.min(count - written, mChunkSize - chunkOffset);
+      chunkRefs
+          .get(chunkRefs.size() - 1)
+          .get()
+          .write(chunkOffset, buffer, offset + written, length);
+      written += length;
+      mCount += length;
+    }
+  }
+
+  /**
+   * Closes the stream. The chunks are released back to the pool, unless a buffer returned by
+   * {@link #toByteBuffer()} still uses them. It is not allowed to call toByteBuffer after call to
+   * this method.
+   */
+  @Override
+  public void close() {
+    if (mChunkRefs != null) {
+      CloseableReference.closeSafely(mChunkRefs);
+      mChunkRefs = null;
+    }
+    mCount = -1;
+    super.close();
+  }
+
+  private List<CloseableReference<MemoryChunk>> ensureValid() {
+    if (mChunkRefs == null) {
+      throw new MemoryPooledByteBufferOutputStream.InvalidStreamException();
+    }
+    return mChunkRefs;
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.memory.PooledByteBuffer;
+import com.facebook.infer.annotation.Nullsafe;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * An implementation of {@link PooledByteBuffer} backed by a memory mapped file, e.g. a disk cache
+ * entry, so that its bytes are paged in on demand instead of being copied.
+ *
+ * <p>Nothing is pooled: closing the buffer drops the mapping, which is unmapped once it is garbage
+ * collected. The underlying file must not be modified while it is mapped, which holds for disk
+ * cache entries since they are only ever replaced by a rename.
+ *
+ * <p>The mapping is not backed by native memory of ours, so {@link #getNativePtr()} is not
+ * supported; consumers are expected to use {@link #getByteBuffer()}, which is never null while the
+ * buffer is open, as the animated image decoders already do.
+ */
+@ThreadSafe
+@Nullsafe(Nullsafe.Mode.LOCAL)
+public class MappedPooledByteBuffer implements PooledByteBuffer {
+
+  private final int mSize;
+
+  @GuardedBy("this")
+  @Nullable
+  private ByteBuffer mBuffer;
+
+  public MappedPooledByteBuffer(MappedByteBuffer buffer) {
+    Preconditions.checkNotNull(buffer);
+    mBuffer = buffer;
+    mSize = buffer.capacity();
+  }
+
+  @Override
+  public synchronized int size() {
+    ensureValid();
+    return mSize;
+  }
+
+  @Override
+  public synchronized byte read(int offset) {
+    ensureValid();
+    Preconditions.checkArgument(offset >= 0);
+    Preconditions.checkArgument(offset < mSize);
+    Preconditions.checkNotNull(mBuffer);
+    return mBuffer.get(offset);
+  }
+
+  @Override
+  public synchronized int read(int offset, byte[] buffer, int bufferOffset, int length) {
+    ensureValid();
+    Preconditions.checkArgument(offset >= 0 && length >= 0);
+    Preconditions.checkArgument(offset + length <= mSize);
+    Preconditions.checkNotNull(mBuffer);
+    // Reads go through a duplicate so that the position of the buffer handed out by
+    // getByteBuffer() is never moved under a decoder that is reading it.
+    ByteBuffer duplicate = mBuffer.duplicate();
+    duplicate.position(offset);
+    duplicate.get(buffer, bufferOffset, length);
+    return length;
+  }
+
+  /**
+   * Not supported, the mapped file has no pointer we own.
+   *
+   * @throws UnsupportedOperationException always, use {@link #getByteBuffer()} instead
+   */
+  @Override
+  public long getNativePtr() {
+    throw new UnsupportedOperationException("Cannot get the pointer of a MappedPooledByteBuffer");
+  }
+
+  /** Returns the (direct) mapped buffer, so that it can be decoded without a copy. */
+  @Override
+  @Nullable
+  public synchronized ByteBuffer getByteBuffer() {
+    return mBuffer;
+  }
+
+  @Override
+  public synchronized boolean isClosed() {
+    return mBuffer == null;
+  }
+
+  @Override
+  public synchronized void close() {
+    mBuffer = null;
+  }
+
+  synchronized void ensureValid() {
+    if (isClosed()) {
+      throw new ClosedException();
+    }
+  }
+}
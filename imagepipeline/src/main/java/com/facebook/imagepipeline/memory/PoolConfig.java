@@ -39,6 +39,8 @@ public class PoolConfig {
   private final int mBitmapPoolMaxBitmapSize;
   private final boolean mRegisterLruBitmapPoolAsMemoryTrimmable;
   private final boolean mIgnoreBitmapPoolHardCap;
+  private final int mPoolMagazineSize;
+  private final int mByteBufferChunkSize;
 
   private PoolConfig(Builder builder) {
     if (FrescoSystrace.isTracing()) {
@@ -89,6 +91,8 @@ public class PoolConfig {
       FrescoSystrace.endSection();
     }
     mIgnoreBitmapPoolHardCap = builder.mIgnoreBitmapPoolHardCap;
+    mPoolMagazineSize = builder.mPoolMagazineSize;
+    mByteBufferChunkSize = builder.mByteBufferChunkSize;
   }
 
   public PoolParams getBitmapPoolParams() {
@@ -143,6 +147,14 @@ public class PoolConfig {
     return mIgnoreBitmapPoolHardCap;
   }
 
+  public int getPoolMagazineSize() {
+    return mPoolMagazineSize;
+  }
+
+  public int getByteBufferChunkSize() {
+    return mByteBufferChunkSize;
+  }
+
   public static Builder newBuilder() {
     return new Builder();
   }
@@ -162,6 +174,8 @@ public class PoolConfig {
     private int mBitmapPoolMaxBitmapSize;
     private boolean mRegisterLruBitmapPoolAsMemoryTrimmable;
     public boolean mIgnoreBitmapPoolHardCap;
+    private int mPoolMagazineSize;
+    private int mByteBufferChunkSize;
 
     private Builder() {}
 
@@ -237,5 +251,25 @@ public class PoolConfig {
       this.mIgnoreBitmapPoolHardCap = ignoreBitmapPoolHardCap;
       return this;
     }
+
+    /**
+     * Sets the number of recently released values that the bitmap, byte array and memory chunk
+     * pools keep per thread, in front of their shared buckets, so that concurrent decoders and
+     * network readers don't contend on the pool lock. 0, the default, disables these magazines.
+     */
+    public Builder setPoolMagazineSize(int poolMagazineSize) {
+      this.mPoolMagazineSize = poolMagazineSize;
+      return this;
+    }
+
+    /**
+     * Sets the size of the memory chunks that the output streams of unknown length, e.g. for
+     * network responses without a content length, are made of. Such streams then grow by adding
+     * chunks instead of reallocating and copying their whole content. 0, the default, disables it.
+     */
+    public Builder setByteBufferChunkSize(int byteBufferChunkSize) {
+      this.mByteBufferChunkSize = byteBufferChunkSize;
+      return this;
+    }
   }
 }
@@ -69,22 +69,24 @@ public class PoolFactory {
           break;
         case BitmapPoolType.LEGACY_DEFAULT_PARAMS:
           mBitmapPool =
-              new BucketsBitmapPool(
-                  mConfig.getMemoryTrimmableRegistry(),
-                  DefaultBitmapPoolParams.get(),
-                  mConfig.getBitmapPoolStatsTracker(),
-                  mConfig.isIgnoreBitmapPoolHardCap());
+              withMagazines(
+                  new BucketsBitmapPool(
+                      mConfig.getMemoryTrimmableRegistry(),
+                      DefaultBitmapPoolParams.get(),
+                      mConfig.getBitmapPoolStatsTracker(),
+                      mConfig.isIgnoreBitmapPoolHardCap()));
           break;
         case BitmapPoolType.LEGACY:
           // fall through
         default:
           if (Build.VERSION.SDK_INT >= 21) {
             mBitmapPool =
-                new BucketsBitmapPool(
-                    mConfig.getMemoryTrimmableRegistry(),
-                    mConfig.getBitmapPoolParams(),
-                    mConfig.getBitmapPoolStatsTracker(),
-                    mConfig.isIgnoreBitmapPoolHardCap());
+                withMagazines(
+                    new BucketsBitmapPool(
+                        mConfig.getMemoryTrimmableRegistry(),
+                        mConfig.getBitmapPoolParams(),
+                        mConfig.getBitmapPoolStatsTracker(),
+                        mConfig.isIgnoreBitmapPoolHardCap()));
           } else {
             mBitmapPool = new DummyBitmapPool();
           }
@@ -102,11 +104,12 @@ public class PoolFactory {
             clazz.getConstructor(
                 MemoryTrimmableRegistry.class, PoolParams.class, PoolStatsTracker.class);
         mBufferMemoryChunkPool =
-            (MemoryChunkPool)
-                cons.newInstance(
-                    mConfig.getMemoryTrimmableRegistry(),
-                    mConfig.getMemoryChunkPoolParams(),
-                    mConfig.getMemoryChunkPoolStatsTracker());
+            withMagazines(
+                (MemoryChunkPool)
+                    cons.newInstance(
+                        mConfig.getMemoryTrimmableRegistry(),
+                        mConfig.getMemoryChunkPoolParams(),
+                        mConfig.getMemoryChunkPoolStatsTracker()));
       } catch (ClassNotFoundException e) {
         mBufferMemoryChunkPool = null;
       } catch (IllegalAccessException e) {
@@ -144,11 +147,12 @@ public class PoolFactory {
             clazz.getConstructor(
                 MemoryTrimmableRegistry.class, PoolParams.class, PoolStatsTracker.class);
         mNativeMemoryChunkPool =
-            (MemoryChunkPool)
-                cons.newInstance(
-                    mConfig.getMemoryTrimmableRegistry(),
-                    mConfig.getMemoryChunkPoolParams(),
-                    mConfig.getMemoryChunkPoolStatsTracker());
+            withMagazines(
+                (MemoryChunkPool)
+                    cons.newInstance(
+                        mConfig.getMemoryTrimmableRegistry(),
+                        mConfig.getMemoryChunkPoolParams(),
+                        mConfig.getMemoryChunkPoolStatsTracker()));
       } catch (ClassNotFoundException e) {
         FLog.e("PoolFactory", "", e);
         mNativeMemoryChunkPool = null;
@@ -178,11 +182,12 @@ public class PoolFactory {
             clazz.getConstructor(
                 MemoryTrimmableRegistry.class, PoolParams.class, PoolStatsTracker.class);
         mAshmemMemoryChunkPool =
-            (MemoryChunkPool)
-                cons.newInstance(
-                    mConfig.getMemoryTrimmableRegistry(),
-                    mConfig.getMemoryChunkPoolParams(),
-                    mConfig.getMemoryChunkPoolStatsTracker());
+            withMagazines(
+                (MemoryChunkPool)
+                    cons.newInstance(
+                        mConfig.getMemoryTrimmableRegistry(),
+                        mConfig.getMemoryChunkPoolParams(),
+                        mConfig.getMemoryChunkPoolStatsTracker()));
       } catch (ClassNotFoundException e) {
         mAshmemMemoryChunkPool = null;
       } catch (IllegalAccessException e) {
@@ -210,6 +215,11 @@ public class PoolFactory {
           memoryChunkPool, "failed to get pool for chunk type: " + memoryChunkType);
       mPooledByteBufferFactory =
           new MemoryPooledByteBufferFactory(memoryChunkPool, getPooledByteStreams());
+      if (mConfig.getByteBufferChunkSize() > 0) {
+        mPooledByteBufferFactory =
+            new ChunkedPooledByteBufferFactory(
+                mPooledByteBufferFactory, memoryChunkPool, mConfig.getByteBufferChunkSize());
+      }
     }
     return mPooledByteBufferFactory;
   }
@@ -233,14 +243,20 @@ public class PoolFactory {
   public ByteArrayPool getSmallByteArrayPool() {
     if (mSmallByteArrayPool == null) {
       mSmallByteArrayPool =
-          new GenericByteArrayPool(
-              mConfig.getMemoryTrimmableRegistry(),
-              mConfig.getSmallByteArrayPoolParams(),
-              mConfig.getSmallByteArrayPoolStatsTracker());
+          withMagazines(
+              new GenericByteArrayPool(
+                  mConfig.getMemoryTrimmableRegistry(),
+                  mConfig.getSmallByteArrayPoolParams(),
+                  mConfig.getSmallByteArrayPoolStatsTracker()));
     }
     return mSmallByteArrayPool;
   }
 
+  private <T extends BasePool<?>> T withMagazines(T pool) {
+    pool.setMagazineSize(mConfig.getPoolMagazineSize());
+    return pool;
+  }
+
   @Nullable
   private MemoryChunkPool getMemoryChunkPool(@MemoryChunkType int memoryChunkType) {
     switch (memoryChunkType) {
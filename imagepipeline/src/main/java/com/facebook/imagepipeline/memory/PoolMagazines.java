@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import com.facebook.infer.annotation.Nullsafe;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Small free lists of recently released values, in front of the shared buckets of a {@link
+ * BasePool}.
+ *
+ * <p>There is a magazine per stripe of threads, each with its own lock, so that a thread that
+ * releases a value and soon gets one of the same size again, as decoders and network readers do,
+ * neither waits for the pool lock nor for the other threads.
+ *
+ * <p>The values in the magazines are still accounted as used by the pool, so that its hard and
+ * soft caps hold. The pool flushes the magazines back to its buckets when it needs to trim.
+ *
+ * <p>The values handed out by the pool are tracked in a concurrent set, so that a value released
+ * twice, even by two threads at once, is only offered once. Pooled values compare by identity.
+ */
+@ThreadSafe
+@Nullsafe(Nullsafe.Mode.STRICT)
+class PoolMagazines<V> {
+
+  private static final int MAX_STRIPE_COUNT = 16;
+
+  private final Magazine<V>[] mMagazines;
+
+  /** The values handed out by the pool, that have not been released since */
+  private final Set<V> mHandedOutValues =
+      Collections.newSetFromMap(new ConcurrentHashMap<V, Boolean>());
+
+  /** @param magazineSize the maximum number of values in each magazine */
+  @SuppressWarnings("unchecked")
+  PoolMagazines(int magazineSize) {
+    int stripeCount =
+        Math.min(
+            MAX_STRIPE_COUNT,
+            Integer.highestOneBit(Runtime.getRuntime().availableProcessors()) * 2);
+    mMagazines = new Magazine[stripeCount];
+    for (int i = 0; i < stripeCount; i++) {
+      mMagazines[i] = new Magazine<>(magazineSize);
+    }
+  }
+
+  /** Records that the pool handed out the value, whichever way it got it. */
+  void markHandedOut(V value) {
+    mHandedOutValues.add(value);
+  }
+
+  /**
+   * Records that the value is released.
+   *
+   * @return false if the value is not handed out, i.e. it was released already or it was not
+   *     allocated by the pool, in which case it must be neither offered nor reused
+   */
+  boolean markReleased(V value) {
+    return mHandedOutValues.remove(value);
+  }
+
+  /** Takes a value of the given bucketed size from the magazine of the current thread, if any. */
+  @Nullable
+  V take(int bucketedSize) {
+    return magazineOfCurrentThread().take(bucketedSize);
+  }
+
+  /**
+   * Offers a released value to the magazine of the current thread.
+   *
+   * @return false if the magazine is full, in which case the value must be released to the pool
+   */
+  boolean offer(V value, int bucketedSize, int sizeInBytes) {
+    return magazineOfCurrentThread().offer(value, bucketedSize, sizeInBytes);
+  }
+
+  /** Empties all the magazines and returns their values. */
+  List<V> drain() {
+    List<V> values = new ArrayList<>();
+    for (Magazine<V> magazine : mMagazines) {
+      magazine.drainTo(values);
+    }
+    return values;
+  }
+
+  /** Gets the number of values in all the magazines. */
+  int getCount() {
+    int count = 0;
+    for (Magazine<V> magazine : mMagazines) {
+      count += magazine.getCount();
+    }
+    return count;
+  }
+
+  /** Gets the size in bytes of the values in all the magazines. */
+  int getSizeInBytes() {
+    int sizeInBytes = 0;
+    for (Magazine<V> magazine : mMagazines) {
+      sizeInBytes += magazine.getSizeInBytes();
+    }
+    return sizeInBytes;
+  }
+
+  private Magazine<V> magazineOfCurrentThread() {
+    return mMagazines[(int) Thread.currentThread().getId() & (mMagazines.length - 1)];
+  }
+
+  private static class Magazine<V> {
+    @GuardedBy("this")
+    private final Object[] mValues;
+
+    @GuardedBy("this")
+    private final int[] mBucketedSizes;
+
+    @GuardedBy("this")
+    private final int[] mSizesInBytes;
+
+    @GuardedBy("this")
+    private int mCount;
+
+    @GuardedBy("this")
+    private int mSizeInBytes;
+
+    Magazine(int size) {
+      mValues = new Object[size];
+      mBucketedSizes = new int[size];
+      mSizesInBytes = new int[size];
+    }
+
+    @SuppressWarnings("unchecked")
+    synchronized @Nullable V take(int bucketedSize) {
+      // the most recently released values are the most likely to still be in the CPU caches
+      for (int i = mCount - 1; i >= 0; i--) {
+        if (mBucketedSizes[i] == bucketedSize) {
+          V value = (V) mValues[i];
+          mSizeInBytes -= mSizesInBytes[i];
+          removeAt(i);
+          return value;
+        }
+      }
+      return null;
+    }
+
+    synchronized boolean offer(V value, int bucketedSize, int sizeInBytes) {
+      if (mCount == mValues.length) {
+        return false;
+      }
+      for (int i = 0; i < mCount; i++) {
+        if (mValues[i] == value) {
+          throw new IllegalStateException("Value released twice: " + value);
+        }
+      }
+      mValues[mCount] = value;
+      mBucketedSizes[mCount] = bucketedSize;
+      mSizesInBytes[mCount] = sizeInBytes;
+      mCount++;
+      mSizeInBytes += sizeInBytes;
+      return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    synchronized void drainTo(List<V> values) {
+      for (int i = 0; i < mCount; i++) {
+        values.add((V) mValues[i]);
+        mValues[i] = null;
+      }
+      mCount = 0;
+      mSizeInBytes = 0;
+    }
+
+    synchronized int getCount() {
+      return mCount;
+    }
+
+    synchronized int getSizeInBytes() {
+      return mSizeInBytes;
+    }
+
+    @GuardedBy("this")
+    private void removeAt(int index) {
+      int last = mCount - 1;
+      System.arraycopy(mValues, index + 1, mValues, index, last - index);
+      System.arraycopy(mBucketedSizes, index + 1, mBucketedSizes, index, last - index);
+      System.arraycopy(mSizesInBytes, index + 1, mSizesInBytes, index, last - index);
+      mValues[last] = null;
+      mCount = last;
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.platform
+
+import android.annotation.TargetApi
+import android.graphics.Bitmap
+import android.graphics.ColorSpace
+import android.graphics.ImageDecoder
+import android.graphics.Rect
+import android.os.Build
+import com.facebook.soloader.DoNotOptimize
+import java.io.IOException
+import java.nio.ByteBuffer
+
+/**
+ * Decodes encoded images with [ImageDecoder] straight from a [ByteBuffer], without copying it.
+ *
+ * [ImageDecoder] applies the EXIF orientation of the image itself, so it must only be given images
+ * that need no rotation, which the pipeline would apply again.
+ */
+@DoNotOptimize
+internal open class ByteBufferDecodeHelper {
+
+  /**
+   * Decodes the bytes between the position and the limit of [byteBuffer], which must not change
+   * during the decode. If [allowPartialImage], an incomplete image is decoded as far as its data
+   * goes, which is what appending an EOI marker to an incomplete JPEG achieves on the stream path.
+   * Otherwise an image that is truncated or corrupt fails to decode.
+   *
+   * @return the bitmap, or null if the image could not be decoded or [bitmapConfig] is not
+   *   supported by [ImageDecoder]
+   */
+  @TargetApi(Build.VERSION_CODES.P)
+  @DoNotOptimize
+  open fun /*package*/ decode(
+      byteBuffer: ByteBuffer,
+      bitmapConfig: Bitmap.Config,
+      sampleSize: Int,
+      regionToDecode: Rect?,
+      colorSpace: ColorSpace?,
+      allowPartialImage: Boolean
+  ): Bitmap? {
+    val lowRam =
+        when (bitmapConfig) {
+          Bitmap.Config.ARGB_8888,
+          Bitmap.Config.HARDWARE -> false
+          Bitmap.Config.RGB_565 -> true
+          else -> return null
+        }
+    return try {
+      ImageDecoder.decodeBitmap(ImageDecoder.createSource(byteBuffer)) { decoder, _, _ ->
+        decoder.setTargetSampleSize(sampleSize)
+        if (bitmapConfig == Bitmap.Config.HARDWARE) {
+          decoder.allocator = ImageDecoder.ALLOCATOR_HARDWARE
+        } else {
+          decoder.allocator = ImageDecoder.ALLOCATOR_SOFTWARE
+          decoder.isMutableRequired = true
+        }
+        if (lowRam) {
+          decoder.memorySizePolicy = ImageDecoder.MEMORY_POLICY_LOW_RAM
+        }
+        decoder.setTargetColorSpace(colorSpace ?: ColorSpace.get(ColorSpace.Named.SRGB))
+        if (regionToDecode != null) {
+          decoder.crop = getCrop(regionToDecode, sampleSize)
+        }
+        if (allowPartialImage) {
+          decoder.setOnPartialImageListener { true }
+        }
+      }
+    } catch (e: IOException) {
+      null
+    }
+  }
+
+  companion object {
+    /**
+     * Returns the crop rectangle of [ImageDecoder] for [regionToDecode] of the full size image,
+     * which is applied after sampling.
+     */
+    @JvmStatic
+    fun /*package*/ getCrop(regionToDecode: Rect, sampleSize: Int): Rect =
+        Rect(
+            regionToDecode.left / sampleSize,
+            regionToDecode.top / sampleSize,
+            regionToDecode.right / sampleSize,
+            regionToDecode.bottom / sampleSize)
+  }
+}
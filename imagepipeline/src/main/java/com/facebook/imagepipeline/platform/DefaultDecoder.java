@@ -12,12 +12,14 @@ import android.graphics.BitmapFactory;
 import android.graphics.BitmapRegionDecoder;
 import android.graphics.ColorSpace;
 import android.graphics.Rect;
+import android.media.ExifInterface;
 import android.os.Build;
 import androidx.annotation.VisibleForTesting;
 import androidx.core.util.Pools;
 import com.facebook.common.internal.Preconditions;
 import com.facebook.common.logging.FLog;
 import com.facebook.common.memory.DecodeBufferHelper;
+import com.facebook.common.memory.PooledByteBuffer;
 import com.facebook.common.references.CloseableReference;
 import com.facebook.common.references.ResourceReleaser;
 import com.facebook.common.streams.LimitedInputStream;
@@ -44,8 +46,10 @@ public abstract class DefaultDecoder implements PlatformDecoder {
   private final BitmapPool mBitmapPool;
   private boolean mAvoidPoolGet;
   private boolean mAvoidPoolRelease;
+  private final boolean mDirectByteBufferDecodingEnabled;
 
   private final @Nullable PreverificationHelper mPreverificationHelper;
+  @VisibleForTesting @Nullable ByteBufferDecodeHelper mByteBufferDecodeHelper;
 
   {
     mPreverificationHelper =
@@ -71,6 +75,12 @@ public abstract class DefaultDecoder implements PlatformDecoder {
       mAvoidPoolGet = platformDecoderOptions.getAvoidPoolGet();
       mAvoidPoolRelease = platformDecoderOptions.getAvoidPoolRelease();
     }
+    mDirectByteBufferDecodingEnabled = platformDecoderOptions.getDirectByteBufferDecodingEnabled();
+    mByteBufferDecodeHelper =
+        platformDecoderOptions.getImageDecoderEnabled()
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.P
+            ? new ByteBufferDecodeHelper()
+            : null;
     mDecodeBuffers = decodeBuffers;
   }
 
@@ -109,6 +119,14 @@ public abstract class DefaultDecoder implements PlatformDecoder {
       Bitmap.Config bitmapConfig,
       @Nullable Rect regionToDecode,
       @Nullable final ColorSpace colorSpace) {
+    if (mDirectByteBufferDecodingEnabled) {
+      CloseableReference<Bitmap> bitmap =
+          decodeFromByteBuffer(
+              encodedImage, bitmapConfig, regionToDecode, encodedImage.getSize(), true, colorSpace);
+      if (bitmap != null) {
+        return bitmap;
+      }
+    }
     final BitmapFactory.Options options =
         getDecodeOptionsForStream(encodedImage, bitmapConfig, mAvoidPoolGet);
     boolean retryOnFail = options.inPreferredConfig != Bitmap.Config.ARGB_8888;
@@ -146,6 +164,14 @@ public abstract class DefaultDecoder implements PlatformDecoder {
       int length,
       @Nullable final ColorSpace colorSpace) {
     boolean isJpegComplete = encodedImage.isCompleteAt(length);
+    if (mDirectByteBufferDecodingEnabled) {
+      CloseableReference<Bitmap> bitmap =
+          decodeFromByteBuffer(
+              encodedImage, bitmapConfig, regionToDecode, length, isJpegComplete, colorSpace);
+      if (bitmap != null) {
+        return bitmap;
+      }
+    }
     final BitmapFactory.Options options =
         getDecodeOptionsForStream(encodedImage, bitmapConfig, mAvoidPoolGet);
     InputStream jpegDataStream = encodedImage.getInputStream();
@@ -190,6 +216,109 @@ public abstract class DefaultDecoder implements PlatformDecoder {
     return decodeFromStream(inputStream, options, regionToDecode, null);
   }
 
+  /**
+   * Creates a bitmap from the first {@code length} bytes of the pooled byte buffer of the image,
+   * without going through an InputStream, if the buffer exposes its memory as a {@link ByteBuffer}.
+   *
+   * <p>A complete image backed by an array is decoded by {@link BitmapFactory} from the array, with
+   * the same bitmap reuse as the stream path. From Android P, if {@link
+   * PlatformDecoderOptions#getImageDecoderEnabled()}, an image in direct memory, or an incomplete
+   * one, is decoded by {@link android.graphics.ImageDecoder}, which decodes incomplete images as
+   * they are instead of needing an EOI marker appended. Those bitmaps are not taken from the bitmap
+   * pool. Images that need to be rotated are left to the stream path, see {@link #isUpright}.
+   *
+   * @return the bitmap, or null if the image has to be decoded from a stream
+   */
+  private @Nullable CloseableReference<Bitmap> decodeFromByteBuffer(
+      EncodedImage encodedImage,
+      Bitmap.Config bitmapConfig,
+      @Nullable Rect regionToDecode,
+      int length,
+      boolean isComplete,
+      @Nullable final ColorSpace colorSpace) {
+    CloseableReference<PooledByteBuffer> bufferRef = encodedImage.getByteBufferRef();
+    if (bufferRef == null) {
+      return null;
+    }
+    try {
+      ByteBuffer encodedBytes =
+          getEncodedBytes(bufferRef.get(), Math.min(length, encodedImage.getSize()));
+      if (encodedBytes == null) {
+        return null;
+      }
+      if (encodedBytes.hasArray() && isComplete) {
+        final EncodedSource source =
+            new ByteArraySource(
+                encodedBytes.array(), encodedBytes.arrayOffset(), encodedBytes.remaining());
+        final BitmapFactory.Options options =
+            getDecodeOptions(encodedImage, bitmapConfig, mAvoidPoolGet, source);
+        try {
+          return decodeFromSource(source, options, regionToDecode, colorSpace);
+        } catch (RuntimeException re) {
+          if (options.inPreferredConfig != Bitmap.Config.ARGB_8888) {
+            return decodeFromByteBuffer(
+                encodedImage,
+                Bitmap.Config.ARGB_8888,
+                regionToDecode,
+                length,
+                isComplete,
+                colorSpace);
+          }
+          throw re;
+        }
+      }
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P
+          && mByteBufferDecodeHelper != null
+          && isUpright(encodedImage)) {
+        Bitmap bitmap =
+            mByteBufferDecodeHelper.decode(
+                encodedBytes,
+                bitmapConfig,
+                encodedImage.getSampleSize(),
+                regionToDecode,
+                colorSpace,
+                !isComplete);
+        if (bitmap != null) {
+          return mAvoidPoolRelease
+              ? CloseableReference.of(bitmap, NoOpResourceReleaser.INSTANCE)
+              : CloseableReference.of(bitmap, SimpleBitmapReleaser.getInstance());
+        }
+      }
+      return null;
+    } finally {
+      CloseableReference.closeSafely(bufferRef);
+    }
+  }
+
+  /**
+   * Whether the image is known to need no rotation. {@link android.graphics.ImageDecoder} applies
+   * the EXIF orientation itself, which the pipeline then applies again, and would crop the region
+   * to decode before rotating the image instead of after.
+   */
+  private static boolean isUpright(EncodedImage encodedImage) {
+    final int exifOrientation = encodedImage.getExifOrientation();
+    return encodedImage.getRotationAngle() == 0
+        && (exifOrientation == ExifInterface.ORIENTATION_UNDEFINED
+            || exifOrientation == ExifInterface.ORIENTATION_NORMAL);
+  }
+
+  /**
+   * Returns a view of the first {@code length} bytes of the buffer that shares its memory, but not
+   * its position and limit, or null if the buffer does not expose its memory as a {@link
+   * ByteBuffer}.
+   */
+  @VisibleForTesting
+  static @Nullable ByteBuffer getEncodedBytes(PooledByteBuffer pooledByteBuffer, int length) {
+    final ByteBuffer byteBuffer = pooledByteBuffer.getByteBuffer();
+    if (byteBuffer == null || byteBuffer.capacity() < length) {
+      return null;
+    }
+    final ByteBuffer encodedBytes = byteBuffer.duplicate();
+    encodedBytes.position(0);
+    encodedBytes.limit(length);
+    return encodedBytes;
+  }
+
   /**
    * Create a bitmap from an input stream.
    *
@@ -206,7 +335,23 @@ public abstract class DefaultDecoder implements PlatformDecoder {
       BitmapFactory.Options options,
       @Nullable Rect regionToDecode,
       @Nullable final ColorSpace colorSpace) {
-    Preconditions.checkNotNull(inputStream);
+    return decodeFromSource(
+        new StreamSource(Preconditions.checkNotNull(inputStream)),
+        options,
+        regionToDecode,
+        colorSpace);
+  }
+
+  /**
+   * Create a bitmap from encoded bytes, read either from a stream or from an array.
+   *
+   * @see #decodeFromStream
+   */
+  private @Nullable CloseableReference<Bitmap> decodeFromSource(
+      EncodedSource source,
+      BitmapFactory.Options options,
+      @Nullable Rect regionToDecode,
+      @Nullable final ColorSpace colorSpace) {
     int targetWidth = options.outWidth;
     int targetHeight = options.outHeight;
     if (regionToDecode != null) {
@@ -260,7 +405,7 @@ public abstract class DefaultDecoder implements PlatformDecoder {
         BitmapRegionDecoder bitmapRegionDecoder = null;
         try {
           bitmapToReuse.reconfigure(targetWidth, targetHeight, options.inPreferredConfig);
-          bitmapRegionDecoder = BitmapRegionDecoder.newInstance(inputStream, true);
+          bitmapRegionDecoder = source.newRegionDecoder();
           if (bitmapRegionDecoder != null) {
             decodedBitmap = bitmapRegionDecoder.decodeRegion(regionToDecode, options);
           }
@@ -273,7 +418,7 @@ public abstract class DefaultDecoder implements PlatformDecoder {
         }
       }
       if (decodedBitmap == null) {
-        decodedBitmap = BitmapFactory.decodeStream(inputStream, null, options);
+        decodedBitmap = source.decode(options);
       }
     } catch (IllegalArgumentException e) {
       if (bitmapToReuse != null) {
@@ -282,10 +427,7 @@ public abstract class DefaultDecoder implements PlatformDecoder {
       // This is thrown if the Bitmap options are invalid, so let's just try to decode the bitmap
       // as-is, which might be inefficient - but it works.
       try {
-        // We need to reset the stream first
-        inputStream.reset();
-
-        Bitmap naiveDecodedBitmap = BitmapFactory.decodeStream(inputStream);
+        Bitmap naiveDecodedBitmap = source.decodeNaively();
         if (naiveDecodedBitmap == null) {
           throw e;
         }
@@ -326,6 +468,18 @@ public abstract class DefaultDecoder implements PlatformDecoder {
    */
   private static BitmapFactory.Options getDecodeOptionsForStream(
       EncodedImage encodedImage, Bitmap.Config bitmapConfig, boolean skipDecoding) {
+    return getDecodeOptions(encodedImage, bitmapConfig, skipDecoding, null);
+  }
+
+  /**
+   * @param boundsSource the source to read the bounds of the image from, or null to read them from
+   *     a new input stream of the encoded image
+   */
+  private static BitmapFactory.Options getDecodeOptions(
+      EncodedImage encodedImage,
+      Bitmap.Config bitmapConfig,
+      boolean skipDecoding,
+      @Nullable EncodedSource boundsSource) {
     final BitmapFactory.Options options = new BitmapFactory.Options();
     // Sample size should ONLY be different than 1 when downsampling is enabled in the pipeline
     options.inSampleSize = encodedImage.getSampleSize();
@@ -339,7 +493,11 @@ public abstract class DefaultDecoder implements PlatformDecoder {
     options.inMutable = true;
     if (!skipDecoding) {
       // fill outWidth and outHeight
-      BitmapFactory.decodeStream(encodedImage.getInputStream(), null, options);
+      if (boundsSource != null) {
+        boundsSource.decode(options);
+      } else {
+        BitmapFactory.decodeStream(encodedImage.getInputStream(), null, options);
+      }
       if (options.outWidth == -1 || options.outHeight == -1) {
         throw new IllegalArgumentException();
       }
@@ -354,6 +512,76 @@ public abstract class DefaultDecoder implements PlatformDecoder {
   public abstract int getBitmapSize(
       final int width, final int height, final BitmapFactory.Options options);
 
+  /** Encoded bytes that {@link BitmapFactory} and {@link BitmapRegionDecoder} can decode. */
+  private abstract static class EncodedSource {
+
+    abstract @Nullable Bitmap decode(BitmapFactory.Options options);
+
+    abstract @Nullable BitmapRegionDecoder newRegionDecoder() throws IOException;
+
+    /** Decodes the bytes without any options, after a decode with options failed. */
+    abstract @Nullable Bitmap decodeNaively() throws IOException;
+  }
+
+  private static final class StreamSource extends EncodedSource {
+    private final InputStream mInputStream;
+
+    StreamSource(InputStream inputStream) {
+      mInputStream = inputStream;
+    }
+
+    @Override
+    @Nullable
+    Bitmap decode(BitmapFactory.Options options) {
+      return BitmapFactory.decodeStream(mInputStream, null, options);
+    }
+
+    @Override
+    @Nullable
+    BitmapRegionDecoder newRegionDecoder() throws IOException {
+      return BitmapRegionDecoder.newInstance(mInputStream, true);
+    }
+
+    @Override
+    @Nullable
+    Bitmap decodeNaively() throws IOException {
+      // We need to reset the stream first
+      mInputStream.reset();
+      return BitmapFactory.decodeStream(mInputStream);
+    }
+  }
+
+  /** Bytes decoded in place, without being copied out of the array that holds them. */
+  private static final class ByteArraySource extends EncodedSource {
+    private final byte[] mData;
+    private final int mOffset;
+    private final int mLength;
+
+    ByteArraySource(byte[] data, int offset, int length) {
+      mData = data;
+      mOffset = offset;
+      mLength = length;
+    }
+
+    @Override
+    @Nullable
+    Bitmap decode(BitmapFactory.Options options) {
+      return BitmapFactory.decodeByteArray(mData, mOffset, mLength, options);
+    }
+
+    @Override
+    @Nullable
+    BitmapRegionDecoder newRegionDecoder() throws IOException {
+      return BitmapRegionDecoder.newInstance(mData, mOffset, mLength, true);
+    }
+
+    @Override
+    @Nullable
+    Bitmap decodeNaively() {
+      return BitmapFactory.decodeByteArray(mData, mOffset, mLength);
+    }
+  }
+
   private static final class NoOpResourceReleaser implements ResourceReleaser<Bitmap> {
     private static final NoOpResourceReleaser INSTANCE = new NoOpResourceReleaser();
 
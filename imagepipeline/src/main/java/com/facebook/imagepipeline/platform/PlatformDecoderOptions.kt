@@ -7,7 +7,19 @@
 
 package com.facebook.imagepipeline.platform
 
-class PlatformDecoderOptions(
+/**
+ * @param directByteBufferDecodingEnabled whether to decode encoded images straight from the memory
+ *   of their pooled byte buffer, when it exposes a [java.nio.ByteBuffer], rather than through an
+ *   input stream
+ * @param imageDecoderEnabled whether, with [directByteBufferDecodingEnabled] and from Android P,
+ *   images in direct memory and incomplete images may be decoded by [android.graphics.ImageDecoder]
+ *   straight from that memory. Those bitmaps are not taken from the bitmap pool.
+ */
+class PlatformDecoderOptions
+@JvmOverloads
+constructor(
     val avoidPoolGet: Boolean = false,
     val avoidPoolRelease: Boolean = false,
+    val directByteBufferDecodingEnabled: Boolean = false,
+    val imageDecoderEnabled: Boolean = false,
 )
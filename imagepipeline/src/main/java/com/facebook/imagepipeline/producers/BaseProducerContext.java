@@ -8,13 +8,15 @@
 package com.facebook.imagepipeline.producers;
 
 import com.facebook.common.internal.ImmutableSet;
+import com.facebook.fresco.middleware.ExtraKey;
+import com.facebook.fresco.middleware.ExtraSlots;
 import com.facebook.fresco.middleware.HasExtraData;
+import com.facebook.fresco.middleware.SlotExtras;
 import com.facebook.imagepipeline.common.Priority;
 import com.facebook.imagepipeline.core.ImagePipelineConfigInterface;
 import com.facebook.imagepipeline.request.ImageRequest;
 import com.facebook.infer.annotation.Nullsafe;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -40,7 +42,7 @@ public class BaseProducerContext implements ProducerContext {
   private final ProducerListener2 mProducerListener;
   private final Object mCallerContext;
   private final ImageRequest.RequestLevel mLowestPermittedRequestLevel;
-  private final Map<String, Object> mExtras;
+  private final SlotExtras mExtras;
 
   @GuardedBy("this")
   private boolean mIsPrefetch;
@@ -98,10 +100,10 @@ public class BaseProducerContext implements ProducerContext {
     mImageRequest = imageRequest;
     mId = id;
 
-    mExtras = new HashMap<>();
-    mExtras.put(HasExtraData.KEY_ID, mId);
+    mExtras = new SlotExtras();
+    mExtras.put(ExtraSlots.ID, mId);
     mExtras.put(
-        HasExtraData.KEY_URI_SOURCE,
+        ExtraSlots.URI_SOURCE,
         imageRequest == null ? "null-request" : imageRequest.getSourceUri());
     putExtras(extras);
 
@@ -346,19 +348,34 @@ public class BaseProducerContext implements ProducerContext {
     return (E) maybeValue;
   }
 
+  /**
+   * Returns a live view of the extras, whose entries are only built when it is read. Extras set or
+   * removed through it are set or removed on this context.
+   */
   @Override
   public Map<String, Object> getExtras() {
-    return mExtras;
+    return mExtras.asMap();
   }
 
   @Override
   public void putOriginExtra(@Nullable String origin, @Nullable String subcategory) {
-    mExtras.put(HasExtraData.KEY_ORIGIN, origin);
-    mExtras.put(HasExtraData.KEY_ORIGIN_SUBCATEGORY, subcategory);
+    mExtras.put(ExtraSlots.ORIGIN, origin);
+    mExtras.put(ExtraSlots.ORIGIN_SUBCATEGORY, subcategory);
   }
 
   @Override
   public void putOriginExtra(@Nullable String origin) {
     putOriginExtra(origin, ORIGIN_SUBCATEGORY_DEFAULT);
   }
+
+  @Override
+  public void putIntExtra(ExtraKey key, int value) {
+    if (INITIAL_KEYS.contains(key.getName())) return;
+    mExtras.putInt(key, value);
+  }
+
+  @Override
+  public int getIntExtra(ExtraKey key, int valueIfNotFound) {
+    return mExtras.getInt(key, valueIfNotFound);
+  }
 }
@@ -14,11 +14,14 @@ import com.facebook.imagepipeline.cache.MemoryCache
 import com.facebook.imagepipeline.image.CloseableImage
 
 /** Bitmap memory cache producer that is read-only. */
-class BitmapMemoryCacheGetProducer(
+class BitmapMemoryCacheGetProducer
+@JvmOverloads
+constructor(
     memoryCache: MemoryCache<CacheKey, CloseableImage>,
     cacheKeyFactory: CacheKeyFactory,
-    inputProducer: Producer<CloseableReference<CloseableImage>>
-) : BitmapMemoryCacheProducer(memoryCache, cacheKeyFactory, inputProducer) {
+    inputProducer: Producer<CloseableReference<CloseableImage>>,
+    sizeToleranceRatio: Float = 0f
+) : BitmapMemoryCacheProducer(memoryCache, cacheKeyFactory, inputProducer, sizeToleranceRatio) {
 
   override fun wrapConsumer(
       consumer: Consumer<CloseableReference<CloseableImage>>,
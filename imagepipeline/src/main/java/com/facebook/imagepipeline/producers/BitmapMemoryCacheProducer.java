@@ -9,18 +9,31 @@ package com.facebook.imagepipeline.producers;
 
 import com.facebook.cache.common.CacheKey;
 import com.facebook.common.internal.ImmutableMap;
+import com.facebook.common.internal.Objects;
+import com.facebook.common.internal.Predicate;
 import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.cache.BitmapMemoryCacheKey;
 import com.facebook.imagepipeline.cache.CacheKeyFactory;
 import com.facebook.imagepipeline.cache.MemoryCache;
+import com.facebook.imagepipeline.common.ResizeOptions;
 import com.facebook.imagepipeline.image.CloseableImage;
 import com.facebook.imagepipeline.image.HasImageMetadata;
 import com.facebook.imagepipeline.image.QualityInfo;
 import com.facebook.imagepipeline.request.ImageRequest;
 import com.facebook.imagepipeline.systrace.FrescoSystrace;
 import com.facebook.infer.annotation.Nullsafe;
+import java.util.List;
 import javax.annotation.Nullable;
 
-/** Memory cache producer for the bitmap memory cache. */
+/**
+ * Memory cache producer for the bitmap memory cache.
+ *
+ * <p>If a size tolerance ratio is set, a request with resize options that misses the cache can be
+ * served by a cached bitmap of the same source decoded for larger resize options, or at full size,
+ * with the same rotation, decode options and postprocessor. The bitmap is used as it is, provided
+ * that it is at most the ratio larger than the requested size in each dimension. Among several
+ * such bitmaps the smallest one is used.
+ */
 @Nullsafe(Nullsafe.Mode.LOCAL)
 public class BitmapMemoryCacheProducer implements Producer<CloseableReference<CloseableImage>> {
 
@@ -33,14 +46,28 @@ public class BitmapMemoryCacheProducer implements Producer<CloseableReference<Cl
   private final MemoryCache<CacheKey, CloseableImage> mMemoryCache;
   private final CacheKeyFactory mCacheKeyFactory;
   private final Producer<CloseableReference<CloseableImage>> mInputProducer;
+  private final float mSizeToleranceRatio;
 
   public BitmapMemoryCacheProducer(
       MemoryCache<CacheKey, CloseableImage> memoryCache,
       CacheKeyFactory cacheKeyFactory,
       Producer<CloseableReference<CloseableImage>> inputProducer) {
+    this(memoryCache, cacheKeyFactory, inputProducer, 0);
+  }
+
+  /**
+   * @param sizeToleranceRatio how much larger than the requested size a cached bitmap of another
+   *     size can be to be used for a request, or 0 to only use the bitmap cached for the request
+   */
+  public BitmapMemoryCacheProducer(
+      MemoryCache<CacheKey, CloseableImage> memoryCache,
+      CacheKeyFactory cacheKeyFactory,
+      Producer<CloseableReference<CloseableImage>> inputProducer,
+      float sizeToleranceRatio) {
     mMemoryCache = memoryCache;
     mCacheKeyFactory = cacheKeyFactory;
     mInputProducer = inputProducer;
+    mSizeToleranceRatio = sizeToleranceRatio;
   }
 
   @Override
@@ -63,6 +90,9 @@ public class BitmapMemoryCacheProducer implements Producer<CloseableReference<Cl
 
       CloseableReference<CloseableImage> cachedReference =
           isBitmapCacheEnabledForRead ? mMemoryCache.get(cacheKey) : null;
+      if (cachedReference == null && isBitmapCacheEnabledForRead && mSizeToleranceRatio >= 1) {
+        cachedReference = getLargerCachedReference(cacheKey);
+      }
 
       if (cachedReference != null) {
         maybeSetExtrasFromCloseableImage(cachedReference.get(), producerContext);
@@ -193,6 +223,76 @@ public class BitmapMemoryCacheProducer implements Producer<CloseableReference<Cl
     };
   }
 
+  /**
+   * Returns the smallest full quality bitmap cached for another size of the request of the given
+   * key that is large enough for the request, and at most {@link #mSizeToleranceRatio} larger.
+   *
+   * <p>Only caches that index their keys by URI list the other sizes, this does not scan the
+   * others.
+   */
+  @Nullable
+  private CloseableReference<CloseableImage> getLargerCachedReference(CacheKey cacheKey) {
+    if (!(cacheKey instanceof BitmapMemoryCacheKey)) {
+      return null;
+    }
+    final BitmapMemoryCacheKey requestedKey = (BitmapMemoryCacheKey) cacheKey;
+    final ResizeOptions requestedSize = requestedKey.getResizeOptions();
+    if (requestedSize == null) {
+      return null;
+    }
+    final List<CacheKey> candidateKeys =
+        mMemoryCache.getKeysForUri(
+            requestedKey.getSourceString(),
+            new Predicate<CacheKey>() {
+              @Override
+              public boolean apply(CacheKey key) {
+                return isLargerVariant(requestedKey, key);
+              }
+            });
+    @Nullable CacheKey bestKey = null;
+    long bestArea = Long.MAX_VALUE;
+    for (CacheKey candidateKey : candidateKeys) {
+      final CloseableImage image = mMemoryCache.inspect(candidateKey);
+      if (image == null
+          || image.isStateful()
+          || !image.getQualityInfo().isOfFullQuality()
+          || image.getWidth() > requestedSize.width * mSizeToleranceRatio
+          || image.getHeight() > requestedSize.height * mSizeToleranceRatio) {
+        continue;
+      }
+      final long area = (long) image.getWidth() * image.getHeight();
+      if (area < bestArea) {
+        bestKey = candidateKey;
+        bestArea = area;
+      }
+    }
+    // the bitmap may have been evicted since, in which case the request goes down the chain
+    return bestKey == null ? null : mMemoryCache.get(bestKey);
+  }
+
+  /**
+   * Returns whether the given key is for the same image as the requested one, only decoded for
+   * resize options at least as large, or at full size.
+   */
+  private static boolean isLargerVariant(BitmapMemoryCacheKey requestedKey, CacheKey key) {
+    if (!(key instanceof BitmapMemoryCacheKey) || requestedKey.equals(key)) {
+      return false;
+    }
+    final BitmapMemoryCacheKey otherKey = (BitmapMemoryCacheKey) key;
+    final ResizeOptions requestedSize = requestedKey.getResizeOptions();
+    final ResizeOptions otherSize = otherKey.getResizeOptions();
+    return requestedKey.getSourceString().equals(otherKey.getSourceString())
+        && requestedKey.getRotationOptions().equals(otherKey.getRotationOptions())
+        && requestedKey.getImageDecodeOptions().equals(otherKey.getImageDecodeOptions())
+        && Objects.equal(
+            requestedKey.getPostprocessorCacheKey(), otherKey.getPostprocessorCacheKey())
+        && Objects.equal(requestedKey.getPostprocessorName(), otherKey.getPostprocessorName())
+        && (otherSize == null
+            || (requestedSize != null
+                && otherSize.width >= requestedSize.width
+                && otherSize.height >= requestedSize.height));
+  }
+
   protected String getProducerName() {
     return PRODUCER_NAME;
   }
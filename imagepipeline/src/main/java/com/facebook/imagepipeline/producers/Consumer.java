@@ -51,6 +51,7 @@ public interface Consumer<T> {
         IS_PLACEHOLDER,
         IS_PARTIAL_RESULT,
         IS_RESIZING_DONE,
+        IS_DISK_CACHED,
       })
   @interface Status {}
 
@@ -88,6 +89,12 @@ public interface Consumer<T> {
   /** Status flag that indicates whether the given image has been resized. */
   int IS_RESIZING_DONE = 1 << 4;
 
+  /**
+   * Status flag to show the result has already been written to the disk cache, e.g. while it was
+   * being downloaded, so it must not be written again.
+   */
+  int IS_DISK_CACHED = 1 << 5;
+
   /**
    * Called by a producer whenever new data is produced. This method should not throw an exception.
    *
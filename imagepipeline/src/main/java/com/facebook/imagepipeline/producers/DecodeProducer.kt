@@ -15,11 +15,13 @@ import com.facebook.common.memory.ByteArrayPool
 import com.facebook.common.references.CloseableReference
 import com.facebook.common.util.ExceptionWithNoStacktrace
 import com.facebook.common.util.UriUtil
+import com.facebook.fresco.middleware.ExtraSlots
 import com.facebook.fresco.middleware.HasExtraData
 import com.facebook.imageformat.DefaultImageFormats
 import com.facebook.imagepipeline.common.ImageDecodeOptions
 import com.facebook.imagepipeline.core.CloseableReferenceFactory
 import com.facebook.imagepipeline.core.DownsampleMode
+import com.facebook.imagepipeline.core.PriorityExecutor
 import com.facebook.imagepipeline.decoder.DecodeException
 import com.facebook.imagepipeline.decoder.ImageDecoder
 import com.facebook.imagepipeline.decoder.ProgressiveJpegConfig
@@ -95,6 +97,8 @@ class DecodeProducer(
     private val producerListener: ProducerListener2 = producerContext.producerListener
     private val imageDecodeOptions: ImageDecodeOptions =
         producerContext.imageRequest.imageDecodeOptions
+    private val intermediateDecodePolicy: IntermediateDecodePolicy? =
+        producerContext.imagePipelineConfig.experiments.intermediateDecodePolicy
 
     /** @return true if producer is finished */
     @get:Synchronized @GuardedBy("this") private var isFinished: Boolean = false
@@ -135,11 +139,21 @@ class DecodeProducer(
             return
           }
           val isPlaceholder = statusHasFlag(status, IS_PLACEHOLDER)
-          if (isLast || isPlaceholder || producerContext.isIntermediateResultExpected) {
+          if (isLast || isPlaceholder || shouldDecodeIntermediateResult()) {
             jobScheduler.scheduleJob()
           }
         }
 
+    /**
+     * Whether to decode the latest intermediate result now. If not, it stays the pending job and is
+     * replaced by the next result.
+     */
+    private fun shouldDecodeIntermediateResult(): Boolean {
+      val policy = intermediateDecodePolicy ?: return producerContext.isIntermediateResultExpected
+      val queuedDecodeCount = (executor as? PriorityExecutor)?.queueSize ?: 0
+      return policy.shouldDecodeIntermediateResult(producerContext, queuedDecodeCount)
+    }
+
     override fun onProgressUpdateImpl(progress: Float) {
       super.onProgressUpdateImpl(progress * 0.99f)
     }
@@ -285,9 +299,9 @@ class DecodeProducer(
         image: CloseableImage?,
         lastScheduledScanNumber: Int
     ) {
-      producerContext.putExtra(HasExtraData.KEY_ENCODED_WIDTH, encodedImage.width)
-      producerContext.putExtra(HasExtraData.KEY_ENCODED_HEIGHT, encodedImage.height)
-      producerContext.putExtra(HasExtraData.KEY_ENCODED_SIZE, encodedImage.size)
+      producerContext.putIntExtra(ExtraSlots.ENCODED_WIDTH, encodedImage.width)
+      producerContext.putIntExtra(ExtraSlots.ENCODED_HEIGHT, encodedImage.height)
+      producerContext.putIntExtra(ExtraSlots.ENCODED_SIZE, encodedImage.size)
       producerContext.putExtra(HasExtraData.KEY_COLOR_SPACE, encodedImage.colorSpace)
       if (image is CloseableBitmap) {
         @Suppress("RedundantNullableReturnType")
@@ -295,7 +309,7 @@ class DecodeProducer(
         producerContext.putExtra(HasExtraData.KEY_BITMAP_CONFIG, config.toString())
       }
       image?.putExtras(producerContext.getExtras())
-      producerContext.putExtra(HasExtraData.KEY_LAST_SCAN_NUMBER, lastScheduledScanNumber)
+      producerContext.putIntExtra(ExtraSlots.LAST_SCAN_NUMBER, lastScheduledScanNumber)
     }
 
     private fun getExtraMap(
@@ -398,6 +412,15 @@ class DecodeProducer(
     init {
 
       val job = JobRunnable { encodedImage, status ->
+        if (intermediateDecodePolicy != null &&
+            isNotLast(status) &&
+            !statusHasFlag(status, IS_PLACEHOLDER) &&
+            !shouldDecodeIntermediateResult()) {
+          // the image went off screen or the decoder got busy while the job was queued, hold the
+          // result back until the policy allows it or the next result replaces it
+          jobScheduler.restoreJob(encodedImage, status)
+          return@JobRunnable
+        }
         if (encodedImage != null) {
           val request = producerContext.imageRequest
           producerContext.putExtra(HasExtraData.KEY_IMAGE_FORMAT, encodedImage.imageFormat.name)
@@ -422,10 +445,19 @@ class DecodeProducer(
         }
       }
       jobScheduler = JobScheduler(executor, job, imageDecodeOptions.minDecodeIntervalMs)
+      jobScheduler.setPriority(producerContext.priority)
       producerContext.addCallbacks(
           object : BaseProducerContextCallbacks() {
             override fun onIsIntermediateResultExpectedChanged() {
-              if (producerContext.isIntermediateResultExpected) {
+              if (shouldDecodeIntermediateResult()) {
+                jobScheduler.scheduleJob()
+              }
+            }
+
+            override fun onPriorityChanged() {
+              jobScheduler.setPriority(producerContext.priority)
+              if (intermediateDecodePolicy != null && shouldDecodeIntermediateResult()) {
+                // decode the intermediate result that was held back while the priority was lower
                 jobScheduler.scheduleJob()
               }
             }
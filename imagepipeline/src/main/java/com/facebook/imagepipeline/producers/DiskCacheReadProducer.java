@@ -14,6 +14,7 @@ import com.facebook.cache.common.CacheKey;
 import com.facebook.common.internal.ImmutableMap;
 import com.facebook.imagepipeline.cache.BufferedDiskCache;
 import com.facebook.imagepipeline.cache.CacheKeyFactory;
+import com.facebook.imagepipeline.core.TaskPriority;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.request.ImageRequest;
 import com.facebook.infer.annotation.Nullsafe;
@@ -99,11 +100,13 @@ public class DiskCacheReadProducer implements Producer<EncodedImage> {
       return;
     }
     final AtomicBoolean isCancelled = new AtomicBoolean(false);
-    final Task<EncodedImage> diskLookupTask = preferredCache.get(cacheKey, isCancelled);
+    final TaskPriority taskPriority = new TaskPriority(producerContext.getPriority());
+    final Task<EncodedImage> diskLookupTask =
+        preferredCache.get(cacheKey, isCancelled, taskPriority);
     final Continuation<EncodedImage, Void> continuation =
         onFinishDiskReads(consumer, producerContext);
     diskLookupTask.continueWith(continuation);
-    subscribeTaskForRequestCancellation(isCancelled, producerContext);
+    subscribeTaskForRequestUpdates(isCancelled, taskPriority, producerContext);
   }
 
   private Continuation<EncodedImage, Void> onFinishDiskReads(
@@ -180,14 +183,21 @@ public class DiskCacheReadProducer implements Producer<EncodedImage> {
     }
   }
 
-  private void subscribeTaskForRequestCancellation(
-      final AtomicBoolean isCancelled, ProducerContext producerContext) {
+  private void subscribeTaskForRequestUpdates(
+      final AtomicBoolean isCancelled,
+      final TaskPriority taskPriority,
+      final ProducerContext producerContext) {
     producerContext.addCallbacks(
         new BaseProducerContextCallbacks() {
           @Override
           public void onCancellationRequested() {
             isCancelled.set(true);
           }
+
+          @Override
+          public void onPriorityChanged() {
+            taskPriority.setPriority(producerContext.getPriority());
+          }
         });
   }
 }
@@ -124,9 +124,10 @@ public class DiskCacheWriteProducer implements Producer<EncodedImage> {
       mProducerContext.getProducerListener().onProducerStart(mProducerContext, PRODUCER_NAME);
       // intermediate, null or uncacheable results are not cached, so we just forward them
       // as well as the images with unknown format which could be html response from the server
+      // and the images that were written while they were downloaded
       if (isNotLast(status)
           || newResult == null
-          || statusHasAnyFlag(status, DO_NOT_CACHE_ENCODED | IS_PARTIAL_RESULT)
+          || statusHasAnyFlag(status, DO_NOT_CACHE_ENCODED | IS_PARTIAL_RESULT | IS_DISK_CACHED)
           || newResult.getImageFormat() == ImageFormat.UNKNOWN) {
         mProducerContext
             .getProducerListener()
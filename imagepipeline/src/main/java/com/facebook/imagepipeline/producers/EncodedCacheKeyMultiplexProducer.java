@@ -9,40 +9,188 @@ package com.facebook.imagepipeline.producers;
 
 import android.util.Pair;
 import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.SimpleCacheKey;
+import com.facebook.common.memory.PooledByteBuffer;
+import com.facebook.common.references.CloseableReference;
 import com.facebook.fresco.middleware.HasExtraData;
+import com.facebook.imageformat.ImageFormat;
+import com.facebook.imagepipeline.cache.BufferedDiskCache;
 import com.facebook.imagepipeline.cache.CacheKeyFactory;
+import com.facebook.imagepipeline.cache.ImageCacheStatsTracker;
+import com.facebook.imagepipeline.cache.MemoryCache;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.request.ImageRequest;
 import com.facebook.infer.annotation.Nullsafe;
+import java.util.Map;
 import javax.annotation.Nullable;
 
-/** Multiplex producer that uses the encoded cache key to combine requests. */
+/**
+ * Multiplex producer that uses the encoded cache key to combine requests.
+ *
+ * <p>If {@code multiplexBySourceUri} is set, requests are combined by source uri instead, so that
+ * the requests for the same image share one fetch even if the {@link CacheKeyFactory} gives them
+ * different encoded cache keys, e.g. because the keys include the resize options of the requests.
+ * The requests then decode it separately, each with its own options. The producers below cache the
+ * encoded image with the encoded cache key of the request that started the fetch, and this producer
+ * caches it with the encoded cache keys of the other requests, in the encoded memory cache and in
+ * the disk cache, so that they are found in the caches later on as if they had been fetched.
+ */
 @Nullsafe(Nullsafe.Mode.LOCAL)
 public class EncodedCacheKeyMultiplexProducer
     extends MultiplexProducer<Pair<CacheKey, ImageRequest.RequestLevel>, EncodedImage> {
 
   private final CacheKeyFactory mCacheKeyFactory;
+  private final boolean mMultiplexBySourceUri;
+  private final @Nullable MemoryCache<CacheKey, PooledByteBuffer> mEncodedMemoryCache;
+  private final @Nullable BufferedDiskCache mDefaultBufferedDiskCache;
+  private final @Nullable BufferedDiskCache mSmallImageBufferedDiskCache;
+  private final @Nullable Map<String, BufferedDiskCache> mDynamicBufferedDiskCaches;
+  private final @Nullable ImageCacheStatsTracker mImageCacheStatsTracker;
 
   public EncodedCacheKeyMultiplexProducer(
       CacheKeyFactory cacheKeyFactory,
       boolean keepCancelledFetchAsLowPriority,
       Producer inputProducer) {
+    this(
+        cacheKeyFactory,
+        keepCancelledFetchAsLowPriority,
+        false,
+        null,
+        null,
+        null,
+        null,
+        null,
+        inputProducer);
+  }
+
+  /**
+   * @param multiplexBySourceUri whether requests are combined by source uri rather than by encoded
+   *     cache key
+   * @param encodedMemoryCache cache the shared encoded images are written to
+   * @param defaultBufferedDiskCache disk cache the shared encoded images are written to, null if
+   *     the producers below do not write to the disk cache. Same for the small and dynamic ones
+   * @param imageCacheStatsTracker notified of each request that got the encoded image from the fetch
+   *     of a request with another encoded cache key
+   */
+  public EncodedCacheKeyMultiplexProducer(
+      CacheKeyFactory cacheKeyFactory,
+      boolean keepCancelledFetchAsLowPriority,
+      boolean multiplexBySourceUri,
+      @Nullable MemoryCache<CacheKey, PooledByteBuffer> encodedMemoryCache,
+      @Nullable BufferedDiskCache defaultBufferedDiskCache,
+      @Nullable BufferedDiskCache smallImageBufferedDiskCache,
+      @Nullable Map<String, BufferedDiskCache> dynamicBufferedDiskCaches,
+      @Nullable ImageCacheStatsTracker imageCacheStatsTracker,
+      Producer inputProducer) {
     super(
         inputProducer,
         "EncodedCacheKeyMultiplexProducer",
         HasExtraData.KEY_MULTIPLEX_ENCODED_COUNT,
         keepCancelledFetchAsLowPriority);
     mCacheKeyFactory = cacheKeyFactory;
+    mMultiplexBySourceUri = multiplexBySourceUri;
+    mEncodedMemoryCache = encodedMemoryCache;
+    mDefaultBufferedDiskCache = defaultBufferedDiskCache;
+    mSmallImageBufferedDiskCache = smallImageBufferedDiskCache;
+    mDynamicBufferedDiskCaches = dynamicBufferedDiskCaches;
+    mImageCacheStatsTracker = imageCacheStatsTracker;
+  }
+
+  @Override
+  public void produceResults(Consumer<EncodedImage> consumer, ProducerContext producerContext) {
+    if (mMultiplexBySourceUri) {
+      consumer = new SharedFetchCacheWriteConsumer(consumer, producerContext);
+    }
+    super.produceResults(consumer, producerContext);
   }
 
   protected Pair<CacheKey, ImageRequest.RequestLevel> getKey(ProducerContext producerContext) {
-    return Pair.create(
-        mCacheKeyFactory.getEncodedCacheKey(
-            producerContext.getImageRequest(), producerContext.getCallerContext()),
-        producerContext.getLowestPermittedRequestLevel());
+    final ImageRequest imageRequest = producerContext.getImageRequest();
+    final CacheKey cacheKey =
+        mMultiplexBySourceUri
+            ? new SimpleCacheKey(imageRequest.getSourceUri().toString())
+            : mCacheKeyFactory.getEncodedCacheKey(
+                imageRequest, producerContext.getCallerContext());
+    return Pair.create(cacheKey, producerContext.getLowestPermittedRequestLevel());
   }
 
   public @Nullable EncodedImage cloneOrNull(@Nullable EncodedImage encodedImage) {
     return EncodedImage.cloneOrNull(encodedImage);
   }
+
+  /**
+   * Caches the last result with the encoded cache key of the request if it is not cached with it
+   * yet, i.e. if the result comes from the fetch of a request with another encoded cache key.
+   */
+  private class SharedFetchCacheWriteConsumer
+      extends DelegatingConsumer<EncodedImage, EncodedImage> {
+
+    private final ProducerContext mProducerContext;
+
+    private SharedFetchCacheWriteConsumer(
+        Consumer<EncodedImage> consumer, ProducerContext producerContext) {
+      super(consumer);
+      mProducerContext = producerContext;
+    }
+
+    @Override
+    protected void onNewResultImpl(@Nullable EncodedImage newResult, @Status int status) {
+      // same results as the ones cached by the producers below
+      if (isLast(status)
+          && newResult != null
+          && !statusHasAnyFlag(status, DO_NOT_CACHE_ENCODED | IS_PARTIAL_RESULT)
+          && newResult.getImageFormat() != ImageFormat.UNKNOWN) {
+        final ImageRequest imageRequest = mProducerContext.getImageRequest();
+        final CacheKey cacheKey =
+            mCacheKeyFactory.getEncodedCacheKey(imageRequest, mProducerContext.getCallerContext());
+        boolean cached = maybeCacheInMemory(cacheKey, newResult);
+        cached |= maybeCacheOnDisk(cacheKey, newResult);
+        if (cached && mImageCacheStatsTracker != null) {
+          mImageCacheStatsTracker.onEncodedFetchShared(cacheKey);
+        }
+      }
+      getConsumer().onNewResult(newResult, status);
+    }
+
+    private boolean maybeCacheInMemory(CacheKey cacheKey, EncodedImage encodedImage) {
+      if (mEncodedMemoryCache == null
+          || !mProducerContext.getImagePipelineConfig().getExperiments().isEncodedCacheEnabled()
+          || !mProducerContext
+              .getImageRequest()
+              .isCacheEnabled(ImageRequest.CachesLocationsMasks.ENCODED_WRITE)
+          || mEncodedMemoryCache.contains(cacheKey)) {
+        return false;
+      }
+      CloseableReference<PooledByteBuffer> ref = encodedImage.getByteBufferRef();
+      if (ref == null) {
+        return false;
+      }
+      try {
+        CloseableReference<PooledByteBuffer> cachedRef = mEncodedMemoryCache.cache(cacheKey, ref);
+        boolean cached = cachedRef != null;
+        CloseableReference.closeSafely(cachedRef);
+        return cached;
+      } finally {
+        CloseableReference.closeSafely(ref);
+      }
+    }
+
+    private boolean maybeCacheOnDisk(CacheKey cacheKey, EncodedImage encodedImage) {
+      final ImageRequest imageRequest = mProducerContext.getImageRequest();
+      if (!imageRequest.isCacheEnabled(ImageRequest.CachesLocationsMasks.DISK_WRITE)) {
+        return false;
+      }
+      BufferedDiskCache bufferedDiskCache =
+          DiskCacheDecision.chooseDiskCacheForRequest(
+              imageRequest,
+              mSmallImageBufferedDiskCache,
+              mDefaultBufferedDiskCache,
+              mDynamicBufferedDiskCaches);
+      if (bufferedDiskCache == null || bufferedDiskCache.containsSync(cacheKey)) {
+        return false;
+      }
+      bufferedDiskCache.put(cacheKey, encodedImage);
+      return true;
+    }
+  }
 }
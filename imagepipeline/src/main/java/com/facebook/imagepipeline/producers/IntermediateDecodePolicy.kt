@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.producers
+
+/**
+ * Decides whether an intermediate result of a progressive image is decoded when it arrives.
+ *
+ * An intermediate result that is not decoded stays the pending decode job of its request, and is
+ * replaced by the next result that arrives, so that skipped scans are merged into the next decode
+ * instead of queueing up. Final results and placeholders are always decoded.
+ */
+fun interface IntermediateDecodePolicy {
+
+  /**
+   * @param producerContext the context of the request the result is for
+   * @param queuedDecodeCount the number of decodes waiting for a decode thread, or 0 if the decode
+   *   executor does not report it
+   * @return whether to decode the latest intermediate result of the request now
+   */
+  fun shouldDecodeIntermediateResult(
+      producerContext: ProducerContext,
+      queuedDecodeCount: Int
+  ): Boolean
+}
@@ -9,6 +9,9 @@ package com.facebook.imagepipeline.producers;
 
 import android.os.SystemClock;
 import androidx.annotation.VisibleForTesting;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.core.PrioritizedRunnable;
+import com.facebook.imagepipeline.core.PriorityExecutor;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.instrumentation.FrescoInstrumenter;
 import com.facebook.infer.annotation.FalseOnNull;
@@ -23,6 +26,9 @@ import javax.annotation.concurrent.GuardedBy;
 /**
  * Manages jobs so that only one can be executed at a time and no more often than once in <code>
  * mMinimumJobIntervalMs</code> milliseconds.
+ *
+ * <p>When the executor is a {@link PriorityExecutor}, the jobs are queued with the priority set
+ * with {@link #setPriority}, and a job that is already queued is moved when the priority changes.
  */
 @Nullsafe(Nullsafe.Mode.LOCAL)
 public class JobScheduler {
@@ -86,6 +92,12 @@ public class JobScheduler {
   @VisibleForTesting
   long mJobStartTime;
 
+  private volatile Priority mPriority = Priority.MEDIUM;
+
+  @GuardedBy("this")
+  @Nullable
+  private PrioritizedRunnable mSubmittedJobRunnable;
+
   public JobScheduler(Executor executor, JobRunnable jobRunnable, int minimumJobIntervalMs) {
     mExecutor = executor;
     mJobRunnable = jobRunnable;
@@ -150,6 +162,31 @@ public class JobScheduler {
     return true;
   }
 
+  /**
+   * Sets a job back, e.g. from {@link JobRunnable#run} for a job that was put off.
+   *
+   * <p>The job is only set if no other job was set since it started, as a newer job replaces it
+   * anyway. Like {@link #updateJob}, this doesn't schedule the job.
+   *
+   * @return whether the job was set back
+   */
+  public boolean restoreJob(@Nullable EncodedImage encodedImage, @Consumer.Status int status) {
+    if (!shouldProcess(encodedImage, status)) {
+      return false;
+    }
+    EncodedImage oldEncodedImage;
+    synchronized (this) {
+      if (shouldProcess(mEncodedImage, mStatus)) {
+        return false;
+      }
+      oldEncodedImage = mEncodedImage;
+      this.mEncodedImage = EncodedImage.cloneOrNull(encodedImage);
+      this.mStatus = status;
+    }
+    EncodedImage.closeSafely(oldEncodedImage);
+    return true;
+  }
+
   /**
    * Schedules the currently set job (if any).
    *
@@ -194,6 +231,26 @@ public class JobScheduler {
     return true;
   }
 
+  /**
+   * Sets the priority of the jobs, e.g. from {@link ProducerContextCallbacks#onPriorityChanged}.
+   *
+   * <p>Only has an effect when the executor is a {@link PriorityExecutor}. A job that is queued
+   * but has not started yet is moved to its new place in the queue.
+   */
+  public void setPriority(Priority priority) {
+    if (mPriority == priority) {
+      return;
+    }
+    mPriority = priority;
+    PrioritizedRunnable submittedJobRunnable;
+    synchronized (this) {
+      submittedJobRunnable = mSubmittedJobRunnable;
+    }
+    if (submittedJobRunnable != null) {
+      ((PriorityExecutor) mExecutor).reprioritize(submittedJobRunnable);
+    }
+  }
+
   private void enqueueJob(long delay) {
     // If we make mExecutor be a {@link ScheduledexecutorService}, we could just have
     // `mExecutor.schedule(mDoJobRunnable, delay)` and avoid mSubmitJobRunnable and
@@ -208,8 +265,28 @@ public class JobScheduler {
   }
 
   private void submitJob() {
-    mExecutor.execute(
-        FrescoInstrumenter.decorateRunnable(mDoJobRunnable, "JobScheduler_submitJob"));
+    final Runnable doJobRunnable =
+        FrescoInstrumenter.decorateRunnable(mDoJobRunnable, "JobScheduler_submitJob");
+    if (!(mExecutor instanceof PriorityExecutor)) {
+      mExecutor.execute(doJobRunnable);
+      return;
+    }
+    PrioritizedRunnable prioritizedRunnable =
+        new PrioritizedRunnable() {
+          @Override
+          public Priority getPriority() {
+            return mPriority;
+          }
+
+          @Override
+          public void run() {
+            doJobRunnable.run();
+          }
+        };
+    synchronized (this) {
+      mSubmittedJobRunnable = prioritizedRunnable;
+    }
+    mExecutor.execute(prioritizedRunnable);
   }
 
   private void doJob() {
@@ -223,6 +300,7 @@ public class JobScheduler {
       this.mStatus = 0;
       mJobState = JobState.RUNNING;
       mJobStartTime = now;
+      mSubmittedJobRunnable = null;
     }
 
     try {
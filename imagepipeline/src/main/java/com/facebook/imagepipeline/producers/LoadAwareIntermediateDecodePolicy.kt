@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.producers
+
+import com.facebook.imagepipeline.common.Priority
+
+/**
+ * Decodes the intermediate results of the requests that expect them, but only those of requests of
+ * at least [busyMinPriority] while more than [maxQueuedDecodes] decodes wait for a thread, e.g.
+ * during a fast fling.
+ *
+ * Whether a request expects intermediate results is how the pipeline knows if its image is on
+ * screen: an image that is off screen, or a prefetch, does not. The queue of the decode executor is
+ * only known if it is a [com.facebook.imagepipeline.core.PriorityExecutor].
+ */
+class LoadAwareIntermediateDecodePolicy
+@JvmOverloads
+constructor(
+    private val maxQueuedDecodes: Int = DEFAULT_MAX_QUEUED_DECODES,
+    private val busyMinPriority: Priority = Priority.HIGH
+) : IntermediateDecodePolicy {
+
+  override fun shouldDecodeIntermediateResult(
+      producerContext: ProducerContext,
+      queuedDecodeCount: Int
+  ): Boolean {
+    if (!producerContext.isIntermediateResultExpected) {
+      return false
+    }
+    return queuedDecodeCount <= maxQueuedDecodes || producerContext.priority >= busyMinPriority
+  }
+
+  companion object {
+    const val DEFAULT_MAX_QUEUED_DECODES = 2
+  }
+}
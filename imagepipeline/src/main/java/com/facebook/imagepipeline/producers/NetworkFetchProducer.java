@@ -9,18 +9,25 @@ package com.facebook.imagepipeline.producers;
 
 import android.os.SystemClock;
 import androidx.annotation.VisibleForTesting;
+import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.WriterCallback;
 import com.facebook.common.memory.ByteArrayPool;
 import com.facebook.common.memory.PooledByteBuffer;
 import com.facebook.common.memory.PooledByteBufferFactory;
 import com.facebook.common.memory.PooledByteBufferOutputStream;
 import com.facebook.common.references.CloseableReference;
+import com.facebook.imageformat.ImageFormat;
+import com.facebook.imagepipeline.cache.BufferedDiskCache;
+import com.facebook.imagepipeline.cache.CacheKeyFactory;
 import com.facebook.imagepipeline.common.BytesRange;
 import com.facebook.imagepipeline.decoder.ProgressiveJpegConfig;
 import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.request.ImageRequest;
 import com.facebook.imagepipeline.systrace.FrescoSystrace;
 import com.facebook.infer.annotation.Nullsafe;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Map;
 import javax.annotation.Nullable;
 
@@ -32,6 +39,13 @@ import javax.annotation.Nullable;
  *
  * <p>Clients should provide an instance of {@link NetworkFetcher} to make use of their networking
  * stack. Use {@link HttpUrlConnectionNetworkFetcher} as a model.
+ *
+ * <p>If it is given the disk caches, downloaded bytes are written to a temporary file of the disk
+ * cache as they arrive instead of being buffered in memory, unless intermediate results are
+ * propagated or only part of the image is fetched. The file is committed once the download
+ * completes and the result passed to the consumer is read from it, memory mapped if possible. The
+ * result is flagged with {@link Consumer#IS_DISK_CACHED} so that it isn't written to the disk
+ * cache again.
  */
 @Nullsafe(Nullsafe.Mode.LOCAL)
 public class NetworkFetchProducer implements Producer<EncodedImage> {
@@ -50,6 +64,10 @@ public class NetworkFetchProducer implements Producer<EncodedImage> {
   protected final PooledByteBufferFactory mPooledByteBufferFactory;
   private final ByteArrayPool mByteArrayPool;
   private final NetworkFetcher mNetworkFetcher;
+  private final @Nullable BufferedDiskCache mDefaultBufferedDiskCache;
+  private final @Nullable BufferedDiskCache mSmallImageBufferedDiskCache;
+  private final @Nullable Map<String, BufferedDiskCache> mDynamicBufferedDiskCaches;
+  private final @Nullable CacheKeyFactory mCacheKeyFactory;
 
   public NetworkFetchProducer(
       PooledByteBufferFactory pooledByteBufferFactory,
@@ -58,6 +76,28 @@ public class NetworkFetchProducer implements Producer<EncodedImage> {
     mPooledByteBufferFactory = pooledByteBufferFactory;
     mByteArrayPool = byteArrayPool;
     mNetworkFetcher = networkFetcher;
+    mDefaultBufferedDiskCache = null;
+    mSmallImageBufferedDiskCache = null;
+    mDynamicBufferedDiskCaches = null;
+    mCacheKeyFactory = null;
+  }
+
+  /** Creates a producer that writes the downloaded bytes to the disk cache as they arrive. */
+  public NetworkFetchProducer(
+      PooledByteBufferFactory pooledByteBufferFactory,
+      ByteArrayPool byteArrayPool,
+      NetworkFetcher networkFetcher,
+      BufferedDiskCache defaultBufferedDiskCache,
+      BufferedDiskCache smallImageBufferedDiskCache,
+      @Nullable Map<String, BufferedDiskCache> dynamicBufferedDiskCaches,
+      CacheKeyFactory cacheKeyFactory) {
+    mPooledByteBufferFactory = pooledByteBufferFactory;
+    mByteArrayPool = byteArrayPool;
+    mNetworkFetcher = networkFetcher;
+    mDefaultBufferedDiskCache = defaultBufferedDiskCache;
+    mSmallImageBufferedDiskCache = smallImageBufferedDiskCache;
+    mDynamicBufferedDiskCaches = dynamicBufferedDiskCaches;
+    mCacheKeyFactory = cacheKeyFactory;
   }
 
   @Override
@@ -93,6 +133,9 @@ public class NetworkFetchProducer implements Producer<EncodedImage> {
   protected void onResponse(
       FetchState fetchState, InputStream responseData, int responseContentLength)
       throws IOException {
+    if (maybeStreamToDiskCache(fetchState, responseData, responseContentLength)) {
+      return;
+    }
     final PooledByteBufferOutputStream pooledOutputStream;
     if (responseContentLength > 0) {
       pooledOutputStream = mPooledByteBufferFactory.newOutputStream(responseContentLength);
@@ -118,6 +161,81 @@ public class NetworkFetchProducer implements Producer<EncodedImage> {
     }
   }
 
+  /**
+   * Writes the response to the disk cache while it is downloaded, if the request allows it, and
+   * passes the result read from the disk cache to the consumer.
+   *
+   * @return false if the response was not consumed and must be buffered in memory instead
+   */
+  private boolean maybeStreamToDiskCache(
+      final FetchState fetchState, final InputStream responseData, final int responseContentLength)
+      throws IOException {
+    final BufferedDiskCache bufferedDiskCache = getDiskCacheForStreaming(fetchState);
+    if (bufferedDiskCache == null || mCacheKeyFactory == null) {
+      return false;
+    }
+    final ProducerContext context = fetchState.getContext();
+    final CacheKey cacheKey =
+        mCacheKeyFactory.getEncodedCacheKey(context.getImageRequest(), context.getCallerContext());
+    final ResponseWriter responseWriter =
+        new ResponseWriter(fetchState, responseData, responseContentLength);
+    final PooledByteBuffer buffer = bufferedDiskCache.putSync(cacheKey, responseWriter);
+    if (buffer == null) {
+      if (responseWriter.mStarted) {
+        throw new IOException("Disk cache dropped the response for " + cacheKey.getUriString());
+      }
+      return false;
+    }
+    final CloseableReference<PooledByteBuffer> result = CloseableReference.of(buffer);
+    EncodedImage encodedImage = null;
+    try {
+      mNetworkFetcher.onFetchCompletion(fetchState, buffer.size());
+      encodedImage = new EncodedImage(result);
+      encodedImage.parseMetaData();
+      if (encodedImage.getImageFormat() == ImageFormat.UNKNOWN) {
+        // this could be an html response from the server, which is not cached
+        bufferedDiskCache.remove(cacheKey);
+      }
+      onFinalResult(fetchState, buffer.size());
+      fetchState
+          .getConsumer()
+          .onNewResult(
+              encodedImage,
+              Consumer.IS_LAST | Consumer.IS_DISK_CACHED | fetchState.getOnNewResultStatusFlags());
+    } finally {
+      EncodedImage.closeSafely(encodedImage);
+      CloseableReference.closeSafely(result);
+    }
+    return true;
+  }
+
+  /**
+   * Chooses the disk cache to write the response to while it is downloaded, as {@link
+   * DiskCacheWriteProducer} would for the whole response, or returns null if it must be buffered.
+   */
+  @Nullable
+  private BufferedDiskCache getDiskCacheForStreaming(FetchState fetchState) {
+    if (mDefaultBufferedDiskCache == null || mSmallImageBufferedDiskCache == null) {
+      return null;
+    }
+    final ProducerContext context = fetchState.getContext();
+    final ImageRequest imageRequest = context.getImageRequest();
+    if (!imageRequest.isCacheEnabled(ImageRequest.CachesLocationsMasks.DISK_WRITE)
+        || imageRequest.getBytesRange() != null
+        || fetchState.getResponseBytesRange() != null
+        || BaseConsumer.statusHasAnyFlag(
+            fetchState.getOnNewResultStatusFlags(),
+            Consumer.DO_NOT_CACHE_ENCODED | Consumer.IS_PARTIAL_RESULT)
+        || shouldPropagateIntermediateResults(fetchState, context)) {
+      return null;
+    }
+    return DiskCacheDecision.chooseDiskCacheForRequest(
+        imageRequest,
+        mSmallImageBufferedDiskCache,
+        mDefaultBufferedDiskCache,
+        mDynamicBufferedDiskCaches);
+  }
+
   protected static float calculateProgress(int downloaded, int total) {
     if (total > 0) {
       return (float) downloaded / total;
@@ -159,11 +277,7 @@ public class NetworkFetchProducer implements Producer<EncodedImage> {
 
   protected void handleFinalResult(
       PooledByteBufferOutputStream pooledOutputStream, FetchState fetchState) {
-    Map<String, String> extraMap = this.getExtraMap(fetchState, pooledOutputStream.size());
-    ProducerListener2 listener = fetchState.getListener();
-    listener.onProducerFinishWithSuccess(fetchState.getContext(), PRODUCER_NAME, extraMap);
-    listener.onUltimateProducerReached(fetchState.getContext(), PRODUCER_NAME, true);
-    fetchState.getContext().putOriginExtra("network");
+    onFinalResult(fetchState, pooledOutputStream.size());
     notifyConsumer(
         pooledOutputStream,
         Consumer.IS_LAST | fetchState.getOnNewResultStatusFlags(),
@@ -192,6 +306,14 @@ public class NetworkFetchProducer implements Producer<EncodedImage> {
     }
   }
 
+  private void onFinalResult(FetchState fetchState, int byteSize) {
+    Map<String, String> extraMap = this.getExtraMap(fetchState, byteSize);
+    ProducerListener2 listener = fetchState.getListener();
+    listener.onProducerFinishWithSuccess(fetchState.getContext(), PRODUCER_NAME, extraMap);
+    listener.onUltimateProducerReached(fetchState.getContext(), PRODUCER_NAME, true);
+    fetchState.getContext().putOriginExtra("network");
+  }
+
   private void onFailure(FetchState fetchState, Throwable e) {
     fetchState
         .getListener()
@@ -234,4 +356,40 @@ public class NetworkFetchProducer implements Producer<EncodedImage> {
   protected long getSystemUptime() {
     return SystemClock.uptimeMillis();
   }
+
+  /** Copies the response to the disk cache file, reporting the progress to the consumer. */
+  private class ResponseWriter implements WriterCallback {
+    private final FetchState mFetchState;
+    private final InputStream mResponseData;
+    private final int mResponseContentLength;
+    private boolean mStarted;
+
+    private ResponseWriter(
+        FetchState fetchState, InputStream responseData, int responseContentLength) {
+      mFetchState = fetchState;
+      mResponseData = responseData;
+      mResponseContentLength = responseContentLength;
+    }
+
+    @Override
+    public void write(OutputStream os) throws IOException {
+      mStarted = true;
+      final byte[] ioArray = mByteArrayPool.get(READ_SIZE);
+      try {
+        int downloaded = 0;
+        int length;
+        while ((length = mResponseData.read(ioArray)) >= 0) {
+          if (length > 0) {
+            os.write(ioArray, 0, length);
+            downloaded += length;
+            mFetchState
+                .getConsumer()
+                .onProgressUpdate(calculateProgress(downloaded, mResponseContentLength));
+          }
+        }
+      } finally {
+        mByteArrayPool.release(ioArray);
+      }
+    }
+  }
 }
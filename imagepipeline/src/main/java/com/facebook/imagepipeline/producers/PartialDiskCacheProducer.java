@@ -25,6 +25,7 @@ import com.facebook.imageformat.ImageFormat;
 import com.facebook.imagepipeline.cache.BufferedDiskCache;
 import com.facebook.imagepipeline.cache.CacheKeyFactory;
 import com.facebook.imagepipeline.common.BytesRange;
+import com.facebook.imagepipeline.core.TaskPriority;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.request.ImageRequest;
 import com.facebook.imagepipeline.request.ImageRequestBuilder;
@@ -108,13 +109,14 @@ public class PartialDiskCacheProducer implements Producer<EncodedImage> {
     }
 
     final AtomicBoolean isCancelled = new AtomicBoolean(false);
+    final TaskPriority taskPriority = new TaskPriority(producerContext.getPriority());
     final Task<EncodedImage> diskLookupTask =
-        mDefaultBufferedDiskCache.get(partialImageCacheKey, isCancelled);
+        mDefaultBufferedDiskCache.get(partialImageCacheKey, isCancelled, taskPriority);
     final Continuation<EncodedImage, Void> continuation =
         onFinishDiskReads(consumer, producerContext, partialImageCacheKey);
 
     diskLookupTask.continueWith(continuation);
-    subscribeTaskForRequestCancellation(isCancelled, producerContext);
+    subscribeTaskForRequestUpdates(isCancelled, taskPriority, producerContext);
   }
 
   private Continuation<EncodedImage, Void> onFinishDiskReads(
@@ -222,14 +224,21 @@ public class PartialDiskCacheProducer implements Producer<EncodedImage> {
     }
   }
 
-  private void subscribeTaskForRequestCancellation(
-      final AtomicBoolean isCancelled, ProducerContext producerContext) {
+  private void subscribeTaskForRequestUpdates(
+      final AtomicBoolean isCancelled,
+      final TaskPriority taskPriority,
+      final ProducerContext producerContext) {
     producerContext.addCallbacks(
         new BaseProducerContextCallbacks() {
           @Override
           public void onCancellationRequested() {
             isCancelled.set(true);
           }
+
+          @Override
+          public void onPriorityChanged() {
+            taskPriority.setPriority(producerContext.getPriority());
+          }
         });
   }
 
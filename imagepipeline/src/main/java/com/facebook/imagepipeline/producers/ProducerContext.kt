@@ -6,6 +6,7 @@
  */
 package com.facebook.imagepipeline.producers
 
+import com.facebook.fresco.middleware.ExtraKey
 import com.facebook.fresco.middleware.HasExtraData
 import com.facebook.imagepipeline.common.Priority
 import com.facebook.imagepipeline.core.ImagePipelineConfigInterface
@@ -66,4 +67,10 @@ interface ProducerContext : HasExtraData {
 
   /** Helper to set [HasExtraData.KEY_ORIGIN] */
   fun putOriginExtra(origin: String?)
+
+  /** Sets the int extra of a registered key, e.g. [com.facebook.fresco.middleware.ExtraSlots]. */
+  fun putIntExtra(key: ExtraKey, value: Int)
+
+  /** Gets the int extra of a registered key, or [valueIfNotFound] if it is not set. */
+  fun getIntExtra(key: ExtraKey, valueIfNotFound: Int): Int
 }
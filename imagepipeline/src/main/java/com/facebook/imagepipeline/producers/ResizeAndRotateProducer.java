@@ -124,6 +124,7 @@ public class ResizeAndRotateProducer implements Producer<EncodedImage> {
             }
           };
       mJobScheduler = new JobScheduler(mExecutor, job, MIN_TRANSFORM_INTERVAL_MS);
+      mJobScheduler.setPriority(mProducerContext.getPriority());
 
       mProducerContext.addCallbacks(
           new BaseProducerContextCallbacks() {
@@ -134,6 +135,11 @@ public class ResizeAndRotateProducer implements Producer<EncodedImage> {
               }
             }
 
+            @Override
+            public void onPriorityChanged() {
+              mJobScheduler.setPriority(mProducerContext.getPriority());
+            }
+
             @Override
             public void onCancellationRequested() {
               mJobScheduler.clearJob();
@@ -7,11 +7,14 @@
 
 package com.facebook.imagepipeline.cache;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -23,6 +26,7 @@ import static org.powermock.api.mockito.PowerMockito.mockStatic;
 
 import bolts.Task;
 import com.facebook.binaryresource.BinaryResource;
+import com.facebook.binaryresource.FileBinaryResource;
 import com.facebook.cache.common.CacheKey;
 import com.facebook.cache.common.MultiCacheKey;
 import com.facebook.cache.common.SimpleCacheKey;
@@ -33,18 +37,27 @@ import com.facebook.common.memory.PooledByteBufferFactory;
 import com.facebook.common.memory.PooledByteStreams;
 import com.facebook.common.references.CloseableReference;
 import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.memory.MappedPooledByteBuffer;
 import com.facebook.imagepipeline.testing.FakeClock;
 import com.facebook.imagepipeline.testing.TestExecutorService;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import javax.annotation.Nullable;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
@@ -72,6 +85,7 @@ public class BufferedDiskCacheTest {
   @Mock public BinaryResource mBinaryResource;
 
   @Rule public PowerMockRule rule = new PowerMockRule();
+  @Rule public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
 
   private MultiCacheKey mCacheKey;
   private AtomicBoolean mIsCancelled;
@@ -151,6 +165,203 @@ public class BufferedDiskCacheTest {
     assertSame(mPooledByteBuffer, result.getByteBufferRef().get());
   }
 
+  @Test
+  public void testContainsAllChecksMissesInOneTask() throws Exception {
+    CacheKey stagedKey = new SimpleCacheKey("http://staged.uri");
+    CacheKey indexedKey = new SimpleCacheKey("http://indexed.uri");
+    CacheKey diskKey = new SimpleCacheKey("http://disk.uri");
+    CacheKey missingKey = new SimpleCacheKey("http://missing.uri");
+    List<CacheKey> keys = Arrays.asList(stagedKey, indexedKey, diskKey, missingKey);
+    when(mStagingArea.containsKeys(keys)).thenReturn(Collections.singleton(stagedKey));
+    when(mFileCache.hasKeySync(indexedKey)).thenReturn(true);
+    when(mFileCache.hasKey(diskKey)).thenReturn(true);
+
+    Task<Map<CacheKey, Boolean>> task = mBufferedDiskCache.containsAll(keys);
+    assertEquals(1, mReadPriorityExecutor.getPendingCount());
+    mReadPriorityExecutor.runUntilIdle();
+
+    Map<CacheKey, Boolean> result = task.getResult();
+    assertEquals(4, result.size());
+    assertTrue(result.get(stagedKey));
+    assertTrue(result.get(indexedKey));
+    assertTrue(result.get(diskKey));
+    assertFalse(result.get(missingKey));
+    verify(mFileCache, never()).hasKey(stagedKey);
+    verify(mFileCache, never()).hasKey(indexedKey);
+  }
+
+  @Test
+  public void testGetAllReadsMissesInOneTask() throws Exception {
+    CacheKey stagedKey = new SimpleCacheKey("http://staged.uri");
+    CacheKey diskKey = new SimpleCacheKey("http://disk.uri");
+    CacheKey missingKey = new SimpleCacheKey("http://missing.uri");
+    List<CacheKey> keys = Arrays.asList(stagedKey, diskKey, missingKey);
+    Map<CacheKey, EncodedImage> staged = new HashMap<>();
+    staged.put(stagedKey, EncodedImage.cloneOrNull(mEncodedImage));
+    when(mStagingArea.getAll(keys)).thenReturn(staged);
+    when(mFileCache.getResource(eq(diskKey))).thenReturn(mBinaryResource);
+
+    Task<Map<CacheKey, EncodedImage>> task = mBufferedDiskCache.getAll(keys, mIsCancelled);
+    assertEquals(1, mReadPriorityExecutor.getPendingCount());
+    mReadPriorityExecutor.runUntilIdle();
+
+    Map<CacheKey, EncodedImage> result = task.getResult();
+    assertEquals(3, result.size());
+    assertSame(mPooledByteBuffer, result.get(stagedKey).getByteBufferRef().get());
+    assertSame(mPooledByteBuffer, result.get(diskKey).getByteBufferRef().get());
+    assertNull(result.get(missingKey));
+    verify(mImageCacheStatsTracker).onStagingAreaHit(stagedKey);
+    verify(mImageCacheStatsTracker).onDiskCacheHit(diskKey);
+    verify(mImageCacheStatsTracker).onDiskCacheMiss(missingKey);
+    verify(mFileCache, never()).getResource(stagedKey);
+  }
+
+  @Test
+  public void testMapsLargeFileEntries() throws Exception {
+    File file = mTemporaryFolder.newFile("entry.cnt");
+    byte[] content = new byte[] {1, 2, 3, 4, 5, 6, 7, 8};
+    FileOutputStream fos = new FileOutputStream(file);
+    try {
+      fos.write(content);
+    } finally {
+      fos.close();
+    }
+    when(mFileCache.getResource(eq(mCacheKey))).thenReturn(FileBinaryResource.create(file));
+    BufferedDiskCache bufferedDiskCache =
+        new BufferedDiskCache(
+            mFileCache,
+            mByteBufferFactory,
+            mPooledByteStreams,
+            mReadPriorityExecutor,
+            mWritePriorityExecutor,
+            mImageCacheStatsTracker,
+            content.length);
+
+    Task<EncodedImage> readTask = bufferedDiskCache.get(mCacheKey, mIsCancelled);
+    mReadPriorityExecutor.runUntilIdle();
+
+    EncodedImage result = readTask.getResult();
+    PooledByteBuffer buffer = result.getByteBufferRef().get();
+    assertTrue(buffer instanceof MappedPooledByteBuffer);
+    assertEquals(content.length, buffer.size());
+    byte[] read = new byte[content.length];
+    buffer.read(0, read, 0, content.length);
+    assertArrayEquals(content, read);
+    byte[] tail = new byte[2];
+    buffer.read(6, tail, 0, 2);
+    assertArrayEquals(new byte[] {7, 8}, tail);
+    assertEquals(0, buffer.getByteBuffer().position());
+    verify(mByteBufferFactory, never()).newByteBuffer(any(InputStream.class), anyInt());
+
+    result.close();
+    assertTrue(buffer.isClosed());
+  }
+
+  @Test
+  public void testPutSyncMapsLargeWrittenFile() throws Exception {
+    final byte[] content = new byte[] {1, 2, 3, 4, 5, 6, 7, 8};
+    streamInsertsTo(mTemporaryFolder.newFile("entry.cnt"));
+    BufferedDiskCache bufferedDiskCache =
+        new BufferedDiskCache(
+            mFileCache,
+            mByteBufferFactory,
+            mPooledByteStreams,
+            mReadPriorityExecutor,
+            mWritePriorityExecutor,
+            mImageCacheStatsTracker,
+            content.length);
+
+    PooledByteBuffer buffer = bufferedDiskCache.putSync(mCacheKey, newWriter(content));
+
+    assertTrue(buffer instanceof MappedPooledByteBuffer);
+    byte[] read = new byte[content.length];
+    buffer.read(0, read, 0, content.length);
+    assertArrayEquals(content, read);
+    verify(mStagingArea).remove(mCacheKey);
+    verify(mImageCacheStatsTracker).onDiskCachePut(mCacheKey);
+    verify(mByteBufferFactory, never()).newByteBuffer(any(InputStream.class), anyInt());
+    assertEquals(0, mWritePriorityExecutor.getPendingCount());
+    buffer.close();
+  }
+
+  @Test
+  public void testPutSyncCopiesSmallWrittenFile() throws Exception {
+    final byte[] content = new byte[] {1, 2, 3, 4, 5, 6, 7, 8};
+    streamInsertsTo(mTemporaryFolder.newFile("entry.cnt"));
+    when(mByteBufferFactory.newByteBuffer(any(InputStream.class), eq(content.length)))
+        .thenReturn(mPooledByteBuffer);
+    BufferedDiskCache bufferedDiskCache =
+        new BufferedDiskCache(
+            mFileCache,
+            mByteBufferFactory,
+            mPooledByteStreams,
+            mReadPriorityExecutor,
+            mWritePriorityExecutor,
+            mImageCacheStatsTracker,
+            content.length + 1);
+
+    assertSame(mPooledByteBuffer, bufferedDiskCache.putSync(mCacheKey, newWriter(content)));
+    // no threshold, nothing is mapped
+    assertSame(mPooledByteBuffer, mBufferedDiskCache.putSync(mCacheKey, newWriter(content)));
+  }
+
+  @Test
+  public void testPutSyncDropsPendingPut() throws Exception {
+    WriterCallback writer = mock(WriterCallback.class);
+    when(mFileCache.insert(mCacheKey, writer)).thenReturn(mBinaryResource);
+    mBufferedDiskCache.put(mCacheKey, mEncodedImage);
+
+    mBufferedDiskCache.putSync(mCacheKey, writer);
+    mWritePriorityExecutor.runUntilIdle();
+
+    // the older image is not written over the streamed one
+    verify(mFileCache).insert(eq(mCacheKey), any(WriterCallback.class));
+    verify(mFileCache).insert(mCacheKey, writer);
+    verify(mImageCacheStatsTracker).onDiskCachePut(mCacheKey);
+    // but it is still unpinned and released
+    verify(mStagingArea).remove(eq(mCacheKey), any(EncodedImage.class));
+    assertEquals(2, mCloseableReference.getUnderlyingReferenceTestOnly().getRefCountTestOnly());
+  }
+
+  @Test
+  public void testPutSyncKeepsPendingPutOfOtherKey() throws Exception {
+    CacheKey otherKey = new SimpleCacheKey("http://other.uri");
+    WriterCallback writer = mock(WriterCallback.class);
+    when(mFileCache.insert(mCacheKey, writer)).thenReturn(mBinaryResource);
+    mBufferedDiskCache.put(otherKey, mEncodedImage);
+
+    mBufferedDiskCache.putSync(mCacheKey, writer);
+    mWritePriorityExecutor.runUntilIdle();
+
+    verify(mFileCache).insert(eq(otherKey), any(WriterCallback.class));
+  }
+
+  @Test
+  public void testPutSyncCopiesOtherResources() throws Exception {
+    WriterCallback writer = mock(WriterCallback.class);
+    when(mFileCache.insert(mCacheKey, writer)).thenReturn(mBinaryResource);
+
+    assertSame(mPooledByteBuffer, mBufferedDiskCache.putSync(mCacheKey, writer));
+    verify(mImageCacheStatsTracker).onDiskCachePut(mCacheKey);
+  }
+
+  @Test
+  public void testPutSyncNotStored() throws Exception {
+    WriterCallback writer = mock(WriterCallback.class);
+    when(mFileCache.insert(mCacheKey, writer)).thenReturn(null);
+
+    assertNull(mBufferedDiskCache.putSync(mCacheKey, writer));
+    verify(mImageCacheStatsTracker, never()).onDiskCachePut(mCacheKey);
+  }
+
+  @Test(expected = IOException.class)
+  public void testPutSyncWriterFailure() throws Exception {
+    WriterCallback writer = mock(WriterCallback.class);
+    when(mFileCache.insert(mCacheKey, writer)).thenThrow(new IOException());
+
+    mBufferedDiskCache.putSync(mCacheKey, writer);
+  }
+
   @Test
   public void testCacheGetCancellation() throws Exception {
     when(mFileCache.getResource(mCacheKey)).thenReturn(mBinaryResource);
@@ -289,6 +500,33 @@ public class BufferedDiskCacheTest {
     verify(mStagingArea).clearAll();
   }
 
+  /** Makes the file cache write the inserted entries to the file and return it. */
+  private void streamInsertsTo(final File file) throws IOException {
+    when(mFileCache.insert(eq(mCacheKey), any(WriterCallback.class)))
+        .then(
+            new Answer<BinaryResource>() {
+              @Override
+              public BinaryResource answer(InvocationOnMock invocation) throws Throwable {
+                FileOutputStream fos = new FileOutputStream(file);
+                try {
+                  ((WriterCallback) invocation.getArguments()[1]).write(fos);
+                } finally {
+                  fos.close();
+                }
+                return FileBinaryResource.create(file);
+              }
+            });
+  }
+
+  private static WriterCallback newWriter(final byte[] content) {
+    return new WriterCallback() {
+      @Override
+      public void write(OutputStream os) throws IOException {
+        os.write(content);
+      }
+    };
+  }
+
   private static boolean isTaskCancelled(Task<?> task) {
     return task.isCancelled()
         || (task.isFaulted() && task.getError() instanceof CancellationException);
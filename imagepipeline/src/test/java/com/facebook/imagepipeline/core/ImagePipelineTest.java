@@ -12,14 +12,17 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.anyObject;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 import android.net.Uri;
+import bolts.Task;
 import com.facebook.cache.common.CacheKey;
 import com.facebook.cache.common.DebuggingCacheKey;
 import com.facebook.cache.common.MultiCacheKey;
@@ -30,12 +33,14 @@ import com.facebook.common.internal.Supplier;
 import com.facebook.common.memory.PooledByteBuffer;
 import com.facebook.common.references.CloseableReference;
 import com.facebook.datasource.DataSource;
+import com.facebook.fresco.middleware.HasExtraData;
 import com.facebook.imagepipeline.cache.BitmapMemoryCacheKey;
 import com.facebook.imagepipeline.cache.BufferedDiskCache;
 import com.facebook.imagepipeline.cache.CacheKeyFactory;
 import com.facebook.imagepipeline.cache.MemoryCache;
 import com.facebook.imagepipeline.common.Priority;
 import com.facebook.imagepipeline.image.CloseableImage;
+import com.facebook.imagepipeline.image.ImmutableQualityInfo;
 import com.facebook.imagepipeline.listener.RequestListener;
 import com.facebook.imagepipeline.listener.RequestListener2;
 import com.facebook.imagepipeline.producers.Consumer;
@@ -43,7 +48,10 @@ import com.facebook.imagepipeline.producers.Producer;
 import com.facebook.imagepipeline.producers.ProducerContext;
 import com.facebook.imagepipeline.producers.ThreadHandoffProducerQueue;
 import com.facebook.imagepipeline.request.ImageRequest;
+import com.facebook.imagepipeline.request.Postprocessor;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -183,6 +191,50 @@ public class ImagePipelineTest {
     verifyPrefetchToDiskCache(dataSource, prefetchProducerSequence, Priority.MEDIUM);
   }
 
+  @Test
+  public void testPrefetchAllToDiskCacheOnlyPrefetchesMisses() {
+    ImageRequest cachedImageRequest = mock(ImageRequest.class);
+    when(cachedImageRequest.getCacheChoice()).thenReturn(ImageRequest.CacheChoice.DEFAULT);
+    when(mImageRequest.getCacheChoice()).thenReturn(ImageRequest.CacheChoice.DEFAULT);
+    CacheKey cachedKey = new SimpleCacheKey("cached");
+    CacheKey missingKey = new SimpleCacheKey("missing");
+    when(mCacheKeyFactory.getEncodedCacheKey(cachedImageRequest, mCallerContext))
+        .thenReturn(cachedKey);
+    when(mCacheKeyFactory.getEncodedCacheKey(mImageRequest, mCallerContext))
+        .thenReturn(missingKey);
+    Map<CacheKey, Boolean> found = new HashMap<>();
+    found.put(cachedKey, true);
+    found.put(missingKey, false);
+    when(mMainDiskStorageCache.containsAll(Arrays.asList(cachedKey, missingKey)))
+        .thenReturn(Task.forResult(found));
+    Producer<Void> prefetchProducerSequence = mock(Producer.class);
+    when(mProducerSequenceFactory.getEncodedImagePrefetchProducerSequence(mImageRequest))
+        .thenReturn(prefetchProducerSequence);
+
+    List<DataSource<Void>> dataSources =
+        mImagePipeline.prefetchAllToDiskCache(
+            Arrays.asList(cachedImageRequest, mImageRequest), mCallerContext);
+
+    assertEquals(2, dataSources.size());
+    assertTrue(dataSources.get(0).isFinished());
+    assertFalse(dataSources.get(0).hasFailed());
+    verify(mProducerSequenceFactory, never())
+        .getEncodedImagePrefetchProducerSequence(cachedImageRequest);
+    verifyPrefetchToDiskCache(dataSources.get(1), prefetchProducerSequence, Priority.MEDIUM);
+  }
+
+  @Test
+  public void testPrefetchAllToDiskCacheWithPrefetchDisabled() {
+    when(mPrefetchEnabledSupplier.get()).thenReturn(false);
+    List<DataSource<Void>> dataSources =
+        mImagePipeline.prefetchAllToDiskCache(
+            Collections.singletonList(mImageRequest), mCallerContext);
+    assertEquals(1, dataSources.size());
+    assertTrue(dataSources.get(0).hasFailed());
+    verify(mMainDiskStorageCache, never()).containsAll(any(List.class));
+    verifyNoMoreInteractions(mProducerSequenceFactory);
+  }
+
   private void verifyPrefetchToDiskCache(
       DataSource<Void> dataSource, Producer<Void> prefetchProducerSequence, Priority priority) {
     assertFalse(dataSource.isFinished());
@@ -432,6 +484,198 @@ public class ImagePipelineTest {
     verify(mRequestListener1).onRequestStart(mImageRequest, mCallerContext, "1", false);
   }
 
+  @Test
+  public void testFetchDecodedImageFromBitmapCacheFastPath() {
+    ImagePipeline imagePipeline = newImagePipelineWithoutListeners();
+    CloseableImage image = mockCachedImage();
+    when(mImagePipelineExperiments.isBitmapCacheHitFastPathEnabled()).thenReturn(true);
+
+    DataSource<CloseableReference<CloseableImage>> dataSource =
+        imagePipeline.fetchDecodedImage(mImageRequest, mCallerContext);
+    assertTrue(dataSource.isFinished());
+    assertTrue(dataSource.hasResult());
+    CloseableReference<CloseableImage> result = dataSource.getResult();
+    assertSame(image, result.get());
+    assertEquals("memory_bitmap", dataSource.getExtras().get("origin"));
+    result.close();
+    dataSource.close();
+    verify(mProducerSequenceFactory, never()).getDecodedImageProducerSequence(mImageRequest);
+  }
+
+  @Test
+  public void testBitmapCacheFastPathSetsExtrasOfTheImage() {
+    ImagePipeline imagePipeline = newImagePipelineWithoutListeners();
+    CloseableImage image = mockCachedImage();
+    Map<String, Object> imageExtras = new HashMap<>();
+    imageExtras.put(HasExtraData.KEY_ENCODED_WIDTH, 100);
+    imageExtras.put(HasExtraData.KEY_ENCODED_HEIGHT, 200);
+    when(image.getExtras()).thenReturn(imageExtras);
+    when(mImageRequest.getSourceUri()).thenReturn(Uri.parse("http://fresco/image"));
+    when(mImagePipelineExperiments.isBitmapCacheHitFastPathEnabled()).thenReturn(true);
+
+    DataSource<CloseableReference<CloseableImage>> dataSource =
+        imagePipeline.fetchDecodedImage(mImageRequest, mCallerContext);
+    Map<String, Object> extras = dataSource.getExtras();
+    assertEquals(100, extras.get(HasExtraData.KEY_ENCODED_WIDTH));
+    assertEquals(200, extras.get(HasExtraData.KEY_ENCODED_HEIGHT));
+    assertEquals(Uri.parse("http://fresco/image"), extras.get(HasExtraData.KEY_URI_SOURCE));
+    assertEquals("memory_bitmap", extras.get(HasExtraData.KEY_ORIGIN));
+    assertEquals("pipe_ui", extras.get(HasExtraData.KEY_ORIGIN_SUBCATEGORY));
+    dataSource.close();
+  }
+
+  @Test
+  public void testFetchDecodedImageFromBitmapCacheFastPathMiss() {
+    ImagePipeline imagePipeline = newImagePipelineWithoutListeners();
+    when(mImageRequest.isCacheEnabled(anyInt())).thenReturn(true);
+    when(mImagePipelineExperiments.isBitmapCacheHitFastPathEnabled()).thenReturn(true);
+    Producer<CloseableReference<CloseableImage>> decodedSequence = mock(Producer.class);
+    when(mProducerSequenceFactory.getDecodedImageProducerSequence(mImageRequest))
+        .thenReturn(decodedSequence);
+
+    DataSource<CloseableReference<CloseableImage>> dataSource =
+        imagePipeline.fetchDecodedImage(mImageRequest, mCallerContext);
+    assertFalse(dataSource.isFinished());
+    verify(decodedSequence).produceResults(any(Consumer.class), any(ProducerContext.class));
+  }
+
+  @Test
+  public void testBitmapCacheFastPathNotUsedWithRequestListeners() {
+    mockCachedImage();
+    when(mImagePipelineExperiments.isBitmapCacheHitFastPathEnabled()).thenReturn(true);
+    Producer<CloseableReference<CloseableImage>> decodedSequence = mock(Producer.class);
+    when(mProducerSequenceFactory.getDecodedImageProducerSequence(mImageRequest))
+        .thenReturn(decodedSequence);
+
+    mImagePipeline.fetchDecodedImage(mImageRequest, mCallerContext);
+    verify(mRequestListener1).onRequestStart(mImageRequest, mCallerContext, "0", false);
+    verify(decodedSequence).produceResults(any(Consumer.class), any(ProducerContext.class));
+  }
+
+  @Test
+  public void testBitmapCacheFastPathNotUsedWithRequestListenerArgument() {
+    ImagePipeline imagePipeline = newImagePipelineWithoutListeners();
+    mockCachedImage();
+    when(mImagePipelineExperiments.isBitmapCacheHitFastPathEnabled()).thenReturn(true);
+    Producer<CloseableReference<CloseableImage>> decodedSequence = mockDecodedSequence();
+
+    imagePipeline.fetchDecodedImage(mImageRequest, mCallerContext, mock(RequestListener.class));
+    verify(decodedSequence).produceResults(any(Consumer.class), any(ProducerContext.class));
+  }
+
+  @Test
+  public void testBitmapCacheFastPathNotUsedWithPostprocessor() {
+    ImagePipeline imagePipeline = newImagePipelineWithoutListeners();
+    mockCachedImage();
+    when(mImagePipelineExperiments.isBitmapCacheHitFastPathEnabled()).thenReturn(true);
+    when(mImageRequest.getPostprocessor()).thenReturn(mock(Postprocessor.class));
+    Producer<CloseableReference<CloseableImage>> decodedSequence = mockDecodedSequence();
+
+    imagePipeline.fetchDecodedImage(mImageRequest, mCallerContext);
+    verify(decodedSequence).produceResults(any(Consumer.class), any(ProducerContext.class));
+  }
+
+  @Test
+  public void testBitmapCacheFastPathNotUsedWithDelay() {
+    ImagePipeline imagePipeline = newImagePipelineWithoutListeners();
+    mockCachedImage();
+    when(mImagePipelineExperiments.isBitmapCacheHitFastPathEnabled()).thenReturn(true);
+    when(mImageRequest.getDelayMs()).thenReturn(100);
+    Producer<CloseableReference<CloseableImage>> decodedSequence = mockDecodedSequence();
+
+    imagePipeline.fetchDecodedImage(mImageRequest, mCallerContext);
+    verify(decodedSequence).produceResults(any(Consumer.class), any(ProducerContext.class));
+  }
+
+  @Test
+  public void testBitmapCacheFastPathNotUsedWithBitmapReadDisabled() {
+    ImagePipeline imagePipeline = newImagePipelineWithoutListeners();
+    mockCachedImage();
+    when(mImagePipelineExperiments.isBitmapCacheHitFastPathEnabled()).thenReturn(true);
+    when(mImageRequest.isCacheEnabled(ImageRequest.CachesLocationsMasks.BITMAP_READ))
+        .thenReturn(false);
+    Producer<CloseableReference<CloseableImage>> decodedSequence = mockDecodedSequence();
+
+    imagePipeline.fetchDecodedImage(mImageRequest, mCallerContext);
+    verify(decodedSequence).produceResults(any(Consumer.class), any(ProducerContext.class));
+    verify(mBitmapMemoryCache, never()).get(any(CacheKey.class));
+  }
+
+  @Test
+  public void testBitmapCacheFastPathNotUsedWithBitmapPrepareToDraw() {
+    ImagePipeline imagePipeline = newImagePipelineWithoutListeners();
+    mockCachedImage();
+    when(mImagePipelineExperiments.isBitmapCacheHitFastPathEnabled()).thenReturn(true);
+    when(mImagePipelineExperiments.getUseBitmapPrepareToDraw()).thenReturn(true);
+    Producer<CloseableReference<CloseableImage>> decodedSequence = mockDecodedSequence();
+
+    imagePipeline.fetchDecodedImage(mImageRequest, mCallerContext);
+    verify(decodedSequence).produceResults(any(Consumer.class), any(ProducerContext.class));
+  }
+
+  @Test
+  public void testBitmapCacheFastPathNotUsedWhenDisabled() {
+    ImagePipeline imagePipeline = newImagePipelineWithoutListeners();
+    mockCachedImage();
+    when(mImagePipelineExperiments.isBitmapCacheHitFastPathEnabled()).thenReturn(false);
+    Producer<CloseableReference<CloseableImage>> decodedSequence = mockDecodedSequence();
+
+    imagePipeline.fetchDecodedImage(mImageRequest, mCallerContext);
+    verify(decodedSequence).produceResults(any(Consumer.class), any(ProducerContext.class));
+  }
+
+  @Test
+  public void testBitmapCacheFastPathNotUsedForImageOfLowerQuality() {
+    ImagePipeline imagePipeline = newImagePipelineWithoutListeners();
+    CloseableImage image = mockCachedImage();
+    when(image.getQualityInfo()).thenReturn(ImmutableQualityInfo.of(1, true, false));
+    when(mImagePipelineExperiments.isBitmapCacheHitFastPathEnabled()).thenReturn(true);
+    Producer<CloseableReference<CloseableImage>> decodedSequence = mockDecodedSequence();
+
+    DataSource<CloseableReference<CloseableImage>> dataSource =
+        imagePipeline.fetchDecodedImage(mImageRequest, mCallerContext);
+    assertFalse(dataSource.isFinished());
+    verify(decodedSequence).produceResults(any(Consumer.class), any(ProducerContext.class));
+  }
+
+  private Producer<CloseableReference<CloseableImage>> mockDecodedSequence() {
+    Producer<CloseableReference<CloseableImage>> decodedSequence = mock(Producer.class);
+    when(mProducerSequenceFactory.getDecodedImageProducerSequence(mImageRequest))
+        .thenReturn(decodedSequence);
+    return decodedSequence;
+  }
+
+  private ImagePipeline newImagePipelineWithoutListeners() {
+    return new ImagePipeline(
+        mProducerSequenceFactory,
+        Collections.<RequestListener>emptySet(),
+        Collections.<RequestListener2>emptySet(),
+        mPrefetchEnabledSupplier,
+        mBitmapMemoryCache,
+        mEncodedMemoryCache,
+        mMainDiskStorageCache,
+        mSmallImageDiskStorageCache,
+        mDynamicBufferedDiskCaches,
+        mCacheKeyFactory,
+        mThreadHandoffProducerQueue,
+        mSuppressBitmapPrefetchingSupplier,
+        mLazyDataSourceSupplier,
+        null,
+        mConfig);
+  }
+
+  /** Puts a full quality image in the mocked bitmap memory cache for {@link #mImageRequest}. */
+  private CloseableImage mockCachedImage() {
+    CacheKey cacheKey = new SimpleCacheKey("cacheKey");
+    CloseableImage image = mock(CloseableImage.class);
+    when(image.getQualityInfo()).thenReturn(ImmutableQualityInfo.FULL_QUALITY);
+    final CloseableReference<CloseableImage> cachedReference = CloseableReference.of(image);
+    when(mImageRequest.isCacheEnabled(anyInt())).thenReturn(true);
+    when(mCacheKeyFactory.getBitmapCacheKey(mImageRequest, mCallerContext)).thenReturn(cacheKey);
+    when(mBitmapMemoryCache.get(cacheKey)).thenAnswer(invocation -> cachedReference.clone());
+    return image;
+  }
+
   @Test
   public void testEvictFromMemoryCache() {
     String uriString = "http://dummy/string";
@@ -441,7 +685,8 @@ public class ImagePipelineTest {
     CacheKey dummyCacheKey = mock(CacheKey.class);
 
     ArgumentCaptor<Predicate> bitmapCachePredicateCaptor = ArgumentCaptor.forClass(Predicate.class);
-    verify(mBitmapMemoryCache).removeAll(bitmapCachePredicateCaptor.capture());
+    verify(mBitmapMemoryCache)
+        .removeAllForUri(eq(uriString), bitmapCachePredicateCaptor.capture());
     Predicate<CacheKey> bitmapMemoryCacheKeyPredicate = bitmapCachePredicateCaptor.getValue();
     BitmapMemoryCacheKey bitmapMemoryCacheKey1 = mock(BitmapMemoryCacheKey.class);
     BitmapMemoryCacheKey bitmapMemoryCacheKey2 = mock(BitmapMemoryCacheKey.class);
@@ -453,7 +698,8 @@ public class ImagePipelineTest {
 
     ArgumentCaptor<Predicate> encodedMemoryCachePredicateCaptor =
         ArgumentCaptor.forClass(Predicate.class);
-    verify(mEncodedMemoryCache).removeAll(encodedMemoryCachePredicateCaptor.capture());
+    verify(mEncodedMemoryCache)
+        .removeAllForUri(eq(uriString), encodedMemoryCachePredicateCaptor.capture());
     Predicate<CacheKey> encodedMemoryCacheKeyPredicate =
         encodedMemoryCachePredicateCaptor.getValue();
     SimpleCacheKey simpleCacheKey1 = new SimpleCacheKey(uriString);
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.facebook.imagepipeline.testing.ConcurrentRunner;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Runs threads that get and release values concurrently, as decoders and network readers do, with
+ * and without magazines, and checks that the accounting of the pool is consistent afterwards.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BasePoolContentionTest {
+
+  private static final int THREAD_COUNT = 8;
+  private static final int OPERATION_COUNT = 20000;
+  private static final int MAX_REQUEST_SIZE = 64;
+  private static final int MAX_HELD_VALUES = 4;
+
+  @Test
+  public void testContentionWithoutMagazines() throws Exception {
+    runContention(0);
+  }
+
+  @Test
+  public void testContentionWithMagazines() throws Exception {
+    runContention(8);
+  }
+
+  private static void runContention(int magazineSize) throws Exception {
+    final BasePoolTest.TestPool pool = new BasePoolTest.TestPool(16 * 1024, 64 * 1024);
+    pool.setMagazineSize(magazineSize);
+    ConcurrentRunner.runOnThreads(
+        THREAD_COUNT,
+        new ConcurrentRunner.ThreadTask() {
+          @Override
+          public void run(int threadIndex) {
+            Random random = new Random(threadIndex);
+            List<byte[]> held = new ArrayList<>();
+            for (int i = 0; i < OPERATION_COUNT; i++) {
+              held.add(pool.get(1 + random.nextInt(MAX_REQUEST_SIZE)));
+              if (held.size() > random.nextInt(MAX_HELD_VALUES)) {
+                pool.release(held.remove(random.nextInt(held.size())));
+              }
+            }
+            for (byte[] value : held) {
+              pool.release(value);
+            }
+          }
+        });
+    // everything was released: only the magazines and the free lists hold values
+    assertEquals(0, (int) pool.getStats().get(PoolStatsTracker.USED_COUNT));
+    assertEquals(0, (int) pool.getStats().get(PoolStatsTracker.USED_BYTES));
+    assertFalse(pool.isMaxSizeSoftCapExceeded());
+    assertAccountingConsistent(pool);
+    pool.trimToNothing();
+    assertEquals(0, pool.mUsed.mNumBytes);
+    assertEquals(0, pool.mFree.mNumBytes);
+    assertEquals(0, pool.mInUseValues.size());
+  }
+
+  /** Checks that the counters of the pool match the values in its buckets and in-use set. */
+  private static void assertAccountingConsistent(BasePoolTest.TestPool pool) {
+    int freeCount = 0;
+    int freeBytes = 0;
+    int bucketInUseCount = 0;
+    for (int i = 0; i < pool.mBuckets.size(); i++) {
+      Bucket<byte[]> bucket = pool.mBuckets.valueAt(i);
+      freeCount += bucket.getFreeListSize();
+      freeBytes += bucket.getFreeListSize() * bucket.mItemSize;
+      bucketInUseCount += bucket.getInUseCount();
+    }
+    assertEquals(freeCount, pool.mFree.mCount);
+    assertEquals(freeBytes, pool.mFree.mNumBytes);
+
+    // the values left in use are the ones in the magazines, which the stats report as free
+    int inUseBytes = 0;
+    for (byte[] value : pool.mInUseValues) {
+      inUseBytes += value.length;
+    }
+    assertEquals(pool.mInUseValues.size(), pool.mUsed.mCount);
+    assertEquals(inUseBytes, pool.mUsed.mNumBytes);
+    assertEquals(pool.mInUseValues.size(), bucketInUseCount);
+    assertEquals(
+        freeCount + pool.mInUseValues.size(),
+        (int) pool.getStats().get(PoolStatsTracker.FREE_COUNT));
+    assertEquals(
+        freeBytes + inUseBytes, (int) pool.getStats().get(PoolStatsTracker.FREE_BYTES));
+  }
+}
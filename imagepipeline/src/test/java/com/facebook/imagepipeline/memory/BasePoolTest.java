@@ -14,6 +14,9 @@ import com.facebook.common.internal.ImmutableMap;
 import com.facebook.common.internal.Preconditions;
 import com.facebook.common.memory.MemoryTrimmableRegistry;
 import com.facebook.imagepipeline.memory.BasePool.PoolSizeViolationException;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -442,6 +445,155 @@ public class BasePoolTest {
     Assert.assertFalse(pool.canAllocate(4));
   }
 
+  // values released to a magazine are reused without going through the buckets
+  @Test
+  public void testMagazine_Reuse() throws Exception {
+    mPool.setMagazineSize(2);
+    byte[] b1 = mPool.get(1);
+    mPool.release(b1);
+
+    // the value is still accounted as used, but reported as free
+    mStats.refresh();
+    Assert.assertEquals(ImmutableMap.of(2, new IntPair(1, 0)), mStats.mBucketStats);
+    Assert.assertEquals(0, mStats.mFreeBytes);
+    Assert.assertEquals(2, mStats.mUsedBytes);
+    Map<String, Integer> stats = mPool.getStats();
+    Assert.assertEquals(2, (int) stats.get(PoolStatsTracker.FREE_BYTES));
+    Assert.assertEquals(0, (int) stats.get(PoolStatsTracker.USED_BYTES));
+
+    byte[] b2 = mPool.get(1);
+    Assert.assertSame(b1, b2);
+    Assert.assertTrue(mPool.mInUseValues.contains(b2));
+    // a value of a different size is allocated
+    Assert.assertNotSame(b1, mPool.get(3));
+  }
+
+  // values that don't fit in the magazine are released to the buckets
+  @Test
+  public void testMagazine_Full() throws Exception {
+    mPool.setMagazineSize(1);
+    byte[] b1 = mPool.get(1);
+    byte[] b2 = mPool.get(1);
+    mPool.release(b1);
+    mPool.release(b2);
+
+    mStats.refresh();
+    Assert.assertEquals(ImmutableMap.of(2, new IntPair(1, 1)), mStats.mBucketStats);
+    Assert.assertEquals(2, mStats.mFreeBytes);
+    Assert.assertEquals(2, mStats.mUsedBytes);
+  }
+
+  @Test
+  public void testMagazine_NonReusable() throws Exception {
+    mPool.setMagazineSize(2);
+    byte[] b1 = mPool.get(1);
+    mPool.mIsReusable = false;
+    mPool.release(b1);
+
+    mStats.refresh();
+    Assert.assertEquals(0, mStats.mFreeBytes);
+    Assert.assertEquals(0, mStats.mUsedBytes);
+    Assert.assertNotSame(b1, mPool.get(1));
+  }
+
+  // a value released again while it is in a magazine is reported, and the magazine is unchanged
+  @Test
+  public void testMagazine_ReleasedTwice() throws Exception {
+    mPool.setMagazineSize(2);
+    byte[] b1 = mPool.get(1);
+    mPool.release(b1);
+    try {
+      mPool.release(b1);
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      // expected
+    }
+
+    Assert.assertEquals(1, (int) mPool.getStats().get(PoolStatsTracker.FREE_COUNT));
+    Assert.assertEquals(2, (int) mPool.getStats().get(PoolStatsTracker.FREE_BYTES));
+    Assert.assertEquals(0, (int) mPool.getStats().get(PoolStatsTracker.USED_BYTES));
+    Assert.assertEquals(1, mPool.mInUseValues.size());
+    Assert.assertSame(b1, mPool.get(1));
+    Assert.assertNotSame(b1, mPool.get(1));
+  }
+
+  // without magazines, a value released twice is only logged and freed, as before
+  @Test
+  public void testRelease_ReleasedTwiceWithoutMagazines() throws Exception {
+    byte[] b1 = mPool.get(1);
+    mPool.release(b1);
+    mPool.release(b1);
+
+    mStats.refresh();
+    Assert.assertEquals(2, mStats.mFreeBytes);
+    Assert.assertEquals(1, mStats.mFreeCount);
+    Assert.assertEquals(0, mStats.mUsedBytes);
+    Assert.assertEquals(0, mStats.mUsedCount);
+  }
+
+  // a value released by two threads at once is offered to a magazine only once
+  @Test
+  public void testMagazine_ReleasedTwiceByTwoThreads() throws Exception {
+    mPool.setMagazineSize(2);
+    for (int i = 0; i < 200; i++) {
+      final byte[] b1 = mPool.get(1);
+      final CountDownLatch startLatch = new CountDownLatch(1);
+      final AtomicInteger failures = new AtomicInteger();
+      Thread[] threads = new Thread[2];
+      for (int t = 0; t < threads.length; t++) {
+        threads[t] =
+            new Thread(
+                new Runnable() {
+                  @Override
+                  public void run() {
+                    try {
+                      startLatch.await();
+                      mPool.release(b1);
+                    } catch (IllegalStateException e) {
+                      failures.incrementAndGet();
+                    } catch (InterruptedException e) {
+                      throw new RuntimeException(e);
+                    }
+                  }
+                });
+        threads[t].start();
+      }
+      startLatch.countDown();
+      for (Thread thread : threads) {
+        thread.join();
+      }
+
+      Assert.assertEquals(1, failures.get());
+      Assert.assertEquals(1, (int) mPool.getStats().get(PoolStatsTracker.FREE_COUNT));
+      Assert.assertEquals(1, mPool.mInUseValues.size());
+      mPool.trimToNothing();
+      Assert.assertEquals(0, mPool.mUsed.mNumBytes);
+      Assert.assertEquals(0, mPool.mInUseValues.size());
+    }
+  }
+
+  @Test
+  public void testMagazine_FlushedOnTrim() throws Exception {
+    mPool.setMagazineSize(2);
+    byte[] b1 = mPool.get(1);
+    mPool.release(b1);
+
+    mPool.trimToNothing();
+    mStats.refresh();
+    Assert.assertEquals(0, mStats.mFreeBytes);
+    Assert.assertEquals(0, mStats.mUsedBytes);
+    Assert.assertFalse(mPool.mInUseValues.contains(b1));
+  }
+
+  // the values in the magazines don't count against the hard cap
+  @Test
+  public void testMagazine_FlushedOnHardCap() throws Exception {
+    TestPool pool = new TestPool(4, 5);
+    pool.setMagazineSize(2);
+    pool.release(pool.get(4));
+    Assert.assertEquals(2, pool.get(2).length);
+  }
+
   /**
    * A simple test pool that allocates byte arrays, and always allocates buffers of double the size
    * requested
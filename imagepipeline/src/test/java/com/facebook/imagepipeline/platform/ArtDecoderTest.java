@@ -9,7 +9,9 @@ package com.facebook.imagepipeline.platform;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.anyObject;
@@ -17,9 +19,11 @@ import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyBoolean;
 import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.isNull;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.same;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -29,7 +33,9 @@ import static org.powermock.api.mockito.PowerMockito.verifyStatic;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.BitmapRegionDecoder;
+import android.graphics.ColorSpace;
 import android.graphics.Rect;
+import android.media.ExifInterface;
 import android.os.Build;
 import androidx.core.util.Pools;
 import com.facebook.common.internal.ByteStreams;
@@ -42,13 +48,16 @@ import com.facebook.imagepipeline.memory.BitmapPool;
 import com.facebook.imagepipeline.testing.MockBitmapFactory;
 import com.facebook.imagepipeline.testing.TrivialPooledByteBuffer;
 import com.facebook.imageutils.JfifUtil;
+import javax.annotation.Nullable;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.ConcurrentModificationException;
+import java.util.List;
 import java.util.Random;
 import org.junit.Before;
 import org.junit.Rule;
@@ -198,6 +207,169 @@ public class ArtDecoderTest {
     jpegTestCase(false, ENCODED_BYTES_LENGTH / 2);
   }
 
+  @Test
+  public void testDecodeStatic_directByteBuffer_decodesFromArray() {
+    useDirectByteBufferDecoding();
+    CloseableReference<Bitmap> decodedImage =
+        mArtDecoder.decodeFromEncodedImage(mEncodedImage, DEFAULT_BITMAP_CONFIG, null);
+    verifyDecodedFromArray(ENCODED_BYTES_LENGTH);
+    verifyNoLeaks();
+    closeAndVerifyClosed(decodedImage);
+  }
+
+  @Test
+  public void testDecodeJpeg_directByteBuffer_notAllBytes_complete() {
+    useDirectByteBufferDecoding();
+    int dataLength = ENCODED_BYTES_LENGTH / 2;
+    mEncodedBytes[dataLength - 2] = (byte) JfifUtil.MARKER_FIRST_BYTE;
+    mEncodedBytes[dataLength - 1] = (byte) JfifUtil.MARKER_EOI;
+    CloseableReference<Bitmap> decodedImage =
+        mArtDecoder.decodeJPEGFromEncodedImage(
+            mEncodedImage, DEFAULT_BITMAP_CONFIG, null, dataLength);
+    verifyDecodedFromArray(dataLength);
+    verifyNoLeaks();
+    closeAndVerifyClosed(decodedImage);
+  }
+
+  @Test
+  public void testDecodeJpeg_directByteBuffer_incomplete_fallsBackToStream() {
+    // ImageDecoder is not available before Android P, so the EOI marker is appended to a stream
+    useDirectByteBufferDecoding();
+    int dataLength = ENCODED_BYTES_LENGTH / 2;
+    CloseableReference<Bitmap> decodedImage =
+        mArtDecoder.decodeJPEGFromEncodedImage(
+            mEncodedImage, DEFAULT_BITMAP_CONFIG, null, dataLength);
+    verifyStatic(BitmapFactory.class, never());
+    BitmapFactory.decodeByteArray(
+        any(byte[].class), anyInt(), anyInt(), any(BitmapFactory.Options.class));
+    verifyDecodedFromStream();
+    verifyDecodedBytes(false, dataLength);
+    verifyNoLeaks();
+    closeAndVerifyClosed(decodedImage);
+  }
+
+  @Test
+  @Config(sdk = Build.VERSION_CODES.P)
+  public void testImageDecoder_disabledByDefault() {
+    useDirectByteBufferDecoding();
+    assertNull(mArtDecoder.mByteBufferDecodeHelper);
+  }
+
+  @Test
+  @Config(sdk = Build.VERSION_CODES.P)
+  public void testImageDecoder_incomplete_decodesPartialImage() {
+    List<ImageDecoderCall> calls = useImageDecoder(mBitmap);
+    int dataLength = ENCODED_BYTES_LENGTH / 2;
+    CloseableReference<Bitmap> decodedImage =
+        mArtDecoder.decodeJPEGFromEncodedImage(
+            mEncodedImage, DEFAULT_BITMAP_CONFIG, null, dataLength);
+
+    assertEquals(1, calls.size());
+    assertTrue(calls.get(0).allowPartialImage);
+    assertEquals(dataLength, calls.get(0).length);
+    assertSame(mBitmap, decodedImage.get());
+    verifyStatic(BitmapFactory.class, never());
+    BitmapFactory.decodeStream(
+        any(InputStream.class), isNull(Rect.class), any(BitmapFactory.Options.class));
+    verifyNoLeaks();
+    // not from the bitmap pool
+    verify(mBitmapPool, never()).get(anyInt());
+    decodedImage.close();
+    verify(mBitmapPool, never()).release(mBitmap);
+  }
+
+  @Test
+  @Config(sdk = Build.VERSION_CODES.P)
+  public void testImageDecoder_completeCorrupt_failsInsteadOfDecodingPartialImage() {
+    // the helper fails as ImageDecoder does on a corrupt image without a partial image listener
+    List<ImageDecoderCall> calls = useImageDecoder(null);
+    mPooledByteBuffer = newDirectPooledByteBuffer(copyToDirectBuffer(mEncodedBytes));
+    mByteBufferRef = CloseableReference.of(mPooledByteBuffer);
+    mEncodedImage = newUprightEncodedImage(mByteBufferRef);
+    CloseableReference<Bitmap> decodedImage =
+        mArtDecoder.decodeFromEncodedImage(mEncodedImage, DEFAULT_BITMAP_CONFIG, null);
+
+    assertEquals(1, calls.size());
+    assertFalse(calls.get(0).allowPartialImage);
+    // the stream path decides, as it would without the option
+    verifyDecodedFromStream();
+    verifyNoLeaks();
+    closeAndVerifyClosed(decodedImage);
+  }
+
+  @Test
+  @Config(sdk = Build.VERSION_CODES.P)
+  public void testImageDecoder_rotated_decodesFromStream() {
+    List<ImageDecoderCall> calls = useImageDecoder(mBitmap);
+    mEncodedImage.setRotationAngle(90);
+    mEncodedImage.setExifOrientation(ExifInterface.ORIENTATION_ROTATE_90);
+    int dataLength = ENCODED_BYTES_LENGTH / 2;
+    CloseableReference<Bitmap> decodedImage =
+        mArtDecoder.decodeJPEGFromEncodedImage(
+            mEncodedImage, DEFAULT_BITMAP_CONFIG, null, dataLength);
+
+    assertTrue(calls.isEmpty());
+    verifyDecodedFromStream();
+    verifyDecodedBytes(false, dataLength);
+    verifyNoLeaks();
+    closeAndVerifyClosed(decodedImage);
+  }
+
+  @Test
+  @Config(sdk = Build.VERSION_CODES.P)
+  public void testImageDecoder_flipped_decodesFromStream() {
+    List<ImageDecoderCall> calls = useImageDecoder(mBitmap);
+    // flips don't change the rotation angle
+    mEncodedImage.setExifOrientation(ExifInterface.ORIENTATION_FLIP_HORIZONTAL);
+    int dataLength = ENCODED_BYTES_LENGTH / 2;
+    CloseableReference<Bitmap> decodedImage =
+        mArtDecoder.decodeJPEGFromEncodedImage(
+            mEncodedImage, DEFAULT_BITMAP_CONFIG, null, dataLength);
+
+    assertTrue(calls.isEmpty());
+    verifyDecodedFromStream();
+    closeAndVerifyClosed(decodedImage);
+  }
+
+  @Test
+  @Config(sdk = Build.VERSION_CODES.P)
+  public void testImageDecoder_cropped() {
+    List<ImageDecoderCall> calls = useImageDecoder(mBitmap);
+    mEncodedImage.setSampleSize(2);
+    Rect region = new Rect(10, 20, 110, 220);
+    int dataLength = ENCODED_BYTES_LENGTH / 2;
+    CloseableReference<Bitmap> decodedImage =
+        mArtDecoder.decodeJPEGFromEncodedImage(
+            mEncodedImage, DEFAULT_BITMAP_CONFIG, region, dataLength);
+
+    assertEquals(1, calls.size());
+    assertSame(region, calls.get(0).regionToDecode);
+    assertEquals(2, calls.get(0).sampleSize);
+    // the region is in the coordinates of the full size image, the crop in the sampled ones
+    assertEquals(new Rect(5, 10, 55, 110), ByteBufferDecodeHelper.getCrop(region, 2));
+    assertEquals(region, ByteBufferDecodeHelper.getCrop(region, 1));
+    decodedImage.close();
+  }
+
+  @Test
+  public void testGetEncodedBytes_sharesMemory() {
+    ByteBuffer byteBuffer = ByteBuffer.wrap(mEncodedBytes);
+    byteBuffer.position(10);
+    ByteBuffer encodedBytes =
+        DefaultDecoder.getEncodedBytes(newDirectPooledByteBuffer(byteBuffer), 64);
+    assertNotNull(encodedBytes);
+    assertSame(mEncodedBytes, encodedBytes.array());
+    assertEquals(0, encodedBytes.position());
+    assertEquals(64, encodedBytes.remaining());
+    // the position of the buffer itself is left alone
+    assertEquals(10, byteBuffer.position());
+  }
+
+  @Test
+  public void testGetEncodedBytes_noByteBuffer() {
+    assertNull(DefaultDecoder.getEncodedBytes(mPooledByteBuffer, ENCODED_BYTES_LENGTH));
+  }
+
   @Test
   public void testDecodeJpeg_regionDecodingEnabled() {
     Rect region = new Rect(0, 0, 200, 100);
@@ -254,6 +426,119 @@ public class ArtDecoderTest {
     closeAndVerifyClosed(result);
   }
 
+  /**
+   * Makes the decoder decode from the memory of the pooled byte buffer, which exposes the encoded
+   * bytes as a heap {@link ByteBuffer}.
+   */
+  private void useDirectByteBufferDecoding() {
+    mArtDecoder =
+        new ArtDecoder(
+            mBitmapPool,
+            mArtDecoder.mDecodeBuffers,
+            new PlatformDecoderOptions(false, false, true));
+    mPooledByteBuffer = newDirectPooledByteBuffer(ByteBuffer.wrap(mEncodedBytes));
+    mByteBufferRef = CloseableReference.of(mPooledByteBuffer);
+    mEncodedImage = new EncodedImage(mByteBufferRef);
+    mEncodedImage.setImageFormat(DefaultImageFormats.JPEG);
+    when(BitmapFactory.decodeByteArray(
+            any(byte[].class), anyInt(), anyInt(), any(BitmapFactory.Options.class)))
+        .thenAnswer(
+            (Answer<Bitmap>)
+                invocation -> {
+                  final BitmapFactory.Options options =
+                      (BitmapFactory.Options) invocation.getArguments()[3];
+                  options.outWidth = MockBitmapFactory.DEFAULT_BITMAP_WIDTH;
+                  options.outHeight = MockBitmapFactory.DEFAULT_BITMAP_HEIGHT;
+                  verifyBitmapFactoryOptions(options);
+                  return options.inJustDecodeBounds ? null : mBitmap;
+                });
+  }
+
+  /**
+   * Makes the decoder decode direct and incomplete images with a helper that records its calls
+   * instead of {@link android.graphics.ImageDecoder}, and returns {@code bitmap}.
+   */
+  private List<ImageDecoderCall> useImageDecoder(final @Nullable Bitmap bitmap) {
+    mArtDecoder =
+        new ArtDecoder(
+            mBitmapPool,
+            mArtDecoder.mDecodeBuffers,
+            new PlatformDecoderOptions(false, false, true, true));
+    assertNotNull(mArtDecoder.mByteBufferDecodeHelper);
+    final List<ImageDecoderCall> calls = new ArrayList<>();
+    mArtDecoder.mByteBufferDecodeHelper =
+        new ByteBufferDecodeHelper() {
+          @Override
+          public @Nullable Bitmap decode(
+              ByteBuffer byteBuffer,
+              Bitmap.Config bitmapConfig,
+              int sampleSize,
+              @Nullable Rect regionToDecode,
+              @Nullable ColorSpace colorSpace,
+              boolean allowPartialImage) {
+            calls.add(
+                new ImageDecoderCall(
+                    byteBuffer.remaining(), sampleSize, regionToDecode, allowPartialImage));
+            return bitmap;
+          }
+        };
+    mPooledByteBuffer = newDirectPooledByteBuffer(ByteBuffer.wrap(mEncodedBytes));
+    mByteBufferRef = CloseableReference.of(mPooledByteBuffer);
+    mEncodedImage = newUprightEncodedImage(mByteBufferRef);
+    return calls;
+  }
+
+  /** Creates an image whose metadata is known, so that it isn't parsed from the random bytes. */
+  private static EncodedImage newUprightEncodedImage(CloseableReference<PooledByteBuffer> ref) {
+    EncodedImage encodedImage = new EncodedImage(ref);
+    encodedImage.setImageFormat(DefaultImageFormats.JPEG);
+    encodedImage.setWidth(MockBitmapFactory.DEFAULT_BITMAP_WIDTH);
+    encodedImage.setHeight(MockBitmapFactory.DEFAULT_BITMAP_HEIGHT);
+    encodedImage.setRotationAngle(0);
+    encodedImage.setExifOrientation(ExifInterface.ORIENTATION_NORMAL);
+    return encodedImage;
+  }
+
+  private static ByteBuffer copyToDirectBuffer(byte[] bytes) {
+    ByteBuffer byteBuffer = ByteBuffer.allocateDirect(bytes.length);
+    byteBuffer.put(bytes);
+    byteBuffer.position(0);
+    return byteBuffer;
+  }
+
+  private PooledByteBuffer newDirectPooledByteBuffer(final ByteBuffer byteBuffer) {
+    return new TrivialPooledByteBuffer(mEncodedBytes) {
+      @Override
+      public ByteBuffer getByteBuffer() {
+        return byteBuffer;
+      }
+    };
+  }
+
+  private void verifyDecodedFromArray(int length) {
+    verifyStatic(BitmapFactory.class, times(2));
+    BitmapFactory.decodeByteArray(
+        same(mEncodedBytes), eq(0), eq(length), any(BitmapFactory.Options.class));
+    verifyStatic(BitmapFactory.class, never());
+    BitmapFactory.decodeStream(
+        any(InputStream.class), isNull(Rect.class), any(BitmapFactory.Options.class));
+  }
+
+  private static class ImageDecoderCall {
+    final int length;
+    final int sampleSize;
+    final @Nullable Rect regionToDecode;
+    final boolean allowPartialImage;
+
+    ImageDecoderCall(
+        int length, int sampleSize, @Nullable Rect regionToDecode, boolean allowPartialImage) {
+      this.length = length;
+      this.sampleSize = sampleSize;
+      this.regionToDecode = regionToDecode;
+      this.allowPartialImage = allowPartialImage;
+    }
+  }
+
   private static byte[] getDecodedBytes() {
     ArgumentCaptor<InputStream> inputStreamArgumentCaptor =
         ArgumentCaptor.forClass(InputStream.class);
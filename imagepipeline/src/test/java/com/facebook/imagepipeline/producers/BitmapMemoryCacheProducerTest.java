@@ -13,10 +13,14 @@ import static org.mockito.Mockito.any;
 
 import com.facebook.cache.common.CacheKey;
 import com.facebook.common.internal.ImmutableMap;
+import com.facebook.common.internal.Predicate;
 import com.facebook.common.references.CloseableReference;
 import com.facebook.imagepipeline.cache.BitmapMemoryCacheKey;
 import com.facebook.imagepipeline.cache.CacheKeyFactory;
 import com.facebook.imagepipeline.cache.MemoryCache;
+import com.facebook.imagepipeline.common.ImageDecodeOptions;
+import com.facebook.imagepipeline.common.ResizeOptions;
+import com.facebook.imagepipeline.common.RotationOptions;
 import com.facebook.imagepipeline.image.CloseableImage;
 import com.facebook.imagepipeline.image.ImmutableQualityInfo;
 import com.facebook.imagepipeline.request.ImageRequest;
@@ -343,6 +347,120 @@ public class BitmapMemoryCacheProducerTest {
         .onUltimateProducerReached(eq(mProducerContext), anyString(), anyBoolean());
   }
 
+  @Test
+  public void testSizeTolerance_SmallestLargeEnoughBitmapIsUsed() {
+    BitmapMemoryCacheKey requestedKey = newKey(new ResizeOptions(200, 200), autoRotate());
+    BitmapMemoryCacheKey key300 = newKey(new ResizeOptions(300, 300), autoRotate());
+    BitmapMemoryCacheKey key400 = newKey(new ResizeOptions(400, 400), autoRotate());
+    BitmapMemoryCacheKey keyFullSize = newKey(null, autoRotate());
+    BitmapMemoryCacheKey key100 = newKey(new ResizeOptions(100, 100), autoRotate());
+    CloseableReference<CloseableImage> image300 = cacheImage(key300, 300, 300);
+    cacheImage(key400, 400, 400);
+    cacheImage(keyFullSize, 1000, 1000);
+    cacheImage(key100, 100, 100);
+    setUpCachedKeys(key400, keyFullSize, key100, key300);
+    when(mCacheKeyFactory.getBitmapCacheKey(mImageRequest, PRODUCER_NAME)).thenReturn(requestedKey);
+
+    new BitmapMemoryCacheProducer(mMemoryCache, mCacheKeyFactory, mInputProducer, 2.5f)
+        .produceResults(mConsumer, mProducerContext);
+
+    verify(mConsumer).onNewResult(image300, Consumer.IS_LAST);
+    verify(mProducerListener).onUltimateProducerReached(mProducerContext, PRODUCER_NAME, true);
+    verify(mInputProducer, never()).produceResults(any(Consumer.class), any(ProducerContext.class));
+    verify(mMemoryCache, never()).get(key400);
+  }
+
+  @Test
+  public void testSizeTolerance_BitmapAboveRatioIsNotUsed() {
+    BitmapMemoryCacheKey requestedKey = newKey(new ResizeOptions(200, 200), autoRotate());
+    BitmapMemoryCacheKey keyFullSize = newKey(null, autoRotate());
+    cacheImage(keyFullSize, 1000, 1000);
+    setUpCachedKeys(keyFullSize);
+    when(mCacheKeyFactory.getBitmapCacheKey(mImageRequest, PRODUCER_NAME)).thenReturn(requestedKey);
+
+    new BitmapMemoryCacheProducer(mMemoryCache, mCacheKeyFactory, mInputProducer, 2.5f)
+        .produceResults(mConsumer, mProducerContext);
+
+    verify(mMemoryCache, never()).get(keyFullSize);
+    verify(mInputProducer).produceResults(any(Consumer.class), eq(mProducerContext));
+  }
+
+  @Test
+  public void testSizeTolerance_OtherRotationIsNotUsed() {
+    BitmapMemoryCacheKey requestedKey = newKey(new ResizeOptions(200, 200), autoRotate());
+    BitmapMemoryCacheKey key400 =
+        newKey(new ResizeOptions(400, 400), RotationOptions.disableRotation());
+    cacheImage(key400, 400, 400);
+    setUpCachedKeys(key400);
+    when(mCacheKeyFactory.getBitmapCacheKey(mImageRequest, PRODUCER_NAME)).thenReturn(requestedKey);
+
+    new BitmapMemoryCacheProducer(mMemoryCache, mCacheKeyFactory, mInputProducer, 2.5f)
+        .produceResults(mConsumer, mProducerContext);
+
+    verify(mMemoryCache, never()).get(key400);
+    verify(mInputProducer).produceResults(any(Consumer.class), eq(mProducerContext));
+  }
+
+  @Test
+  public void testSizeTolerance_DisabledByDefault() {
+    BitmapMemoryCacheKey requestedKey = newKey(new ResizeOptions(200, 200), autoRotate());
+    BitmapMemoryCacheKey key400 = newKey(new ResizeOptions(400, 400), autoRotate());
+    cacheImage(key400, 400, 400);
+    setUpCachedKeys(key400);
+    when(mCacheKeyFactory.getBitmapCacheKey(mImageRequest, PRODUCER_NAME)).thenReturn(requestedKey);
+
+    mBitmapMemoryCacheProducer.produceResults(mConsumer, mProducerContext);
+
+    verify(mMemoryCache, never()).getKeysForUri(anyString(), any(Predicate.class));
+    verify(mInputProducer).produceResults(any(Consumer.class), eq(mProducerContext));
+  }
+
+  private static RotationOptions autoRotate() {
+    return RotationOptions.autoRotate();
+  }
+
+  private static BitmapMemoryCacheKey newKey(
+      @Nullable ResizeOptions resizeOptions, RotationOptions rotationOptions) {
+    return new BitmapMemoryCacheKey(
+        "http://fresco/image.jpg",
+        resizeOptions,
+        rotationOptions,
+        ImageDecodeOptions.defaults(),
+        null,
+        null);
+  }
+
+  private CloseableReference<CloseableImage> cacheImage(
+      BitmapMemoryCacheKey key, int width, int height) {
+    CloseableImage image = mock(CloseableImage.class);
+    when(image.getWidth()).thenReturn(width);
+    when(image.getHeight()).thenReturn(height);
+    when(image.getQualityInfo()).thenReturn(ImmutableQualityInfo.FULL_QUALITY);
+    CloseableReference<CloseableImage> imageRef = CloseableReference.of(image);
+    when(mMemoryCache.inspect(key)).thenReturn(image);
+    when(mMemoryCache.get(key)).thenReturn(imageRef);
+    return imageRef;
+  }
+
+  private void setUpCachedKeys(final CacheKey... keys) {
+    doAnswer(
+            new Answer<List<CacheKey>>() {
+              @Override
+              public List<CacheKey> answer(InvocationOnMock invocation) throws Throwable {
+                Predicate<CacheKey> predicate = (Predicate<CacheKey>) invocation.getArguments()[1];
+                List<CacheKey> matchingKeys = new ArrayList<>();
+                for (CacheKey key : keys) {
+                  if (predicate.apply(key)) {
+                    matchingKeys.add(key);
+                  }
+                }
+                return matchingKeys;
+              }
+            })
+        .when(mMemoryCache)
+        .getKeysForUri(eq("http://fresco/image.jpg"), any(Predicate.class));
+  }
+
   private void setupBitmapMemoryCacheGetSuccess() {
     when(mMemoryCache.get(eq(mBitmapMemoryCacheKey))).thenReturn(mFinalImageReference);
   }
@@ -296,6 +296,63 @@ public class DecodeProducerTest {
         ref5.getUnderlyingReferenceTestOnly());
   }
 
+  @Test
+  public void testNewResult_Intermediate_HeldBackByPolicy() {
+    when(mPipelineExperiments.getIntermediateDecodePolicy())
+        .thenReturn((producerContext, queuedDecodeCount) -> false);
+    setupNetworkUri();
+    Consumer<EncodedImage> consumer = produceResults();
+
+    when(mJobScheduler.updateJob(mEncodedImage, Consumer.NO_FLAGS)).thenReturn(true);
+    when(mProgressiveJpegParser.parseMoreData(any(EncodedImage.class))).thenReturn(true);
+    when(mProgressiveJpegParser.getBestScanNumber()).thenReturn(PREVIEW_SCAN);
+    consumer.onNewResult(mEncodedImage, Consumer.NO_FLAGS);
+    verify(mJobScheduler).updateJob(mEncodedImage, Consumer.NO_FLAGS);
+    verify(mJobScheduler, never()).scheduleJob();
+
+    // the final result is decoded whatever the policy
+    when(mJobScheduler.updateJob(mEncodedImage, Consumer.IS_LAST)).thenReturn(true);
+    consumer.onNewResult(mEncodedImage, Consumer.IS_LAST);
+    verify(mJobScheduler).scheduleJob();
+  }
+
+  @Test
+  public void testNewResult_Intermediate_ScheduledWhenPolicyAllowsAgain() {
+    final boolean[] allowed = {false};
+    when(mPipelineExperiments.getIntermediateDecodePolicy())
+        .thenReturn((producerContext, queuedDecodeCount) -> allowed[0]);
+    setupNetworkUri();
+    Consumer<EncodedImage> consumer = produceResults();
+
+    when(mJobScheduler.updateJob(mEncodedImage, Consumer.NO_FLAGS)).thenReturn(true);
+    when(mProgressiveJpegParser.parseMoreData(any(EncodedImage.class))).thenReturn(true);
+    when(mProgressiveJpegParser.getBestScanNumber()).thenReturn(PREVIEW_SCAN);
+    consumer.onNewResult(mEncodedImage, Consumer.NO_FLAGS);
+    verify(mJobScheduler, never()).scheduleJob();
+
+    allowed[0] = true;
+    mProducerContext.setPriority(Priority.HIGH);
+    verify(mJobScheduler).scheduleJob();
+  }
+
+  @Test
+  public void testDecode_Intermediate_SkippedByPolicy() throws Exception {
+    when(mPipelineExperiments.getIntermediateDecodePolicy())
+        .thenReturn((producerContext, queuedDecodeCount) -> false);
+    setupNetworkUri();
+    produceResults();
+    JobScheduler.JobRunnable jobRunnable = getJobRunnable();
+
+    jobRunnable.run(mEncodedImage, Consumer.NO_FLAGS);
+    verifyZeroInteractions(mImageDecoder);
+    // held back until the policy allows it
+    verify(mJobScheduler).restoreJob(mEncodedImage, Consumer.NO_FLAGS);
+
+    jobRunnable.run(mEncodedImage, Consumer.IS_LAST);
+    verify(mImageDecoder)
+        .decode(mEncodedImage, IMAGE_SIZE, ImmutableQualityInfo.FULL_QUALITY, IMAGE_DECODE_OPTIONS);
+  }
+
   @Test
   public void testFailure() {
     setupNetworkUri();
@@ -23,6 +23,7 @@ import com.facebook.imagepipeline.cache.BufferedDiskCache;
 import com.facebook.imagepipeline.cache.CacheKeyFactory;
 import com.facebook.imagepipeline.common.Priority;
 import com.facebook.imagepipeline.core.ImagePipelineConfig;
+import com.facebook.imagepipeline.core.TaskPriority;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.request.ImageRequest;
 import java.util.ArrayList;
@@ -41,8 +42,8 @@ import org.robolectric.annotation.*;
 
 /**
  * Checks basic properties of disk cache producer operation, that is: - it delegates to the {@link
- * BufferedDiskCache#get(CacheKey key, AtomicBoolean isCancelled)} - it returns a 'copy' of the
- * cached value - if {@link BufferedDiskCache#get(CacheKey key, AtomicBoolean isCancelled)} is
+ * BufferedDiskCache#get(CacheKey, AtomicBoolean, TaskPriority)} - it returns a 'copy' of the
+ * cached value - if {@link BufferedDiskCache#get(CacheKey, AtomicBoolean, TaskPriority)} is
  * unsuccessful, then it passes the request to the next producer in the sequence. - if the next
  * producer returns the value, then it is put into the disk cache.
  */
@@ -79,6 +80,7 @@ public class DiskCacheReadProducerTest {
   private EncodedImage mFinalEncodedImage;
   private Task.TaskCompletionSource mTaskCompletionSource;
   private ArgumentCaptor<AtomicBoolean> mIsCancelled;
+  private ArgumentCaptor<TaskPriority> mTaskPriority;
   private DiskCacheReadProducer mDiskCacheReadProducer;
 
   @Before
@@ -101,6 +103,7 @@ public class DiskCacheReadProducerTest {
     mIntermediateEncodedImage = new EncodedImage(mIntermediateImageReference);
     mFinalEncodedImage = new EncodedImage(mFinalImageReference);
     mIsCancelled = ArgumentCaptor.forClass(AtomicBoolean.class);
+    mTaskPriority = ArgumentCaptor.forClass(TaskPriority.class);
 
     mProducerContext =
         new SettableProducerContext(
@@ -450,25 +453,38 @@ public class DiskCacheReadProducerTest {
         .onUltimateProducerReached(eq(mProducerContext), anyString(), anyBoolean());
   }
 
+  @Test
+  public void testDiskCacheGetFollowsPriorityChanges() {
+    setUpDiskCacheProducerEnabled(true);
+    setupDiskCacheGetWait(mDefaultBufferedDiskCache);
+    mDiskCacheReadProducer.produceResults(mConsumer, mProducerContext);
+    TaskPriority taskPriority = mTaskPriority.getValue();
+    assertEquals(Priority.MEDIUM, taskPriority.getPriority());
+    mProducerContext.setPriority(Priority.HIGH);
+    assertEquals(Priority.HIGH, taskPriority.getPriority());
+    mProducerContext.setPriority(Priority.LOW);
+    assertEquals(Priority.LOW, taskPriority.getPriority());
+  }
+
   private void setupDiskCacheGetWait(BufferedDiskCache bufferedDiskCache) {
     mTaskCompletionSource = Task.create();
-    when(bufferedDiskCache.get(eq(mCacheKey), mIsCancelled.capture()))
+    when(bufferedDiskCache.get(eq(mCacheKey), mIsCancelled.capture(), mTaskPriority.capture()))
         .thenReturn(mTaskCompletionSource.getTask());
   }
 
   private void setupDiskCacheGetSuccess(BufferedDiskCache bufferedDiskCache) {
     setUpDiskCacheProducerEnabled(true);
-    when(bufferedDiskCache.get(eq(mCacheKey), any(AtomicBoolean.class)))
+    when(bufferedDiskCache.get(eq(mCacheKey), any(AtomicBoolean.class), any(TaskPriority.class)))
         .thenReturn(Task.forResult(mFinalEncodedImage));
   }
 
   private void setupDiskCacheGetNotFound(BufferedDiskCache bufferedDiskCache) {
-    when(bufferedDiskCache.get(eq(mCacheKey), any(AtomicBoolean.class)))
+    when(bufferedDiskCache.get(eq(mCacheKey), any(AtomicBoolean.class), any(TaskPriority.class)))
         .thenReturn(Task.<EncodedImage>forResult(null));
   }
 
   private void setupDiskCacheGetFailure(BufferedDiskCache bufferedDiskCache) {
-    when(bufferedDiskCache.get(eq(mCacheKey), any(AtomicBoolean.class)))
+    when(bufferedDiskCache.get(eq(mCacheKey), any(AtomicBoolean.class), any(TaskPriority.class)))
         .thenReturn(Task.<EncodedImage>forError(mException));
   }
 
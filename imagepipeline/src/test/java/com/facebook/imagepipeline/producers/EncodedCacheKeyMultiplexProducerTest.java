@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.net.Uri;
+import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.SimpleCacheKey;
+import com.facebook.common.memory.PooledByteBuffer;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.imageformat.DefaultImageFormats;
+import com.facebook.imagepipeline.cache.BufferedDiskCache;
+import com.facebook.imagepipeline.cache.CacheKeyFactory;
+import com.facebook.imagepipeline.cache.ImageCacheStatsTracker;
+import com.facebook.imagepipeline.cache.MemoryCache;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.core.ImagePipelineConfigInterface;
+import com.facebook.imagepipeline.core.ImagePipelineExperiments;
+import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.request.ImageRequest;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Checks which requests {@link EncodedCacheKeyMultiplexProducer} combines, with and without
+ * multiplexing by source uri, and that the shared result is cached and reported for the requests
+ * that did not start the fetch.
+ *
+ * <p>The requests for 200px and 400px have different encoded cache keys, as they would with a
+ * cache key factory that includes the resize options in the key.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class EncodedCacheKeyMultiplexProducerTest {
+
+  @Mock public CacheKeyFactory mCacheKeyFactory;
+  @Mock public Producer<EncodedImage> mInputProducer;
+  @Mock public ImageCacheStatsTracker mImageCacheStatsTracker;
+  @Mock public ProducerListener2 mProducerListener;
+  @Mock public ImagePipelineConfigInterface mConfig;
+  @Mock public ImagePipelineExperiments mExperiments;
+  @Mock public Consumer<EncodedImage> mConsumer;
+  @Mock public MemoryCache<CacheKey, PooledByteBuffer> mEncodedMemoryCache;
+  @Mock public BufferedDiskCache mDefaultBufferedDiskCache;
+  @Mock public BufferedDiskCache mSmallImageBufferedDiskCache;
+  private ImageRequest mImageRequest200;
+  private ImageRequest mImageRequest400;
+  private ImageRequest mOtherImageRequest;
+  private CacheKey mCacheKey200;
+  private CacheKey mCacheKey400;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    Uri uri = Uri.parse("http://fresco/image.jpg");
+    mImageRequest200 = mockImageRequest(uri);
+    mImageRequest400 = mockImageRequest(uri);
+    mOtherImageRequest = mockImageRequest(Uri.parse("http://fresco/other.jpg"));
+    mCacheKey200 = new SimpleCacheKey("image.jpg@200");
+    mCacheKey400 = new SimpleCacheKey("image.jpg@400");
+    when(mCacheKeyFactory.getEncodedCacheKey(mImageRequest200, null)).thenReturn(mCacheKey200);
+    when(mCacheKeyFactory.getEncodedCacheKey(mImageRequest400, null)).thenReturn(mCacheKey400);
+    when(mCacheKeyFactory.getEncodedCacheKey(mOtherImageRequest, null))
+        .thenReturn(new SimpleCacheKey("other.jpg"));
+    when(mConfig.getExperiments()).thenReturn(mExperiments);
+    when(mExperiments.isEncodedCacheEnabled()).thenReturn(true);
+  }
+
+  @Test
+  public void testSameEncodedCacheKeySharesFetch() {
+    EncodedCacheKeyMultiplexProducer producer = newMultiplexProducer(false);
+    producer.produceResults(mConsumer, newProducerContext(mImageRequest200));
+    producer.produceResults(mConsumer, newProducerContext(mImageRequest200));
+
+    verify(mInputProducer, times(1))
+        .produceResults(any(Consumer.class), any(ProducerContext.class));
+    // the requests would have shared the fetch without multiplexing by source uri too
+    verify(mImageCacheStatsTracker, never()).onEncodedFetchShared(any(CacheKey.class));
+  }
+
+  @Test
+  public void testDifferentEncodedCacheKeysFetchSeparately() {
+    EncodedCacheKeyMultiplexProducer producer = newMultiplexProducer(false);
+    producer.produceResults(mConsumer, newProducerContext(mImageRequest200));
+    producer.produceResults(mConsumer, newProducerContext(mImageRequest400));
+
+    verify(mInputProducer, times(2))
+        .produceResults(any(Consumer.class), any(ProducerContext.class));
+    verify(mImageCacheStatsTracker, never()).onEncodedFetchShared(any(CacheKey.class));
+  }
+
+  @Test
+  public void testMultiplexBySourceUri_SameUriSharesFetch() {
+    EncodedCacheKeyMultiplexProducer producer = newMultiplexProducer(true);
+    producer.produceResults(mConsumer, newProducerContext(mImageRequest200));
+    producer.produceResults(mConsumer, newProducerContext(mImageRequest400));
+
+    verify(mInputProducer, times(1))
+        .produceResults(any(Consumer.class), any(ProducerContext.class));
+    // nothing is shared until the image is fetched
+    verify(mImageCacheStatsTracker, never()).onEncodedFetchShared(any(CacheKey.class));
+  }
+
+  @Test
+  public void testMultiplexBySourceUri_CachesSharedResultForEachRequest() {
+    EncodedCacheKeyMultiplexProducer producer = newMultiplexProducer(true);
+    producer.produceResults(mConsumer, newProducerContext(mImageRequest200));
+    producer.produceResults(mConsumer, newProducerContext(mImageRequest400));
+    // the producers below cached the image for the request that started the fetch
+    when(mEncodedMemoryCache.contains(mCacheKey200)).thenReturn(true);
+    when(mDefaultBufferedDiskCache.containsSync(mCacheKey200)).thenReturn(true);
+    CloseableReference<PooledByteBuffer> cachedRef =
+        CloseableReference.of(mock(PooledByteBuffer.class));
+    when(mEncodedMemoryCache.cache(any(CacheKey.class), any(CloseableReference.class)))
+        .thenReturn(cachedRef);
+
+    EncodedImage encodedImage = newEncodedImage();
+    getInputConsumer().onNewResult(encodedImage, Consumer.IS_LAST);
+
+    verify(mConsumer, times(2)).onNewResult(any(EncodedImage.class), anyInt());
+    verify(mEncodedMemoryCache).cache(any(CacheKey.class), any(CloseableReference.class));
+    verify(mEncodedMemoryCache).cache(eq(mCacheKey400), any(CloseableReference.class));
+    verify(mDefaultBufferedDiskCache).put(eq(mCacheKey400), any(EncodedImage.class));
+    verify(mDefaultBufferedDiskCache, never()).put(eq(mCacheKey200), any(EncodedImage.class));
+    verify(mSmallImageBufferedDiskCache, never())
+        .put(any(CacheKey.class), any(EncodedImage.class));
+    verify(mImageCacheStatsTracker).onEncodedFetchShared(mCacheKey400);
+    verify(mImageCacheStatsTracker, never()).onEncodedFetchShared(mCacheKey200);
+    encodedImage.close();
+  }
+
+  @Test
+  public void testMultiplexBySourceUri_IntermediateResultIsNotCached() {
+    EncodedCacheKeyMultiplexProducer producer = newMultiplexProducer(true);
+    producer.produceResults(mConsumer, newProducerContext(mImageRequest200));
+    producer.produceResults(mConsumer, newProducerContext(mImageRequest400));
+
+    EncodedImage encodedImage = newEncodedImage();
+    getInputConsumer().onNewResult(encodedImage, Consumer.NO_FLAGS);
+
+    verify(mEncodedMemoryCache, never()).cache(any(CacheKey.class), any(CloseableReference.class));
+    verify(mDefaultBufferedDiskCache, never()).put(any(CacheKey.class), any(EncodedImage.class));
+    verify(mImageCacheStatsTracker, never()).onEncodedFetchShared(any(CacheKey.class));
+    encodedImage.close();
+  }
+
+  @Test
+  public void testMultiplexBySourceUri_DifferentUrisFetchSeparately() {
+    EncodedCacheKeyMultiplexProducer producer = newMultiplexProducer(true);
+    producer.produceResults(mConsumer, newProducerContext(mImageRequest200));
+    producer.produceResults(mConsumer, newProducerContext(mOtherImageRequest));
+
+    verify(mInputProducer, times(2))
+        .produceResults(any(Consumer.class), any(ProducerContext.class));
+    verify(mImageCacheStatsTracker, never()).onEncodedFetchShared(any(CacheKey.class));
+  }
+
+  private EncodedCacheKeyMultiplexProducer newMultiplexProducer(boolean multiplexBySourceUri) {
+    return new EncodedCacheKeyMultiplexProducer(
+        mCacheKeyFactory,
+        false,
+        multiplexBySourceUri,
+        mEncodedMemoryCache,
+        mDefaultBufferedDiskCache,
+        mSmallImageBufferedDiskCache,
+        null,
+        mImageCacheStatsTracker,
+        mInputProducer);
+  }
+
+  private Consumer<EncodedImage> getInputConsumer() {
+    ArgumentCaptor<Consumer> consumerCaptor = ArgumentCaptor.forClass(Consumer.class);
+    verify(mInputProducer).produceResults(consumerCaptor.capture(), any(ProducerContext.class));
+    return consumerCaptor.getValue();
+  }
+
+  private static EncodedImage newEncodedImage() {
+    EncodedImage encodedImage =
+        new EncodedImage(CloseableReference.of(mock(PooledByteBuffer.class)));
+    encodedImage.setImageFormat(DefaultImageFormats.JPEG);
+    return encodedImage;
+  }
+
+  private SettableProducerContext newProducerContext(ImageRequest imageRequest) {
+    return new SettableProducerContext(
+        imageRequest,
+        "id",
+        mProducerListener,
+        null,
+        ImageRequest.RequestLevel.FULL_FETCH,
+        false,
+        true,
+        Priority.MEDIUM,
+        mConfig);
+  }
+
+  private static ImageRequest mockImageRequest(Uri uri) {
+    ImageRequest imageRequest = mock(ImageRequest.class);
+    when(imageRequest.getSourceUri()).thenReturn(uri);
+    when(imageRequest.getCacheChoice()).thenReturn(ImageRequest.CacheChoice.DEFAULT);
+    when(imageRequest.isCacheEnabled(anyInt())).thenReturn(true);
+    return imageRequest;
+  }
+}
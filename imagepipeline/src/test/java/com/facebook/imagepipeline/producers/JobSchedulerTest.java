@@ -20,12 +20,19 @@ import static org.powermock.api.mockito.PowerMockito.mock;
 import android.os.SystemClock;
 import com.facebook.common.memory.PooledByteBuffer;
 import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.core.PriorityExecutor;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.testing.FakeClock;
 import com.facebook.imagepipeline.testing.TestExecutorService;
 import com.facebook.imagepipeline.testing.TestScheduledExecutorService;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.junit.Before;
 import org.junit.Rule;
@@ -379,6 +386,49 @@ public class JobSchedulerTest {
     assertJobsEqual(mTestJobRunnable.jobs.get(1), encodedImage2, Consumer.IS_LAST);
   }
 
+  @Test
+  public void testRestoreJob_FromJob() {
+    final JobScheduler[] jobScheduler = new JobScheduler[1];
+    jobScheduler[0] =
+        new JobScheduler(
+            mTestExecutorService,
+            new JobScheduler.JobRunnable() {
+              @Override
+              public void run(EncodedImage encodedImage, @Consumer.Status int status) {
+                assertTrue(jobScheduler[0].restoreJob(encodedImage, status));
+              }
+            },
+            INTERVAL);
+    EncodedImage encodedImage = fakeEncodedImage();
+    jobScheduler[0].updateJob(encodedImage, Consumer.NO_FLAGS);
+    assertTrue(jobScheduler[0].scheduleJob());
+
+    mFakeClockForTime.incrementBy(1234);
+    mFakeClockForWorker.incrementBy(1234);
+    mFakeClockForScheduled.incrementBy(1234);
+    // the job is pending again, but not scheduled
+    assertEquals(JobScheduler.JobState.IDLE, jobScheduler[0].mJobState);
+    assertReferencesEqual(encodedImage, jobScheduler[0].mEncodedImage);
+    assertEquals(Consumer.NO_FLAGS, jobScheduler[0].mStatus);
+    assertEquals(0, mTestScheduledExecutorService.getPendingCount());
+    assertEquals(0, mTestExecutorService.getPendingCount());
+  }
+
+  @Test
+  public void testRestoreJob_NewerJobIsKept() {
+    EncodedImage encodedImage = fakeEncodedImage();
+    EncodedImage newerEncodedImage = fakeEncodedImage();
+    assertTrue(mJobScheduler.updateJob(newerEncodedImage, Consumer.NO_FLAGS));
+
+    assertFalse(mJobScheduler.restoreJob(encodedImage, Consumer.NO_FLAGS));
+    assertReferencesEqual(newerEncodedImage, mJobScheduler.mEncodedImage);
+    assertFalse(mJobScheduler.restoreJob(null, Consumer.NO_FLAGS));
+
+    mJobScheduler.clearJob();
+    assertTrue(mJobScheduler.restoreJob(encodedImage, Consumer.NO_FLAGS));
+    assertReferencesEqual(encodedImage, mJobScheduler.mEncodedImage);
+  }
+
   @Test
   public void testFailure() {
     mJobScheduler.updateJob(fakeEncodedImage(), Consumer.NO_FLAGS);
@@ -397,6 +447,57 @@ public class JobSchedulerTest {
     assertEquals(0, mTestJobRunnable.jobs.size());
   }
 
+  @Test
+  public void testSetPriority_MovesQueuedJob() throws Exception {
+    PriorityExecutor executor = new PriorityExecutor(1, Executors.defaultThreadFactory(), null);
+    final List<String> runOrder = Collections.synchronizedList(new ArrayList<String>());
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch unblock = new CountDownLatch(1);
+    executor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            started.countDown();
+            try {
+              unblock.await();
+            } catch (InterruptedException e) {
+              throw new RuntimeException(e);
+            }
+          }
+        });
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    JobScheduler jobScheduler =
+        new JobScheduler(
+            executor,
+            new JobScheduler.JobRunnable() {
+              @Override
+              public void run(EncodedImage encodedImage, @Consumer.Status int status) {
+                runOrder.add("job");
+              }
+            },
+            INTERVAL);
+    jobScheduler.setPriority(Priority.LOW);
+    jobScheduler.updateJob(fakeEncodedImage(), Consumer.IS_LAST);
+    assertTrue(jobScheduler.scheduleJob());
+    final CountDownLatch done = new CountDownLatch(1);
+    executor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            runOrder.add("medium");
+            done.countDown();
+          }
+        });
+    assertEquals(2, executor.getQueueSize());
+
+    // the queued low priority job is moved ahead of the medium priority task
+    jobScheduler.setPriority(Priority.HIGH);
+    unblock.countDown();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList("job", "medium"), runOrder);
+  }
+
   private static void assertJobsEqual(
       TestJobRunnable.Job job, EncodedImage encodedImage, @Consumer.Status int status) {
     assertReferencesEqual(encodedImage, job.encodedImage);
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.core.ImagePipelineConfigInterface;
+import com.facebook.imagepipeline.request.ImageRequest;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/** Tests for {@link LoadAwareIntermediateDecodePolicy} */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class LoadAwareIntermediateDecodePolicyTest {
+
+  private final LoadAwareIntermediateDecodePolicy mPolicy =
+      new LoadAwareIntermediateDecodePolicy(2, Priority.HIGH);
+
+  @Test
+  public void testDecodesWhenNotBusy() {
+    ProducerContext context = newProducerContext(true, Priority.LOW);
+    assertTrue(mPolicy.shouldDecodeIntermediateResult(context, 0));
+    assertTrue(mPolicy.shouldDecodeIntermediateResult(context, 2));
+  }
+
+  @Test
+  public void testSkipsWhenIntermediateResultNotExpected() {
+    ProducerContext context = newProducerContext(false, Priority.HIGH);
+    assertFalse(mPolicy.shouldDecodeIntermediateResult(context, 0));
+  }
+
+  @Test
+  public void testSkipsLowerPrioritiesWhenBusy() {
+    assertFalse(mPolicy.shouldDecodeIntermediateResult(newProducerContext(true, Priority.LOW), 3));
+    assertFalse(
+        mPolicy.shouldDecodeIntermediateResult(newProducerContext(true, Priority.MEDIUM), 3));
+    assertTrue(mPolicy.shouldDecodeIntermediateResult(newProducerContext(true, Priority.HIGH), 3));
+  }
+
+  private static ProducerContext newProducerContext(
+      boolean isIntermediateResultExpected, Priority priority) {
+    return new SettableProducerContext(
+        mock(ImageRequest.class),
+        "id",
+        mock(ProducerListener2.class),
+        null,
+        ImageRequest.RequestLevel.FULL_FETCH,
+        false,
+        isIntermediateResultExpected,
+        priority,
+        mock(ImagePipelineConfigInterface.class));
+  }
+}
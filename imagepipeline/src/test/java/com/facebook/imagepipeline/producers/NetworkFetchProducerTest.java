@@ -10,16 +10,24 @@ package com.facebook.imagepipeline.producers;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
+import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.SimpleCacheKey;
+import com.facebook.cache.common.WriterCallback;
 import com.facebook.common.internal.Throwables;
 import com.facebook.common.memory.ByteArrayPool;
 import com.facebook.common.memory.PooledByteBuffer;
 import com.facebook.common.memory.PooledByteBufferFactory;
 import com.facebook.common.memory.PooledByteBufferOutputStream;
 import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.cache.BufferedDiskCache;
+import com.facebook.imagepipeline.cache.CacheKeyFactory;
 import com.facebook.imagepipeline.common.Priority;
 import com.facebook.imagepipeline.core.ImagePipelineConfig;
 import com.facebook.imagepipeline.decoder.ProgressiveJpegConfig;
 import com.facebook.imagepipeline.request.ImageRequest;
+import com.facebook.imagepipeline.testing.TrivialPooledByteBuffer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Map;
@@ -33,6 +41,8 @@ import org.junit.*;
 import org.junit.runner.*;
 import org.mockito.*;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.robolectric.*;
 import org.robolectric.annotation.*;
 
@@ -51,9 +61,13 @@ public class NetworkFetchProducerTest {
   @Mock public Map<String, String> mExtrasMap;
   @Mock public ImagePipelineConfig mConfig;
   @Mock public ProgressiveJpegConfig mProgressiveJpegConfig;
+  @Mock public BufferedDiskCache mDefaultBufferedDiskCache;
+  @Mock public BufferedDiskCache mSmallImageBufferedDiskCache;
+  @Mock public CacheKeyFactory mCacheKeyFactory;
 
   private byte[] mCommonByteArray;
   private final String mRequestId = "mRequestId";
+  private final CacheKey mCacheKey = new SimpleCacheKey("http://dummy.uri");
   private TestNetworkFetchProducer mNetworkFetchProducer;
   private SettableProducerContext mProducerContext;
   private FetchState mFetchState;
@@ -240,6 +254,115 @@ public class NetworkFetchProducerTest {
     }
   }
 
+  @Test
+  public void testStreamToDiskCache() throws IOException {
+    NetworkFetcher.Callback callback = performStreamingFetch();
+    final byte[] response = new byte[] {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, 1, 2, 3, 4, 5};
+
+    callback.onResponse(new ByteArrayInputStream(response), response.length);
+
+    verify(mDefaultBufferedDiskCache).putSync(eq(mCacheKey), any(WriterCallback.class));
+    verify(mSmallImageBufferedDiskCache, never())
+        .putSync(any(CacheKey.class), any(WriterCallback.class));
+    verify(mDefaultBufferedDiskCache, never()).remove(any(CacheKey.class));
+    verify(mPooledByteBufferFactory, never()).newOutputStream();
+    verify(mPooledByteBufferFactory, never()).newOutputStream(anyInt());
+    verify(mConsumer).onProgressUpdate(1f);
+    verify(mNetworkFetcher).onFetchCompletion(mFetchState, response.length);
+    verify(mProducerListener)
+        .onProducerFinishWithSuccess(
+            eq(mProducerContext), eq(NetworkFetchProducer.PRODUCER_NAME), eq(mExtrasMap));
+    verify(mProducerListener)
+        .onUltimateProducerReached(mProducerContext, NetworkFetchProducer.PRODUCER_NAME, true);
+    verify(mConsumer).onNewResult(anyObject(), eq(Consumer.IS_LAST | Consumer.IS_DISK_CACHED));
+    verify(mByteArrayPool).release(mCommonByteArray);
+  }
+
+  @Test
+  public void testStreamToDiskCache_UnknownFormat() throws IOException {
+    NetworkFetcher.Callback callback = performStreamingFetch();
+    final byte[] response = "<html></html>".getBytes();
+
+    callback.onResponse(new ByteArrayInputStream(response), response.length);
+
+    // the entry is removed, as DiskCacheWriteProducer would not have written it
+    verify(mDefaultBufferedDiskCache).remove(mCacheKey);
+    verify(mConsumer).onNewResult(anyObject(), eq(Consumer.IS_LAST | Consumer.IS_DISK_CACHED));
+  }
+
+  @Test
+  public void testStreamToDiskCache_DiskCacheDisabled() throws IOException {
+    NetworkFetcher.Callback callback = performStreamingFetch();
+    when(mDefaultBufferedDiskCache.putSync(any(CacheKey.class), any(WriterCallback.class)))
+        .thenReturn(null);
+    final byte[] response = new byte[] {1, 2, 3};
+
+    callback.onResponse(new ByteArrayInputStream(response), response.length);
+
+    // the response is buffered in memory instead
+    verify(mPooledByteBufferFactory).newOutputStream(response.length);
+    verify(mConsumer).onNewResult(anyObject(), eq(Consumer.IS_LAST));
+    verifyPooledByteBufferUsed(1);
+  }
+
+  @Test
+  public void testStreamToDiskCache_NotWithIntermediateResults() throws IOException {
+    NetworkFetcher.Callback callback = performStreamingFetch();
+    when(mNetworkFetcher.shouldPropagate(any(FetchState.class))).thenReturn(true);
+    final byte[] response = new byte[] {1, 2, 3};
+
+    callback.onResponse(new ByteArrayInputStream(response), response.length);
+
+    verify(mDefaultBufferedDiskCache, never())
+        .putSync(any(CacheKey.class), any(WriterCallback.class));
+    verify(mPooledByteBufferFactory).newOutputStream(response.length);
+    verify(mConsumer).onNewResult(anyObject(), eq(Consumer.IS_LAST));
+  }
+
+  @Test
+  public void testStreamToDiskCache_ExceptionInResponse() throws IOException {
+    NetworkFetcher.Callback callback = performStreamingFetch();
+    InputStream inputStream = mock(InputStream.class);
+    when(inputStream.read(any(byte[].class))).thenThrow(new IOException());
+    try {
+      callback.onResponse(inputStream, 100);
+      fail();
+    } catch (IOException e) {
+      verify(mConsumer, never()).onNewResult(anyObject(), anyInt());
+      verify(mByteArrayPool).release(mCommonByteArray);
+    }
+  }
+
+  private NetworkFetcher.Callback performStreamingFetch() throws IOException {
+    mNetworkFetchProducer =
+        new TestNetworkFetchProducer(
+            mPooledByteBufferFactory,
+            mByteArrayPool,
+            mNetworkFetcher,
+            mDefaultBufferedDiskCache,
+            mSmallImageBufferedDiskCache,
+            mCacheKeyFactory);
+    when(mImageRequest.getCacheChoice()).thenReturn(ImageRequest.CacheChoice.DEFAULT);
+    when(mImageRequest.isCacheEnabled(ImageRequest.CachesLocationsMasks.DISK_WRITE))
+        .thenReturn(true);
+    when(mCacheKeyFactory.getEncodedCacheKey(
+            mImageRequest, mProducerContext.getCallerContext()))
+        .thenReturn(mCacheKey);
+    when(mNetworkFetcher.shouldPropagate(any(FetchState.class))).thenReturn(false);
+    // the disk cache returns what the writer wrote
+    when(mDefaultBufferedDiskCache.putSync(eq(mCacheKey), any(WriterCallback.class)))
+        .thenAnswer(
+            new Answer<PooledByteBuffer>() {
+              @Override
+              public PooledByteBuffer answer(InvocationOnMock invocation) throws Throwable {
+                ByteArrayOutputStream os = new ByteArrayOutputStream();
+                ((WriterCallback) invocation.getArguments()[1]).write(os);
+                return new TrivialPooledByteBuffer(os.toByteArray());
+              }
+            });
+    return performFetch();
+  }
+
   private void verifyPooledByteBufferUsed(int times) {
     verify(mPooledByteBufferOutputStream, times(times)).toByteBuffer();
     verify(mPooledByteBuffer, times(times)).close();
@@ -338,6 +461,23 @@ public class NetworkFetchProducerTest {
       super(pooledByteBufferFactory, byteArrayPool, networkFetcher);
     }
 
+    public TestNetworkFetchProducer(
+        PooledByteBufferFactory pooledByteBufferFactory,
+        ByteArrayPool byteArrayPool,
+        NetworkFetcher networkFetcher,
+        BufferedDiskCache defaultBufferedDiskCache,
+        BufferedDiskCache smallImageBufferedDiskCache,
+        CacheKeyFactory cacheKeyFactory) {
+      super(
+          pooledByteBufferFactory,
+          byteArrayPool,
+          networkFetcher,
+          defaultBufferedDiskCache,
+          smallImageBufferedDiskCache,
+          null,
+          cacheKeyFactory);
+    }
+
     public void setSystemUptime(long systemUptime) {
       mSystemUptime = systemUptime;
     }
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import com.facebook.fresco.middleware.ExtraSlots;
+import com.facebook.fresco.middleware.HasExtraData;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.core.ImagePipelineConfigInterface;
+import com.facebook.imagepipeline.request.ImageRequest;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Checks that the extras set on a producer context for a bitmap cache hit and for a network load
+ * allocate less than the same extras in a hash map.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ProducerContextExtrasAllocationTest {
+
+  private static final int ITERATIONS = 10000;
+
+  @Test
+  public void testAllocatedBytes() {
+    com.sun.management.ThreadMXBean threadMXBean = getThreadMXBean();
+    Assume.assumeTrue(threadMXBean != null);
+    ImageRequest imageRequest = mock(ImageRequest.class);
+    ImagePipelineConfigInterface config = mock(ImagePipelineConfigInterface.class);
+    ProducerListener2 listener = mock(ProducerListener2.class);
+
+    for (int warmUp = 0; warmUp < 2; warmUp++) {
+      long cachedHitBytes = 0;
+      long networkLoadBytes = 0;
+      long cachedHitMapBytes = 0;
+      long networkLoadMapBytes = 0;
+      for (int i = 0; i < ITERATIONS; i++) {
+        // the contexts themselves are created outside of the measured sections
+        SettableProducerContext cachedHitContext = newContext(imageRequest, listener, config);
+        SettableProducerContext networkLoadContext = newContext(imageRequest, listener, config);
+        Map<String, Object> cachedHitMap = new HashMap<>();
+        Map<String, Object> networkLoadMap = new HashMap<>();
+        long start = threadMXBean.getCurrentThreadAllocatedBytes();
+        putCachedHitExtras(cachedHitContext);
+        long afterCachedHit = threadMXBean.getCurrentThreadAllocatedBytes();
+        putNetworkLoadExtras(networkLoadContext);
+        long afterNetworkLoad = threadMXBean.getCurrentThreadAllocatedBytes();
+        putCachedHitExtras(cachedHitMap);
+        long afterCachedHitMap = threadMXBean.getCurrentThreadAllocatedBytes();
+        putNetworkLoadExtras(networkLoadMap);
+        long afterNetworkLoadMap = threadMXBean.getCurrentThreadAllocatedBytes();
+        cachedHitBytes += afterCachedHit - start;
+        networkLoadBytes += afterNetworkLoad - afterCachedHit;
+        cachedHitMapBytes += afterCachedHitMap - afterNetworkLoad;
+        networkLoadMapBytes += afterNetworkLoadMap - afterCachedHitMap;
+        assertEquals(1000, networkLoadContext.getIntExtra(ExtraSlots.ENCODED_WIDTH, 0));
+        assertEquals(1000, networkLoadMap.get(HasExtraData.KEY_ENCODED_WIDTH));
+      }
+      if (warmUp == 1) {
+        assertTrue(
+            "cached hit: " + cachedHitBytes + " bytes, hash map: " + cachedHitMapBytes,
+            cachedHitBytes < cachedHitMapBytes);
+        assertTrue(
+            "network load: " + networkLoadBytes + " bytes, hash map: " + networkLoadMapBytes,
+            networkLoadBytes < networkLoadMapBytes);
+      }
+    }
+  }
+
+  private static void putCachedHitExtras(SettableProducerContext context) {
+    context.putOriginExtra("memory_bitmap", "shortcut");
+  }
+
+  private static void putNetworkLoadExtras(SettableProducerContext context) {
+    context.putOriginExtra("network");
+    context.putExtra(HasExtraData.KEY_IMAGE_FORMAT, "JPEG");
+    context.putIntExtra(ExtraSlots.ENCODED_WIDTH, 1000);
+    context.putIntExtra(ExtraSlots.ENCODED_HEIGHT, 1000);
+    context.putIntExtra(ExtraSlots.ENCODED_SIZE, 250000);
+    context.putExtra(HasExtraData.KEY_BITMAP_CONFIG, "ARGB_8888");
+    context.putIntExtra(ExtraSlots.LAST_SCAN_NUMBER, 9);
+  }
+
+  private static void putCachedHitExtras(Map<String, Object> extras) {
+    extras.put(HasExtraData.KEY_ORIGIN, "memory_bitmap");
+    extras.put(HasExtraData.KEY_ORIGIN_SUBCATEGORY, "shortcut");
+  }
+
+  private static void putNetworkLoadExtras(Map<String, Object> extras) {
+    extras.put(HasExtraData.KEY_ORIGIN, "network");
+    extras.put(HasExtraData.KEY_ORIGIN_SUBCATEGORY, "default");
+    extras.put(HasExtraData.KEY_IMAGE_FORMAT, "JPEG");
+    extras.put(HasExtraData.KEY_ENCODED_WIDTH, 1000);
+    extras.put(HasExtraData.KEY_ENCODED_HEIGHT, 1000);
+    extras.put(HasExtraData.KEY_ENCODED_SIZE, 250000);
+    extras.put(HasExtraData.KEY_BITMAP_CONFIG, "ARGB_8888");
+    extras.put(HasExtraData.KEY_LAST_SCAN_NUMBER, 9);
+  }
+
+  private static SettableProducerContext newContext(
+      ImageRequest imageRequest,
+      ProducerListener2 listener,
+      ImagePipelineConfigInterface config) {
+    return new SettableProducerContext(
+        imageRequest,
+        "id",
+        listener,
+        null,
+        ImageRequest.RequestLevel.FULL_FETCH,
+        false,
+        true,
+        Priority.MEDIUM,
+        config);
+  }
+
+  private static com.sun.management.ThreadMXBean getThreadMXBean() {
+    java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    return threadMXBean instanceof com.sun.management.ThreadMXBean
+        ? (com.sun.management.ThreadMXBean) threadMXBean
+        : null;
+  }
+}
@@ -10,9 +10,12 @@ package com.facebook.imagepipeline.producers;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
+import com.facebook.fresco.middleware.ExtraSlots;
+import com.facebook.fresco.middleware.HasExtraData;
 import com.facebook.imagepipeline.common.Priority;
 import com.facebook.imagepipeline.core.ImagePipelineConfig;
 import com.facebook.imagepipeline.request.ImageRequest;
+import java.util.Map;
 import org.junit.*;
 import org.junit.runner.*;
 import org.mockito.*;
@@ -115,4 +118,74 @@ public class SettableProducerContextTest {
     verify(mCallbacks2).onIsPrefetchChanged();
     verify(mCallbacks2, never()).onCancellationRequested();
   }
+
+  @Test
+  public void testIntExtras() {
+    mSettableProducerContext.putIntExtra(ExtraSlots.ENCODED_WIDTH, 100);
+    mSettableProducerContext.putExtra(HasExtraData.KEY_ENCODED_HEIGHT, 200);
+    assertEquals(100, mSettableProducerContext.getIntExtra(ExtraSlots.ENCODED_WIDTH, -1));
+    assertEquals(200, mSettableProducerContext.getIntExtra(ExtraSlots.ENCODED_HEIGHT, -1));
+    assertEquals(-1, mSettableProducerContext.getIntExtra(ExtraSlots.ENCODED_SIZE, -1));
+    assertEquals(
+        Integer.valueOf(100),
+        mSettableProducerContext.getExtra(HasExtraData.KEY_ENCODED_WIDTH));
+  }
+
+  @Test
+  public void testExtrasOfUnregisteredNames() {
+    mSettableProducerContext.putExtra("custom_key", "custom_value");
+    assertEquals("custom_value", mSettableProducerContext.getExtra("custom_key"));
+    assertEquals("default", mSettableProducerContext.getExtra("other_key", "default"));
+    assertNull(mSettableProducerContext.getExtra("other_key"));
+  }
+
+  @Test
+  public void testInitialExtrasCannotBeOverwritten() {
+    mSettableProducerContext.putExtra(HasExtraData.KEY_ID, "other_id");
+    assertEquals(mRequestId, mSettableProducerContext.getExtra(HasExtraData.KEY_ID));
+  }
+
+  @Test
+  public void testGetExtrasIsAViewOfTheExtras() {
+    Map<String, Object> extras = mSettableProducerContext.getExtras();
+    mSettableProducerContext.putOriginExtra("memory_bitmap", "shortcut");
+    mSettableProducerContext.putIntExtra(ExtraSlots.ENCODED_SIZE, 1024);
+    mSettableProducerContext.putExtra("custom_key", "custom_value");
+
+    assertEquals(6, extras.size());
+    assertEquals(mRequestId, extras.get(HasExtraData.KEY_ID));
+    assertTrue(extras.containsKey(HasExtraData.KEY_URI_SOURCE));
+    assertEquals("memory_bitmap", extras.get(HasExtraData.KEY_ORIGIN));
+    assertEquals("shortcut", extras.get(HasExtraData.KEY_ORIGIN_SUBCATEGORY));
+    assertEquals(1024, extras.get(HasExtraData.KEY_ENCODED_SIZE));
+    assertEquals("custom_value", extras.get("custom_key"));
+    assertEquals(6, extras.entrySet().size());
+    assertFalse(extras.containsKey(HasExtraData.KEY_ENCODED_WIDTH));
+  }
+
+  @Test
+  public void testGetExtrasWritesThrough() {
+    Map<String, Object> extras = mSettableProducerContext.getExtras();
+    assertNull(extras.put(HasExtraData.KEY_ORIGIN, "network"));
+    extras.put(HasExtraData.KEY_ENCODED_WIDTH, 100);
+    extras.put("custom_key", "custom_value");
+    assertEquals("network", mSettableProducerContext.getExtra(HasExtraData.KEY_ORIGIN));
+    assertEquals(100, mSettableProducerContext.getIntExtra(ExtraSlots.ENCODED_WIDTH, 0));
+    assertEquals("custom_value", mSettableProducerContext.getExtra("custom_key"));
+
+    assertEquals("network", extras.remove(HasExtraData.KEY_ORIGIN));
+    assertEquals("custom_value", extras.remove("custom_key"));
+    assertNull(mSettableProducerContext.getExtra(HasExtraData.KEY_ORIGIN));
+    assertNull(mSettableProducerContext.getExtra("custom_key"));
+
+    for (Map.Entry<String, Object> entry : extras.entrySet()) {
+      if (HasExtraData.KEY_ENCODED_WIDTH.equals(entry.getKey())) {
+        entry.setValue(200);
+      }
+    }
+    assertEquals(200, mSettableProducerContext.getIntExtra(ExtraSlots.ENCODED_WIDTH, 0));
+    extras.entrySet().removeIf(entry -> HasExtraData.KEY_ENCODED_WIDTH.equals(entry.getKey()));
+    assertEquals(0, mSettableProducerContext.getIntExtra(ExtraSlots.ENCODED_WIDTH, 0));
+    assertEquals(2, extras.size());
+  }
 }
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.request;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import com.facebook.imagepipeline.listener.BaseRequestListener2;
+import com.facebook.imagepipeline.listener.ForwardingRequestListener2;
+import com.facebook.imagepipeline.listener.RequestListener2;
+import com.facebook.imagepipeline.listener.RequestListener2Events;
+import com.facebook.imagepipeline.producers.ProducerContext;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import javax.annotation.Nullable;
+import org.junit.*;
+import org.junit.runner.*;
+import org.robolectric.*;
+
+/** Tests for {@link ForwardingRequestListener2} */
+@RunWith(RobolectricTestRunner.class)
+public class ForwardingRequestListener2Test {
+  private static final int ITERATIONS = 10000;
+
+  private final String mProducerName = "DummyProducerName";
+  private ProducerContext mProducerContext;
+  private RequestListener2 mMockListener;
+  private SuccessListener mSuccessListener;
+  private ExtraMapListener mExtraMapListener;
+
+  @Before
+  public void setUp() {
+    mProducerContext = mock(ProducerContext.class);
+    mMockListener = mock(RequestListener2.class);
+    mSuccessListener = new SuccessListener();
+    mExtraMapListener = new ExtraMapListener();
+  }
+
+  @Test
+  public void testGetHandledEvents() {
+    assertEquals(
+        RequestListener2Events.ALL, RequestListener2Events.getHandledEvents(mMockListener));
+    assertEquals(
+        RequestListener2Events.ON_REQUEST_SUCCESS,
+        RequestListener2Events.getHandledEvents(mSuccessListener));
+    assertEquals(
+        RequestListener2Events.ON_PRODUCER_FINISH_WITH_SUCCESS
+            | RequestListener2Events.REQUIRES_EXTRA_MAP,
+        RequestListener2Events.getHandledEvents(mExtraMapListener));
+    assertEquals(0, RequestListener2Events.getHandledEvents(new BaseRequestListener2()));
+  }
+
+  @Test
+  public void testDispatchesOnlyToListenersThatHandleTheEvent() {
+    ForwardingRequestListener2 listener =
+        new ForwardingRequestListener2(mSuccessListener, mExtraMapListener);
+    assertFalse(listener.handlesEvent(RequestListener2Events.ON_PRODUCER_START));
+    assertTrue(listener.handlesEvent(RequestListener2Events.ON_REQUEST_SUCCESS));
+
+    listener.onProducerFinishWithSuccess(mProducerContext, mProducerName, null);
+    listener.onRequestSuccess(mProducerContext);
+    assertEquals(1, mSuccessListener.mRequestSuccessCount);
+    assertEquals(1, mExtraMapListener.mProducerFinishWithSuccessCount);
+    assertTrue(listener.requiresExtraMap(mProducerContext, mProducerName));
+  }
+
+  @Test
+  public void testDispatchesAllEventsToListenersOfUnknownType() {
+    ForwardingRequestListener2 listener = new ForwardingRequestListener2(mSuccessListener);
+    listener.addRequestListener(mMockListener);
+    listener.onProducerStart(mProducerContext, mProducerName);
+    listener.onUltimateProducerReached(mProducerContext, mProducerName, true);
+    verify(mMockListener).onProducerStart(mProducerContext, mProducerName);
+    verify(mMockListener).onUltimateProducerReached(mProducerContext, mProducerName, true);
+    assertEquals(RequestListener2Events.ALL, listener.getHandledEvents());
+  }
+
+  @Test
+  public void testRequiresExtraMap() {
+    ForwardingRequestListener2 listener = new ForwardingRequestListener2(mSuccessListener);
+    assertFalse(listener.requiresExtraMap(mProducerContext, mProducerName));
+    listener.addRequestListener(mMockListener);
+    assertFalse(listener.requiresExtraMap(mProducerContext, mProducerName));
+    when(mMockListener.requiresExtraMap(mProducerContext, mProducerName)).thenReturn(true);
+    assertTrue(listener.requiresExtraMap(mProducerContext, mProducerName));
+  }
+
+  @Test
+  public void testBitmapCacheHitDispatchAllocatesNothing() {
+    com.sun.management.ThreadMXBean threadMXBean = getThreadMXBean();
+    Assume.assumeTrue(threadMXBean != null);
+    ForwardingRequestListener2 listener =
+        new ForwardingRequestListener2(mSuccessListener, mExtraMapListener);
+
+    long allocatedBytes = 0;
+    for (int warmUp = 0; warmUp < 2; warmUp++) {
+      long start = threadMXBean.getCurrentThreadAllocatedBytes();
+      for (int i = 0; i < ITERATIONS; i++) {
+        // the callbacks of BitmapMemoryCacheProducer and of the data source on a cache hit
+        listener.onRequestStart(mProducerContext);
+        listener.onProducerStart(mProducerContext, mProducerName);
+        listener.requiresExtraMap(mProducerContext, mProducerName);
+        listener.onProducerFinishWithSuccess(mProducerContext, mProducerName, null);
+        listener.onUltimateProducerReached(mProducerContext, mProducerName, true);
+        listener.onRequestSuccess(mProducerContext);
+      }
+      allocatedBytes = threadMXBean.getCurrentThreadAllocatedBytes() - start;
+    }
+    assertEquals(2 * ITERATIONS, mSuccessListener.mRequestSuccessCount);
+    assertEquals(0, allocatedBytes / ITERATIONS);
+  }
+
+  private static com.sun.management.ThreadMXBean getThreadMXBean() {
+    java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    return threadMXBean instanceof com.sun.management.ThreadMXBean
+        ? (com.sun.management.ThreadMXBean) threadMXBean
+        : null;
+  }
+
+  private static class SuccessListener extends BaseRequestListener2 {
+    int mRequestSuccessCount;
+
+    @Override
+    public void onRequestSuccess(ProducerContext producerContext) {
+      mRequestSuccessCount++;
+    }
+  }
+
+  private static class ExtraMapListener extends BaseRequestListener2 {
+    int mProducerFinishWithSuccessCount;
+
+    @Override
+    public void onProducerFinishWithSuccess(
+        ProducerContext producerContext,
+        String producerName,
+        @Nullable Map<String, String> extraMap) {
+      mProducerFinishWithSuccessCount++;
+    }
+
+    @Override
+    public boolean requiresExtraMap(ProducerContext producerContext, String producerName) {
+      return true;
+    }
+  }
+}
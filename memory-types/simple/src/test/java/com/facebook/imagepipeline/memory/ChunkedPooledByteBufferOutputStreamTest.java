@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import static org.mockito.Mockito.mock;
+
+import com.facebook.common.memory.ByteArrayPool;
+import com.facebook.common.memory.PooledByteBuffer;
+import com.facebook.common.memory.PooledByteBufferInputStream;
+import com.facebook.common.memory.PooledByteStreams;
+import com.facebook.imagepipeline.testing.FakeBufferMemoryChunkPool;
+import java.nio.ByteBuffer;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/** Tests for {@link ChunkedPooledByteBufferOutputStream} and {@link ChunkedPooledByteBuffer} */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ChunkedPooledByteBufferOutputStreamTest {
+  private static final int CHUNK_SIZE = 4;
+
+  private BufferMemoryChunkPool mPool;
+  private PoolStats<MemoryChunk> mStats;
+  private byte[] mData;
+
+  @Before
+  public void setup() {
+    mPool = new FakeBufferMemoryChunkPool();
+    mStats = new PoolStats(mPool);
+    mData = new byte[] {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13};
+  }
+
+  @Test
+  public void testWriteSpansChunks() {
+    ChunkedPooledByteBufferOutputStream os =
+        new ChunkedPooledByteBufferOutputStream(mPool, CHUNK_SIZE);
+    os.write(mData, 0, 3);
+    os.write(mData, 3, mData.length - 3);
+    ChunkedPooledByteBuffer buffer = os.toByteBuffer();
+    Assert.assertEquals(mData.length, os.size());
+    Assert.assertEquals(mData.length, buffer.size());
+    Assert.assertEquals(4, buffer.getChunkCount());
+    for (int i = 0; i < mData.length; i++) {
+      Assert.assertEquals(mData[i], buffer.read(i));
+    }
+    byte[] bytes = new byte[8];
+    Assert.assertEquals(8, buffer.read(3, bytes, 0, 8));
+    Assert.assertArrayEquals(new byte[] {3, 4, 5, 6, 7, 8, 9, 10}, bytes);
+    os.close();
+    buffer.close();
+  }
+
+  @Test
+  public void testWriteByteByByte() {
+    ChunkedPooledByteBufferOutputStream os =
+        new ChunkedPooledByteBufferOutputStream(mPool, CHUNK_SIZE);
+    for (byte b : mData) {
+      os.write(b);
+    }
+    ChunkedPooledByteBuffer buffer = os.toByteBuffer();
+    Assert.assertArrayEquals(mData, readAll(buffer));
+    os.close();
+    buffer.close();
+  }
+
+  @Test
+  public void testInputStream() throws Exception {
+    ChunkedPooledByteBufferOutputStream os =
+        new ChunkedPooledByteBufferOutputStream(mPool, CHUNK_SIZE);
+    os.write(mData, 0, mData.length);
+    ChunkedPooledByteBuffer buffer = os.toByteBuffer();
+    PooledByteBufferInputStream is = new PooledByteBufferInputStream(buffer);
+    byte[] bytes = new byte[mData.length];
+    int read = 0;
+    while (read < bytes.length) {
+      read += is.read(bytes, read, bytes.length - read);
+    }
+    Assert.assertEquals(-1, is.read());
+    Assert.assertArrayEquals(mData, bytes);
+    os.close();
+    buffer.close();
+  }
+
+  @Test
+  public void testGetByteBufferMakesBufferContiguous() {
+    ChunkedPooledByteBufferOutputStream os =
+        new ChunkedPooledByteBufferOutputStream(mPool, CHUNK_SIZE);
+    os.write(mData, 0, mData.length);
+    ChunkedPooledByteBuffer buffer = os.toByteBuffer();
+    os.close();
+    Assert.assertEquals(4, buffer.getChunkCount());
+
+    ByteBuffer byteBuffer = buffer.getByteBuffer();
+    Assert.assertNotNull(byteBuffer);
+    Assert.assertEquals(1, buffer.getChunkCount());
+    Assert.assertSame(byteBuffer, buffer.getByteBuffer());
+    for (int i = 0; i < mData.length; i++) {
+      Assert.assertEquals(mData[i], byteBuffer.get(i));
+    }
+    Assert.assertArrayEquals(mData, readAll(buffer));
+
+    // the small chunks went back to the pool, only the contiguous one is in use
+    mStats.refresh();
+    Assert.assertEquals(1, mStats.mUsedCount);
+    Assert.assertEquals(16, mStats.mUsedBytes);
+    buffer.close();
+  }
+
+  @Test
+  public void testClose() {
+    ChunkedPooledByteBufferOutputStream os =
+        new ChunkedPooledByteBufferOutputStream(mPool, CHUNK_SIZE);
+    os.write(mData, 0, mData.length);
+    ChunkedPooledByteBuffer buffer = os.toByteBuffer();
+    os.close();
+    mStats.refresh();
+    Assert.assertEquals(4, mStats.mUsedCount);
+
+    buffer.close();
+    Assert.assertTrue(buffer.isClosed());
+    mStats.refresh();
+    Assert.assertEquals(0, mStats.mUsedCount);
+    Assert.assertEquals(4, mStats.mFreeCount);
+  }
+
+  @Test
+  public void testWriteAfterToByteBuffer() {
+    ChunkedPooledByteBufferOutputStream os =
+        new ChunkedPooledByteBufferOutputStream(mPool, CHUNK_SIZE);
+    os.write(mData, 0, 6);
+    ChunkedPooledByteBuffer buffer1 = os.toByteBuffer();
+    os.write(mData, 6, mData.length - 6);
+    ChunkedPooledByteBuffer buffer2 = os.toByteBuffer();
+    Assert.assertEquals(6, buffer1.size());
+    Assert.assertEquals(2, buffer1.getChunkCount());
+    Assert.assertArrayEquals(mData, readAll(buffer2));
+    os.close();
+    buffer1.close();
+    buffer2.close();
+    mStats.refresh();
+    Assert.assertEquals(0, mStats.mUsedCount);
+  }
+
+  @Test(expected = MemoryPooledByteBufferOutputStream.InvalidStreamException.class)
+  public void testToByteBufferAfterClose() {
+    ChunkedPooledByteBufferOutputStream os =
+        new ChunkedPooledByteBufferOutputStream(mPool, CHUNK_SIZE);
+    os.close();
+    os.toByteBuffer();
+  }
+
+  @Test(expected = PooledByteBuffer.ClosedException.class)
+  public void testReadAfterClose() {
+    ChunkedPooledByteBufferOutputStream os =
+        new ChunkedPooledByteBufferOutputStream(mPool, CHUNK_SIZE);
+    os.write(mData, 0, mData.length);
+    ChunkedPooledByteBuffer buffer = os.toByteBuffer();
+    os.close();
+    buffer.close();
+    buffer.read(0);
+  }
+
+  @Test
+  public void testFactoryUsesChunksForStreamsOfUnknownLength() {
+    PooledByteStreams pooledByteStreams = new PooledByteStreams(mock(ByteArrayPool.class));
+    ChunkedPooledByteBufferFactory factory =
+        new ChunkedPooledByteBufferFactory(
+            new MemoryPooledByteBufferFactory(mPool, pooledByteStreams), mPool, CHUNK_SIZE);
+    Assert.assertTrue(factory.newOutputStream() instanceof ChunkedPooledByteBufferOutputStream);
+    Assert.assertTrue(
+        factory.newOutputStream(CHUNK_SIZE) instanceof MemoryPooledByteBufferOutputStream);
+    Assert.assertTrue(factory.newByteBuffer(mData) instanceof MemoryPooledByteBuffer);
+  }
+
+  private static byte[] readAll(PooledByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.size()];
+    buffer.read(0, bytes, 0, bytes.length);
+    return bytes;
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.fresco.middleware
+
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * A key of extras registered up front, so that [SlotExtras] keeps its value in a slot of an array
+ * instead of in a hash map. The values of int keys are kept unboxed.
+ *
+ * Registering a name again returns the same key. At most [MAX_KEYS] keys can be registered; the
+ * extras of other names are kept in a map.
+ */
+class ExtraKey private constructor(val name: String, val slot: Int, val isInt: Boolean) {
+
+  override fun toString(): String = name
+
+  companion object {
+    const val MAX_KEYS = 64
+
+    private val keysByName: MutableMap<String, ExtraKey> = ConcurrentHashMap()
+    private val keysBySlot = arrayOfNulls<ExtraKey>(MAX_KEYS)
+
+    /** Registers a key for values of any type. */
+    @JvmStatic fun register(name: String): ExtraKey = register(name, false)
+
+    /** Registers a key for int values, which are stored unboxed. */
+    @JvmStatic fun registerInt(name: String): ExtraKey = register(name, true)
+
+    /** Returns the key registered for [name], or null if there is none. */
+    @JvmStatic fun forName(name: String): ExtraKey? = keysByName[name]
+
+    /** Returns the number of registered keys. */
+    @JvmStatic val count: Int
+      get() = keysByName.size
+
+    internal fun forSlot(slot: Int): ExtraKey =
+        synchronized(keysBySlot) { checkNotNull(keysBySlot[slot]) }
+
+    private fun register(name: String, isInt: Boolean): ExtraKey =
+        synchronized(keysBySlot) {
+          val registered = keysByName[name]
+          if (registered != null) {
+            require(registered.isInt == isInt) { "$name is already registered with another type" }
+            return registered
+          }
+          check(keysByName.size < MAX_KEYS) { "Cannot register more than $MAX_KEYS keys: $name" }
+          val key = ExtraKey(name, keysByName.size, isInt)
+          keysBySlot[key.slot] = key
+          keysByName[name] = key
+          key
+        }
+  }
+}
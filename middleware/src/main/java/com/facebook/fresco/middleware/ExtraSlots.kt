@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.fresco.middleware
+
+/**
+ * The registered keys of the [HasExtraData] extras set for most images, which [SlotExtras] keeps in
+ * slots. The int extras are stored unboxed.
+ */
+object ExtraSlots {
+  @JvmField val ID: ExtraKey = ExtraKey.register(HasExtraData.KEY_ID)
+  @JvmField val URI_SOURCE: ExtraKey = ExtraKey.register(HasExtraData.KEY_URI_SOURCE)
+  @JvmField val ORIGIN: ExtraKey = ExtraKey.register(HasExtraData.KEY_ORIGIN)
+  @JvmField
+  val ORIGIN_SUBCATEGORY: ExtraKey = ExtraKey.register(HasExtraData.KEY_ORIGIN_SUBCATEGORY)
+  @JvmField val IMAGE_FORMAT: ExtraKey = ExtraKey.register(HasExtraData.KEY_IMAGE_FORMAT)
+  @JvmField val BITMAP_CONFIG: ExtraKey = ExtraKey.register(HasExtraData.KEY_BITMAP_CONFIG)
+  @JvmField val COLOR_SPACE: ExtraKey = ExtraKey.register(HasExtraData.KEY_COLOR_SPACE)
+  @JvmField val ENCODED_SIZE: ExtraKey = ExtraKey.registerInt(HasExtraData.KEY_ENCODED_SIZE)
+  @JvmField val ENCODED_WIDTH: ExtraKey = ExtraKey.registerInt(HasExtraData.KEY_ENCODED_WIDTH)
+  @JvmField val ENCODED_HEIGHT: ExtraKey = ExtraKey.registerInt(HasExtraData.KEY_ENCODED_HEIGHT)
+  @JvmField
+  val LAST_SCAN_NUMBER: ExtraKey = ExtraKey.registerInt(HasExtraData.KEY_LAST_SCAN_NUMBER)
+  @JvmField
+  val MULTIPLEX_BITMAP_COUNT: ExtraKey =
+      ExtraKey.registerInt(HasExtraData.KEY_MULTIPLEX_BITMAP_COUNT)
+  @JvmField
+  val MULTIPLEX_ENCODED_COUNT: ExtraKey =
+      ExtraKey.registerInt(HasExtraData.KEY_MULTIPLEX_ENCODED_COUNT)
+
+  /** The number of registered keys once the ones above are. */
+  internal val count: Int = ExtraKey.count
+}
@@ -9,6 +9,12 @@ package com.facebook.fresco.middleware
 
 typealias Extras = Map<String, Any?>
 
+/**
+ * Holder of extras, e.g. a request or an image.
+ *
+ * The keys of the extras set for most images are registered in [ExtraSlots], so that a [SlotExtras]
+ * keeps them in slots rather than in a hash map.
+ */
 interface HasExtraData {
 
   fun <E> putExtra(key: String, value: E?)
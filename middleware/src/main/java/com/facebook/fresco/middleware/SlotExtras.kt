@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.fresco.middleware
+
+import java.util.AbstractMap.SimpleEntry
+import javax.annotation.concurrent.ThreadSafe
+
+/**
+ * Extras kept in slots: the values of registered [ExtraKey]s are stored in arrays indexed by the
+ * slot of their key, the values of int keys unboxed. Only the extras of names that were not
+ * registered are kept in a hash map, allocated when the first one is set.
+ *
+ * [asMap] is a live view of the extras, through which they can be set and removed too. It boxes the
+ * int values and builds its entries only when it is read, e.g. by a listener, so setting extras
+ * that nobody reads allocates nothing.
+ */
+@ThreadSafe
+class SlotExtras {
+
+  /** Bit i is set if slot i has a value. */
+  private var presentSlots = 0L
+  /** Bit i is set if the value of slot i is in [intValues], otherwise it is in [values]. */
+  private var intSlots = 0L
+  private var values = arrayOfNulls<Any>(ExtraSlots.count)
+  private var intValues = IntArray(ExtraSlots.count)
+  private var otherValues: MutableMap<String, Any?>? = null
+
+  private val mapView: MutableMap<String, Any?> = MapView()
+
+  @Synchronized
+  fun put(key: ExtraKey, value: Any?) {
+    if (key.isInt && value is Int) {
+      putInt(key, value)
+      return
+    }
+    ensureCapacity(key.slot)
+    values[key.slot] = value
+    presentSlots = presentSlots or bit(key)
+    intSlots = intSlots and bit(key).inv()
+  }
+
+  @Synchronized
+  fun putInt(key: ExtraKey, value: Int) {
+    ensureCapacity(key.slot)
+    intValues[key.slot] = value
+    values[key.slot] = null
+    presentSlots = presentSlots or bit(key)
+    intSlots = intSlots or bit(key)
+  }
+
+  /** Sets an extra, in the slot of its key if [name] is registered. */
+  @Synchronized
+  fun put(name: String, value: Any?) {
+    val key = ExtraKey.forName(name)
+    if (key != null) {
+      put(key, value)
+    } else {
+      val others = otherValues ?: HashMap<String, Any?>().also { otherValues = it }
+      others[name] = value
+    }
+  }
+
+  /** Removes an extra, and returns its value if it was set. */
+  @Synchronized
+  fun remove(name: String): Any? {
+    val key = ExtraKey.forName(name) ?: return otherValues?.remove(name)
+    val value = get(key)
+    values[key.slot] = null
+    presentSlots = presentSlots and bit(key).inv()
+    intSlots = intSlots and bit(key).inv()
+    return value
+  }
+
+  @Synchronized
+  fun clear() {
+    values.fill(null)
+    presentSlots = 0L
+    intSlots = 0L
+    otherValues?.clear()
+  }
+
+  @Synchronized
+  operator fun get(key: ExtraKey): Any? =
+      when {
+        !has(key) -> null
+        intSlots and bit(key) != 0L -> intValues[key.slot]
+        else -> values[key.slot]
+      }
+
+  /** Gets an int extra without boxing it, or [valueIfNotFound] if it is not set or not an int. */
+  @Synchronized
+  fun getInt(key: ExtraKey, valueIfNotFound: Int): Int =
+      when {
+        !has(key) -> valueIfNotFound
+        intSlots and bit(key) != 0L -> intValues[key.slot]
+        else -> values[key.slot] as? Int ?: valueIfNotFound
+      }
+
+  @Synchronized
+  operator fun get(name: String): Any? {
+    val key = ExtraKey.forName(name)
+    return if (key != null) get(key) else otherValues?.get(name)
+  }
+
+  @Synchronized
+  fun contains(name: String): Boolean {
+    val key = ExtraKey.forName(name)
+    return if (key != null) has(key) else otherValues?.containsKey(name) == true
+  }
+
+  @get:Synchronized
+  val size: Int
+    get() = java.lang.Long.bitCount(presentSlots) + (otherValues?.size ?: 0)
+
+  /**
+   * Returns a live view of the extras, whose entries are built when it is read. Setting or removing
+   * an entry of the view sets or removes the extra.
+   */
+  fun asMap(): MutableMap<String, Any?> = mapView
+
+  @Synchronized
+  private fun snapshot(): List<ViewEntry> {
+    val entries = ArrayList<ViewEntry>(size)
+    var slots = presentSlots
+    while (slots != 0L) {
+      val slot = java.lang.Long.numberOfTrailingZeros(slots)
+      slots = slots and (1L shl slot).inv()
+      val key = ExtraKey.forSlot(slot)
+      entries.add(ViewEntry(key.name, get(key)))
+    }
+    otherValues?.forEach { (name, value) -> entries.add(ViewEntry(name, value)) }
+    return entries
+  }
+
+  private fun has(key: ExtraKey): Boolean = presentSlots and bit(key) != 0L
+
+  private fun ensureCapacity(slot: Int) {
+    if (slot >= values.size) {
+      // keys registered after this was created
+      val capacity = maxOf(slot + 1, ExtraKey.count)
+      values = values.copyOf(capacity)
+      intValues = intValues.copyOf(capacity)
+    }
+  }
+
+  private inner class MapView : AbstractMutableMap<String, Any?>() {
+    override val entries: MutableSet<MutableMap.MutableEntry<String, Any?>>
+      get() = EntrySet()
+
+    override val size: Int
+      get() = this@SlotExtras.size
+
+    override fun containsKey(key: String): Boolean = this@SlotExtras.contains(key)
+
+    override fun get(key: String): Any? = this@SlotExtras[key]
+
+    override fun put(key: String, value: Any?): Any? =
+        synchronized(this@SlotExtras) {
+          this@SlotExtras[key].also { this@SlotExtras.put(key, value) }
+        }
+
+    override fun remove(key: String): Any? = this@SlotExtras.remove(key)
+
+    override fun clear() = this@SlotExtras.clear()
+  }
+
+  /** The entries of [MapView], iterated over a snapshot of the extras. */
+  private inner class EntrySet : AbstractMutableSet<MutableMap.MutableEntry<String, Any?>>() {
+    override val size: Int
+      get() = this@SlotExtras.size
+
+    override fun add(element: MutableMap.MutableEntry<String, Any?>): Boolean =
+        throw UnsupportedOperationException()
+
+    override fun iterator(): MutableIterator<MutableMap.MutableEntry<String, Any?>> =
+        object : MutableIterator<MutableMap.MutableEntry<String, Any?>> {
+          private val snapshotIterator = snapshot().iterator()
+          private var lastEntry: ViewEntry? = null
+
+          override fun hasNext(): Boolean = snapshotIterator.hasNext()
+
+          override fun next(): MutableMap.MutableEntry<String, Any?> =
+              snapshotIterator.next().also { lastEntry = it }
+
+          override fun remove() {
+            val entry = checkNotNull(lastEntry)
+            this@SlotExtras.remove(entry.key)
+            lastEntry = null
+          }
+        }
+  }
+
+  /** An entry of [MapView], setting its value sets the extra. */
+  private inner class ViewEntry(name: String, value: Any?) :
+      SimpleEntry<String, Any?>(name, value) {
+    override fun setValue(value: Any?): Any? {
+      this@SlotExtras.put(key, value)
+      return super.setValue(value)
+    }
+  }
+
+  private companion object {
+    private fun bit(key: ExtraKey): Long = 1L shl key.slot
+  }
+}
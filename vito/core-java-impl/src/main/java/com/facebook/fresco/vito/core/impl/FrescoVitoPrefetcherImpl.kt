@@ -115,6 +115,27 @@ class FrescoVitoPrefetcherImpl(
       callsite: String
   ): DataSource<Void?> = prefetchToDiskCache(uri, imageOptions, callerContext, callsite)
 
+  override fun prefetchToDiskCache(
+      uris: List<Uri>,
+      imageOptions: ImageOptions?,
+      callerContext: Any?,
+      callsite: String
+  ): List<DataSource<Void?>> {
+    callerContextVerifier?.verifyCallerContext(callerContext, false)
+    val options = imageOptions ?: defaults()
+    val imageRequests = uris.map { imagePipelineUtils.buildEncodedImageRequest(it, options) }
+    val requestsToPrefetch = imageRequests.filterNotNull()
+    val prefetches =
+        imagePipeline.prefetchAllToDiskCache(requestsToPrefetch, callerContext).iterator()
+    return imageRequests.map {
+      if (it == null) {
+        DataSources.immediateFailedDataSource(NULL_IMAGE_MESSAGE)
+      } else {
+        prefetches.next()
+      }
+    }
+  }
+
   override fun prefetch(
       prefetchTarget: PrefetchTarget,
       imageRequest: VitoImageRequest,
@@ -187,6 +187,27 @@ interface FrescoVitoPrefetcher {
       callsite: String
   ): DataSource<Void?>
 
+  /**
+   * Prefetch a list of images to the disk cache, e.g. the items of a feed or a grid. The disk cache
+   * is checked for all the images at once, and only the images that are not cached yet are
+   * fetched. In order to cancel the prefetch of an image, close its [DataSource].
+   *
+   * The default implementation prefetches each image on its own.
+   *
+   * @param uris the image URIs to prefetch
+   * @param imageOptions the image options used to display the images
+   * @param callerContext the caller context for the given images
+   * @param callsite the prefetch callsite from which this request is being made, for logging
+   * @return a DataSource per URI, in the same order, that can safely be ignored.
+   */
+  fun prefetchToDiskCache(
+      uris: List<Uri>,
+      imageOptions: ImageOptions?,
+      callerContext: Any?,
+      callsite: String
+  ): List<DataSource<Void?>> =
+      uris.map { prefetchToDiskCache(it, imageOptions, callerContext, callsite) }
+
   /**
    * Prefetch an image to the given [PrefetchTarget] using a [VitoImageRequest]. In order to cancel
    * the prefetch, close the [DataSource] returned by this method.